@@ -0,0 +1,80 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+
+/**
+ * Scrolls the program guide grid over all channels and hours and measures
+ * how long laying out the visible cells takes per frame.
+ *
+ * Run with ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+class EpgGridLayoutBenchmark {
+
+    @Test
+    fun benchmarkScrollingOverAllChannelsAndHours() {
+        val channelIds = (1..200).toList()
+        val programs = createPrograms(channelIds, 6, pageMinutes = 240)
+        val layout = createLayout(channelIds, 6, pageMinutes = 240) { channelId, page -> programs[channelId]?.get(page) }
+        layout.pixelsPerMinute = 3.5f
+        layout.rowHeight = 210
+
+        // Scroll diagonally over all 24 hours and then down and up over all channels
+        val viewWidth = 860
+        val viewHeight = 1800
+        val statistics = FrameTimeStatistics()
+        var cellCount = 0
+        var left = 0
+        var top = 0
+        repeat(3) {
+            while (left < layout.width - viewWidth) {
+                cellCount += measureLayout(layout, statistics, left, top, viewWidth, viewHeight)
+                left += 20
+                top = (top + 30) % (layout.height - viewHeight)
+            }
+            top = 0
+            while (top < layout.height - viewHeight) {
+                cellCount += measureLayout(layout, statistics, left, top, viewWidth, viewHeight)
+                top += 40
+            }
+            left = 0
+        }
+
+        println("Laid out $cellCount cells of 200 channels and 24 hours, layout times per frame: $statistics")
+        assertTrue(cellCount > statistics.frameCount)
+    }
+
+    private fun measureLayout(layout: EpgGridLayout, statistics: FrameTimeStatistics, left: Int, top: Int, viewWidth: Int, viewHeight: Int): Int {
+        val startTime = System.nanoTime()
+        layout.layout(left, top, viewWidth, viewHeight) { _, _ -> }
+        statistics.add(System.nanoTime() - startTime)
+        return layout.cells.size
+    }
+
+    private fun createLayout(channelIds: List<Int>, pageCount: Int, pageMinutes: Int, getPrograms: (Int, Int) -> List<EpgProgramCell>?): EpgGridLayout {
+        val layout = EpgGridLayout(getPrograms)
+        layout.channelIds = channelIds
+        layout.pageCount = pageCount
+        layout.pageDuration = pageMinutes * MINUTE
+        return layout
+    }
+
+    /**
+     * Creates programs of 30 minutes for each channel, grouped by the pages
+     */
+    private fun createPrograms(channelIds: List<Int>, pageCount: Int, pageMinutes: Int): Map<Int, List<List<EpgProgramCell>>> {
+        return channelIds.associateWith { channelId ->
+            (0 until pageCount).map { page ->
+                (0 until pageMinutes / 30).map {
+                    val start = (page * pageMinutes + it * 30) * MINUTE
+                    EpgProgramCell(EpgProgram(eventId = channelId * 1000 + page * pageMinutes / 30 + it, channelId = channelId, start = start, stop = start + 30 * MINUTE))
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val MINUTE = 60000L
+    }
+}
@@ -0,0 +1,98 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.data.source.ProgramChange
+import org.tvheadend.tvhclient.ui.features.epg.EpgPageCache.PageKey
+
+/**
+ * Swipes between the pages of the program guide and scrolls through their
+ * channels with and without the page cache and counts the queries and the
+ * rows that had to be shown without programs.
+ *
+ * Run with ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+class EpgPageCacheBenchmark {
+
+    @Test
+    fun benchmarkSwipingAndScrolling() {
+        val channelIds = (1..200).toList()
+
+        // A cache that only keeps the current page behaves like loading every page again
+        val withoutCache = swipeAndScroll(EpgPageCache(maxProgramCount = 0), channelIds)
+        val withCache = swipeAndScroll(EpgPageCache(), channelIds)
+
+        println("Without page cache: $withoutCache")
+        println("With page cache: $withCache")
+        assertTrue(withCache.queryCount < withoutCache.queryCount)
+        assertTrue(withCache.placeholderCount < withoutCache.placeholderCount)
+    }
+
+    private class ScrollResult(val queryCount: Int, val placeholderCount: Int, val changedRowCount: Int, val durationMs: Long, val cache: EpgPageCache) {
+        override fun toString(): String {
+            return "$queryCount queries, $placeholderCount rows shown without programs, " +
+                    "$changedRowCount rows rebound after a change, $durationMs ms, cache $cache"
+        }
+    }
+
+    /**
+     * Scrolls through all channels of the first pages and swipes back and forth between
+     * them, then changes the programs of one channel. Each query takes a few milliseconds.
+     */
+    private fun swipeAndScroll(cache: EpgPageCache, channelIds: List<Int>): ScrollResult {
+        var queryCount = 0
+        var placeholderCount = 0
+        var changedRowCount = 0
+        val startTime = System.currentTimeMillis()
+
+        runBlocking {
+            val loader = EpgProgramLoader(this, cache) { ids, start, _ ->
+                queryCount++
+                Thread.sleep(QUERY_TIME_MS)
+                createPrograms(ids, start)
+            }
+
+            val pages = listOf(0, 1, 2, 1, 0, 1, 2, 3, 2, 1, 0)
+            for (fragmentId in pages) {
+                placeholderCount += bindRows(loader, fragmentId, channelIds, 0 until channelIds.size)
+            }
+            changedRowCount = loader.onProgramsChanged(ProgramChange(listOf(ProgramChange.TimeSlot(1, 0, 60000)))).size
+            for (fragmentId in pages) {
+                placeholderCount += bindRows(loader, fragmentId, channelIds, 0 until 10)
+            }
+        }
+        return ScrollResult(queryCount, placeholderCount, changedRowCount, System.currentTimeMillis() - startTime, cache)
+    }
+
+    private suspend fun bindRows(loader: EpgProgramLoader, fragmentId: Int, channelIds: List<Int>, positions: IntRange): Int {
+        val key = PageKey(fragmentId, emptyList(), 0)
+        val startTime = fragmentId * PAGE_TIME_MS
+        var placeholderCount = 0
+        for (position in positions) {
+            if (loader.getPrograms(key, channelIds[position]) == null) {
+                placeholderCount++
+            }
+            loader.loadAround(key, startTime, startTime + PAGE_TIME_MS - 1, channelIds, position) {}
+            // Let the queries finish like they would while the user keeps scrolling
+            yield()
+        }
+        return placeholderCount
+    }
+
+    private fun createPrograms(channelIds: Iterable<Int>, startTime: Long): Map<Int, List<EpgProgramCell>> {
+        return channelIds.associateWith { channelId ->
+            (0 until 4).map {
+                val start = startTime + it * 250
+                EpgProgramCell(EpgProgram(eventId = channelId * 1000 + (start / 250).toInt(), channelId = channelId, start = start, stop = start + 249))
+            }
+        }
+    }
+
+    companion object {
+        private const val QUERY_TIME_MS = 5L
+        private const val PAGE_TIME_MS = 1000L
+    }
+}
@@ -0,0 +1,126 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.tvhclient.ui.features.playback.internal.reader.MuxPacket
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * Passes the packets of a simulated 1080p channel with one video and two
+ * audio streams through the packet format and the ring buffer and compares
+ * the throughput with the previous Java serialization of every message.
+ *
+ * Run with ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+class HtspSubscriptionPacketCodecBenchmark {
+
+    private val random = Random(42)
+
+    @Test
+    fun benchmarkPacketFormat() {
+        val messages = createSubscription(2000)
+        val ringBuffer = HtspSubscriptionRingBuffer(10 * 1024 * 1024)
+
+        // Warm up both paths before measuring
+        repeat(3) {
+            passThroughSerialization(messages)
+            passThroughPacketCodec(messages, ringBuffer)
+        }
+
+        val serializationTime = passThroughSerialization(messages)
+        val packetTime = passThroughPacketCodec(messages, ringBuffer)
+
+        println("Passed ${messages.size} frames"
+                + ", serialization ${messages.size * 1000000000L / serializationTime} frames/s"
+                + ", packet format ${messages.size * 1000000000L / packetTime} frames/s")
+    }
+
+    private fun passThroughSerialization(messages: List<HtspMessage>): Long {
+        val start = System.nanoTime()
+        var count = 0
+        messages.forEach {
+            val outputStream = ByteArrayOutputStream()
+            val objectOutput = ObjectOutputStream(outputStream)
+            objectOutput.writeUnshared(it)
+            objectOutput.flush()
+            val bytes = outputStream.toByteArray()
+
+            val objectInput = ObjectInputStream(ByteArrayInputStream(bytes))
+            val message = objectInput.readUnshared() as HtspMessage
+            count += message.getByteArray("payload").size
+        }
+        assertTrue(count > 0)
+        return System.nanoTime() - start
+    }
+
+    private fun passThroughPacketCodec(messages: List<HtspMessage>, ringBuffer: HtspSubscriptionRingBuffer): Long {
+        val writer = HtspSubscriptionPacketCodec()
+        val reader = HtspSubscriptionPacketCodec()
+        val scratch = ByteArray(1024 * 1024)
+        val packet = MuxPacket()
+        val start = System.nanoTime()
+        var count = 0
+        messages.forEach {
+            writer.write(it, ringBuffer)
+            readPacket(reader, ringBuffer, scratch, packet)
+            count += packet.length
+        }
+        assertTrue(count > 0)
+        return System.nanoTime() - start
+    }
+
+    /**
+     * Reads one packet from the ring buffer like the extractor does it
+     */
+    private fun readPacket(codec: HtspSubscriptionPacketCodec, ringBuffer: HtspSubscriptionRingBuffer, scratch: ByteArray, packet: MuxPacket): HtspMessage? {
+        readFully(ringBuffer, scratch, 4)
+        val length = ByteBuffer.wrap(scratch).int
+        readFully(ringBuffer, scratch, length)
+        return codec.read(ByteBuffer.wrap(scratch, 0, length), packet)
+    }
+
+    private fun readFully(ringBuffer: HtspSubscriptionRingBuffer, target: ByteArray, length: Int) {
+        var offset = 0
+        while (offset < length) {
+            offset += ringBuffer.read(target, offset, length - offset)
+        }
+    }
+
+    /**
+     * Creates one video frame and two audio frames per 40 ms, video key
+     * frames are sent every 25 frames and are much larger than the others.
+     */
+    private fun createSubscription(videoFrames: Int): List<HtspMessage> {
+        val messages = ArrayList<HtspMessage>()
+        for (i in 0 until videoFrames) {
+            val isKeyFrame = i % 25 == 0
+            messages.add(createMuxpkt(0, if (isKeyFrame) 73 else 80, if (isKeyFrame) 120000 else 15000 + random.nextInt(20000)))
+            messages.add(createMuxpkt(1, -1, 768))
+            messages.add(createMuxpkt(2, -1, 1536))
+        }
+        return messages
+    }
+
+    private fun createMuxpkt(stream: Int, frameType: Int, payloadSize: Int): HtspMessage {
+        val payload = ByteArray(payloadSize)
+        random.nextBytes(payload)
+        val message = HtspMessage()
+        message.method = "muxpkt"
+        message["subscriptionId"] = 3
+        message["stream"] = stream
+        if (frameType != -1) {
+            message["frametype"] = frameType
+        }
+        message["pts"] = 1000000L + random.nextInt(1000000)
+        message["dts"] = 1000000L + random.nextInt(1000000)
+        message["duration"] = 40000
+        message["payload"] = payload
+        return message
+    }
+}
@@ -25,6 +25,8 @@ sealed class SyncState : Parcelable {
     data class InProgress(val message: String = "") : SyncState(), Parcelable
     @Parcelize
     data class Done(val message: String = "") : SyncState(), Parcelable
+    @Parcelize
+    data class Failed(val message: String = "") : SyncState(), Parcelable
 }
 
 class SyncStateReceiver(callback: Listener) : BroadcastReceiver() {
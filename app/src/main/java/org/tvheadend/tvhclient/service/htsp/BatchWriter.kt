@@ -0,0 +1,136 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import timber.log.Timber
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Collects the items that are received from the server and saves them in
+ * batches on a dedicated writer thread. A batch is handed over to the writer
+ * when it contains the given number of items or when the given time has passed
+ * since the previous batch. At most the given number of batches are pending,
+ * adding an item blocks while the writer is behind, so the number of items that
+ * are kept in memory does not depend on how many items are received in total.
+ *
+ * Adding, flushing, finishing and clearing are not synchronized with each
+ * other. The caller must not use them concurrently, which the message
+ * dispatcher ensures because all events and the barriers that finish the
+ * sync are handled one after the other, even though not on the same thread.
+ */
+class BatchWriter<T>(
+        private val batchSize: Int = DEFAULT_BATCH_SIZE,
+        private val flushIntervalMs: Long = DEFAULT_FLUSH_INTERVAL_MS,
+        maxPendingBatches: Int = DEFAULT_MAX_PENDING_BATCHES,
+        private val saveBatch: (List<T>) -> Unit,
+        private val onBatchSaved: (savedItemCount: Int) -> Unit = {}) {
+
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor()
+    private val pendingBatches = Semaphore(maxPendingBatches)
+    private val savedItems = AtomicInteger()
+    // Batches of a previous generation were discarded by clear()
+    private val generation = AtomicInteger()
+    private var batch = ArrayList<T>(batchSize)
+    private var lastFlushTime = System.currentTimeMillis()
+
+    val savedItemCount: Int
+        get() = savedItems.get()
+
+    var addedItemCount = 0
+        private set
+
+    fun add(item: T) {
+        batch.add(item)
+        addedItemCount++
+        if (batch.size >= batchSize || System.currentTimeMillis() - lastFlushTime >= flushIntervalMs) {
+            flush()
+        }
+    }
+
+    /**
+     * Hands the current batch over to the writer thread
+     */
+    fun flush() {
+        lastFlushTime = System.currentTimeMillis()
+        if (batch.isEmpty()) {
+            return
+        }
+        val items = batch
+        batch = ArrayList(batchSize)
+        val batchGeneration = generation.get()
+
+        pendingBatches.acquireUninterruptibly()
+        writer.execute {
+            try {
+                if (batchGeneration != generation.get()) {
+                    return@execute
+                }
+                saveBatch(items)
+                onBatchSaved(savedItems.addAndGet(items.size))
+            } catch (e: Exception) {
+                Timber.e(e, "Could not save batch of ${items.size} items")
+            } finally {
+                pendingBatches.release()
+            }
+        }
+    }
+
+    /**
+     * Saves the remaining items and waits until all batches were saved.
+     * Returns false if not all added items could be saved or if the
+     * pending batches were not saved within the given time.
+     */
+    fun finish(timeoutMs: Long = DEFAULT_FINISH_TIMEOUT_MS): Boolean {
+        flush()
+        if (!awaitPendingBatches(timeoutMs)) {
+            return false
+        }
+        if (savedItems.get() != addedItemCount) {
+            Timber.e("Only ${savedItems.get()} of $addedItemCount items were saved")
+            return false
+        }
+        return true
+    }
+
+    /**
+     * Discards the items that were not yet saved. Batches that are still
+     * pending are skipped and a batch that is being saved is waited for,
+     * so no discarded item is saved after this returns.
+     */
+    fun clear(timeoutMs: Long = DEFAULT_FINISH_TIMEOUT_MS) {
+        generation.incrementAndGet()
+        batch = ArrayList(batchSize)
+        awaitPendingBatches(timeoutMs)
+        addedItemCount = 0
+        savedItems.set(0)
+        lastFlushTime = System.currentTimeMillis()
+    }
+
+    private fun awaitPendingBatches(timeoutMs: Long): Boolean {
+        return try {
+            writer.submit {}.get(timeoutMs, TimeUnit.MILLISECONDS)
+            true
+        } catch (e: ExecutionException) {
+            Timber.e(e, "Could not wait for the pending batches")
+            false
+        } catch (e: TimeoutException) {
+            Timber.e("Pending batches were not saved within $timeoutMs ms")
+            false
+        }
+    }
+
+    fun shutdown() {
+        writer.shutdown()
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_SIZE = 500
+        const val DEFAULT_FLUSH_INTERVAL_MS = 2000L
+        const val DEFAULT_MAX_PENDING_BATCHES = 4
+        const val DEFAULT_FINISH_TIMEOUT_MS = 60000L
+    }
+}
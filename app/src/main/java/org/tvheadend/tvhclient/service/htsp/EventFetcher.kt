@@ -0,0 +1,122 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeout
+import org.tvheadend.data.entity.Channel
+import org.tvheadend.data.entity.LastProgram
+import org.tvheadend.htsp.HtspMessage
+import timber.log.Timber
+
+/**
+ * Loads the events of many channels with one getEvents request per channel.
+ * At most the given number of requests are waiting for a response at the same
+ * time, the next request is sent as soon as one response has arrived. Each
+ * response is passed to the handler when it arrives, so the events can be saved
+ * while the remaining requests are pending. The result contains the channels
+ * that were loaded and the ones whose request failed or timed out.
+ */
+class EventFetcher(
+        private val maxInFlightRequests: Int = DEFAULT_MAX_IN_FLIGHT_REQUESTS,
+        private val timeoutMs: Long = DEFAULT_TIMEOUT_MS,
+        private val sendRequest: suspend (HtspMessage) -> HtspMessage) {
+
+    class Request(val channelId: Int, val channelName: String?, val message: HtspMessage)
+
+    class Result(
+            val completedChannelIds: List<Int>,
+            val failedChannelIds: List<Int>,
+            val eventCount: Int,
+            val maxInFlightRequests: Int,
+            val durationMs: Long) {
+
+        override fun toString(): String {
+            return "loaded $eventCount events for ${completedChannelIds.size} channels in $durationMs ms, " +
+                    "${failedChannelIds.size} channels failed, at most $maxInFlightRequests requests were in flight"
+        }
+    }
+
+    /**
+     * Sends the requests and returns when every request was answered, failed or timed
+     * out. The handler is called on the calling thread and returns the number of events
+     * it has taken from the response.
+     */
+    fun fetch(requests: List<Request>, onResponse: (Request, HtspMessage) -> Int): Result {
+        val startTime = System.currentTimeMillis()
+        val completedChannelIds = ArrayList<Int>()
+        val failedChannelIds = ArrayList<Int>()
+        var eventCount = 0
+        var inFlightRequests = 0
+        var maxInFlight = 0
+
+        // All coroutines run on the calling thread, only the
+        // responses are awaited concurrently
+        runBlocking {
+            val window = Semaphore(maxInFlightRequests)
+            requests.map { request ->
+                launch {
+                    window.withPermit {
+                        inFlightRequests++
+                        maxInFlight = maxOf(maxInFlight, inFlightRequests)
+                        try {
+                            val response = withTimeout(timeoutMs) { sendRequest(request.message) }
+                            eventCount += onResponse(request, response)
+                            completedChannelIds.add(request.channelId)
+                        } catch (e: TimeoutCancellationException) {
+                            Timber.d("Timeout while loading events for channel ${request.channelName}")
+                            failedChannelIds.add(request.channelId)
+                        } catch (e: Exception) {
+                            Timber.e(e, "Could not load events for channel ${request.channelName}")
+                            failedChannelIds.add(request.channelId)
+                        } finally {
+                            inFlightRequests--
+                        }
+                    }
+                }
+            }.joinAll()
+        }
+        return Result(completedChannelIds, failedChannelIds, eventCount, maxInFlight, System.currentTimeMillis() - startTime)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_IN_FLIGHT_REQUESTS = 8
+        const val DEFAULT_TIMEOUT_MS = 15000L
+
+        /**
+         * Creates the request for the events that follow the last saved program of the
+         * channel. If no program was saved yet, the events are loaded from the next or
+         * current event of the channel.
+         */
+        fun createRequest(channel: Channel, lastProgram: LastProgram?, numFollowing: Int): Request {
+            val eventId = when {
+                lastProgram != null -> {
+                    Timber.d("Loading more programs for channel ${channel.name} from last program id ${lastProgram.eventId}")
+                    lastProgram.nextEventId
+                }
+                channel.nextEventId > 0 -> {
+                    Timber.d("Loading more programs for channel ${channel.name} starting from channel next event id ${channel.nextEventId}")
+                    channel.nextEventId
+                }
+                else -> {
+                    Timber.d("Loading more programs for channel ${channel.name} starting from channel event id ${channel.eventId}")
+                    channel.eventId
+                }
+            }
+
+            val message = HtspMessage()
+            message["method"] = "getEvents"
+            if (eventId > 0) {
+                message["eventId"] = eventId
+            }
+            message["channelId"] = channel.id
+            if (numFollowing > 0) {
+                message["numFollowing"] = numFollowing
+            }
+            return Request(channel.id, channel.name, message)
+        }
+    }
+}
@@ -10,15 +10,15 @@ import org.tvheadend.api.AuthenticationStateResult
 import org.tvheadend.api.ConnectionStateResult
 import org.tvheadend.api.ServerConnectionStateListener
 import org.tvheadend.api.ServerResponseListener
+import org.tvheadend.api.request
 import org.tvheadend.data.AppRepository
 import org.tvheadend.data.entity.Connection
-import org.tvheadend.data.entity.EpgProgram
-import org.tvheadend.data.entity.Program
 import org.tvheadend.data.entity.ServerStatus
-import org.tvheadend.htsp.HtspConnection
+import org.tvheadend.htsp.HtspConnectionManager
 import org.tvheadend.htsp.HtspConnectionData
 import org.tvheadend.htsp.HtspFileInputStream
 import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.htsp.HtspSession
 import org.tvheadend.tvhclient.BuildConfig
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.service.ConnectionIntentService
@@ -30,23 +30,24 @@ import timber.log.Timber
 import java.io.*
 import java.net.URL
 import java.util.*
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.Executor
 import kotlin.math.floor
 import kotlin.math.max
 
 class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepository, val connection: Connection) : ConnectionIntentService.ServiceInterface, ServerConnectionStateListener {
 
     private val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
-    private val execService: ScheduledExecutorService = Executors.newScheduledThreadPool(10)
-    private val htspConnection: HtspConnection
+    private val execService: Executor = htspServiceExecutor
+    private val htspConnection: HtspSession
     private val serverStatus: ServerStatus = appRepository.serverStatusData.activeItem
     private var htspVersion: Int = 13
 
-    private val pendingEventOps = ArrayList<Program>()
-    private val authenticationLock = Object()
     private val responseLock = Object()
 
+    companion object {
+        private const val RESPONSE_TIMEOUT = 15000L
+    }
+
     init {
         htspVersion = serverStatus.htspVersion
 
@@ -58,13 +59,8 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
                 BuildConfig.VERSION_CODE,
                 Integer.valueOf(sharedPreferences.getString("connection_timeout", context.resources.getString(R.string.pref_default_connection_timeout))!!) * 1000
         )
-        htspConnection = HtspConnection(htspConnectionData, this, null)
-
-        // Since this is blocking, spawn to a new thread
-        execService.execute {
-            htspConnection.openConnection()
-            htspConnection.authenticate()
-        }
+        htspConnection = HtspConnectionManager.getInstance().acquire(htspConnectionData, this, null)
+        htspConnection.openConnection()
     }
 
     override fun onHandleWork(intent: Intent) {
@@ -73,13 +69,8 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
             return
         }
 
-        synchronized(authenticationLock) {
-            try {
-                authenticationLock.wait(5000)
-            } catch (e: InterruptedException) {
-                Timber.e(e, "Timeout waiting while connecting to server")
-            }
-        }
+        // Returns immediately when the shared connection is already authenticated
+        htspConnection.authenticate()
 
         if (htspConnection.isNotConnected || !htspConnection.isAuthenticated) {
             Timber.d("Connection to server failed or authentication failed")
@@ -100,14 +91,10 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
 
     override fun onDestroy() {
         Timber.d("Stopping service handler")
-        execService.shutdown()
         htspConnection.closeConnection()
     }
 
     override fun onAuthenticationStateChange(result: AuthenticationStateResult) {
-        synchronized(authenticationLock) {
-            authenticationLock.notify()
-        }
         context.sendSyncStateMessage(SyncStateResult.Authenticating(result))
     }
 
@@ -115,28 +102,6 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
         context.sendSyncStateMessage(SyncStateResult.Connecting(result))
     }
 
-    /**
-     * Handles the given server message that contains a list of events.
-     *
-     * @param message The message with the events
-     */
-    private fun onGetEvents(message: HtspMessage, intent: Intent) {
-        val channelName = intent.getStringExtra("channelName")
-
-        if (message.containsKey("events")) {
-            val programs = ArrayList<Program>()
-            for (obj in message.getList("events")) {
-                val msg = obj as HtspMessage
-                val program = convertMessageToProgramModel(Program(), msg)
-                program.connectionId = connection.id
-
-                programs.add(program)
-            }
-            Timber.d("Added ${programs.size} events to the list for channel $channelName")
-            pendingEventOps.addAll(programs)
-        }
-    }
-
     private fun getTicket(intent: Intent) {
         val channelId = intent.getIntExtra("channelId", 0).toLong()
         val dvrId = intent.getIntExtra("dvrId", 0).toLong()
@@ -226,37 +191,9 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
 
     private fun removeDuplicateProgramsFromDatabase() {
         Timber.d("Removing duplicate programs from the database")
-        val duplicatePrograms = Vector<Int>()
-        val channels = appRepository.channelData.getItems()
-        channels.forEach { channel ->
-            val programs = appRepository.programData.getDuplicatePrograms(channel.id)
-            Timber.d("Loaded ${programs.size} duplicate programs for channel ${channel.name}")
-
-            var lastProgram = EpgProgram()
-            programs.forEach { program ->
-                if (lastProgram.title == program.title
-                        && lastProgram.subtitle == program.subtitle
-                        && lastProgram.summary == program.summary
-                        && lastProgram.description == program.description
-                        && lastProgram.channelId == program.channelId
-                        && lastProgram.modifiedTime != program.modifiedTime) {
-
-                    if (lastProgram.modifiedTime < program.modifiedTime) {
-                        Timber.d("Channel: ${channel.name}, program id: ${lastProgram.eventId}, title: ${lastProgram.title} is a duplicate")
-                        duplicatePrograms.add(lastProgram.eventId)
-                    } else {
-                        Timber.d("Channel: ${channel.name}, program id: ${program.eventId}, title: ${program.title} is a duplicate")
-                        duplicatePrograms.add(program.eventId)
-                    }
-                }
-                lastProgram = program
-            }
-        }
-
-        Timber.d("Removing ${duplicatePrograms.size} duplicate programs")
-        duplicatePrograms.forEach {
-            appRepository.programData.removeItemById(it)
-        }
+        val startTime = System.currentTimeMillis()
+        val count = appRepository.programData.removeDuplicateItems()
+        Timber.d("Removed $count duplicate programs in ${System.currentTimeMillis() - startTime} ms")
     }
 
     /**
@@ -325,77 +262,11 @@ class HtspIntentServiceHandler(val context: Context, val appRepository: AppRepos
     /**
      * Loads a defined number of events for all channels.
      * This method is called by a worker after the initial sync is done.
-     * All loaded events are saved in a temporary list and saved in one
-     * batch into the database when all events were loaded for all channels.
      *
      * @param intent The intent with the parameters e.g. to define how many events shall be loaded
      */
     private fun getMoreEvents(intent: Intent) {
-
-        val numberOfProgramsToLoad = intent.getIntExtra("numFollowing", 0)
-        val channelList = appRepository.channelData.getItems()
-
-        Timber.d("Database currently contains ${appRepository.programData.itemCount} events.")
-        Timber.d("Loading $numberOfProgramsToLoad events for each of the ${channelList.size} channels")
-
-        var channelCount = 0
-        channelList.forEach {
-            // Determine if events for the last channel in the list are being loaded.
-            // This is required to set and release a lock to get all responses
-            // before saving the event data
-            val isLastChannel = ++channelCount == channelList.size
-
-            val msgIntent = Intent()
-            msgIntent.putExtra("numFollowing", numberOfProgramsToLoad)
-            msgIntent.putExtra("channelId", it.id)
-            msgIntent.putExtra("channelName", it.name)
-
-            val lastProgram = appRepository.programData.getLastItemByChannelId(it.id)
-            when {
-                lastProgram != null -> {
-                    Timber.d("Loading more programs for channel ${it.name} from last program id ${lastProgram.eventId}")
-                    msgIntent.putExtra("eventId", lastProgram.nextEventId)
-                }
-                it.nextEventId > 0 -> {
-                    Timber.d("Loading more programs for channel ${it.name} starting from channel next event id ${it.nextEventId}")
-                    msgIntent.putExtra("eventId", it.nextEventId)
-                }
-                else -> {
-                    Timber.d("Loading more programs for channel ${it.name} starting from channel event id ${it.eventId}")
-                    msgIntent.putExtra("eventId", it.eventId)
-                }
-            }
-
-            val request = convertIntentToEventMessage(msgIntent)
-            htspConnection.sendMessage(request, object : ServerResponseListener<HtspMessage> {
-                override fun handleResponse(response: HtspMessage) {
-                    onGetEvents(response, msgIntent)
-                    // Release the lock so that all data can be saved
-                    if (isLastChannel) {
-                        synchronized(responseLock) {
-                            Timber.d("Got response for last channel, releasing lock")
-                            responseLock.notify()
-                        }
-                    }
-                }
-            })
-
-            // Wait until the last response from the server was received and the lock released
-            if (isLastChannel) {
-                synchronized(responseLock) {
-                    try {
-                        Timber.d("Loaded more events for last channel, waiting for response")
-                        responseLock.wait(5000)
-                    } catch (e: InterruptedException) {
-                        Timber.e(e, "Timeout while loading events for last channel")
-                    }
-                }
-            }
-        }
-
-        Timber.d("Done loading more events")
-        appRepository.programData.addItems(pendingEventOps)
-        Timber.d("Saved ${pendingEventOps.size} events for all channels. Database contains ${appRepository.programData.itemCount} events")
-        pendingEventOps.clear()
+        val fetcher = EventFetcher(timeoutMs = RESPONSE_TIMEOUT) { htspConnection.request(it) }
+        MoreEventsLoader(appRepository, connection.id, fetcher).load(intent.getIntExtra("numFollowing", 0))
     }
 }
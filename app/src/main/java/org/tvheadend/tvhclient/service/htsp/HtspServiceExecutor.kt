@@ -0,0 +1,18 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+private const val THREAD_COUNT = 4
+private const val IDLE_TIMEOUT_SECONDS = 30L
+
+/**
+ * Runs the icon downloads and the loading of more events of the service handlers.
+ * The handlers share the connection to the server, so they share these threads
+ * as well. Idle threads are stopped, so the executor is never shut down.
+ */
+internal val htspServiceExecutor: ExecutorService = ThreadPoolExecutor(
+        THREAD_COUNT, THREAD_COUNT, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue()
+).apply { allowCoreThreadTimeOut(true) }
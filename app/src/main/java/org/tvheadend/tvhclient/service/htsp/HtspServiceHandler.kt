@@ -17,6 +17,7 @@ import org.json.JSONObject
 import org.tvheadend.api.*
 import org.tvheadend.data.AppRepository
 import org.tvheadend.data.entity.*
+import org.tvheadend.data.source.SyncStatistics
 import org.tvheadend.htsp.*
 import org.tvheadend.tvhclient.BuildConfig
 import org.tvheadend.tvhclient.R
@@ -35,8 +36,7 @@ import java.io.*
 import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.*
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 import kotlin.math.floor
 import kotlin.math.max
@@ -53,22 +53,47 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
             Integer.valueOf(sharedPreferences.getString("connection_timeout", context.resources.getString(R.string.pref_default_connection_timeout))!!) * 1000
     )
     private var htspVersion: Int = 13
-    private var htspConnection: HtspConnection? = null
-    private val execService: ScheduledExecutorService = Executors.newScheduledThreadPool(10)
+    private var htspConnection: HtspSession? = null
+    private val execService: Executor = htspServiceExecutor
 
-    private val pendingEventOps = ArrayList<Program>()
+    private val eventWriter = BatchWriter<Program>(
+            saveBatch = { appRepository.programData.addItemsSync(it) },
+            onBatchSaved = { onEventBatchSaved(it) })
     private val pendingChannelOps = ArrayList<Channel>()
     private val pendingChannelTagOps = ArrayList<ChannelTag>()
     private val pendingRecordingOps = ArrayList<Recording>()
+    private val pendingSeriesRecordingOps = ArrayList<SeriesRecording>()
+    private val pendingTimerRecordingOps = ArrayList<TimerRecording>()
 
     private var pendingHtspProfiles: MutableList<ServerProfile> = appRepository.serverProfileData.htspPlaybackProfiles.toMutableList()
     private var pendingHttpProfiles: MutableList<ServerProfile> = appRepository.serverProfileData.httpPlaybackProfiles.toMutableList()
     private var pendingRecordingProfiles: MutableList<ServerProfile> = appRepository.serverProfileData.recordingProfiles.toMutableList()
 
+    // Set on the connection thread and read by the dispatcher queues
+    @Volatile
     private var initialSyncWithServerRunning: Boolean = false
+    @Volatile
     private var syncEventsRequired: Boolean = false
+    @Volatile
     private var syncRequired: Boolean = false
+    // Set on the connection thread when the first event is dispatched
+    @Volatile
     private var firstEventReceived = false
+    @Volatile
+    private var receivedChannelsSaved = false
+
+    // Handles the server messages on separate threads per type of data, so
+    // that the database access does not block the reading of the socket
+    private val messageDispatcher = HtspMessageDispatcher(this, { _, method -> selectDispatchQueue(method) },
+            QUEUE_CHANNELS, QUEUE_RECORDINGS, QUEUE_SERIES_RECORDINGS, QUEUE_EVENTS, QUEUE_OTHER)
+
+    companion object {
+        private const val QUEUE_CHANNELS = "channels"
+        private const val QUEUE_RECORDINGS = "recordings"
+        private const val QUEUE_SERIES_RECORDINGS = "seriesRecordings"
+        private const val QUEUE_EVENTS = "events"
+        private const val QUEUE_OTHER = "other"
+    }
 
     override fun onStartCommand(intent: Intent?): Int {
         val action = intent?.action ?: return Service.START_NOT_STICKY
@@ -140,19 +165,16 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
 
     override fun onDestroy() {
         Timber.d("Stopping service handler")
-        execService.shutdown()
+        eventWriter.shutdown()
+        messageDispatcher.shutdown()
         htspConnection?.closeConnection()
     }
 
     private fun startHtspConnection() {
         htspConnection?.closeConnection()
         Timber.d("Connecting to ${connection.name}, serverUrl is ${connection.serverUrl}")
-        htspConnection = HtspConnection(htspConnectionData, this, this)
-        // Since this is blocking, spawn to a new thread
-        execService.execute {
-            htspConnection?.openConnection()
-            htspConnection?.authenticate()
-        }
+        htspConnection = HtspConnectionManager.getInstance().acquire(htspConnectionData, this, messageDispatcher)
+        htspConnection?.openConnection()
     }
 
     override fun onMessage(response: HtspMessage, method: String) {
@@ -187,6 +209,35 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
         }
     }
 
+    private fun selectDispatchQueue(method: String): String {
+        return when (method) {
+            "tagAdd", "tagUpdate", "tagDelete",
+            "channelAdd", "channelUpdate", "channelDelete" -> QUEUE_CHANNELS
+            "dvrEntryAdd", "dvrEntryUpdate", "dvrEntryDelete" -> QUEUE_RECORDINGS
+            "timerecEntryAdd", "timerecEntryUpdate", "timerecEntryDelete",
+            "autorecEntryAdd", "autorecEntryUpdate", "autorecEntryDelete" -> QUEUE_SERIES_RECORDINGS
+            "eventAdd" -> selectEventAddQueue()
+            "eventUpdate", "eventDelete" -> QUEUE_EVENTS
+            "initialSyncCompleted" -> HtspMessageDispatcher.BARRIER
+            else -> QUEUE_OTHER
+        }
+    }
+
+    /**
+     * The first event saves the received channels, so all channels must have
+     * been handled before, like all received data before the initial sync is
+     * completed. The flag is set here and not when the event is handled,
+     * otherwise every event that is dispatched in the meantime would also be
+     * handled as a barrier.
+     */
+    private fun selectEventAddQueue(): String {
+        if (syncRequired && !firstEventReceived) {
+            firstEventReceived = true
+            return HtspMessageDispatcher.BARRIER
+        }
+        return QUEUE_EVENTS
+    }
+
     override fun onAuthenticationStateChange(result: AuthenticationStateResult) {
         context.sendSyncStateMessage(SyncStateResult.Authenticating(result))
         if (result is AuthenticationStateResult.Authenticated) {
@@ -198,14 +249,28 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
         context.sendSyncStateMessage(SyncStateResult.Connecting(result))
     }
 
+    /**
+     * Enables the async metadata and starts the initial sync. The authenticated state
+     * of a shared connection can be reported again, but the server only sends the
+     * initial data once per connection, so the sync is only started once.
+     */
+    @Synchronized
     private fun startAsyncCommunicationWithServer() {
+        if (htspConnection?.isAsyncMetadataEnabled == true) {
+            Timber.d("Async communication with server was already started on this connection")
+            return
+        }
         Timber.d("Starting async communication with server")
 
         pendingChannelOps.clear()
         pendingChannelTagOps.clear()
         pendingRecordingOps.clear()
-        pendingEventOps.clear()
+        pendingSeriesRecordingOps.clear()
+        pendingTimerRecordingOps.clear()
+        eventWriter.clear()
 
+        firstEventReceived = false
+        receivedChannelsSaved = false
         initialSyncWithServerRunning = true
 
         val enableAsyncMetadataRequest = HtspMessage()
@@ -263,9 +328,11 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
         }
 
         // Only save any received events when they shall be loaded
+        var eventsSaved = true
         if (syncEventsRequired) {
-            Timber.d("Sync of all evens is required, saving events")
-            saveAllReceivedEvents()
+            Timber.d("Sync of all evens is required, saving remaining events")
+            eventsSaved = eventWriter.finish()
+            Timber.d("Saved ${eventWriter.savedItemCount} of ${eventWriter.addedItemCount} received events")
         } else {
             Timber.d("Sync of all evens is not required")
         }
@@ -278,18 +345,27 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
 
         startBackgroundWorkers()
 
-        Timber.d("Updating connection status that initial sync is completed")
-        connection.isSyncRequired = false
-        if (syncEventsRequired) {
-            Timber.d("Updating last update time of full sync")
-            connection.lastUpdate = System.currentTimeMillis() / 1000L
-        }
-        appRepository.connectionData.updateItem(connection)
+        if (eventsSaved) {
+            Timber.d("Updating connection status that initial sync is completed")
+            connection.isSyncRequired = false
+            if (syncEventsRequired) {
+                Timber.d("Updating last update time of full sync")
+                connection.lastUpdate = System.currentTimeMillis() / 1000L
+            }
+            appRepository.connectionData.updateItem(connection)
 
-        // The initial sync is considered to be done at this point.
-        // Send the message to the listeners that the sync is done
-        if (syncRequired || syncEventsRequired) {
-            context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.Done()))
+            // The initial sync is considered to be done at this point.
+            // Send the message to the listeners that the sync is done
+            if (syncRequired || syncEventsRequired) {
+                context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.Done()))
+            }
+        } else {
+            // The flag was already reset when the first event was received,
+            // set it again so that the sync is done again on the next start
+            Timber.e("Not all received events were saved, initial sync is not completed")
+            connection.isSyncRequired = true
+            appRepository.connectionData.updateItem(connection)
+            context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.Failed()))
         }
 
         syncRequired = false
@@ -297,6 +373,12 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
         initialSyncWithServerRunning = false
 
         Timber.d("Done receiving initial data from server")
+        messageDispatcher.statistics.forEach { (queue, statistics) ->
+            Timber.d("Dispatch queue $queue: $statistics, average latency ${statistics.averageLatencyMs} ms")
+        }
+        htspConnection?.readStatistics?.let { statistics ->
+            Timber.d("Socket reads: $statistics, ${statistics.framesPerRead} frames and ${statistics.bytesPerRead} bytes per read")
+        }
     }
 
     private fun startBackgroundWorkers() {
@@ -676,7 +758,12 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
     private fun onAutorecEntryAdd(msg: HtspMessage) {
         val seriesRecording = convertMessageToSeriesRecordingModel(SeriesRecording(), msg)
         seriesRecording.connectionId = connection.id
-        appRepository.seriesRecordingData.addItem(seriesRecording)
+
+        if (initialSyncWithServerRunning) {
+            pendingSeriesRecordingOps.add(seriesRecording)
+        } else {
+            appRepository.seriesRecordingData.addItem(seriesRecording)
+        }
     }
 
     /**
@@ -719,7 +806,12 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
     private fun onTimerRecEntryAdd(msg: HtspMessage) {
         val recording = convertMessageToTimerRecordingModel(TimerRecording(), msg)
         recording.connectionId = connection.id
-        appRepository.timerRecordingData.addItem(recording)
+
+        if (initialSyncWithServerRunning) {
+            pendingTimerRecordingOps.add(recording)
+        } else {
+            appRepository.timerRecordingData.addItem(recording)
+        }
     }
 
     /**
@@ -760,25 +852,24 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
      * @param msg The message with the new epg event data
      */
     private fun onEventAdd(msg: HtspMessage) {
-        if (!firstEventReceived && syncRequired) {
+        if (syncRequired && !receivedChannelsSaved) {
+            receivedChannelsSaved = true
             Timber.d("Sync is required and received first event, saving ${pendingChannelOps.size} channels")
-            appRepository.channelData.addItems(pendingChannelOps)
+            saveAllReceivedChannels()
 
             Timber.d("Updating connection status with full sync completed")
             connection.isSyncRequired = false
             appRepository.connectionData.updateItem(connection)
         }
 
-        firstEventReceived = true
         val program = convertMessageToProgramModel(Program(), msg)
         program.connectionId = connection.id
 
         if (initialSyncWithServerRunning) {
-            pendingEventOps.add(program)
-
-            if (syncRequired && pendingEventOps.size % 50 == 0) {
-                Timber.d("Sync is running, received ${pendingEventOps.size} program guide events")
-                context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.InProgress("Received ${pendingEventOps.size} program guide events")))
+            // The events are saved in batches while they are received
+            // instead of keeping all of them until the sync is completed
+            if (syncEventsRequired) {
+                eventWriter.add(program)
             }
         } else {
             Timber.d("Adding event ${program.title}")
@@ -818,7 +909,6 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
      */
     private fun onGetEvents(message: HtspMessage, intent: Intent) {
 
-        val useEventList = intent.getBooleanExtra("useEventList", false)
         val channelName = intent.getStringExtra("channelName")
 
         if (message.containsKey("events")) {
@@ -830,13 +920,8 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
                 programs.add(program)
             }
 
-            if (useEventList) {
-                Timber.d("Adding ${programs.size} events to the list for channel $channelName")
-                pendingEventOps.addAll(programs)
-            } else {
-                Timber.d("Saving ${programs.size} events for channel $channelName")
-                appRepository.programData.addItems(programs)
-            }
+            Timber.d("Saving ${programs.size} events for channel $channelName")
+            appRepository.programData.addItems(programs)
         }
     }
 
@@ -1046,11 +1131,12 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
 
     /**
      * Saves all received channels from the initial sync in the database.
+     * Only the channels that differ from the saved ones are written.
      */
     private fun saveAllReceivedChannels() {
         Timber.d("Saving ${pendingChannelOps.size} channels")
         if (pendingChannelOps.isNotEmpty()) {
-            appRepository.channelData.addItems(pendingChannelOps)
+            logSyncStatistics(appRepository.channelData.reconcileItems(pendingChannelOps, connection.id))
         }
     }
 
@@ -1066,7 +1152,7 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
         val pendingAddedTagAndChannelOps = ArrayList<TagAndChannel>()
 
         if (pendingChannelTagOps.isNotEmpty()) {
-            appRepository.channelTagData.addItems(pendingChannelTagOps)
+            logSyncStatistics(appRepository.channelTagData.reconcileItems(pendingChannelTagOps, connection.id))
             for (tag in pendingChannelTagOps) {
 
                 val tac = appRepository.tagAndChannelData.getItemById(tag.tagId)
@@ -1092,21 +1178,31 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
     }
 
     /**
-     * Removes all recordings and saves all received recordings from the initial sync
-     * in the database. The removal is done to prevent being out of sync with the server.
-     * This could be the case when the app was offline for a while and it did not receive
-     * any recording removal information from the server. During the initial sync the
-     * server only provides the list of available recordings.
+     * Compares all received recordings, series and timer recordings from the initial
+     * sync with the saved ones. Saved recordings that were not received are removed to
+     * prevent being out of sync with the server. This could be the case when the app was
+     * offline for a while and it did not receive any recording removal information from
+     * the server. During the initial sync the server only provides the list of available
+     * recordings. Unchanged recordings are not written again.
      */
     private fun saveAllReceivedRecordings() {
-        Timber.d("Removing previously existing recordings and saving ${pendingRecordingOps.size} new recordings")
-        appRepository.recordingData.removeAndAddItems(pendingRecordingOps)
+        Timber.d("Saving ${pendingRecordingOps.size} recordings, ${pendingSeriesRecordingOps.size} series and ${pendingTimerRecordingOps.size} timer recordings")
+        logSyncStatistics(appRepository.recordingData.reconcileItems(pendingRecordingOps, connection.id))
+        logSyncStatistics(appRepository.seriesRecordingData.reconcileItems(pendingSeriesRecordingOps, connection.id))
+        logSyncStatistics(appRepository.timerRecordingData.reconcileItems(pendingTimerRecordingOps, connection.id))
     }
 
-    private fun saveAllReceivedEvents() {
-        Timber.d("Saving ${pendingEventOps.size} new events")
-        if (pendingEventOps.isNotEmpty()) {
-            appRepository.programData.addItems(pendingEventOps)
+    private fun logSyncStatistics(statistics: SyncStatistics) {
+        Timber.d("Synced $statistics")
+        if (syncRequired && statistics.touchedCount > 0) {
+            context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.InProgress("Saved ${statistics.touchedCount} changed ${statistics.type}")))
+        }
+    }
+
+    private fun onEventBatchSaved(savedEventCount: Int) {
+        if (syncRequired) {
+            Timber.d("Sync is running, saved $savedEventCount program guide events")
+            context.sendSyncStateMessage(SyncStateResult.Syncing(SyncState.InProgress("Saved $savedEventCount program guide events")))
         }
     }
 
@@ -1274,48 +1370,15 @@ class HtspServiceHandler(val context: Context, val appRepository: AppRepository,
     /**
      * Loads a defined number of events for all channels.
      * This method is called by a worker after the initial sync is done.
-     * All loaded events are saved in a temporary list and saved in one
-     * batch into the database when all events were loaded for all channels.
      *
      * @param intent The intent with the parameters e.g. to define how many events shall be loaded
      */
     private fun getMoreEvents(intent: Intent) {
-
-        val numberOfProgramsToLoad = intent.getIntExtra("numFollowing", 0)
-        val channelList = appRepository.channelData.getItems()
-
-        Timber.d("Database currently contains ${appRepository.programData.itemCount} events. ")
-        Timber.d("Loading $numberOfProgramsToLoad events for each of the ${channelList.size} channels")
-
-        for (channel in channelList) {
-            val lastProgram = appRepository.programData.getLastItemByChannelId(channel.id)
-
-            val msgIntent = Intent()
-            msgIntent.putExtra("numFollowing", numberOfProgramsToLoad)
-            msgIntent.putExtra("useEventList", true)
-            msgIntent.putExtra("channelId", channel.id)
-            msgIntent.putExtra("channelName", channel.name)
-
-            when {
-                lastProgram != null -> {
-                    Timber.d("Loading more programs for channel ${channel.name} from last program id ${lastProgram.eventId}")
-                    msgIntent.putExtra("eventId", lastProgram.nextEventId)
-                }
-                channel.nextEventId > 0 -> {
-                    Timber.d("Loading more programs for channel ${channel.name} starting from channel next event id ${channel.nextEventId}")
-                    msgIntent.putExtra("eventId", channel.nextEventId)
-                }
-                else -> {
-                    Timber.d("Loading more programs for channel ${channel.name} starting from channel event id ${channel.eventId}")
-                    msgIntent.putExtra("eventId", channel.eventId)
-                }
-            }
-            getEvents(msgIntent)
+        val session = htspConnection ?: return
+        execService.execute {
+            MoreEventsLoader(appRepository, connection.id, EventFetcher { session.request(it) })
+                    .load(intent.getIntExtra("numFollowing", 0))
         }
-
-        appRepository.programData.addItems(pendingEventOps)
-        Timber.d("Saved ${pendingEventOps.size} events for all channels. Database contains ${appRepository.programData.itemCount} events")
-        pendingEventOps.clear()
     }
 
     private fun getEpgQuery(intent: Intent) {
@@ -0,0 +1,52 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import org.tvheadend.data.AppRepository
+import org.tvheadend.data.entity.Program
+import org.tvheadend.htsp.HtspMessage
+import timber.log.Timber
+
+/**
+ * Loads a defined number of events for all channels after the initial sync.
+ * The last saved program of every channel is loaded with one query and the
+ * requests are sent by the given fetcher with a limited number of them in
+ * flight. The received events are saved in batches while the responses arrive.
+ */
+class MoreEventsLoader(
+        private val appRepository: AppRepository,
+        private val connectionId: Int,
+        private val fetcher: EventFetcher) {
+
+    fun load(numFollowing: Int): EventFetcher.Result {
+        val channelList = appRepository.channelData.getItems()
+        val lastPrograms = appRepository.programData.getLastItemsByChannelId()
+
+        Timber.d("Database currently contains ${appRepository.programData.itemCount} events.")
+        Timber.d("Loading $numFollowing events for each of the ${channelList.size} channels")
+
+        val requests = channelList.map { EventFetcher.createRequest(it, lastPrograms[it.id], numFollowing) }
+        val writer = BatchWriter<Program>(saveBatch = { appRepository.programData.addItemsSync(it) })
+        val result = fetcher.fetch(requests) { request, response ->
+            addReceivedEvents(response, request.channelName, writer)
+        }
+        writer.finish()
+        writer.shutdown()
+
+        Timber.d("Done loading more events, $result")
+        Timber.d("Saved ${writer.savedItemCount} events for all channels. Database contains ${appRepository.programData.itemCount} events")
+        return result
+    }
+
+    private fun addReceivedEvents(message: HtspMessage, channelName: String?, writer: BatchWriter<Program>): Int {
+        if (!message.containsKey("events")) {
+            return 0
+        }
+        val events = message.getList("events")
+        for (obj in events) {
+            val program = convertMessageToProgramModel(Program(), obj as HtspMessage)
+            program.connectionId = connectionId
+            writer.add(program)
+        }
+        Timber.d("Received ${events.size} events for channel $channelName")
+        return events.size
+    }
+}
@@ -1,9 +1,10 @@
 package org.tvheadend.tvhclient.ui.common
 
+import android.content.Context
 import android.graphics.Bitmap
 import android.graphics.Color
-import android.graphics.drawable.Drawable
 import android.os.Build
+import android.text.Spannable
 import android.text.SpannableString
 import android.text.SpannableStringBuilder
 import android.text.format.DateUtils
@@ -309,27 +310,41 @@ fun setOptionalDescriptionText(view: TextView, text: String?) {
     view.visibleOrGone(!text.isNullOrEmpty())
     if (text.isNullOrEmpty()) return
 
-    if (text.contains("[COLOR ") && text.contains("[/COLOR]")) {
-        val builder = SpannableStringBuilder()
-        builder.append(text.substringBefore("[COLOR ", ""))
+    val coloredText = getColoredText(view.context, text)
+    if (coloredText is Spannable) {
+        view.setText(coloredText, TextView.BufferType.SPANNABLE)
+    } else {
+        view.text = coloredText
+    }
+}
 
-        val textArray = text.split("[COLOR").toTypedArray()
-        textArray.forEach { str ->
-            val colorName = str.substringBefore("]", "").trim()
-            val coloredText = SpannableString(str.substringAfter("]", "").substringBefore("[/COLOR]", ""))
-            val remainingText = str.substringAfter("[/COLOR]", "")
+/**
+ * Returns the text with the parts that are enclosed in color tags like
+ * [COLOR red]text[/COLOR] shown in the given color. The text is returned
+ * unchanged if it contains no color tags.
+ */
+fun getColoredText(context: Context, text: String): CharSequence {
+    if (!text.contains("[COLOR ") || !text.contains("[/COLOR]")) {
+        return text
+    }
 
-            val colorId = view.resources.getIdentifier(colorName, "color", MainApplication.instance.packageName)
-            if (colorId > 0) {
-                coloredText.setSpan(ForegroundColorSpan(ContextCompat.getColor(view.context, colorId)), 0, coloredText.length, 0)
-            }
-            builder.append(coloredText)
-            builder.append(remainingText)
+    val builder = SpannableStringBuilder()
+    builder.append(text.substringBefore("[COLOR ", ""))
+
+    val textArray = text.split("[COLOR").toTypedArray()
+    textArray.forEach { str ->
+        val colorName = str.substringBefore("]", "").trim()
+        val coloredText = SpannableString(str.substringAfter("]", "").substringBefore("[/COLOR]", ""))
+        val remainingText = str.substringAfter("[/COLOR]", "")
+
+        val colorId = context.resources.getIdentifier(colorName, "color", MainApplication.instance.packageName)
+        if (colorId > 0) {
+            coloredText.setSpan(ForegroundColorSpan(ContextCompat.getColor(context, colorId)), 0, coloredText.length, 0)
         }
-        view.setText(builder, TextView.BufferType.SPANNABLE)
-    } else {
-        view.text = text
+        builder.append(coloredText)
+        builder.append(remainingText)
     }
+    return builder
 }
 
 @BindingAdapter("optionalText")
@@ -340,21 +355,28 @@ fun setOptionalText(view: TextView, text: String?) {
 
 @BindingAdapter("stateIcon")
 fun setStateIcon(view: ImageView, recording: Recording?) {
-    var drawable: Drawable? = null
-    if (recording != null) {
-        when {
-            recording.isFailed -> drawable = ContextCompat.getDrawable(view.context, R.drawable.ic_error_small)
-            recording.isCompleted -> drawable = ContextCompat.getDrawable(view.context, R.drawable.ic_success_small)
-            recording.isMissed -> drawable = ContextCompat.getDrawable(view.context, R.drawable.ic_error_small)
-            recording.isRecording -> drawable = ContextCompat.getDrawable(view.context, R.drawable.ic_rec_small)
-            recording.isScheduled -> drawable = ContextCompat.getDrawable(view.context, R.drawable.ic_schedule_small)
-        }
-    }
-
+    val iconId = getStateIconId(recording)
+    val drawable = if (iconId != 0) ContextCompat.getDrawable(view.context, iconId) else null
     view.visibleOrGone(drawable != null)
     view.setImageDrawable(drawable)
 }
 
+/**
+ * Returns the id of the icon that shows the state of the given recording
+ * or zero if there is no recording or the state has no icon
+ */
+fun getStateIconId(recording: Recording?): Int {
+    if (recording == null) return 0
+    return when {
+        recording.isFailed -> R.drawable.ic_error_small
+        recording.isCompleted -> R.drawable.ic_success_small
+        recording.isMissed -> R.drawable.ic_error_small
+        recording.isRecording -> R.drawable.ic_rec_small
+        recording.isScheduled -> R.drawable.ic_schedule_small
+        else -> 0
+    }
+}
+
 @BindingAdapter("iconUrl", "iconVisibility")
 fun setChannelIcon(view: ImageView, iconUrl: String?, visible: Boolean) {
     if (visible) {
@@ -610,48 +632,57 @@ fun setLocalizedDate(view: TextView, date: Long) {
  */
 @BindingAdapter("genreColor", "showGenreColor", "genreColorAlphaOffset", "genreColorItemName")
 fun setGenreColor(view: TextView, contentType: Int, showGenreColors: Boolean, offset: Int, itemName: String?) {
-    val context = view.context
-    val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
-
     if (showGenreColors) {
-        var color = ContextCompat.getColor(view.context, android.R.color.transparent)
-        if (contentType >= 0) {
-            // Get the genre color from the content type
-            color = R.color.EPG_OTHER
-            var type = contentType / 16 - 1
-            type = if (type < 0) 0 else type
-
-            Timber.d("Received content type $contentType ${if (itemName != null) " for $itemName" else ""}, final color id is ${contentType / 16}")
-            when (type) {
-                0 -> color = ContextCompat.getColor(view.context, R.color.EPG_MOVIES)
-                1 -> color = ContextCompat.getColor(view.context, R.color.EPG_NEWS)
-                2 -> color = ContextCompat.getColor(view.context, R.color.EPG_SHOWS)
-                3 -> color = ContextCompat.getColor(view.context, R.color.EPG_SPORTS)
-                4 -> color = ContextCompat.getColor(view.context, R.color.EPG_CHILD)
-                5 -> color = ContextCompat.getColor(view.context, R.color.EPG_MUSIC)
-                6 -> color = ContextCompat.getColor(view.context, R.color.EPG_ARTS)
-                7 -> color = ContextCompat.getColor(view.context, R.color.EPG_SOCIAL)
-                8 -> color = ContextCompat.getColor(view.context, R.color.EPG_SCIENCE)
-                9 -> color = ContextCompat.getColor(view.context, R.color.EPG_HOBBY)
-                10 -> color = ContextCompat.getColor(view.context, R.color.EPG_SPECIAL)
-            }
-
-            // Get the color with the desired alpha value
-            val transparencyValue = sharedPreferences.getInt("genre_color_transparency", Integer.valueOf(view.context.resources.getString(R.string.pref_default_genre_color_transparency)))
-            var alpha = ((transparencyValue - offset).toFloat() / 100.0f * 255.0f).toInt()
-            if (alpha < 0) {
-                alpha = 0
-            }
-            color = Color.argb(alpha, Color.red(color), Color.green(color), Color.blue(color))
-        }
-
-        view.setBackgroundColor(color)
+        Timber.d("Received content type $contentType ${if (itemName != null) " for $itemName" else ""}, final color id is ${contentType / 16}")
+        view.setBackgroundColor(getGenreColor(view.context, contentType, offset))
         view.visible()
     } else {
         view.gone()
     }
 }
 
+/**
+ * Calculates the genre color from the given content type
+ *
+ * @param context     The context to get the colors and the transparency preference from
+ * @param contentType The content type to calculate the color from
+ * @param offset      Positive offset from 0 to 100 to increase the transparency of the color
+ * @return The color with the transparency from the preferences or transparent for an unknown content type
+ */
+fun getGenreColor(context: Context, contentType: Int, offset: Int): Int {
+    if (contentType < 0) {
+        return ContextCompat.getColor(context, android.R.color.transparent)
+    }
+
+    // Get the genre color from the content type
+    var color = R.color.EPG_OTHER
+    var type = contentType / 16 - 1
+    type = if (type < 0) 0 else type
+
+    when (type) {
+        0 -> color = ContextCompat.getColor(context, R.color.EPG_MOVIES)
+        1 -> color = ContextCompat.getColor(context, R.color.EPG_NEWS)
+        2 -> color = ContextCompat.getColor(context, R.color.EPG_SHOWS)
+        3 -> color = ContextCompat.getColor(context, R.color.EPG_SPORTS)
+        4 -> color = ContextCompat.getColor(context, R.color.EPG_CHILD)
+        5 -> color = ContextCompat.getColor(context, R.color.EPG_MUSIC)
+        6 -> color = ContextCompat.getColor(context, R.color.EPG_ARTS)
+        7 -> color = ContextCompat.getColor(context, R.color.EPG_SOCIAL)
+        8 -> color = ContextCompat.getColor(context, R.color.EPG_SCIENCE)
+        9 -> color = ContextCompat.getColor(context, R.color.EPG_HOBBY)
+        10 -> color = ContextCompat.getColor(context, R.color.EPG_SPECIAL)
+    }
+
+    // Get the color with the desired alpha value
+    val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
+    val transparencyValue = sharedPreferences.getInt("genre_color_transparency", Integer.valueOf(context.resources.getString(R.string.pref_default_genre_color_transparency)))
+    var alpha = ((transparencyValue - offset).toFloat() / 100.0f * 255.0f).toInt()
+    if (alpha < 0) {
+        alpha = 0
+    }
+    return Color.argb(alpha, Color.red(color), Color.green(color), Color.blue(color))
+}
+
 @BindingAdapter("activeIcon")
 fun setConnectionActiveIcon(view: ImageView, isActive: Boolean) {
     // Set the active / inactive icon depending on the theme and selection status
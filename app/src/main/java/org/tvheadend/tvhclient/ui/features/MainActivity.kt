@@ -552,6 +552,11 @@ class MainActivity : AppCompatActivity(), ToolbarInterface, LayoutControlInterfa
                         syncProgress.gone()
                         sendSnackbarMessage(getString(R.string.loading_data_done))
                     }
+                    is SyncState.Failed -> {
+                        Timber.d("Sync failed, hiding progress bar")
+                        syncProgress.gone()
+                        sendSnackbarMessage(getString(R.string.loading_data_failed))
+                    }
                 }
             }
         }
@@ -11,6 +11,7 @@ import org.tvheadend.data.entity.Recording
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import timber.log.Timber
 import java.util.*
 
@@ -19,6 +20,7 @@ open class BaseChannelViewModel(application: Application) : BaseViewModel(applic
     var showAllChannelTags = MutableLiveData<Boolean>()
     val channelTags = MediatorLiveData<List<ChannelTag>>()
     val recordings: LiveData<List<Recording>> = appRepository.recordingData.getLiveDataItems()
+    val recordingIndex: LiveData<RecordingIndex> = RecordingIndex.from(recordings)
     val selectedChannelTagIds: LiveData<List<Int>?> = appRepository.channelTagData.liveDataSelectedItemIds
     val channelCount: LiveData<Int> = appRepository.channelData.getLiveDataItemCount()
     val selectedTime = MutableLiveData(Date().time)
@@ -75,8 +77,8 @@ open class BaseChannelViewModel(application: Application) : BaseViewModel(applic
         }
     }
 
-    fun getRecordingById(id: Int): Recording? {
-        return appRepository.recordingData.getItemByEventId(id)
+    suspend fun loadRecordingByEventId(id: Int): Recording? {
+        return appRepository.recordingData.loadItemByEventId(id)
     }
 
     fun getRecordingProfile(): ServerProfile? {
@@ -87,7 +89,7 @@ open class BaseChannelViewModel(application: Application) : BaseViewModel(applic
         return appRepository.serverProfileData.recordingProfileNames
     }
 
-    fun getProgramById(id: Int): Program? {
-        return appRepository.programData.getItemById(id)
+    suspend fun loadProgramById(id: Int): Program? {
+        return appRepository.programData.loadItemById(id)
     }
 }
@@ -11,10 +11,15 @@ import androidx.core.view.children
 import androidx.fragment.app.FragmentTransaction
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.afollestad.materialdialogs.MaterialDialog
 import com.afollestad.materialdialogs.input.input
+import kotlinx.coroutines.launch
+import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ChannelTag
+import org.tvheadend.data.entity.Program
+import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.RecyclerviewFragmentBinding
 import org.tvheadend.tvhclient.ui.base.BaseFragment
@@ -124,18 +129,15 @@ class ChannelListFragment : BaseFragment(), RecyclerViewClickInterface, ChannelT
         // so the recording status of the particular program can be updated. This is required
         // because the programs are not updated automatically when recordings change.
         Timber.d("Observing recordings")
-        channelViewModel.recordings.observe(viewLifecycleOwner,  { recordings ->
-            if (recordings != null) {
-                Timber.d("View model returned ${recordings.size} recordings")
-                recyclerViewAdapter.addRecordings(recordings)
-                for (recording in recordings) {
-                    // Show the edit recording screen of the scheduled recording
-                    // in case the user has selected the record and edit menu item.
-                    if (recording.eventId == programIdToBeEditedWhenBeingRecorded && programIdToBeEditedWhenBeingRecorded > 0) {
-                        programIdToBeEditedWhenBeingRecorded = 0
-                        editSelectedRecording(requireActivity(), recording.id)
-                        break
-                    }
+        channelViewModel.recordingIndex.observe(viewLifecycleOwner,  { recordingIndex ->
+            if (recordingIndex != null) {
+                Timber.d("View model returned ${recordingIndex.size} recordings")
+                recyclerViewAdapter.onRecordingsChanged()
+                // Show the edit recording screen of the scheduled recording
+                // in case the user has selected the record and edit menu item.
+                recordingIndex[programIdToBeEditedWhenBeingRecorded]?.let {
+                    programIdToBeEditedWhenBeingRecorded = 0
+                    editSelectedRecording(requireActivity(), it.id)
                 }
             }
         })
@@ -323,10 +325,14 @@ class ChannelListFragment : BaseFragment(), RecyclerViewClickInterface, ChannelT
 
     private fun showPopupMenu(view: View, position: Int) {
         val channel = recyclerViewAdapter.getItem(position) ?: return
-        val ctx = context ?: return
+        viewLifecycleOwner.lifecycleScope.launch {
+            showPopupMenu(view, channel, channelViewModel.loadProgramById(channel.programId),
+                    channelViewModel.loadRecordingByEventId(channel.programId))
+        }
+    }
 
-        val program = channelViewModel.getProgramById(channel.programId)
-        val recording = channelViewModel.getRecordingById(channel.programId)
+    private fun showPopupMenu(view: View, channel: Channel, program: Program?, recording: Recording?) {
+        val ctx = context ?: return
 
         val popupMenu = PopupMenu(ctx, view)
         popupMenu.menuInflater.inflate(R.menu.program_popup_and_toolbar_menu, popupMenu.menu)
@@ -8,17 +8,15 @@ import androidx.lifecycle.LifecycleOwner
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import org.tvheadend.data.entity.Channel
-import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.ChannelListAdapterBinding
 import org.tvheadend.tvhclient.ui.common.interfaces.RecyclerViewClickInterface
-import org.tvheadend.tvhclient.util.extensions.isEqualTo
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import java.util.*
 import java.util.concurrent.CopyOnWriteArrayList
 
 class ChannelRecyclerViewAdapter internal constructor(private val viewModel: ChannelViewModel, private val isDualPane: Boolean, private val clickCallback: RecyclerViewClickInterface, private val lifecycleOwner: LifecycleOwner) : RecyclerView.Adapter<ChannelRecyclerViewAdapter.ChannelViewHolder>(), Filterable {
 
-    private val recordingList = ArrayList<Recording>()
     private val channelList = ArrayList<Channel>()
     private var channelListFiltered: MutableList<Channel> = ArrayList()
     private var selectedPosition = 0
@@ -43,7 +41,7 @@ class ChannelRecyclerViewAdapter internal constructor(private val viewModel: Cha
     }
 
     internal fun addItems(newItems: MutableList<Channel>) {
-        updateRecordingState(newItems, recordingList)
+        updateRecordingState(newItems)
 
         val oldItems = ArrayList(channelListFiltered)
         val diffResult = DiffUtil.calculateDiff(ChannelListDiffCallback(oldItems, newItems))
@@ -112,46 +110,22 @@ class ChannelRecyclerViewAdapter internal constructor(private val viewModel: Cha
     }
 
     /**
-     * Whenever a recording changes in the database the list of available recordings are
-     * saved in this recycler view. The previous list is cleared to avoid showing outdated
-     * recording states. Each recording is checked if it belongs to the
-     * currently shown program. If yes then its state is updated.
-     *
-     * @param list List of recordings
+     * Whenever a recording has been added, changed or removed the recording of each
+     * channel is taken from the recording index of the view model. Only the channels
+     * whose recording state has changed are updated.
      */
-    internal fun addRecordings(list: List<Recording>) {
-        recordingList.clear()
-        recordingList.addAll(list)
-        updateRecordingState(channelListFiltered, recordingList)
+    internal fun onRecordingsChanged() {
+        updateRecordingState(channelListFiltered)
     }
 
-    private fun updateRecordingState(channels: MutableList<Channel>, recordings: List<Recording>) {
-        for (i in channels.indices) {
-            val channel = channels[i]
-            var recordingExists = false
-
-            for (recording in recordings) {
-                if (channel.programId > 0 && channel.programId == recording.eventId) {
-                    val oldRecording = channel.recording
-                    channel.recording = recording
-
-                    // Do a full update only when a new recording was added or the recording
-                    // state has changed which results in a different recording state icon
-                    // Otherwise do not update the UI
-                    if (oldRecording == null
-                            || !oldRecording.error.isEqualTo(recording.error)
-                            || !oldRecording.state.isEqualTo(recording.state)) {
-                        notifyItemChanged(i)
-                    }
-                    recordingExists = true
-                    break
-                }
-            }
-            if (!recordingExists && channel.recording != null) {
-                channel.recording = null
-                notifyItemChanged(i)
+    private fun updateRecordingState(channels: List<Channel>) {
+        val recordingIndex = viewModel.recordingIndex.value
+        channels.forEachIndexed { position, channel ->
+            val recording = recordingIndex?.get(channel.programId)
+            if (RecordingIndex.isStateChanged(channel.recording, recording)) {
+                notifyItemChanged(position)
             }
-            channels[i] = channel
+            channel.recording = recording
         }
     }
 
@@ -6,6 +6,7 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.Transformations
+import androidx.lifecycle.asLiveData
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.tvhclient.R
 import timber.log.Timber
@@ -51,7 +52,7 @@ class ChannelViewModel(application: Application) : BaseChannelViewModel(applicat
                 return@switchMap null
             }
             Timber.d("Loading channels because either the selected time, channel sort order or channel tag ids have changed")
-            return@switchMap appRepository.channelData.getAllChannelsByTime(time, sortOrder, tagIds)
+            return@switchMap appRepository.channelData.getAllChannelsByTime(time, sortOrder, tagIds).asLiveData()
         }
 
         onSharedPreferenceChanged(sharedPreferences, "channel_sort_order")
@@ -0,0 +1,84 @@
+package org.tvheadend.tvhclient.ui.features.dvr
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MediatorLiveData
+import org.tvheadend.data.entity.Recording
+import org.tvheadend.tvhclient.util.extensions.isEqualTo
+
+/**
+ * Maps the event ids of programs to their recordings, so that the recording state
+ * of a shown program can be looked up without searching through all recordings.
+ * The index is updated with the complete list of recordings whenever the list has
+ * changed, but only the recordings that were added, changed or removed are replaced.
+ */
+class RecordingIndex {
+
+    private val recordings = HashMap<Int, Recording>()
+
+    val size: Int
+        get() = recordings.size
+
+    operator fun get(eventId: Int): Recording? {
+        return if (eventId > 0) recordings[eventId] else null
+    }
+
+    /**
+     * Updates the index from the given recordings and returns the event ids
+     * whose recording was added, changed or removed. If several recordings
+     * belong to the same program, the first one is used.
+     */
+    fun update(list: List<Recording>): Set<Int> {
+        val current = HashMap<Int, Recording>(list.size)
+        list.forEach {
+            if (it.eventId > 0 && !current.containsKey(it.eventId)) {
+                current[it.eventId] = it
+            }
+        }
+
+        val changedEventIds = HashSet<Int>()
+        val iterator = recordings.keys.iterator()
+        while (iterator.hasNext()) {
+            val eventId = iterator.next()
+            if (!current.containsKey(eventId)) {
+                iterator.remove()
+                changedEventIds.add(eventId)
+            }
+        }
+        current.forEach { (eventId, recording) ->
+            if (recordings.put(eventId, recording) != recording) {
+                changedEventIds.add(eventId)
+            }
+        }
+        return changedEventIds
+    }
+
+    companion object {
+
+        /**
+         * Returns a live data that keeps one index up to date with the given recordings.
+         * It only emits the index when a recording was added, changed or removed.
+         */
+        fun from(recordings: LiveData<List<Recording>>): LiveData<RecordingIndex> {
+            val index = RecordingIndex()
+            val liveData = MediatorLiveData<RecordingIndex>()
+            liveData.addSource(recordings) { list ->
+                val changedEventIds = index.update(list ?: emptyList())
+                if (changedEventIds.isNotEmpty() || liveData.value == null) {
+                    liveData.value = index
+                }
+            }
+            return liveData
+        }
+
+        /**
+         * Returns true if the recording state icon of a program
+         * differs between the old and the new recording
+         */
+        fun isStateChanged(oldRecording: Recording?, newRecording: Recording?): Boolean {
+            if (oldRecording == null || newRecording == null) {
+                return (oldRecording == null) != (newRecording == null)
+            }
+            return !oldRecording.error.isEqualTo(newRecording.error) || !oldRecording.state.isEqualTo(newRecording.state)
+        }
+    }
+}
@@ -4,7 +4,9 @@ import android.os.Bundle
 import android.view.*
 import androidx.core.view.forEach
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.afollestad.materialdialogs.MaterialDialog
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
@@ -43,12 +45,18 @@ class RecordingAddEditFragment : BaseFragment(), BackPressedInterface, Recording
         profile = recordingViewModel.getRecordingProfile()
         recordingViewModel.recordingProfileNameId = getSelectedProfileId(profile, recordingProfilesList)
 
+        recordingViewModel.recordingLoadedLiveData.observe(viewLifecycleOwner,  { event ->
+            if (event.getContentIfNotHandled() != null) {
+                updateUI()
+            }
+        })
+
         if (savedInstanceState == null) {
-            recordingViewModel.loadRecordingByIdSync(arguments?.getInt("id", 0) ?: 0)
+            recordingViewModel.loadRecordingById(arguments?.getInt("id", 0) ?: 0)
+        } else {
+            updateUI()
         }
 
-        updateUI()
-
         toolbarInterface.setSubtitle("")
         toolbarInterface.setTitle(if (id > 0)
             getString(R.string.edit_recording)
@@ -91,7 +99,9 @@ class RecordingAddEditFragment : BaseFragment(), BackPressedInterface, Recording
             binding.channelName.setOnClickListener {
                 // Determine if the server supports recording on all channels
                 val allowRecordingOnAllChannels = htspVersion >= 21
-                handleChannelListSelection(ctx, recordingViewModel.getChannelList(), allowRecordingOnAllChannels, this@RecordingAddEditFragment)
+                viewLifecycleOwner.lifecycleScope.launch {
+                    handleChannelListSelection(ctx, recordingViewModel.loadChannelList(), allowRecordingOnAllChannels, this@RecordingAddEditFragment)
+                }
             }
         }
 
@@ -8,12 +8,16 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.Transformations.switchMap
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.Recording
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.service.ConnectionService
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
+import org.tvheadend.tvhclient.util.livedata.Event
 import timber.log.Timber
 
 class RecordingViewModel(application: Application) : BaseViewModel(application), SharedPreferences.OnSharedPreferenceChangeListener {
@@ -30,6 +34,14 @@ class RecordingViewModel(application: Application) : BaseViewModel(application),
     var recording = Recording()
     var recordingProfileNameId = 0
 
+    /**
+     * Emits an event when the recording that shall be edited was loaded
+     */
+    val recordingLoadedLiveData = MutableLiveData<Event<Recording>>()
+
+    // Loads the recording of the current id, a previous load is cancelled
+    private var recordingJob: Job? = null
+
     private val completedRecordingSortOrder = MutableLiveData<Int>()
     private var hideDuplicateScheduledRecordings: MutableLiveData<Boolean> = MutableLiveData()
 
@@ -63,8 +75,11 @@ class RecordingViewModel(application: Application) : BaseViewModel(application),
         onSharedPreferenceChanged(sharedPreferences, "genre_colors_for_recordings_enabled")
 
         recordingLiveData.addSource(currentIdLiveData) { value ->
+            recordingJob?.cancel()
             if (value > 0) {
-                recordingLiveData.value = appRepository.recordingData.getItemById(value)
+                recordingJob = viewModelScope.launch {
+                    recordingLiveData.value = appRepository.recordingData.loadItemById(value)
+                }
             }
         }
 
@@ -106,14 +121,17 @@ class RecordingViewModel(application: Application) : BaseViewModel(application),
         }
     }
 
-    fun loadRecordingByIdSync(id: Int) {
-        recording = appRepository.recordingData.getItemById(id) ?: Recording()
+    fun loadRecordingById(id: Int) {
+        viewModelScope.launch {
+            recording = appRepository.recordingData.loadItemById(id) ?: Recording()
+            recordingLoadedLiveData.value = Event(recording)
+        }
     }
 
-    fun getChannelList(): List<Channel> {
+    suspend fun loadChannelList(): List<Channel> {
         val channelSortOrder = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder)
                 ?: defaultChannelSortOrder)
-        return appRepository.channelData.getChannels(channelSortOrder)
+        return appRepository.channelData.loadChannels(channelSortOrder)
     }
 
     fun getRecordingProfileNames(): Array<String> {
@@ -4,8 +4,10 @@ import android.os.Bundle
 import android.view.*
 import androidx.core.view.forEach
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.afollestad.materialdialogs.MaterialDialog
 import com.afollestad.materialdialogs.list.listItemsSingleChoice
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
@@ -44,14 +46,20 @@ class SeriesRecordingAddEditFragment : BaseFragment(), BackPressedInterface, Rec
         profile = seriesRecordingViewModel.getRecordingProfile()
         seriesRecordingViewModel.recordingProfileNameId = getSelectedProfileId(profile, recordingProfilesList)
 
+        seriesRecordingViewModel.recordingLoadedLiveData.observe(viewLifecycleOwner,  { event ->
+            if (event.getContentIfNotHandled() != null) {
+                updateUI()
+            }
+        })
+
         if (savedInstanceState == null) {
-            seriesRecordingViewModel.loadRecordingByIdSync(arguments?.getString("id", "") ?: "")
+            seriesRecordingViewModel.loadRecordingById(arguments?.getString("id", "") ?: "")
+        } else {
+            updateUI()
         }
 
-        updateUI()
-
         toolbarInterface.setSubtitle("")
-        toolbarInterface.setTitle(if (seriesRecordingViewModel.recording.id.isNotEmpty())
+        toolbarInterface.setTitle(if (!arguments?.getString("id").isNullOrEmpty())
             getString(R.string.edit_recording)
         else
             getString(R.string.add_recording))
@@ -75,7 +83,9 @@ class SeriesRecordingAddEditFragment : BaseFragment(), BackPressedInterface, Rec
         binding.channelName.setOnClickListener {
             // Determine if the server supports recording on all channels
             val allowRecordingOnAllChannels = htspVersion >= 21
-            handleChannelListSelection(ctx, seriesRecordingViewModel.getChannelList(), allowRecordingOnAllChannels, this@SeriesRecordingAddEditFragment)
+            viewLifecycleOwner.lifecycleScope.launch {
+                handleChannelListSelection(ctx, seriesRecordingViewModel.loadChannelList(), allowRecordingOnAllChannels, this@SeriesRecordingAddEditFragment)
+            }
         }
 
         binding.priority.text = getPriorityName(ctx, seriesRecordingViewModel.recording.priority)
@@ -6,12 +6,16 @@ import android.content.Intent
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.SeriesRecording
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.service.ConnectionService
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
+import org.tvheadend.tvhclient.util.livedata.Event
 import timber.log.Timber
 import java.util.*
 
@@ -24,6 +28,14 @@ class SeriesRecordingViewModel(application: Application) : BaseViewModel(applica
     val recordings: LiveData<List<SeriesRecording>> = appRepository.seriesRecordingData.getLiveDataItems()
     var recordingProfileNameId = 0
 
+    /**
+     * Emits an event when the recording that shall be edited was loaded
+     */
+    val recordingLoadedLiveData = MutableLiveData<Event<SeriesRecording>>()
+
+    // Loads the recording of the current id, a previous load is cancelled
+    private var recordingJob: Job? = null
+
     var duplicateDetectionList: Array<String> = application.resources.getStringArray(R.array.duplicate_detection_list)
 
     private val defaultChannelSortOrder = application.applicationContext.resources.getString(R.string.pref_default_channel_sort_order)
@@ -73,16 +85,22 @@ class SeriesRecordingViewModel(application: Application) : BaseViewModel(applica
 
     init {
         recordingLiveData.addSource(currentIdLiveData) { value ->
+            recordingJob?.cancel()
             if (value.isNotEmpty()) {
-                recordingLiveData.value = appRepository.seriesRecordingData.getItemById(value)
+                recordingJob = viewModelScope.launch {
+                    recordingLiveData.value = appRepository.seriesRecordingData.loadItemById(value)
+                }
             }
         }
     }
 
-    fun loadRecordingByIdSync(id: String) {
-        recording = appRepository.seriesRecordingData.getItemById(id) ?: SeriesRecording()
-        // In case one of the values is negative the time setting shall be disabled
-        isTimeEnabled = recording.start >= 0 && recording.startWindow >= 0
+    fun loadRecordingById(id: String) {
+        viewModelScope.launch {
+            recording = appRepository.seriesRecordingData.loadItemById(id) ?: SeriesRecording()
+            // In case one of the values is negative the time setting shall be disabled
+            isTimeEnabled = recording.start >= 0 && recording.startWindow >= 0
+            recordingLoadedLiveData.value = Event(recording)
+        }
     }
 
     var startTimeInMillis: Long = 0
@@ -121,10 +139,10 @@ class SeriesRecordingViewModel(application: Application) : BaseViewModel(applica
         return minutes
     }
 
-    fun getChannelList(): List<Channel> {
+    suspend fun loadChannelList(): List<Channel> {
         val channelSortOrder = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder)
                 ?: defaultChannelSortOrder)
-        return appRepository.channelData.getChannels(channelSortOrder)
+        return appRepository.channelData.loadChannels(channelSortOrder)
     }
 
     fun getRecordingProfileNames(): Array<String> {
@@ -4,7 +4,9 @@ import android.os.Bundle
 import android.view.*
 import androidx.core.view.forEach
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.afollestad.materialdialogs.MaterialDialog
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
@@ -44,14 +46,20 @@ class TimerRecordingAddEditFragment : BaseFragment(), BackPressedInterface, Reco
         profile = timerRecordingViewModel.getRecordingProfile()
         timerRecordingViewModel.recordingProfileNameId = getSelectedProfileId(profile, recordingProfilesList)
 
+        timerRecordingViewModel.recordingLoadedLiveData.observe(viewLifecycleOwner,  { event ->
+            if (event.getContentIfNotHandled() != null) {
+                updateUI()
+            }
+        })
+
         if (savedInstanceState == null) {
-            timerRecordingViewModel.loadRecordingByIdSync(arguments?.getString("id", "") ?: "")
+            timerRecordingViewModel.loadRecordingById(arguments?.getString("id", "") ?: "")
+        } else {
+            updateUI()
         }
 
-        updateUI()
-
         toolbarInterface.setSubtitle("")
-        toolbarInterface.setTitle(if (timerRecordingViewModel.recording.id.isNotEmpty())
+        toolbarInterface.setTitle(if (!arguments?.getString("id").isNullOrEmpty())
             getString(R.string.edit_recording)
         else
             getString(R.string.add_recording))
@@ -74,7 +82,9 @@ class TimerRecordingAddEditFragment : BaseFragment(), BackPressedInterface, Reco
         binding.channelName.setOnClickListener {
             // Determine if the server supports recording on all channels
             val allowRecordingOnAllChannels = htspVersion >= 21
-            handleChannelListSelection(ctx, timerRecordingViewModel.getChannelList(), allowRecordingOnAllChannels, this@TimerRecordingAddEditFragment)
+            viewLifecycleOwner.lifecycleScope.launch {
+                handleChannelListSelection(ctx, timerRecordingViewModel.loadChannelList(), allowRecordingOnAllChannels, this@TimerRecordingAddEditFragment)
+            }
         }
 
         binding.priority.text = getPriorityName(ctx, timerRecordingViewModel.recording.priority)
@@ -6,12 +6,16 @@ import android.content.Intent
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.data.entity.TimerRecording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.service.ConnectionService
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
+import org.tvheadend.tvhclient.util.livedata.Event
 import timber.log.Timber
 import java.util.*
 
@@ -24,6 +28,14 @@ class TimerRecordingViewModel(application: Application) : BaseViewModel(applicat
     val recordings: LiveData<List<TimerRecording>> = appRepository.timerRecordingData.getLiveDataItems()
     var recordingProfileNameId = 0
 
+    /**
+     * Emits an event when the recording that shall be edited was loaded
+     */
+    val recordingLoadedLiveData = MutableLiveData<Event<TimerRecording>>()
+
+    // Loads the recording of the current id, a previous load is cancelled
+    private var recordingJob: Job? = null
+
     private val defaultChannelSortOrder = application.applicationContext.resources.getString(R.string.pref_default_channel_sort_order)
 
     /**
@@ -63,15 +75,21 @@ class TimerRecordingViewModel(application: Application) : BaseViewModel(applicat
 
     init {
         recordingLiveData.addSource(currentIdLiveData) { value ->
+            recordingJob?.cancel()
             if (value.isNotEmpty()) {
-                recordingLiveData.value = appRepository.timerRecordingData.getItemById(value)
+                recordingJob = viewModelScope.launch {
+                    recordingLiveData.value = appRepository.timerRecordingData.loadItemById(value)
+                }
             }
         }
     }
 
-    fun loadRecordingByIdSync(id: String) {
-        recording = appRepository.timerRecordingData.getItemById(id) ?: TimerRecording()
-        isTimeEnabled = recording.start > 0 && recording.stop > 0
+    fun loadRecordingById(id: String) {
+        viewModelScope.launch {
+            recording = appRepository.timerRecordingData.loadItemById(id) ?: TimerRecording()
+            isTimeEnabled = recording.start > 0 && recording.stop > 0
+            recordingLoadedLiveData.value = Event(recording)
+        }
     }
 
     var startTimeInMillis: Long = 0
@@ -108,9 +126,9 @@ class TimerRecordingViewModel(application: Application) : BaseViewModel(applicat
         return minutes
     }
 
-    fun getChannelList(): List<Channel> {
+    suspend fun loadChannelList(): List<Channel> {
         val channelSortOrder = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder) ?: defaultChannelSortOrder)
-        return appRepository.channelData.getChannels(channelSortOrder)
+        return appRepository.channelData.loadChannels(channelSortOrder)
     }
 
     fun getRecordingProfileNames(): Array<String> {
@@ -9,14 +9,17 @@ import android.widget.Filter
 import androidx.appcompat.widget.PopupMenu
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.RecyclerView.SCROLL_STATE_IDLE
 import androidx.viewpager2.adapter.FragmentStateAdapter
 import androidx.viewpager2.widget.ViewPager2
 import com.afollestad.materialdialogs.MaterialDialog
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.ChannelTag
 import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.EpgFragmentBinding
 import org.tvheadend.tvhclient.ui.base.BaseFragment
@@ -35,8 +38,10 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
     private lateinit var channelListRecyclerViewAdapter: EpgChannelListRecyclerViewAdapter
     private lateinit var channelListRecyclerViewLayoutManager: LinearLayoutManager
     private lateinit var viewPagerAdapter: EpgViewPagerAdapter
+    private lateinit var frameTimeMonitor: EpgFrameTimeMonitor
 
     private var enableScrolling = true
+    private var isGridViewEnabled = false
     private var programIdToBeEditedWhenBeingRecorded = 0
     private var channelTags: List<ChannelTag> = ArrayList()
     private var channelCount = 0
@@ -81,20 +86,38 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
             }
         })
 
+        // The programs are either shown in one custom drawn grid or
+        // in a view pager with one list of programs per channel row
+        isGridViewEnabled = sharedPreferences.getBoolean("epg_grid_view_enabled", resources.getBoolean(R.bool.pref_default_epg_grid_view_enabled))
+        frameTimeMonitor = EpgFrameTimeMonitor(if (isGridViewEnabled) "program guide grid" else "program guide pages")
+
         viewPagerAdapter = EpgViewPagerAdapter(this, epgViewModel)
-        binding.programListViewpager.adapter = viewPagerAdapter
-        binding.programListViewpager.offscreenPageLimit = 2
-        binding.programListViewpager.registerOnPageChangeCallback(object : ViewPager2.OnPageChangeCallback() {
-            override fun onPageSelected(position: Int) {
-                super.onPageSelected(position)
-                for (i in position - 1..position + 1) {
-                    val fragment = viewPagerAdapter.getRegisteredFragment(i)
-                    if (i != position && fragment is EpgScrollInterface) {
-                        fragment.onScroll(epgViewModel.verticalScrollPosition, epgViewModel.verticalScrollOffset)
+        if (isGridViewEnabled) {
+            epgViewModel.registeredEpgFragments.clear()
+        } else {
+            binding.programListViewpager.adapter = viewPagerAdapter
+            binding.programListViewpager.offscreenPageLimit = 2
+            binding.programListViewpager.registerOnPageChangeCallback(object : ViewPager2.OnPageChangeCallback() {
+                override fun onPageSelected(position: Int) {
+                    super.onPageSelected(position)
+                    for (i in position - 1..position + 1) {
+                        val fragment = viewPagerAdapter.getRegisteredFragment(i)
+                        if (i != position && fragment is EpgScrollInterface) {
+                            fragment.onScroll(epgViewModel.verticalScrollPosition, epgViewModel.verticalScrollOffset)
+                        }
                     }
                 }
-            }
-        })
+
+                override fun onPageScrollStateChanged(state: Int) {
+                    super.onPageScrollStateChanged(state)
+                    if (state == ViewPager2.SCROLL_STATE_IDLE) {
+                        frameTimeMonitor.stop()
+                    } else {
+                        frameTimeMonitor.start()
+                    }
+                }
+            })
+        }
 
         // Calculates the available display width of one minute in pixels. This depends
         // how wide the screen is and how many hours shall be shown in one screen.
@@ -102,6 +125,11 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
         requireActivity().windowManager.defaultDisplay.getMetrics(displayMetrics)
         epgViewModel.displayWidth = displayMetrics.widthPixels
 
+        if (isGridViewEnabled) {
+            binding.programListViewpager.gone()
+            binding.programGrid.setup(epgViewModel, this)
+        }
+
         Timber.d("Observing channel tags")
         epgViewModel.channelTags.observe(viewLifecycleOwner,  { tags ->
             if (tags != null) {
@@ -115,11 +143,18 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
 
             binding.progressBar.gone()
             binding.channelListRecyclerView.visible()
-            binding.programListViewpager.visible()
+            if (isGridViewEnabled) {
+                binding.programGrid.visible()
+            } else {
+                binding.programListViewpager.visible()
+            }
 
             if (channels != null) {
                 Timber.d("View model returned ${channels.size} epg channels")
                 channelListRecyclerViewAdapter.addItems(channels)
+                if (isGridViewEnabled) {
+                    binding.programGrid.setChannels(channels)
+                }
             }
             // Show either all channels or the name of the selected
             // channel tag and the channel count in the toolbar
@@ -135,31 +170,35 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
         epgViewModel.viewAndEpgDataIsInvalid.observe(viewLifecycleOwner,  { reload ->
             Timber.d("Trigger to reload epg data has changed to $reload")
             if (reload) {
-                viewPagerAdapter.notifyDataSetChanged()
+                if (isGridViewEnabled) {
+                    binding.programGrid.reload()
+                } else {
+                    viewPagerAdapter.notifyDataSetChanged()
+                }
             }
         })
 
-        Timber.d("Observing epg data")
-        epgViewModel.epgData.observe(viewLifecycleOwner,  { data ->
-            data?.forEach {
-                Timber.d("Loaded ${it.value.size} programs for channel ${it.key}")
-            }
-        })
+        // The view pager fragments observe the changed programs themselves
+        if (isGridViewEnabled) {
+            epgViewModel.epgProgramsChanged.observe(viewLifecycleOwner, {
+                binding.programGrid.onProgramsChanged()
+            })
+        }
 
         // Observe all recordings here in case a recording shall be edited right after it was added.
         // This needs to be done in this fragment because the popup menu handling is also done here.
         Timber.d("Observing recordings")
-        epgViewModel.recordings.observe(viewLifecycleOwner,  { recordings ->
-            if (recordings != null) {
-                Timber.d("View model returned ${recordings.size} recordings")
-                for (recording in recordings) {
-                    // Show the edit recording screen of the scheduled recording
-                    // in case the user has selected the record and edit menu item.
-                    if (recording.eventId == programIdToBeEditedWhenBeingRecorded && programIdToBeEditedWhenBeingRecorded > 0) {
-                        programIdToBeEditedWhenBeingRecorded = 0
-                        editSelectedRecording(requireActivity(), recording.id)
-                        break
-                    }
+        epgViewModel.recordingIndex.observe(viewLifecycleOwner,  { recordingIndex ->
+            if (recordingIndex != null) {
+                Timber.d("View model returned ${recordingIndex.size} recordings")
+                if (isGridViewEnabled) {
+                    binding.programGrid.invalidate()
+                }
+                // Show the edit recording screen of the scheduled recording
+                // in case the user has selected the record and edit menu item.
+                recordingIndex[programIdToBeEditedWhenBeingRecorded]?.let {
+                    programIdToBeEditedWhenBeingRecorded = 0
+                    editSelectedRecording(requireActivity(), it.id)
                 }
             }
         })
@@ -172,6 +211,7 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
     override fun onPause() {
         super.onPause()
         dialogDismissRunnable?.let { dialogDismissHandler.removeCallbacks(it) }
+        frameTimeMonitor.stop()
     }
 
     override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
@@ -218,7 +258,11 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
     override fun onTimeSelected(which: Int) {
         dialogDismissRunnable?.let { dialogDismissHandler.removeCallbacks(it) }
         epgViewModel.selectedTimeOffset = which
-        binding.programListViewpager.currentItem = which
+        if (isGridViewEnabled) {
+            binding.programGrid.scrollToTime(epgViewModel.getStartTime(which))
+        } else {
+            binding.programListViewpager.currentItem = which
+        }
 
         // Add the selected list index as extra hours to the current time.
         // If the first index was selected then use the current time.
@@ -230,6 +274,7 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
     override fun onChannelTagIdsSelected(ids: Set<Int>) {
         binding.channelListRecyclerView.gone()
         binding.programListViewpager.gone()
+        binding.programGrid.gone()
         binding.progressBar.visible()
         epgViewModel.setSelectedChannelTagIds(ids)
     }
@@ -251,8 +296,13 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
 
     internal fun showPopupMenu(view: View, program: EpgProgram?) {
         program ?: return
+        viewLifecycleOwner.lifecycleScope.launch {
+            showPopupMenu(view, program, epgViewModel.loadRecordingByEventId(program.eventId))
+        }
+    }
+
+    private fun showPopupMenu(view: View, program: EpgProgram, recording: Recording?) {
         val ctx = context ?: return
-        val recording = epgViewModel.getRecordingById(program.eventId)
 
         val popupMenu = PopupMenu(ctx, view)
         popupMenu.menuInflater.inflate(R.menu.program_popup_and_toolbar_menu, popupMenu.menu)
@@ -304,10 +354,12 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
     override fun onScroll(position: Int, offset: Int) {
         epgViewModel.verticalScrollPosition = position
         epgViewModel.verticalScrollOffset = offset
+        frameTimeMonitor.start()
         startScrolling()
     }
 
     override fun onScrollStateChanged() {
+        frameTimeMonitor.stop()
         startScrolling()
     }
 
@@ -322,6 +374,10 @@ class EpgFragment : BaseFragment(), EpgScrollInterface, RecyclerViewClickInterfa
 
         channelListRecyclerViewLayoutManager.scrollToPositionWithOffset(position, offset)
 
+        if (isGridViewEnabled) {
+            binding.programGrid.scrollToPosition(position, offset)
+            return
+        }
         for (i in 0 until viewPagerAdapter.itemCount) {
             val fragment = viewPagerAdapter.getRegisteredFragment(i)
             if (fragment is EpgScrollInterface) {
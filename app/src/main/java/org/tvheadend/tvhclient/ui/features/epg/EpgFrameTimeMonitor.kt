@@ -0,0 +1,42 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import android.view.Choreographer
+import timber.log.Timber
+
+/**
+ * Measures the time between the frames while the program guide is scrolled and logs
+ * the statistics when the scrolling has stopped. This allows comparing the frame times
+ * of the view pager with the nested lists and the single grid view on a device.
+ */
+class EpgFrameTimeMonitor(private val mode: String) : Choreographer.FrameCallback {
+
+    private val statistics = FrameTimeStatistics()
+    private var lastFrameTimeNanos = 0L
+    private var isRunning = false
+
+    fun start() {
+        if (isRunning) return
+        isRunning = true
+        lastFrameTimeNanos = 0
+        statistics.clear()
+        Choreographer.getInstance().postFrameCallback(this)
+    }
+
+    fun stop() {
+        if (!isRunning) return
+        isRunning = false
+        Choreographer.getInstance().removeFrameCallback(this)
+        if (statistics.frameCount > 0) {
+            Timber.d("Frame times while scrolling the $mode: $statistics")
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        if (!isRunning) return
+        if (lastFrameTimeNanos > 0) {
+            statistics.add(frameTimeNanos - lastFrameTimeNanos)
+        }
+        lastFrameTimeNanos = frameTimeNanos
+        Choreographer.getInstance().postFrameCallback(this)
+    }
+}
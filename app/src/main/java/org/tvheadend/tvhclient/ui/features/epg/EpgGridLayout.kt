@@ -0,0 +1,119 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.tvheadend.data.entity.EpgProgram
+
+/**
+ * Calculates the positions of the programs that are visible in the program guide grid.
+ * The grid contains one row per channel and shows the programs of all view pager pages
+ * next to each other, so it can be scrolled horizontally over all days without paging.
+ * The program cells are taken per channel and page from the given function. Only the cells
+ * of the visible part are calculated and the cell objects are reused between layouts.
+ */
+class EpgGridLayout(private val getPrograms: (channelId: Int, page: Int) -> List<EpgProgramCell>?) {
+
+    class Cell {
+        lateinit var programCell: EpgProgramCell
+        val program: EpgProgram
+            get() = programCell.program
+        var position = 0
+        var left = 0f
+        var top = 0f
+        var right = 0f
+        var bottom = 0f
+    }
+
+    var channelIds: List<Int> = emptyList()
+    var startTime = 0L
+    var pageDuration = 1L
+    var pageCount = 0
+    var pixelsPerMinute = 1f
+    var rowHeight = 1
+
+    /**
+     * The cells of the programs that were visible during the last layout
+     */
+    val cells = ArrayList<Cell>()
+    private val recycledCells = ArrayList<Cell>()
+
+    val width: Int
+        get() = getX(startTime + pageCount * pageDuration).toInt()
+
+    val height: Int
+        get() = channelIds.size * rowHeight
+
+    fun getX(time: Long): Float {
+        return (time - startTime) / 60000f * pixelsPerMinute
+    }
+
+    fun getTime(x: Float): Long {
+        return startTime + (x / pixelsPerMinute * 60000f).toLong()
+    }
+
+    fun getPage(time: Long): Int {
+        return ((time - startTime) / pageDuration).toInt().coerceIn(0, (pageCount - 1).coerceAtLeast(0))
+    }
+
+    fun getPageStartTime(page: Int): Long {
+        return startTime + page * pageDuration
+    }
+
+    /**
+     * Calculates the cells of the programs that are visible in the given area. For each
+     * visible channel and page whose programs are not available yet, the listener is called
+     * with the position of the channel and the page so the programs can be loaded.
+     */
+    fun layout(left: Int, top: Int, viewWidth: Int, viewHeight: Int, onProgramsMissing: (position: Int, page: Int) -> Unit) {
+        recycledCells.addAll(cells)
+        cells.clear()
+        if (channelIds.isEmpty() || pageCount == 0 || viewWidth <= 0 || viewHeight <= 0) return
+
+        val firstPosition = (top / rowHeight).coerceAtLeast(0)
+        val lastPosition = ((top + viewHeight - 1) / rowHeight).coerceAtMost(channelIds.size - 1)
+        val visibleStartTime = getTime(left.toFloat())
+        val visibleEndTime = getTime((left + viewWidth).toFloat())
+        val firstPage = getPage(visibleStartTime)
+        val lastPage = getPage(visibleEndTime)
+
+        for (position in firstPosition..lastPosition) {
+            val channelId = channelIds[position]
+            var previousPageLoaded = false
+            for (page in firstPage..lastPage) {
+                val programs = getPrograms(channelId, page)
+                if (programs == null) {
+                    onProgramsMissing(position, page)
+                    previousPageLoaded = false
+                    continue
+                }
+                // Programs that run over the start of the page are also
+                // contained in the previous page and shown from there
+                val pageStartTime = getPageStartTime(page)
+                for (programCell in programs) {
+                    val program = programCell.program
+                    if (program.stop <= visibleStartTime || program.start >= visibleEndTime) continue
+                    if (previousPageLoaded && program.start < pageStartTime) continue
+                    addCell(programCell, position)
+                }
+                previousPageLoaded = true
+            }
+        }
+    }
+
+    private fun addCell(programCell: EpgProgramCell, position: Int) {
+        val program = programCell.program
+        val cell = if (recycledCells.isEmpty()) Cell() else recycledCells.removeAt(recycledCells.size - 1)
+        cell.programCell = programCell
+        cell.position = position
+        cell.left = getX(program.start).coerceAtLeast(0f)
+        cell.right = getX(program.stop).coerceAtMost(width.toFloat())
+        cell.top = (position * rowHeight).toFloat()
+        cell.bottom = cell.top + rowHeight
+        cells.add(cell)
+    }
+
+    /**
+     * Returns the visible cell at the given position of the grid or null if there is none
+     */
+    fun findCell(x: Float, y: Float): Cell? {
+        return cells.firstOrNull { x >= it.left && x < it.right && y >= it.top && y < it.bottom }
+    }
+}
@@ -0,0 +1,519 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.drawable.Drawable
+import android.os.Bundle
+import android.text.TextPaint
+import android.text.TextUtils
+import android.text.format.DateUtils
+import android.util.AttributeSet
+import android.util.LruCache
+import android.util.SparseArray
+import android.util.SparseBooleanArray
+import android.util.TypedValue
+import android.view.GestureDetector
+import android.view.KeyEvent
+import android.view.MotionEvent
+import android.view.View
+import android.view.accessibility.AccessibilityEvent
+import android.widget.OverScroller
+import androidx.core.content.ContextCompat
+import androidx.core.view.ViewCompat
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat
+import androidx.customview.widget.ExploreByTouchHelper
+import androidx.preference.PreferenceManager
+import org.tvheadend.data.entity.EpgChannel
+import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.tvhclient.R
+import org.tvheadend.tvhclient.ui.common.getLocale
+import org.tvheadend.tvhclient.ui.common.getStateIconId
+import java.text.DateFormat
+import java.text.SimpleDateFormat
+import java.util.*
+
+/**
+ * Draws the programs of all channels in one scrollable grid instead of using a view
+ * pager with a nested list of programs per channel row. The grid can be scrolled
+ * continuously over all days. Only the visible programs are drawn from their prepared
+ * cells and their texts are shortened to the available width once and then reused.
+ * The visible programs are exposed to the accessibility services as virtual views.
+ */
+class EpgGridView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
+
+    private lateinit var viewModel: EpgViewModel
+    private var scrollListener: EpgScrollInterface? = null
+
+    private val layout = EpgGridLayout { channelId, page -> viewModel.getProgramsByChannel(channelId, page) }
+    private var scrollLeft = 0
+    private var scrollTop = 0
+    private var isScrolling = false
+    private var isFlinging = false
+    private val scroller = OverScroller(context)
+    private val requestedPages = SparseBooleanArray()
+    private val accessibilityHelper = ProgramAccessibilityHelper()
+
+    private val density = resources.displayMetrics.density
+    private val headerHeight = (36 * density).toInt()
+    private val smallMargin = 2 * density
+    private val margin = 4 * density
+    private val textMargin = 8 * density
+    private val iconSize = (16 * density).toInt()
+    private val dividerWidth = density.coerceAtLeast(1f)
+
+    private val titlePaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+    private val contentPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+    private val headerTextPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+    private val headerPaint = Paint()
+    private val dividerPaint = Paint()
+    private val genreColorPaint = Paint()
+
+    private val texts = LruCache<Long, CharSequence>(TEXT_CACHE_SIZE)
+    private val timeTexts = HashMap<Long, String>()
+    private val stateIcons = SparseArray<Drawable>()
+    private val currentTimeIcon = ContextCompat.getDrawable(context, R.drawable.current_time)
+    private val timeFormat: DateFormat
+
+    private val updateCurrentTimeTask = object : Runnable {
+        override fun run() {
+            invalidate()
+            postDelayed(this, CURRENT_TIME_UPDATE_INTERVAL)
+        }
+    }
+
+    private val gestureDetector = GestureDetector(context, object : GestureDetector.SimpleOnGestureListener() {
+        override fun onDown(e: MotionEvent): Boolean {
+            if (!scroller.isFinished) {
+                scroller.forceFinished(true)
+                isFlinging = false
+            }
+            return true
+        }
+
+        override fun onScroll(e1: MotionEvent?, e2: MotionEvent, distanceX: Float, distanceY: Float): Boolean {
+            if (!isScrolling) {
+                parent?.requestDisallowInterceptTouchEvent(true)
+                isScrolling = true
+            }
+            scrollGridTo(scrollLeft + distanceX.toInt(), scrollTop + distanceY.toInt())
+            return true
+        }
+
+        override fun onFling(e1: MotionEvent?, e2: MotionEvent, velocityX: Float, velocityY: Float): Boolean {
+            isScrolling = true
+            isFlinging = true
+            scroller.fling(scrollLeft, scrollTop, -velocityX.toInt(), -velocityY.toInt(), 0, maxScrollLeft, 0, maxScrollTop)
+            ViewCompat.postInvalidateOnAnimation(this@EpgGridView)
+            return true
+        }
+
+        override fun onSingleTapUp(e: MotionEvent): Boolean {
+            val program = findProgram(e) ?: return false
+            onProgramClick(program)
+            return true
+        }
+
+        override fun onLongPress(e: MotionEvent) {
+            val program = findProgram(e) ?: return
+            onProgramLongClick(program)
+        }
+    })
+
+    init {
+        setTextAppearance(R.attr.ProgramGuideTitleFont, titlePaint)
+        setTextAppearance(R.attr.ProgramGuideContentFont, contentPaint)
+        setTextAppearance(R.attr.ContentFont, headerTextPaint)
+        headerPaint.color = getThemeColor(R.attr.material_drawer_selected)
+        dividerPaint.color = getThemeColor(R.attr.divider_color)
+
+        val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
+        timeFormat = if (sharedPreferences.getBoolean("localized_date_time_format_enabled", resources.getBoolean(R.bool.pref_default_localized_date_time_format_enabled))) {
+            DateFormat.getTimeInstance(DateFormat.SHORT, getLocale(context))
+        } else {
+            SimpleDateFormat("HH:mm", Locale.US)
+        }
+        ViewCompat.setAccessibilityDelegate(this, accessibilityHelper)
+    }
+
+    private fun setTextAppearance(attr: Int, paint: TextPaint) {
+        val typedValue = TypedValue()
+        context.theme.resolveAttribute(attr, typedValue, true)
+        val typedArray = context.obtainStyledAttributes(typedValue.resourceId, intArrayOf(android.R.attr.textSize, android.R.attr.textColor))
+        paint.textSize = typedArray.getDimension(0, 12 * resources.displayMetrics.scaledDensity)
+        paint.color = typedArray.getColor(1, Color.GRAY)
+        typedArray.recycle()
+    }
+
+    private fun getThemeColor(attr: Int): Int {
+        val typedValue = TypedValue()
+        context.theme.resolveAttribute(attr, typedValue, true)
+        return if (typedValue.resourceId != 0) ContextCompat.getColor(context, typedValue.resourceId) else typedValue.data
+    }
+
+    fun setup(viewModel: EpgViewModel, scrollListener: EpgScrollInterface) {
+        this.viewModel = viewModel
+        this.scrollListener = scrollListener
+        layout.rowHeight = resources.getDimensionPixelSize(R.dimen.dp_80)
+        reload()
+    }
+
+    fun setChannels(channels: List<EpgChannel>) {
+        layout.channelIds = channels.map { it.id }
+        reload()
+    }
+
+    /**
+     * Takes over the times and the size of the program guide from the view model,
+     * for example after the hours per screen or the days to show have changed.
+     */
+    fun reload() {
+        val pageCount = viewModel.viewPagerFragmentCount.value ?: 0
+        layout.pageCount = pageCount
+        layout.startTime = if (pageCount > 0) viewModel.getStartTime(0) else 0
+        layout.pageDuration = viewModel.hoursToShow * HOUR
+        layout.pixelsPerMinute = viewModel.pixelsPerMinute.coerceAtLeast(MIN_PIXELS_PER_MINUTE)
+        timeTexts.clear()
+        scrollLeft = scrollLeft.coerceIn(0, maxScrollLeft)
+        scrollTop = scrollTop.coerceIn(0, maxScrollTop)
+        invalidate()
+        accessibilityHelper.invalidateRoot()
+    }
+
+    /**
+     * Redraws the grid after some of the cached programs have changed. The
+     * shortened texts are removed because the program texts may have changed.
+     */
+    fun onProgramsChanged() {
+        texts.evictAll()
+        invalidate()
+        accessibilityHelper.invalidateRoot()
+    }
+
+    /**
+     * Scrolls vertically to the given channel position and offset
+     * without notifying the listener, like the channel list does.
+     */
+    fun scrollToPosition(position: Int, offset: Int) {
+        val top = (position * layout.rowHeight - offset).coerceIn(0, maxScrollTop)
+        if (top != scrollTop) {
+            scrollTop = top
+            invalidate()
+        }
+    }
+
+    fun scrollToTime(time: Long) {
+        scroller.forceFinished(true)
+        scrollLeft = layout.getX(time).toInt().coerceIn(0, maxScrollLeft)
+        invalidate()
+    }
+
+    private val maxScrollLeft: Int
+        get() = (layout.width - width).coerceAtLeast(0)
+
+    private val maxScrollTop: Int
+        get() = (layout.height - (height - headerHeight)).coerceAtLeast(0)
+
+    private fun scrollGridTo(x: Int, y: Int) {
+        val left = x.coerceIn(0, maxScrollLeft)
+        val top = y.coerceIn(0, maxScrollTop)
+        if (left == scrollLeft && top == scrollTop) return
+
+        val verticalScrollChanged = top != scrollTop
+        scrollLeft = left
+        scrollTop = top
+        invalidate()
+        if (verticalScrollChanged) {
+            scrollListener?.onScroll(top / layout.rowHeight, -(top % layout.rowHeight))
+        }
+    }
+
+    private fun onScrollingStopped() {
+        isScrolling = false
+        isFlinging = false
+        scrollListener?.onScrollStateChanged()
+        accessibilityHelper.invalidateRoot()
+    }
+
+    override fun computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollGridTo(scroller.currX, scroller.currY)
+            ViewCompat.postInvalidateOnAnimation(this)
+        } else if (isFlinging) {
+            onScrollingStopped()
+        }
+    }
+
+    override fun onTouchEvent(event: MotionEvent): Boolean {
+        val handled = gestureDetector.onTouchEvent(event)
+        val action = event.actionMasked
+        if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) && isScrolling && !isFlinging) {
+            onScrollingStopped()
+        }
+        return handled || super.onTouchEvent(event)
+    }
+
+    private fun findProgram(e: MotionEvent): EpgProgram? {
+        return findCell(e.x, e.y)?.program
+    }
+
+    private fun findCell(x: Float, y: Float): EpgGridLayout.Cell? {
+        if (y < headerHeight) return null
+        return layout.findCell(x + scrollLeft, y - headerHeight + scrollTop)
+    }
+
+    private fun onProgramClick(program: EpgProgram) {
+        viewModel.onClick(this, program)
+    }
+
+    private fun onProgramLongClick(program: EpgProgram) {
+        program.recording = viewModel.recordingIndex.value?.get(program.eventId)
+        viewModel.onLongClick(this, program)
+    }
+
+    override fun dispatchHoverEvent(event: MotionEvent): Boolean {
+        return accessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event)
+    }
+
+    override fun dispatchKeyEvent(event: KeyEvent): Boolean {
+        return accessibilityHelper.dispatchKeyEvent(event) || super.dispatchKeyEvent(event)
+    }
+
+    override fun onFocusChanged(gainFocus: Boolean, direction: Int, previouslyFocusedRect: Rect?) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect)
+        accessibilityHelper.onFocusChanged(gainFocus, direction, previouslyFocusedRect)
+    }
+
+    override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
+        super.onSizeChanged(w, h, oldw, oldh)
+        scrollLeft = scrollLeft.coerceIn(0, maxScrollLeft)
+        scrollTop = scrollTop.coerceIn(0, maxScrollTop)
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        postDelayed(updateCurrentTimeTask, CURRENT_TIME_UPDATE_INTERVAL)
+    }
+
+    override fun onDetachedFromWindow() {
+        removeCallbacks(updateCurrentTimeTask)
+        super.onDetachedFromWindow()
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        if (!::viewModel.isInitialized) return
+
+        // Load the programs of the visible channels once per page
+        // and draw again when they are available
+        val gridHeight = height - headerHeight
+        requestedPages.clear()
+        layout.layout(scrollLeft, scrollTop, width, gridHeight) { position, page ->
+            if (!requestedPages.get(page)) {
+                requestedPages.put(page, true)
+                viewModel.loadProgramsAroundChannel(layout.channelIds, position, page) {
+                    invalidate()
+                    accessibilityHelper.invalidateRoot()
+                }
+            }
+        }
+
+        canvas.save()
+        canvas.clipRect(0, headerHeight, width, height)
+        canvas.translate(-scrollLeft.toFloat(), (headerHeight - scrollTop).toFloat())
+
+        val rowHeight = layout.rowHeight
+        val lastPosition = ((scrollTop + gridHeight) / rowHeight).coerceAtMost(layout.channelIds.size - 1)
+        for (position in scrollTop / rowHeight..lastPosition) {
+            val bottom = ((position + 1) * rowHeight).toFloat()
+            canvas.drawRect(scrollLeft.toFloat(), bottom - dividerWidth, (scrollLeft + width).toFloat(), bottom, dividerPaint)
+        }
+
+        for (cell in layout.cells) {
+            drawCell(canvas, cell)
+        }
+
+        currentTimeIcon?.let {
+            val x = layout.getX(System.currentTimeMillis()).toInt()
+            it.setBounds(x, scrollTop, x + (2 * density).toInt(), scrollTop + gridHeight)
+            it.draw(canvas)
+        }
+        canvas.restore()
+
+        drawHeader(canvas)
+    }
+
+    private fun drawCell(canvas: Canvas, cell: EpgGridLayout.Cell) {
+        val programCell = cell.programCell
+        val program = programCell.program
+        val bottom = cell.bottom - dividerWidth
+
+        if (programCell.genreColor != 0) {
+            genreColorPaint.color = programCell.genreColor
+            canvas.drawRect(cell.left + smallMargin, cell.top + smallMargin, cell.right - dividerWidth - smallMargin, bottom - smallMargin, genreColorPaint)
+        }
+        canvas.drawRect(cell.right - dividerWidth, cell.top + margin, cell.right, bottom - margin, dividerPaint)
+
+        val textLeft = cell.left + textMargin
+        val textRight = cell.right - dividerWidth - margin
+        var titleRight = textRight
+
+        val iconId = getStateIconId(viewModel.recordingIndex.value?.get(program.eventId))
+        if (iconId != 0) {
+            getStateIcon(iconId)?.let {
+                val iconTop = (cell.top + margin).toInt()
+                it.setBounds(textRight.toInt() - iconSize, iconTop, textRight.toInt(), iconTop + iconSize)
+                it.draw(canvas)
+            }
+            titleRight -= iconSize + margin
+        }
+
+        var baseline = cell.top + margin - titlePaint.ascent()
+        drawText(canvas, program.eventId, TITLE, programCell.title, textLeft, titleRight, baseline, titlePaint)
+        baseline += titlePaint.descent() - contentPaint.ascent()
+        if (programCell.subtitle != null) {
+            drawText(canvas, program.eventId, SUBTITLE, programCell.subtitle, textLeft, textRight, baseline, contentPaint)
+            baseline += contentPaint.fontSpacing
+        }
+        if (baseline + contentPaint.descent() <= bottom) {
+            drawText(canvas, program.eventId, DURATION, programCell.durationText, textLeft, textRight, baseline, contentPaint)
+        }
+    }
+
+    /**
+     * Draws the text shortened to the available width. The shortened text is
+     * cached per program and width, so it is only measured once while scrolling.
+     */
+    private fun drawText(canvas: Canvas, eventId: Int, line: Int, text: CharSequence?, left: Float, right: Float, baseline: Float, paint: TextPaint) {
+        if (text.isNullOrEmpty()) return
+        val availableWidth = (right - left).toInt()
+        if (availableWidth <= 0) return
+
+        val key = (eventId.toLong() shl 32) or (availableWidth.toLong() shl 2) or line.toLong()
+        var shortenedText = texts.get(key)
+        if (shortenedText == null) {
+            shortenedText = TextUtils.ellipsize(text, paint, availableWidth.toFloat(), TextUtils.TruncateAt.END)
+            texts.put(key, shortenedText)
+        }
+        canvas.drawText(shortenedText, 0, shortenedText.length, left, baseline, paint)
+    }
+
+    /**
+     * Draws the start time of each hour and the day of the
+     * first visible hour above the programs
+     */
+    private fun drawHeader(canvas: Canvas) {
+        canvas.drawRect(0f, 0f, width.toFloat(), headerHeight.toFloat(), headerPaint)
+        if (layout.pageCount == 0) return
+
+        val baseline = (headerHeight - headerTextPaint.ascent() - headerTextPaint.descent()) / 2
+        val firstHour = ((layout.getTime(scrollLeft.toFloat()) - layout.startTime) / HOUR).coerceAtLeast(0)
+        val lastHour = (layout.getTime((scrollLeft + width).toFloat()) - layout.startTime) / HOUR
+        for (hour in firstHour..lastHour) {
+            val x = layout.getX(layout.startTime + hour * HOUR) - scrollLeft
+            canvas.drawRect(x, headerHeight - textMargin, x + dividerWidth, headerHeight.toFloat(), dividerPaint)
+            canvas.drawText(getTimeText(hour, false), x + margin, baseline, headerTextPaint)
+        }
+
+        val dayText = getTimeText(firstHour, true)
+        canvas.drawRect(0f, 0f, headerTextPaint.measureText(dayText) + 2 * margin, headerHeight.toFloat(), headerPaint)
+        canvas.drawText(dayText, margin, baseline, headerTextPaint)
+    }
+
+    private fun getTimeText(hour: Long, showDay: Boolean): String {
+        val key = if (showDay) -hour - 1 else hour
+        return timeTexts.getOrPut(key) {
+            val time = layout.startTime + hour * HOUR
+            if (showDay) {
+                DateUtils.formatDateTime(context, time, DateUtils.FORMAT_SHOW_WEEKDAY or DateUtils.FORMAT_ABBREV_WEEKDAY or DateUtils.FORMAT_SHOW_DATE or DateUtils.FORMAT_NO_YEAR)
+            } else {
+                timeFormat.format(time)
+            }
+        }
+    }
+
+    private fun getStateIcon(iconId: Int): Drawable? {
+        var icon = stateIcons.get(iconId)
+        if (icon == null) {
+            icon = ContextCompat.getDrawable(context, iconId) ?: return null
+            stateIcons.put(iconId, icon)
+        }
+        return icon
+    }
+
+    /**
+     * Exposes each visible program cell as a virtual view with the texts of the
+     * cell as its description, like the separate program views did before. The
+     * event id is used as the id of the virtual view, so it stays the same while
+     * the grid is scrolled.
+     */
+    private inner class ProgramAccessibilityHelper : ExploreByTouchHelper(this@EpgGridView) {
+
+        private val bounds = Rect()
+
+        override fun getVirtualViewAt(x: Float, y: Float): Int {
+            return findCell(x, y)?.program?.eventId ?: INVALID_ID
+        }
+
+        override fun getVisibleVirtualViews(virtualViewIds: MutableList<Int>) {
+            layout.cells.mapTo(virtualViewIds) { it.program.eventId }
+        }
+
+        override fun onPopulateNodeForVirtualView(virtualViewId: Int, node: AccessibilityNodeInfoCompat) {
+            val cell = findCellByEventId(virtualViewId)
+            if (cell == null) {
+                // The program is not visible anymore
+                node.contentDescription = ""
+                node.setBoundsInParent(Rect())
+                return
+            }
+            val programCell = cell.programCell
+            node.contentDescription = listOfNotNull(programCell.title ?: programCell.program.title, programCell.subtitle, programCell.durationText)
+                    .filter { it.isNotEmpty() }
+                    .joinToString(", ")
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK)
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_LONG_CLICK)
+
+            // Only the part of the cell below the header is visible
+            bounds.set((cell.left - scrollLeft).toInt(), (cell.top + headerHeight - scrollTop).toInt(),
+                    (cell.right - scrollLeft).toInt(), (cell.bottom + headerHeight - scrollTop).toInt())
+            if (!bounds.intersect(0, headerHeight, width, height)) {
+                bounds.setEmpty()
+            }
+            node.setBoundsInParent(bounds)
+        }
+
+        override fun onPerformActionForVirtualView(virtualViewId: Int, action: Int, arguments: Bundle?): Boolean {
+            val program = findCellByEventId(virtualViewId)?.program ?: return false
+            when (action) {
+                AccessibilityNodeInfoCompat.ACTION_CLICK -> {
+                    onProgramClick(program)
+                    sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED)
+                    return true
+                }
+                AccessibilityNodeInfoCompat.ACTION_LONG_CLICK -> {
+                    onProgramLongClick(program)
+                    sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_LONG_CLICKED)
+                    return true
+                }
+            }
+            return false
+        }
+
+        private fun findCellByEventId(eventId: Int): EpgGridLayout.Cell? {
+            return layout.cells.firstOrNull { it.program.eventId == eventId }
+        }
+    }
+
+    companion object {
+        private const val HOUR = 60 * 60 * 1000L
+        private const val CURRENT_TIME_UPDATE_INTERVAL = 60000L
+        private const val MIN_PIXELS_PER_MINUTE = 0.1f
+        private const val TEXT_CACHE_SIZE = 1000
+        private const val TITLE = 0
+        private const val SUBTITLE = 1
+        private const val DURATION = 2
+    }
+}
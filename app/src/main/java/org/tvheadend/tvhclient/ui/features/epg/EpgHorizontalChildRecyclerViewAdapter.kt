@@ -5,17 +5,14 @@ import android.view.ViewGroup
 import androidx.lifecycle.LifecycleOwner
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
-import org.tvheadend.data.entity.EpgProgram
-import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.EpgHorizontalChildRecyclerviewAdapterBinding
-import org.tvheadend.tvhclient.util.extensions.isEqualTo
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import java.util.*
 
-internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgViewModel, private val fragmentId: Int, private val lifecycleOwner: LifecycleOwner) : RecyclerView.Adapter<EpgHorizontalChildRecyclerViewAdapter.EpgProgramListViewHolder>() {
+internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgViewModel, private val lifecycleOwner: LifecycleOwner) : RecyclerView.Adapter<EpgHorizontalChildRecyclerViewAdapter.EpgProgramListViewHolder>() {
 
-    private val programList = ArrayList<EpgProgram>()
-    private val recordingList = ArrayList<Recording>()
+    private val programList = ArrayList<EpgProgramCell>()
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): EpgProgramListViewHolder {
         val layoutInflater = LayoutInflater.from(parent.context)
@@ -27,13 +24,7 @@ internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgV
 
     override fun onBindViewHolder(holder: EpgProgramListViewHolder, position: Int) {
         if (programList.size > position) {
-            val program = programList[position]
-
-            val startTime = if (program.start < viewModel.getStartTime(fragmentId)) viewModel.getStartTime(fragmentId) else program.start
-            val stopTime = if (program.stop > viewModel.getEndTime(fragmentId)) viewModel.getEndTime(fragmentId) else program.stop
-            val layoutWidth = ((stopTime - startTime) / 1000 / 60 * viewModel.pixelsPerMinute).toInt()
-
-            holder.bind(program, layoutWidth)
+            holder.bind(programList[position])
         }
     }
 
@@ -41,8 +32,8 @@ internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgV
         onBindViewHolder(holder, position)
     }
 
-    fun addItems(newItems: MutableList<EpgProgram>) {
-        updateRecordingState(newItems, recordingList)
+    fun addItems(newItems: MutableList<EpgProgramCell>) {
+        updateRecordingState(newItems)
 
         val oldItems = ArrayList(programList)
         val diffResult = DiffUtil.calculateDiff(EpgProgramListDiffCallback(oldItems, newItems))
@@ -52,39 +43,24 @@ internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgV
         diffResult.dispatchUpdatesTo(this)
     }
 
-    fun addRecordings(list: List<Recording>) {
-        recordingList.clear()
-        recordingList.addAll(list)
-        updateRecordingState(programList, recordingList)
+    /**
+     * Whenever a recording has been added, changed or removed the recording of each
+     * program is taken from the recording index of the view model. Only the programs
+     * whose recording state has changed are updated.
+     */
+    internal fun onRecordingsChanged() {
+        updateRecordingState(programList)
     }
 
-    private fun updateRecordingState(programs: MutableList<EpgProgram>, recordings: List<Recording>) {
-        for (i in programs.indices) {
-            val program = programs[i]
-            var recordingExists = false
-
-            for (recording in recordings) {
-                if (program.eventId > 0 && program.eventId == recording.eventId) {
-                    val oldRecording = program.recording
-                    program.recording = recording
-
-                    // Do a full update only when a new recording was added or the recording
-                    // state has changed which results in a different recording state icon
-                    // Otherwise do not update the UI
-                    if (oldRecording == null
-                            || !oldRecording.error.isEqualTo(recording.error)
-                            || !oldRecording.state.isEqualTo(recording.state)) {
-                        notifyItemChanged(i)
-                    }
-                    recordingExists = true
-                    break
-                }
-            }
-            if (!recordingExists && program.recording != null) {
-                program.recording = null
-                notifyItemChanged(i)
+    private fun updateRecordingState(cells: List<EpgProgramCell>) {
+        val recordingIndex = viewModel.recordingIndex.value
+        cells.forEachIndexed { position, cell ->
+            val program = cell.program
+            val recording = recordingIndex?.get(program.eventId)
+            if (RecordingIndex.isStateChanged(program.recording, recording)) {
+                notifyItemChanged(position)
             }
-            programs[i] = program
+            program.recording = recording
         }
     }
 
@@ -98,9 +74,8 @@ internal class EpgHorizontalChildRecyclerViewAdapter(private val viewModel: EpgV
 
     internal class EpgProgramListViewHolder(private val binding: EpgHorizontalChildRecyclerviewAdapterBinding,
                                             private val viewModel: EpgViewModel) : RecyclerView.ViewHolder(binding.root) {
-        fun bind(program: EpgProgram, layoutWidth: Int) {
-            binding.program = program
-            binding.layoutWidth = layoutWidth
+        fun bind(cell: EpgProgramCell) {
+            binding.cell = cell
             binding.viewModel = viewModel
             binding.executePendingBindings()
         }
@@ -0,0 +1,126 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.tvheadend.data.source.ProgramChange
+
+/**
+ * Keeps the cells of the loaded programs of the program guide pages. A page is identified by its
+ * position in the view pager, the selected channel tags and the channel sort order, so
+ * that returning to a page or a previous selection does not load the programs again.
+ * The least recently used pages are dropped when the number of cached programs exceeds
+ * the maximum, each channel also counts as one program. Changed programs are removed
+ * only from the channels and time windows they affect. Must be used from the main thread.
+ */
+class EpgPageCache(private val maxProgramCount: Int = DEFAULT_MAX_PROGRAM_COUNT) {
+
+    data class PageKey(val fragmentId: Int, val channelTagIds: List<Int>, val channelSortOrder: Int)
+
+    private class Page(val startTime: Long, val endTime: Long) {
+        val programsOfChannels = HashMap<Int, List<EpgProgramCell>>()
+        var programCount = 0
+    }
+
+    // Iterates from the least to the most recently used page
+    private val pages = LinkedHashMap<PageKey, Page>(16, 0.75f, true)
+
+    var programCount = 0
+        private set
+    var hitCount = 0
+        private set
+    var missCount = 0
+        private set
+    var evictionCount = 0
+        private set
+
+    /**
+     * Returns the cached programs of the channel in the page or null if they are
+     * not cached. The result is counted as a hit or a miss.
+     */
+    fun getPrograms(key: PageKey, channelId: Int): List<EpgProgramCell>? {
+        val programs = pages[key]?.programsOfChannels?.get(channelId)
+        if (programs != null) hitCount++ else missCount++
+        return programs
+    }
+
+    /**
+     * Returns if the programs of the channel are cached without counting a hit or miss
+     */
+    fun contains(key: PageKey, channelId: Int): Boolean {
+        return pages[key]?.programsOfChannels?.containsKey(channelId) == true
+    }
+
+    fun putPrograms(key: PageKey, startTime: Long, endTime: Long, programsOfChannels: Map<Int, List<EpgProgramCell>>) {
+        var page = pages[key]
+        if (page == null || page.startTime != startTime || page.endTime != endTime) {
+            page?.let { programCount -= it.programCount }
+            page = Page(startTime, endTime)
+            pages[key] = page
+        }
+        programsOfChannels.forEach { (channelId, programs) ->
+            val previous = page.programsOfChannels.put(channelId, programs)
+            val delta = sizeOf(programs) - (previous?.let { sizeOf(it) } ?: 0)
+            page.programCount += delta
+            programCount += delta
+        }
+        trimToSize(key)
+    }
+
+    /**
+     * Removes the programs of the channels in the pages whose time window overlaps
+     * a changed time slot or that contain a changed program. Returns the ids of the
+     * channels whose programs were removed.
+     */
+    fun invalidate(change: ProgramChange): Set<Int> {
+        val timeSlotsOfChannels = change.timeSlots.groupBy { it.channelId }
+        val timeSlotsOfAllChannels = timeSlotsOfChannels[null] ?: emptyList()
+        val removedChannelIds = HashSet<Int>()
+
+        // Iterating over the values does not change the order of use
+        pages.values.forEach { page ->
+            val iterator = page.programsOfChannels.entries.iterator()
+            while (iterator.hasNext()) {
+                val (channelId, programs) = iterator.next()
+                val isChanged = timeSlotsOfAllChannels.any { it.overlaps(channelId, page.startTime, page.endTime) }
+                        || timeSlotsOfChannels[channelId]?.any { it.overlaps(channelId, page.startTime, page.endTime) } == true
+                        || (change.eventIds.isNotEmpty() && programs.any { change.eventIds.contains(it.program.eventId) })
+                if (isChanged) {
+                    iterator.remove()
+                    page.programCount -= sizeOf(programs)
+                    programCount -= sizeOf(programs)
+                    removedChannelIds.add(channelId)
+                }
+            }
+        }
+        return removedChannelIds
+    }
+
+    fun clear() {
+        pages.clear()
+        programCount = 0
+    }
+
+    private fun sizeOf(programs: List<EpgProgramCell>): Int {
+        return programs.size + 1
+    }
+
+    private fun trimToSize(keptKey: PageKey) {
+        val iterator = pages.entries.iterator()
+        while (programCount > maxProgramCount && iterator.hasNext()) {
+            val (key, page) = iterator.next()
+            // The page that was just loaded is kept even if it is too large by itself
+            if (key != keptKey) {
+                iterator.remove()
+                programCount -= page.programCount
+                evictionCount++
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return "${pages.size} pages with $programCount programs, $hitCount hits, $missCount misses, $evictionCount evictions"
+    }
+
+    companion object {
+        // A program cell with the epg program, its title and subtitle takes roughly 400 bytes
+        const val DEFAULT_MAX_PROGRAM_COUNT = 10000
+    }
+}
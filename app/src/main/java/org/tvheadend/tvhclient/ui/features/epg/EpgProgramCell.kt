@@ -0,0 +1,17 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.tvheadend.data.entity.EpgProgram
+
+/**
+ * A program as it is shown in a cell of the program guide. All values are calculated
+ * in the background when the programs of a page are loaded, so that showing the cell
+ * only needs to copy them. The title and subtitle are null if they shall not be shown
+ * and the genre color is zero if no genre color shall be shown.
+ */
+data class EpgProgramCell(
+        val program: EpgProgram,
+        val layoutWidth: Int = 0,
+        val title: CharSequence? = null,
+        val subtitle: CharSequence? = null,
+        val durationText: String? = null,
+        val genreColor: Int = 0)
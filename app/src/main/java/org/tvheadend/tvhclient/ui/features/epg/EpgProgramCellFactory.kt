@@ -0,0 +1,58 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import android.content.Context
+import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.tvhclient.R
+import org.tvheadend.tvhclient.ui.common.getColoredText
+import org.tvheadend.tvhclient.ui.common.getGenreColor
+
+/**
+ * Creates the cells of the loaded programs for the given width of a minute and the
+ * display settings. A new factory is required when one of these values changes.
+ * The cells can be created on any thread.
+ */
+class EpgProgramCellFactory(
+        val pixelsPerMinute: Float,
+        val showGenreColor: Boolean,
+        val showSubtitle: Boolean,
+        private val formatText: (text: String) -> CharSequence,
+        private val genreColorOf: (contentType: Int) -> Int,
+        private val formatDuration: (minutes: Int) -> String) {
+
+    /**
+     * Creates the cells of the programs of each channel. The programs are
+     * cut off at the start and end time of the page they are shown in.
+     */
+    fun createCells(programsOfChannels: Map<Int, List<EpgProgram>>, startTime: Long, endTime: Long): Map<Int, List<EpgProgramCell>> {
+        val genreColors = HashMap<Int, Int>()
+        return programsOfChannels.mapValues { (_, programs) ->
+            programs.map { createCell(it, startTime, endTime, genreColors) }
+        }
+    }
+
+    private fun createCell(program: EpgProgram, startTime: Long, endTime: Long, genreColors: HashMap<Int, Int>): EpgProgramCell {
+        val start = if (program.start < startTime) startTime else program.start
+        val stop = if (program.stop > endTime) endTime else program.stop
+        val layoutWidth = ((stop - start) / 1000 / 60 * pixelsPerMinute).toInt()
+
+        val title = program.title
+        val subtitle = program.subtitle
+        return EpgProgramCell(program,
+                layoutWidth,
+                if (!title.isNullOrEmpty()) formatText(title) else null,
+                if (showSubtitle && !subtitle.isNullOrEmpty()) formatText(subtitle) else null,
+                formatDuration(program.duration),
+                if (showGenreColor) genreColors.getOrPut(program.contentType) { genreColorOf(program.contentType) } else 0)
+    }
+
+    companion object {
+        private const val GENRE_COLOR_ALPHA_OFFSET = 25
+
+        fun create(context: Context, pixelsPerMinute: Float, showGenreColor: Boolean, showSubtitle: Boolean): EpgProgramCellFactory {
+            return EpgProgramCellFactory(pixelsPerMinute, showGenreColor, showSubtitle,
+                    { getColoredText(context, it) },
+                    { getGenreColor(context, it, GENRE_COLOR_ALPHA_OFFSET) },
+                    { context.getString(R.string.minutes, it) })
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package org.tvheadend.tvhclient.ui.features.epg
 
 import androidx.recyclerview.widget.DiffUtil
-import org.tvheadend.data.entity.EpgProgram
 
-internal class EpgProgramListDiffCallback(private val oldList: List<EpgProgram>, private val newList: List<EpgProgram>) : DiffUtil.Callback() {
+internal class EpgProgramListDiffCallback(private val oldList: List<EpgProgramCell>, private val newList: List<EpgProgramCell>) : DiffUtil.Callback() {
 
     override fun getOldListSize(): Int {
         return oldList.size
@@ -14,7 +13,7 @@ internal class EpgProgramListDiffCallback(private val oldList: List<EpgProgram>,
     }
 
     override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
-        return newList[newItemPosition].eventId == oldList[oldItemPosition].eventId
+        return newList[newItemPosition].program.eventId == oldList[oldItemPosition].program.eventId
     }
 
     override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
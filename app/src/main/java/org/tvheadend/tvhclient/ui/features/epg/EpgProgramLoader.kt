@@ -0,0 +1,109 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import org.tvheadend.data.source.ProgramChange
+import org.tvheadend.tvhclient.ui.features.epg.EpgPageCache.PageKey
+import timber.log.Timber
+
+/**
+ * Loads the programs that are shown in the pages of the view pager. The channels of
+ * a page are split into blocks. When a row is bound, the programs of its block and of
+ * the blocks before and after it are loaded with one query in the background, so the
+ * following rows can be bound from the cached programs while scrolling. The given
+ * function returns the programs as cells that are ready to be shown. All functions
+ * must be called from the main thread, the scope must also use the main thread.
+ */
+class EpgProgramLoader(
+        private val scope: CoroutineScope,
+        val cache: EpgPageCache = EpgPageCache(),
+        private val channelsPerBlock: Int = DEFAULT_CHANNELS_PER_BLOCK,
+        private val loadPrograms: suspend (channelIds: List<Int>, startTime: Long, endTime: Long) -> Map<Int, List<EpgProgramCell>>) {
+
+    private class PendingLoad(val key: PageKey, val startTime: Long, val endTime: Long, val channelIds: List<Int>) {
+        var isStale = false
+    }
+
+    private val pendingLoads = ArrayList<PendingLoad>()
+    private val loadingChannelIdsOfPages = HashMap<PageKey, HashSet<Int>>()
+    private var generation = 0
+
+    /**
+     * Returns the cached programs of the channel in the page
+     * or null if they have not been loaded yet
+     */
+    fun getPrograms(key: PageKey, channelId: Int): List<EpgProgramCell>? {
+        return cache.getPrograms(key, channelId)
+    }
+
+    /**
+     * Loads the programs of the channels in the block of the given position and the
+     * blocks around it that are neither cached nor being loaded. The listener is called
+     * with the ids of the channels whose programs are available after the query.
+     */
+    fun loadAround(key: PageKey, startTime: Long, endTime: Long, channelIds: List<Int>, position: Int, onLoaded: (List<Int>) -> Unit) {
+        val block = position / channelsPerBlock
+        val fromIndex = ((block - 1) * channelsPerBlock).coerceAtLeast(0)
+        val toIndex = ((block + 2) * channelsPerBlock).coerceAtMost(channelIds.size)
+        if (fromIndex >= toIndex) return
+
+        val loadingChannelIds = loadingChannelIdsOfPages.getOrPut(key) { HashSet() }
+        val missingChannelIds = channelIds.subList(fromIndex, toIndex).filter { !cache.contains(key, it) && !loadingChannelIds.contains(it) }
+        if (missingChannelIds.isEmpty()) return
+
+        Timber.d("Loading programs of ${missingChannelIds.size} channels for viewpager fragment ${key.fragmentId}")
+        loadingChannelIds.addAll(missingChannelIds)
+        val load = PendingLoad(key, startTime, endTime, missingChannelIds)
+        pendingLoads.add(load)
+        val loadGeneration = generation
+
+        scope.launch {
+            try {
+                // Load again if the programs were changed while the query was running,
+                // the loaded programs are shown in the meantime
+                do {
+                    load.isStale = false
+                    val programs = loadPrograms(missingChannelIds, startTime, endTime)
+                    if (loadGeneration != generation) return@launch
+
+                    cache.putPrograms(key, startTime, endTime, missingChannelIds.associateWith { programs[it] ?: emptyList() })
+                    onLoaded(missingChannelIds)
+                } while (load.isStale)
+            } finally {
+                if (loadGeneration == generation) {
+                    pendingLoads.remove(load)
+                    loadingChannelIds.removeAll(missingChannelIds)
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the cached programs that are affected by the change and marks running
+     * queries of affected channels to be repeated. Returns the ids of the channels
+     * whose cached programs were removed and need to be loaded again.
+     */
+    fun onProgramsChanged(change: ProgramChange): Set<Int> {
+        pendingLoads.forEach { load ->
+            if (change.timeSlots.any { timeSlot -> load.channelIds.any { timeSlot.overlaps(it, load.startTime, load.endTime) } }) {
+                load.isStale = true
+            }
+        }
+        return cache.invalidate(change)
+    }
+
+    /**
+     * Drops all cached programs. Queries that are still running are ignored when they
+     * return, so the programs must be loaded again for the current channels and times.
+     */
+    fun invalidate() {
+        generation++
+        cache.clear()
+        pendingLoads.clear()
+        loadingChannelIdsOfPages.clear()
+    }
+
+    companion object {
+        const val DEFAULT_CHANNELS_PER_BLOCK = 20
+    }
+}
@@ -4,13 +4,11 @@ import android.content.Context
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import androidx.fragment.app.FragmentActivity
 import androidx.lifecycle.LifecycleOwner
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import kotlinx.android.extensions.LayoutContainer
 import org.tvheadend.data.entity.EpgChannel
-import org.tvheadend.data.entity.EpgProgram
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.EpgVerticalRecyclerviewAdapterBinding
 import org.tvheadend.tvhclient.util.extensions.gone
@@ -18,21 +16,36 @@ import org.tvheadend.tvhclient.util.extensions.invisible
 import org.tvheadend.tvhclient.util.extensions.visible
 import timber.log.Timber
 
-internal class EpgVerticalRecyclerViewAdapter(private val activity: FragmentActivity, private val epgViewModel: EpgViewModel, private val fragmentId: Int, private val lifecycleOwner: LifecycleOwner) : RecyclerView.Adapter<EpgVerticalRecyclerViewAdapter.EpgViewPagerViewHolder>() {
+internal class EpgVerticalRecyclerViewAdapter(private val epgViewModel: EpgViewModel, private val fragmentId: Int, private val lifecycleOwner: LifecycleOwner) : RecyclerView.Adapter<EpgVerticalRecyclerViewAdapter.EpgViewPagerViewHolder>() {
 
     private val viewPool: RecyclerView.RecycledViewPool = RecyclerView.RecycledViewPool()
     private var channelList = ArrayList<EpgChannel>()
+    private var channelIds = ArrayList<Int>()
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): EpgViewPagerViewHolder {
         val binding = EpgVerticalRecyclerviewAdapterBinding.inflate(LayoutInflater.from(parent.context))
-        return EpgViewPagerViewHolder(binding.root, binding, activity, fragmentId, viewPool, epgViewModel, lifecycleOwner)
+        return EpgViewPagerViewHolder(binding.root, binding, viewPool, epgViewModel, lifecycleOwner)
     }
 
     override fun onBindViewHolder(holder: EpgViewPagerViewHolder, position: Int) {
         val epgChannel = channelList[position]
-        val programs = epgViewModel.getProgramsByChannelAndBetweenTimeSync(epgChannel.id, fragmentId)
-        Timber.d("Binding ${programs.size} programs for channel ${epgChannel.name} in viewpager fragment $fragmentId")
+        val programs = epgViewModel.getProgramsByChannel(epgChannel.id, fragmentId)
+        Timber.d("Binding ${programs?.size} programs for channel ${epgChannel.name} in viewpager fragment $fragmentId")
         holder.bindData(programs)
+
+        // Also called when the programs are available to prefetch the following channels
+        epgViewModel.loadProgramsAroundChannel(channelIds, position, fragmentId) { loadedChannelIds ->
+            notifyChannelsChanged(loadedChannelIds)
+        }
+    }
+
+    fun notifyChannelsChanged(channelIds: Collection<Int>) {
+        val ids = channelIds.toHashSet()
+        channelList.forEachIndexed { position, channel ->
+            if (ids.contains(channel.id)) {
+                notifyItemChanged(position)
+            }
+        }
     }
 
     override fun getItemCount(): Int {
@@ -47,13 +60,13 @@ internal class EpgVerticalRecyclerViewAdapter(private val activity: FragmentActi
         Timber.d("Loading programs for viewpager fragment $fragmentId")
         channelList.clear()
         channelList.addAll(epgViewModel.epgChannels.value ?: ArrayList())
+        channelIds.clear()
+        channelList.mapTo(channelIds) { it.id }
         notifyDataSetChanged()
     }
 
     class EpgViewPagerViewHolder(override val containerView: View,
                                  val binding: EpgVerticalRecyclerviewAdapterBinding,
-                                 private val activity: FragmentActivity,
-                                 fragmentId: Int,
                                  viewPool: RecyclerView.RecycledViewPool,
                                  private val epgViewModel: EpgViewModel,
                                  lifecycleOwner: LifecycleOwner) : RecyclerView.ViewHolder(binding.root), LayoutContainer {
@@ -63,16 +76,27 @@ internal class EpgVerticalRecyclerViewAdapter(private val activity: FragmentActi
         init {
             binding.horizontalChildRecyclerView.layoutManager = CustomHorizontalLayoutManager(containerView.context)
             binding.horizontalChildRecyclerView.setRecycledViewPool(viewPool)
-            recyclerViewAdapter = EpgHorizontalChildRecyclerViewAdapter(epgViewModel, fragmentId, lifecycleOwner)
+            recyclerViewAdapter = EpgHorizontalChildRecyclerViewAdapter(epgViewModel, lifecycleOwner)
             binding.horizontalChildRecyclerView.adapter = recyclerViewAdapter
+
+            epgViewModel.recordingIndex.observe(lifecycleOwner, { recordingIndex ->
+                if (recordingIndex != null) {
+                    recyclerViewAdapter.onRecordingsChanged()
+                }
+            })
         }
 
-        fun bindData(programs: List<EpgProgram>) {
+        fun bindData(programs: List<EpgProgramCell>?) {
 
             binding.horizontalChildRecyclerView.gone()
             binding.progressBar.visible()
             binding.noPrograms.gone()
 
+            // Keep showing the progress bar until the programs are loaded
+            if (programs == null) {
+                return
+            }
+
             if (programs.isNotEmpty()) {
                 recyclerViewAdapter.addItems(programs.toMutableList())
                 binding.horizontalChildRecyclerView.visible()
@@ -83,12 +107,6 @@ internal class EpgVerticalRecyclerViewAdapter(private val activity: FragmentActi
                 binding.progressBar.gone()
                 binding.noPrograms.visible()
             }
-
-            epgViewModel.recordings.observe(activity, { recordings ->
-                if (recordings != null) {
-                    recyclerViewAdapter.addRecordings(recordings)
-                }
-            })
         }
 
         internal class CustomHorizontalLayoutManager(context: Context) : LinearLayoutManager(context, HORIZONTAL, false) {
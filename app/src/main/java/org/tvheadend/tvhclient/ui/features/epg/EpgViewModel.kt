@@ -13,6 +13,12 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.Transformations
+import androidx.lifecycle.asLiveData
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.entity.EpgChannel
 import org.tvheadend.data.entity.EpgProgram
 import org.tvheadend.tvhclient.R
@@ -28,7 +34,8 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
     val epgChannels: LiveData<List<EpgChannel>>
     private val viewAndEpgDataIsInvalidLiveEvent = LiveEvent<Boolean>()
     val viewAndEpgDataIsInvalid: MediatorLiveData<Boolean> = viewAndEpgDataIsInvalidLiveEvent
-    var epgData = MutableLiveData<HashMap<Int, List<EpgProgram>>>()
+    private val epgProgramsChangedLiveEvent = LiveEvent<Set<Int>>()
+    val epgProgramsChanged: LiveData<Set<Int>> = epgProgramsChangedLiveEvent
 
     private val channelSortOrder = MutableLiveData<Int>()
     val showChannelNumber = MutableLiveData<Boolean>()
@@ -91,6 +98,18 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
     private val startTimes = ArrayList<Long>()
     private val endTimes = ArrayList<Long>()
 
+    private var programCellFactory = EpgProgramCellFactory.create(application.applicationContext, pixelsPerMinute, defaultShowGenreColor, defaultShowProgramSubtitle)
+
+    private val programLoader = EpgProgramLoader(viewModelScope) { channelIds, startTime, endTime ->
+        // Use the factory of the current settings, the result is
+        // ignored if the settings change while the query is running
+        val cellFactory = programCellFactory
+        val programs = appRepository.programData.loadItemsByChannelIdsAndBetweenTime(channelIds, startTime, endTime)
+        withContext(Dispatchers.Default) {
+            cellFactory.createCells(programs, startTime, endTime)
+        }
+    }
+
     init {
         Timber.d("Initializing")
 
@@ -113,7 +132,7 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
                 return@switchMap null
             }
             Timber.d("Loading epg channels because either the channel sort order or channel tag ids have changed")
-            return@switchMap appRepository.channelData.getAllEpgChannels(sortOrder, tagIds)
+            return@switchMap appRepository.channelData.getAllEpgChannels(sortOrder, tagIds).asLiveData()
         }
 
         // In case the live data hours to show has changed due to a shared preference change
@@ -123,7 +142,7 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
             if (hours != hoursToShow) {
                 hoursToShow = hours
                 updateViewProperties()
-                viewAndEpgDataIsInvalidLiveEvent.value = true
+                invalidateViewAndEpgData()
             }
         }
 
@@ -134,7 +153,7 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
             if (days != daysToShow) {
                 daysToShow = days
                 updateViewProperties()
-                viewAndEpgDataIsInvalidLiveEvent.value = true
+                invalidateViewAndEpgData()
             }
         }
 
@@ -142,6 +161,7 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
         viewAndEpgDataIsInvalid.addSource(epgChannels) { channels ->
             if (channels != null) {
                 Timber.d("Channels count has changed to ${channels.size}")
+                // The cached programs are kept, they do not depend on the loaded channels
                 viewAndEpgDataIsInvalidLiveEvent.value = true
             }
         }
@@ -159,6 +179,20 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
         onSharedPreferenceChanged(sharedPreferences, "empty_channel_tags_enabled")
 
         sharedPreferences.registerOnSharedPreferenceChangeListener(this)
+
+        // Remove only the cached programs that have changed. The rows of
+        // the affected channels are rebound to load the programs again.
+        appRepository.programData.programChanges.onEach { change ->
+            val channelIds = programLoader.onProgramsChanged(change)
+            if (channelIds.isNotEmpty()) {
+                epgProgramsChangedLiveEvent.value = channelIds
+            }
+        }.launchIn(viewModelScope)
+    }
+
+    private fun invalidateViewAndEpgData() {
+        programLoader.invalidate()
+        viewAndEpgDataIsInvalidLiveEvent.value = true
     }
 
     private fun updateViewProperties() {
@@ -214,9 +248,31 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
         val channelWidth = 221
         pixelsPerMinute = (displayWidth - channelWidth).toFloat() / (60.0f * hoursToShow.toFloat())
         Timber.d("Updated pixels per minute to $pixelsPerMinute")
+        updateProgramCellFactory()
+    }
+
+    /**
+     * The cells of the programs are created with the current width of a minute and
+     * the display settings. When one of them has changed, the cached cells are dropped
+     * so that they are created again with the new values.
+     */
+    private fun updateProgramCellFactory(force: Boolean = false) {
+        val showGenreColor = showGenreColor.value ?: defaultShowGenreColor
+        val showSubtitle = showProgramSubtitle.value ?: defaultShowProgramSubtitle
+        val factory = programCellFactory
+        if (!force
+                && factory.pixelsPerMinute == pixelsPerMinute
+                && factory.showGenreColor == showGenreColor
+                && factory.showSubtitle == showSubtitle) {
+            return
+        }
+        Timber.d("Program cells need to be created again")
+        programCellFactory = EpgProgramCellFactory.create(getApplication(), pixelsPerMinute, showGenreColor, showSubtitle)
+        invalidateViewAndEpgData()
     }
 
     override fun onCleared() {
+        Timber.d("Program cache: ${programLoader.cache}")
         sharedPreferences.unregisterOnSharedPreferenceChangeListener(this)
         super.onCleared()
     }
@@ -228,16 +284,39 @@ class EpgViewModel(application: Application) : BaseChannelViewModel(application)
             "channel_sort_order" -> channelSortOrder.value = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder)
                     ?: defaultChannelSortOrder)
             "channel_number_enabled" -> showChannelNumber.value = sharedPreferences.getBoolean(key, defaultShowChannelNumber)
-            "program_subtitle_enabled" -> showProgramSubtitle.value = sharedPreferences.getBoolean(key, defaultShowProgramSubtitle)
-            "genre_colors_for_program_guide_enabled" -> showGenreColor.value = sharedPreferences.getBoolean(key, defaultShowGenreColor)
+            "program_subtitle_enabled" -> {
+                showProgramSubtitle.value = sharedPreferences.getBoolean(key, defaultShowProgramSubtitle)
+                updateProgramCellFactory()
+            }
+            "genre_colors_for_program_guide_enabled" -> {
+                showGenreColor.value = sharedPreferences.getBoolean(key, defaultShowGenreColor)
+                updateProgramCellFactory()
+            }
+            "genre_color_transparency" -> updateProgramCellFactory(true)
             "hours_of_epg_data_per_screen" -> hoursOfEpgDataPerScreen.value = Integer.parseInt(sharedPreferences.getString(key, defaultHoursOfEpgDataPerScreen)!!)
             "days_of_epg_data" -> daysOfEpgData.value = Integer.parseInt(sharedPreferences.getString(key, defaultDaysOfEpgData)!!)
             "empty_channel_tags_enabled" -> showAllChannelTags.value = sharedPreferences.getBoolean(key, defaultShowAllChannelTags)
         }
     }
 
-    fun getProgramsByChannelAndBetweenTimeSync(channelId: Int, fragmentId: Int): List<EpgProgram> {
-        return appRepository.programData.getItemByChannelIdAndBetweenTime(channelId, startTimes[fragmentId], endTimes[fragmentId])
+    /**
+     * Returns the cells of the programs of the channel in the time window
+     * of the view pager fragment or null if they are not loaded yet
+     */
+    fun getProgramsByChannel(channelId: Int, fragmentId: Int): List<EpgProgramCell>? {
+        return programLoader.getPrograms(getPageKey(fragmentId), channelId)
+    }
+
+    /**
+     * Loads the programs of the channels around the given position in the background.
+     * The listener is called with the channel ids whose programs have been loaded.
+     */
+    fun loadProgramsAroundChannel(channelIds: List<Int>, position: Int, fragmentId: Int, onLoaded: (List<Int>) -> Unit) {
+        programLoader.loadAround(getPageKey(fragmentId), startTimes[fragmentId], endTimes[fragmentId], channelIds, position, onLoaded)
+    }
+
+    private fun getPageKey(fragmentId: Int): EpgPageCache.PageKey {
+        return EpgPageCache.PageKey(fragmentId, selectedChannelTagIds.value ?: emptyList(), channelSortOrder.value ?: 0)
     }
 
     internal class EpgChannelLiveData(selectedChannelSortOrder: LiveData<Int>,
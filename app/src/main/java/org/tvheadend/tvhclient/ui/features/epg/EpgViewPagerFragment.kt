@@ -75,7 +75,7 @@ class EpgViewPagerFragment : Fragment(), EpgScrollInterface {
         binding.startTime = epgViewModel.getStartTime(fragmentId)
         binding.endTime = epgViewModel.getEndTime(fragmentId)
 
-        recyclerViewAdapter = EpgVerticalRecyclerViewAdapter(requireActivity(), epgViewModel, fragmentId, viewLifecycleOwner)
+        recyclerViewAdapter = EpgVerticalRecyclerViewAdapter(epgViewModel, fragmentId, viewLifecycleOwner)
         recyclerViewLinearLayoutManager = LinearLayoutManager(activity, RecyclerView.VERTICAL, false)
         binding.viewpagerRecyclerView.layoutManager = recyclerViewLinearLayoutManager
         binding.viewpagerRecyclerView.setHasFixedSize(true)
@@ -123,6 +123,11 @@ class EpgViewPagerFragment : Fragment(), EpgScrollInterface {
             }
         })
 
+        // Rebind the rows of the channels whose cached programs have changed
+        epgViewModel.epgProgramsChanged.observe(viewLifecycleOwner, { channelIds ->
+            recyclerViewAdapter.notifyChannelsChanged(channelIds)
+        })
+
         binding.currentTime.visibleOrGone(showTimeIndication)
 
         if (showTimeIndication) {
@@ -0,0 +1,54 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import java.util.*
+
+/**
+ * Collects the durations of frames and calculates the average,
+ * the percentiles and the number of frames that took too long.
+ */
+class FrameTimeStatistics(private val frameBudgetNanos: Long = DEFAULT_FRAME_BUDGET_NANOS) {
+
+    private var durations = LongArray(INITIAL_CAPACITY)
+
+    var frameCount = 0
+        private set
+
+    fun add(durationNanos: Long) {
+        if (frameCount == durations.size) {
+            durations = durations.copyOf(durations.size * 2)
+        }
+        durations[frameCount++] = durationNanos
+    }
+
+    fun clear() {
+        frameCount = 0
+    }
+
+    val averageMs: Float
+        get() = if (frameCount == 0) 0f else (0 until frameCount).sumOf { durations[it] } / frameCount / 1000000f
+
+    val slowFrameCount: Int
+        get() = (0 until frameCount).count { durations[it] > frameBudgetNanos }
+
+    /**
+     * Returns the duration in milliseconds that the given
+     * percentage of the frames did not exceed
+     */
+    fun getPercentileMs(percentile: Int): Float {
+        if (frameCount == 0) return 0f
+        val sorted = durations.copyOf(frameCount)
+        Arrays.sort(sorted)
+        val index = ((frameCount * percentile + 99) / 100 - 1).coerceIn(0, frameCount - 1)
+        return sorted[index] / 1000000f
+    }
+
+    override fun toString(): String {
+        return String.format(Locale.US, "%d frames, average %.2f ms, 90th percentile %.2f ms, 99th percentile %.2f ms, %d slow frames",
+                frameCount, averageMs, getPercentileMs(90), getPercentileMs(99), slowFrameCount)
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 256
+        const val DEFAULT_FRAME_BUDGET_NANOS = 16666667L
+    }
+}
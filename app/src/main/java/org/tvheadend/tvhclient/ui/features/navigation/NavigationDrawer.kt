@@ -21,6 +21,7 @@ import com.mikepenz.materialdrawer.model.PrimaryDrawerItem
 import com.mikepenz.materialdrawer.model.ProfileDrawerItem
 import com.mikepenz.materialdrawer.model.interfaces.IDrawerItem
 import com.mikepenz.materialdrawer.model.interfaces.IProfile
+import org.tvheadend.data.entity.Connection
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.ui.features.channels.ChannelListFragment
 import org.tvheadend.tvhclient.ui.features.dvr.recordings.CompletedRecordingListFragment
@@ -55,10 +56,18 @@ class NavigationDrawer(private val activity: AppCompatActivity,
         createMenu()
 
         navigationViewModel.isUnlockedLiveData.observe(activity,  { result.removeItem(MENU_UNLOCKER.toLong()) })
+        navigationViewModel.connections.observe(activity,  { connections ->
+            this.showConnectionsInDrawerHeader(connections)
+            navigationViewModel.connectionLiveData.value?.let { headerResult.setActiveProfile(it.id.toLong()) }
+        })
         navigationViewModel.connectionLiveData.observe(activity,  {
-            this.showConnectionsInDrawerHeader()
             headerResult.setActiveProfile(it.id.toLong())
         })
+        navigationViewModel.getConnectionSwitched().observe(activity,  { event ->
+            if (event.getContentIfNotHandled() == true) {
+                navigationViewModel.updateConnectionAndRestartApplication(activity)
+            }
+        })
 
         statusViewModel.channelCount.observe(activity,  { count -> result.updateBadge(MENU_CHANNELS.toLong(), StringHolder(count.toString())) })
         statusViewModel.seriesRecordingCount.observe(activity,  { count -> result.updateBadge(MENU_SERIES_RECORDINGS.toLong(), StringHolder(count.toString())) })
@@ -172,7 +181,7 @@ class NavigationDrawer(private val activity: AppCompatActivity,
         return typedValue.resourceId
     }
 
-    private fun showConnectionsInDrawerHeader() {
+    private fun showConnectionsInDrawerHeader(connections: List<Connection>) {
         // Remove old profiles from the header
         val profileIdList = ArrayList<Long>()
         headerResult.profiles?.forEach {
@@ -182,8 +191,8 @@ class NavigationDrawer(private val activity: AppCompatActivity,
             headerResult.removeProfileByIdentifier(id)
         }
         // Add the existing connections as new profiles
-        if (navigationViewModel.connections.isNotEmpty()) {
-            navigationViewModel.connections.forEach {
+        if (connections.isNotEmpty()) {
+            connections.forEach {
                 headerResult.addProfiles(
                         ProfileDrawerItem()
                                 .withIdentifier(it.id.toLong())
@@ -210,9 +219,7 @@ class NavigationDrawer(private val activity: AppCompatActivity,
             }
             positiveButton(R.string.connect) {
                 headerResult.setActiveProfile(profile.identifier)
-                if (navigationViewModel.setSelectedConnectionAsActive(profile.identifier.toInt())) {
-                    navigationViewModel.updateConnectionAndRestartApplication(activity)
-                }
+                navigationViewModel.setSelectedConnectionAsActive(profile.identifier.toInt())
             }
             cancelable(false)
             cancelOnTouchOutside(false)
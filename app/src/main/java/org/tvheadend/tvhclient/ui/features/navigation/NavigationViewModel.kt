@@ -3,6 +3,9 @@ package org.tvheadend.tvhclient.ui.features.navigation
 import android.app.Application
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.launch
+import org.tvheadend.data.entity.Connection
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
 import org.tvheadend.tvhclient.ui.features.navigation.NavigationDrawer.Companion.MENU_SETTINGS
@@ -11,8 +14,9 @@ import timber.log.Timber
 
 class NavigationViewModel(application: Application) : BaseViewModel(application) {
 
-    val connections = appRepository.connectionData.getItems()
+    val connections: LiveData<List<Connection>> = appRepository.connectionData.getLiveDataItems()
     val connectionLiveData = appRepository.connectionData.liveDataActiveItem
+    private val connectionSwitchedLiveData = MutableLiveData<Event<Boolean>>()
     private val navigationMenuId = MutableLiveData<Event<Int>>()
     var currentNavigationMenuId: Int
     private val defaultStartScreen = application.applicationContext.resources.getString(R.string.pref_default_start_screen)
@@ -34,18 +38,24 @@ class NavigationViewModel(application: Application) : BaseViewModel(application)
         }
     }
 
-    fun setSelectedConnectionAsActive(id: Int): Boolean {
-        val currentlyActiveConnection = appRepository.connectionData.activeItem
-        val newActiveConnection = appRepository.connectionData.getItemById(id)
+    /**
+     * Emits an event once the selected connection was switched to be the active one
+     */
+    fun getConnectionSwitched(): LiveData<Event<Boolean>> = connectionSwitchedLiveData
 
-        Timber.d("Switching connection from ${currentlyActiveConnection.name} with id ${currentlyActiveConnection.id} to ${newActiveConnection?.name} with id ${newActiveConnection?.id}")
+    fun setSelectedConnectionAsActive(id: Int) {
+        viewModelScope.launch {
+            val currentlyActiveConnection = appRepository.connectionData.loadActiveItem()
+            val newActiveConnection = appRepository.connectionData.loadItemById(id)
 
-        if (newActiveConnection != null && newActiveConnection.id != currentlyActiveConnection.id) {
-            appRepository.connectionData.switchActiveConnection(currentlyActiveConnection.id, newActiveConnection.id)
-            Timber.d("Switched active connection from ${currentlyActiveConnection.name} to ${newActiveConnection.name} (db version is ${appRepository.connectionData.activeItem.name})")
-            return true
+            Timber.d("Switching connection from ${currentlyActiveConnection.name} with id ${currentlyActiveConnection.id} to ${newActiveConnection?.name} with id ${newActiveConnection?.id}")
+
+            if (newActiveConnection != null && newActiveConnection.id != currentlyActiveConnection.id) {
+                appRepository.connectionData.switchActiveConnection(currentlyActiveConnection.id, newActiveConnection.id)
+                Timber.d("Switched active connection from ${currentlyActiveConnection.name} to ${newActiveConnection.name}")
+                connectionSwitchedLiveData.value = Event(true)
+            }
         }
-        return false
     }
 
     fun setSelectedMenuItemId(id: Int) {
@@ -23,14 +23,11 @@ import timber.log.Timber
 import java.net.InetAddress
 import java.net.UnknownHostException
 import java.util.concurrent.ExecutionException
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 
 class ExternalPlayerViewModel(application: Application) : BaseViewModel(application), ServerConnectionStateListener {
 
     // Connection related
-    private val execService: ScheduledExecutorService = Executors.newScheduledThreadPool(10)
-    private val htspConnection: HtspConnection
+    private val htspConnection: HtspSession
 
     var channel: Channel? = null
     var recording: Recording? = null
@@ -52,12 +49,8 @@ class ExternalPlayerViewModel(application: Application) : BaseViewModel(applicat
                 BuildConfig.VERSION_CODE,
                 connectionTimeout
         )
-        htspConnection = HtspConnection(htspConnectionData, this, null)
-
-        execService.execute {
-            htspConnection.openConnection()
-            htspConnection.authenticate()
-        }
+        htspConnection = HtspConnectionManager.getInstance().acquire(htspConnectionData, this, null)
+        htspConnection.openConnection()
     }
 
     override fun onAuthenticationStateChange(result: AuthenticationStateResult) {
@@ -92,7 +85,6 @@ class ExternalPlayerViewModel(application: Application) : BaseViewModel(applicat
     override fun onCleared() {
         super.onCleared()
         Timber.d("Clearing view model")
-        execService.shutdown()
         htspConnection.closeConnection()
     }
 
@@ -5,24 +5,23 @@ import com.google.android.exoplayer2.C.RESULT_END_OF_INPUT
 import com.google.android.exoplayer2.upstream.DataSource
 import com.google.android.exoplayer2.upstream.DataSpec
 import com.google.android.exoplayer2.upstream.TransferListener
-import org.tvheadend.htsp.HtspConnection
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.runBlocking
 import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.htsp.HtspSession
 import org.tvheadend.api.ServerMessageListener
-import org.tvheadend.api.ServerResponseListener
+import org.tvheadend.api.request
 import timber.log.Timber
 import java.io.Closeable
 import java.nio.ByteBuffer
-import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
-import java.util.concurrent.locks.ReentrantLock
-import kotlin.concurrent.withLock
 import kotlin.math.min
 
-class HtspFileInputStreamDataSource private constructor(val connection: HtspConnection) : DataSource, Closeable, ServerMessageListener<HtspMessage>, HtspDataSourceInterface {
+class HtspFileInputStreamDataSource private constructor(val connection: HtspSession) : DataSource, Closeable, ServerMessageListener<HtspMessage>, HtspDataSourceInterface {
 
     private val dataSourceCount = AtomicInteger()
 
-    private val htspConnection: HtspConnection = connection
+    private val htspConnection: HtspSession = connection
     private lateinit var dataSpec: DataSpec
     private var dataSourceNumber = 0
 
@@ -34,9 +33,13 @@ class HtspFileInputStreamDataSource private constructor(val connection: HtspConn
     private var filePosition: Long = 0
 
 
-    class Factory internal constructor(htspConnection: HtspConnection) : DataSource.Factory {
+    companion object {
+        private const val RESPONSE_TIMEOUT = 5000L
+    }
+
+    class Factory internal constructor(htspConnection: HtspSession) : DataSource.Factory {
 
-        private val htspConnection: HtspConnection
+        private val htspConnection: HtspSession
         private var dataSource: HtspFileInputStreamDataSource? = null
 
         override fun createDataSource(): DataSource? {
@@ -99,62 +102,34 @@ class HtspFileInputStreamDataSource private constructor(val connection: HtspConn
 
         fileName = "dvrfile" + dataSpec.uri.path
 
-        val fileReadRequest = HtspMessage()
-        fileReadRequest["method"] = "fileRead"
-        fileReadRequest["size"] = 1024000
-
-        val lock = ReentrantLock()
-        val condition = lock.newCondition()
-
-        val fileReadHandler = object : ServerResponseListener<HtspMessage> {
-            override fun handleResponse(response: HtspMessage) {
-                if (response.containsKey("error")) {
-                    val error = response.getString("error")
-                    Timber.d("Error reading file at offset 0: %s", error)
-                } else {
-                    val data = response.getByteArray("data")
-                    Timber.d("Fetched %s bytes of file at filePosition %s", data.size, filePosition)
-                    filePosition += data.size.toLong()
-                    byteBuffer = ByteBuffer.wrap(data)
-                }
-                lock.withLock {
-                    Timber.d("Notifying fileReadRequest")
-                    condition.signal()
-                }
-            }
-        }
-
         val fileOpenRequest = HtspMessage()
         fileOpenRequest["method"] = "fileOpen"
         fileOpenRequest["file"] = fileName
 
-        htspConnection.sendMessage(fileOpenRequest, object : ServerResponseListener<HtspMessage> {
-            override fun handleResponse(response: HtspMessage) {
+        runBlocking {
+            try {
+                val response = htspConnection.request(fileOpenRequest, RESPONSE_TIMEOUT)
                 if (response.containsKey("error")) {
                     val error = response.getString("error")
                     Timber.d("Error opening file: %s", error)
+                    return@runBlocking
+                }
+                Timber.d("Opening file: %s", fileName)
+                fileId = response.getInteger("id")
+                if (response.containsKey("size")) {
+                    fileSize = response.getLong("size")
+                    Timber.v("Opened file $fileName of size $fileSize successfully")
                 } else {
-                    Timber.d("Opening file: %s", fileName)
-                    fileId = response.getInteger("id")
-                    if (response.containsKey("size")) {
-                        fileSize = response.getLong("size")
-                        Timber.v("Opened file $fileName of size $fileSize successfully")
-                    } else {
-                        Timber.v("Opened file $fileName successfully")
-                    }
-                    Timber.d("Sending file read request for file id %s", fileId)
-                    fileReadRequest["id"] = fileId
-                    htspConnection.sendMessage(fileReadRequest, fileReadHandler)
+                    Timber.v("Opened file $fileName successfully")
                 }
-            }
-        })
-
-        Timber.d("Waiting for fileReadRequest")
-        lock.withLock {
-            try {
-                condition.await(5, TimeUnit.SECONDS)
-            } catch (e: InterruptedException) {
-                Timber.d(e, "Waiting for fileReadRequest message was interrupted")
+                Timber.d("Sending file read request for file id %s", fileId)
+                val fileReadRequest = HtspMessage()
+                fileReadRequest["method"] = "fileRead"
+                fileReadRequest["size"] = 1024000
+                fileReadRequest["id"] = fileId
+                onFileReadResponse(htspConnection.request(fileReadRequest, RESPONSE_TIMEOUT), 0)
+            } catch (e: TimeoutCancellationException) {
+                Timber.d(e, "Timeout while opening file $fileName")
             }
         }
 
@@ -243,32 +218,24 @@ class HtspFileInputStreamDataSource private constructor(val connection: HtspConn
         request["offset"] = offset
         Timber.d("Fetching $size bytes of file at offset $offset")
 
-        val lock = ReentrantLock()
-        val condition = lock.newCondition()
-
-        htspConnection.sendMessage(request, object : ServerResponseListener<HtspMessage> {
-            override fun handleResponse(response: HtspMessage) {
-                if (response.containsKey("error")) {
-                    val error = response.getString("error")
-                    Timber.d("Error reading file at $offset: $error")
-                } else {
-                    val data = response.getByteArray("data")
-                    Timber.d("Fetched %s bytes of file at offset %s", data.size, offset)
-                    filePosition += data.size.toLong()
-                    byteBuffer = ByteBuffer.wrap(data)
-                }
-                synchronized(request) {
-                    condition.signal()
-                }
-            }
-        })
-        Timber.d("Waiting for file read request")
-        lock.withLock {
+        runBlocking {
             try {
-                condition.await(5, TimeUnit.SECONDS)
-            } catch (e: InterruptedException) {
-                Timber.d(e, "Waiting for fileReadRequest message was interrupted.")
+                onFileReadResponse(htspConnection.request(request, RESPONSE_TIMEOUT), offset)
+            } catch (e: TimeoutCancellationException) {
+                Timber.d(e, "Timeout while waiting for file read response")
             }
         }
     }
+
+    private fun onFileReadResponse(response: HtspMessage, offset: Long) {
+        if (response.containsKey("error")) {
+            val error = response.getString("error")
+            Timber.d("Error reading file at $offset: $error")
+        } else {
+            val data = response.getByteArray("data")
+            Timber.d("Fetched %s bytes of file at offset %s", data.size, offset)
+            filePosition += data.size.toLong()
+            byteBuffer = ByteBuffer.wrap(data)
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal;
+
+/**
+ * Buffer between the connection thread that receives the subscription
+ * packets and the loader thread of the player. The data source uses the
+ * fill level to ask the server to pause and resume the subscription.
+ */
+interface HtspSubscriptionBuffer {
+
+    int getCapacity();
+
+    int getFillLevel();
+
+    /**
+     * Discards all unread data, new data starts at a packet boundary.
+     * Must only be called from the consumer thread.
+     */
+    void clear();
+
+    /**
+     * Lets the consumer read the remaining data, then it reaches the end of input
+     */
+    void close();
+
+    void reopen();
+
+    HtspSubscriptionBufferStatistics getStatistics();
+}
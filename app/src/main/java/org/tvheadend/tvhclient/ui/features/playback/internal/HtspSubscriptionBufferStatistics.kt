@@ -0,0 +1,17 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+data class HtspSubscriptionBufferStatistics(
+        val capacity: Int = 0,
+        val fillLevel: Int = 0,
+        val maxFillLevel: Int = 0,
+        val packetCount: Long = 0,
+        val droppedPacketCount: Long = 0,
+        val waitCount: Long = 0,
+        val waitTimeNanos: Long = 0,
+) {
+    val fillPercent: Int
+        get() = if (capacity > 0) (fillLevel * 100L / capacity).toInt() else 0
+
+    val averageWaitTimeMs: Double
+        get() = if (waitCount > 0) waitTimeNanos / 1000000.0 / waitCount else 0.0
+}
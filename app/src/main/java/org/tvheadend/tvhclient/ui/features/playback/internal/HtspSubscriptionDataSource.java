@@ -23,6 +23,7 @@ import android.net.Uri;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.preference.PreferenceManager;
 
 import com.google.android.exoplayer2.C;
@@ -31,23 +32,20 @@ import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
 import org.jetbrains.annotations.NotNull;
-import org.tvheadend.htsp.HtspConnection;
 import org.tvheadend.htsp.HtspMessage;
+import org.tvheadend.htsp.HtspSession;
 import org.tvheadend.api.ServerMessageListener;
 import org.tvheadend.tvhclient.R;
 import org.tvheadend.tvhclient.service.ConnectionService;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 import timber.log.Timber;
 
@@ -57,38 +55,53 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
     private static final AtomicInteger subscriptionCount = new AtomicInteger();
 
     private static final int BUFFER_SIZE = 10 * 1024 * 1024;
+    // Ask the server to pause when the buffer is filled above the high
+    // watermark and to continue when it was drained below the low one
+    private static final int HIGH_WATERMARK_PERCENT = 80;
+    private static final int LOW_WATERMARK_PERCENT = 50;
     static final byte[] HEADER = new byte[]{0, 1, 0, 1, 0, 1, 0, 1};
 
     private final Context context;
-    private final HtspConnection htspConnection;
+    private final HtspSession htspConnection;
     private final String streamProfile;
     private DataSpec dataSpec;
     private final int dataSourceNumber;
     private final int subscriptionId;
-    private final ByteBuffer byteBuffer;
+    private final boolean isDirectMode;
+    private final HtspSubscriptionBuffer subscriptionBuffer;
+    private final HtspSubscriptionRingBuffer ringBuffer;
+    private final HtspSubscriptionMessageQueue messageQueue;
+    private final HtspSubscriptionPacketCodec packetCodec = new HtspSubscriptionPacketCodec();
+    private final AtomicBoolean isThrottled = new AtomicBoolean(false);
+    private int throttleCount = 0;
+    // The speed that was last requested by the player, the subscription
+    // continues with it after the buffer was drained again
+    private volatile int requestedSpeed = 100;
     private int timeshiftPeriod = 0;
-    private final ReentrantLock lock = new ReentrantLock();
-    private boolean subscriptionStarted = false;
     private boolean isSubscribed = false;
+    private int directHeaderPosition = 0;
+    private long directUnreadLength = 0;
 
     public static class Factory implements DataSource.Factory {
 
         private final Context context;
-        private final HtspConnection htspConnection;
+        private final HtspSession htspConnection;
         private final String streamProfile;
+        private final boolean isDirectMode;
         private HtspSubscriptionDataSource dataSource;
 
-        Factory(Context context, HtspConnection htspConnection, String streamProfile) {
-            Timber.d("Initializing subscription data source factory");
+        Factory(Context context, HtspSession htspConnection, String streamProfile, boolean isDirectMode) {
+            Timber.d("Initializing subscription data source factory, direct mode " + isDirectMode);
             this.context = context;
             this.htspConnection = htspConnection;
             this.streamProfile = streamProfile;
+            this.isDirectMode = isDirectMode;
         }
 
         @Override
         public DataSource createDataSource() {
             Timber.d("Created new data source from factory");
-            dataSource = new HtspSubscriptionDataSource(context, htspConnection, streamProfile);
+            dataSource = new HtspSubscriptionDataSource(context, htspConnection, streamProfile, isDirectMode);
             return dataSource;
         }
 
@@ -97,6 +110,17 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
             return dataSource;
         }
 
+        /**
+         * Returns the data source that was created last if the extractor shall
+         * take the messages directly from it, null if it is not in direct mode.
+         * The media source creates the extractors right after the data source
+         * of the same media period, so this is the one the extractor reads from.
+         */
+        @Nullable
+        HtspSubscriptionDataSource getCurrentDirectDataSource() {
+            return isDirectMode ? dataSource : null;
+        }
+
         void releaseCurrentDataSource() {
             Timber.d("Releasing data source");
             if (dataSource != null) {
@@ -105,12 +129,13 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
         }
     }
 
-    private HtspSubscriptionDataSource(Context context, HtspConnection htspConnection, String streamProfile) {
+    private HtspSubscriptionDataSource(Context context, HtspSession htspConnection, String streamProfile, boolean isDirectMode) {
         Timber.d("Initializing subscription data source");
         this.context = context;
         this.htspConnection = htspConnection;
         this.htspConnection.addMessageListener(this);
         this.streamProfile = streamProfile;
+        this.isDirectMode = isDirectMode;
 
         SharedPreferences mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         boolean timeshiftEnabled = mSharedPreferences.getBoolean("timeshift_enabled", context.getResources().getBoolean(R.bool.pref_default_timeshift_enabled));
@@ -124,12 +149,25 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
 
         Timber.d("New subscription data source instantiated (" + dataSourceNumber + ")");
 
+        if (isDirectMode) {
+            // The messages are not copied into a buffer, only the header is
+            // read from this data source to select the extractor
+            ringBuffer = null;
+            messageQueue = new HtspSubscriptionMessageQueue(BUFFER_SIZE);
+            subscriptionBuffer = messageQueue;
+        } else {
+            messageQueue = null;
+            ringBuffer = createRingBuffer();
+            subscriptionBuffer = ringBuffer;
+        }
+    }
+
+    private HtspSubscriptionRingBuffer createRingBuffer() {
         try {
             // Create the buffer, and place the HtspSubscriptionDataSource header in place.
-            byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-            byteBuffer.limit(HEADER.length);
-            byteBuffer.put(HEADER);
-            byteBuffer.position(0);
+            HtspSubscriptionRingBuffer ringBuffer = new HtspSubscriptionRingBuffer(BUFFER_SIZE);
+            ringBuffer.write(ByteBuffer.wrap(HEADER), ByteBuffer.allocate(0));
+            return ringBuffer;
 
         } catch (OutOfMemoryError e) {
             // Since we're allocating a large buffer here, it's fairly safe to assume we'll have
@@ -197,11 +235,14 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
 
             htspConnection.sendMessage(request, null);
 
-            byteBuffer.clear();
-            byteBuffer.limit(0);
+            subscriptionBuffer.clear();
         }
 
-        subscriptionStarted = true;
+        if (seekPosition == 0) {
+            directHeaderPosition = 0;
+        }
+        directUnreadLength = 0;
+        subscriptionBuffer.reopen();
 
         return C.LENGTH_UNSET;
     }
@@ -211,41 +252,88 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
         if (readLength == 0) {
             return 0;
         }
+        if (isDirectMode) {
+            return readDirect(buffer, offset, readLength);
+        }
 
         // If the buffer is empty, block until we have at least 1 byte
-        while (subscriptionStarted && byteBuffer.remaining() == 0) {
-            try {
-                Timber.v("Blocking for more data (" + dataSourceNumber + ")");
-                Thread.sleep(250);
-            } catch (InterruptedException e) {
-                // Ignore.
-                Timber.w("Caught InterruptedException (" + dataSourceNumber + ")");
-                return 0;
-            }
+        int length;
+        try {
+            length = ringBuffer.read(buffer, offset, readLength);
+        } catch (InterruptedException e) {
+            // Ignore.
+            Timber.w("Caught InterruptedException (" + dataSourceNumber + ")");
+            return 0;
         }
 
-        if (!subscriptionStarted && byteBuffer.remaining() == 0) {
+        if (length < 0) {
             Timber.d("End of input buffer");
             return C.RESULT_END_OF_INPUT;
         }
 
-        int length;
+        resumeIfDrained();
+        return length;
+    }
 
-        lock.lock();
-        try {
-            int remaining = byteBuffer.remaining();
-            length = Math.min(remaining, readLength);
-
-            byteBuffer.get(buffer, offset, length);
-            byteBuffer.compact();
-            byteBuffer.flip();
-        } finally {
-            lock.unlock();
+    /**
+     * In direct mode the extractor takes the messages from the queue, so only
+     * the header is provided. Afterwards the size of the taken messages can be
+     * skipped by the extractor. This moves the position of the extractor input
+     * like in the buffered mode, otherwise the player would not notice how
+     * much was loaded and could not stop loading when enough is buffered.
+     * The content of these bytes is undefined.
+     */
+    private int readDirect(byte[] target, int offset, int readLength) {
+        if (directHeaderPosition < HEADER.length) {
+            int length = Math.min(readLength, HEADER.length - directHeaderPosition);
+            System.arraycopy(HEADER, directHeaderPosition, target, offset, length);
+            directHeaderPosition += length;
+            return length;
         }
-
+        if (directUnreadLength == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int length = (int) Math.min(readLength, directUnreadLength);
+        directUnreadLength -= length;
         return length;
     }
 
+    /**
+     * Returns the next subscription message in direct mode, waits until one
+     * is available. Returns null when the subscription was stopped or closed.
+     * The extractor must skip {@link #getDirectUnreadLength()} bytes afterwards.
+     */
+    @Nullable
+    HtspMessage takeMessage() throws InterruptedException {
+        HtspMessage message = messageQueue.take();
+        if (message != null) {
+            directUnreadLength += HtspSubscriptionMessageQueue.sizeOf(message);
+        }
+        resumeIfDrained();
+        return message;
+    }
+
+    /**
+     * Returns the size of the messages that were taken from the queue
+     * but not yet skipped in the input of the extractor
+     */
+    long getDirectUnreadLength() {
+        return directUnreadLength;
+    }
+
+    private void resumeIfDrained() {
+        if (isThrottled.get() && subscriptionBuffer.getFillLevel() < subscriptionBuffer.getCapacity() / 100 * LOW_WATERMARK_PERCENT
+                && isThrottled.compareAndSet(true, false)) {
+            int speed = requestedSpeed;
+            if (speed == 0) {
+                Timber.d("Buffer was drained, subscription stays paused (" + dataSourceNumber + ")");
+                return;
+            }
+            Timber.d("Buffer was drained, resuming subscription with speed " + speed + " (" + dataSourceNumber + ")");
+            sendSubscriptionSpeed(speed);
+        }
+    }
+
     @Override
     public Uri getUri() {
         Timber.d("Returning data spec uri");
@@ -263,8 +351,13 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
 
     @Override
     public void close() {
-        Timber.d("Closing subscription data source " + dataSourceNumber + ")");
-        subscriptionStarted = false;
+        Timber.d("Closing subscription data source " + dataSourceNumber + "), " + getBufferStatistics() + ", throttled " + throttleCount + " times");
+        subscriptionBuffer.close();
+    }
+
+    @NonNull
+    HtspSubscriptionBufferStatistics getBufferStatistics() {
+        return subscriptionBuffer.getStatistics();
     }
 
     @Override
@@ -272,11 +365,11 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
         switch (method) {
             case "subscriptionStart":
             case "muxpkt":
-                serializeMessageToBuffer(message);
+                writeMessageToBuffer(message);
                 break;
 
             case "subscriptionStop":
-                subscriptionStarted = false;
+                subscriptionBuffer.close();
                 break;
 
             case "subscriptionStatus":
@@ -302,11 +395,9 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
     public void pause() {
         Timber.d("Pausing subscription data source " + dataSourceNumber + ")");
 
-        HtspMessage request = new HtspMessage();
-        request.put("method", "subscriptionSpeed");
-        request.put("subscriptionId", subscriptionId);
-        request.put("speed", 0);
-        htspConnection.sendMessage(request, null);
+        requestedSpeed = 0;
+        isThrottled.set(false);
+        sendSubscriptionSpeed(0);
     }
 
     @Override
@@ -316,11 +407,9 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
 
     @Override
     public void setSpeed(int tvhSpeed) {
-        HtspMessage request = new HtspMessage();
-        request.put("method", "subscriptionSpeed");
-        request.put("subscriptionId", subscriptionId);
-        request.put("speed", tvhSpeed);
-        htspConnection.sendMessage(request, null);
+        requestedSpeed = tvhSpeed;
+        isThrottled.set(false);
+        sendSubscriptionSpeed(tvhSpeed);
     }
 
     @Override
@@ -335,6 +424,8 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
 
     public void resume() {
         Timber.d("Resuming subscription data source " + dataSourceNumber + ")");
+        requestedSpeed = 100;
+        isThrottled.set(false);
         Intent intent = new Intent(context, ConnectionService.class);
         intent.putExtra("method", "subscriptionSpeed");
         intent.putExtra("subscriptionId", subscriptionId);
@@ -343,28 +434,29 @@ public class HtspSubscriptionDataSource implements DataSource, Closeable, Server
     }
 
     // Misc Internal Methods
-    private void serializeMessageToBuffer(@NonNull HtspMessage message) {
-        lock.lock();
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ObjectOutputStream objectOutput = new ObjectOutputStream(outputStream);
-            objectOutput.writeUnshared(message);
-            objectOutput.flush();
-
-            byteBuffer.position(byteBuffer.limit());
-            byteBuffer.limit(byteBuffer.capacity());
-
-            byteBuffer.put(outputStream.toByteArray());
+    private void sendSubscriptionSpeed(int speed) {
+        HtspMessage request = new HtspMessage();
+        request.put("method", "subscriptionSpeed");
+        request.put("subscriptionId", subscriptionId);
+        request.put("speed", speed);
+        htspConnection.sendMessage(request, null);
+    }
 
-            byteBuffer.flip();
+    private void writeMessageToBuffer(@NonNull HtspMessage message) {
+        try {
+            boolean isWritten = isDirectMode ? messageQueue.offer(message) : packetCodec.write(message, ringBuffer);
+            if (!isWritten) {
+                Timber.w("Buffer is full, dropping " + message.getMethod() + " message (" + dataSourceNumber + ")");
+            }
         } catch (IOException e) {
-            // Ignore?
             Timber.w(e, "Caught IOException, ignoring (" + dataSourceNumber + ")");
-        } catch (BufferOverflowException e) {
-            Timber.w(e, "Caught BufferOverflowException, ignoring (" + dataSourceNumber + ")");
-        } finally {
-            lock.unlock();
-            // Ignore
+        }
+
+        if (subscriptionBuffer.getFillLevel() > subscriptionBuffer.getCapacity() / 100 * HIGH_WATERMARK_PERCENT
+                && isThrottled.compareAndSet(false, true)) {
+            Timber.d("Buffer is nearly full, pausing subscription (" + dataSourceNumber + ")");
+            throttleCount++;
+            sendSubscriptionSpeed(0);
         }
     }
 }
@@ -21,19 +21,27 @@ import com.google.android.exoplayer2.C
 import com.google.android.exoplayer2.extractor.*
 import com.google.android.exoplayer2.util.ParsableByteArray
 import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.tvhclient.ui.features.playback.internal.reader.MuxPacket
 import org.tvheadend.tvhclient.ui.features.playback.internal.reader.StreamReader
 import org.tvheadend.tvhclient.ui.features.playback.internal.reader.StreamReadersFactory
 import timber.log.Timber
-import java.io.ByteArrayInputStream
 import java.io.IOException
-import java.io.ObjectInputStream
+import java.nio.ByteBuffer
 import java.util.*
 
-internal class HtspSubscriptionExtractor : Extractor {
+/**
+ * Reads the subscription packets from the ring buffer of the data source. If a
+ * data source in direct mode is given, the messages are instead taken from it
+ * without being written to and parsed from bytes.
+ */
+internal class HtspSubscriptionExtractor(private val directDataSource: HtspSubscriptionDataSource? = null) : Extractor {
 
     private lateinit var mOutput: ExtractorOutput
     private val mStreamReaders = SparseArray<StreamReader>()
-    private val mRawBytes = ByteArray(1024 * 1024)
+    private val mPacketCodec = HtspSubscriptionPacketCodec()
+    private val mMuxPacket = MuxPacket()
+    private var mRawBytes = ByteArray(1024 * 1024)
+    private var mRawBuffer = ByteBuffer.wrap(mRawBytes)
 
     private class HtspSeekMap : SeekMap {
         override fun isSeekable(): Boolean {
@@ -66,36 +74,51 @@ internal class HtspSubscriptionExtractor : Extractor {
 
     @Throws(IOException::class, InterruptedException::class)
     override fun read(input: ExtractorInput, seekPosition: PositionHolder): Int {
-        val bytesRead = input.read(mRawBytes, 0, mRawBytes.size)
-        Timber.d("Read $bytesRead bytes")
-
-        var objectInput: ObjectInputStream? = null
-        try {
-            ByteArrayInputStream(mRawBytes, 0, bytesRead).use { inputStream ->
-                while (inputStream.available() > 0) {
-                    objectInput = ObjectInputStream(inputStream)
-                    handleMessage(objectInput!!.readUnshared() as HtspMessage)
-                }
-            }
-        } catch (e: IOException) {
-            // TODO: This is a problem, and returning RESULT_CONTINUE is a hack... I think?
-            Timber.w("Caught IOException, returning RESULT_CONTINUE")
+        if (input.position == 0L) {
+            skipHeader(input)
+        }
+
+        if (directDataSource != null) {
+            val message = directDataSource.takeMessage() ?: return Extractor.RESULT_END_OF_INPUT
+            handleMessage(message)
+            // Advance the input by the size of the message so that
+            // the loader keeps asking the load control to continue
+            input.skipFully(directDataSource.directUnreadLength.toInt())
             return Extractor.RESULT_CONTINUE
-        } catch (e: ClassNotFoundException) {
-            Timber.w("Class Not Found")
-        } finally {
-            try {
-                if (objectInput != null) {
-                    objectInput!!.close()
-                }
-            } catch (ex: IOException) {
-                // Ignore
-            }
+        }
 
-        }// N.B. Don't add the objectInput to this bit, it breaks stuff
+        // The data source only contains complete packets,
+        // so reading the whole packet blocks only briefly
+        if (!input.readFully(mRawBytes, 0, 4, true)) {
+            return Extractor.RESULT_END_OF_INPUT
+        }
+        val length = mRawBuffer.getInt(0)
+        if (length > mRawBytes.size) {
+            mRawBytes = ByteArray(length)
+            mRawBuffer = ByteBuffer.wrap(mRawBytes)
+        }
+        input.readFully(mRawBytes, 0, length)
+
+        mRawBuffer.clear()
+        mRawBuffer.limit(length)
+        val message = mPacketCodec.read(mRawBuffer, mMuxPacket)
+        if (message != null) {
+            handleMessage(message)
+        } else {
+            handleMuxpkt(mMuxPacket)
+        }
         return Extractor.RESULT_CONTINUE
     }
 
+    private fun skipHeader(input: ExtractorInput) {
+        val header = HtspSubscriptionDataSource.HEADER
+        input.peekFully(mRawBytes, 0, header.size)
+        input.resetPeekPosition()
+        if (Arrays.equals(mRawBytes.copyOf(header.size), header)) {
+            input.skipFully(header.size)
+        }
+    }
+
     override fun seek(position: Long, timeUs: Long) {
         Timber.d("Seeking HTSP Extractor to position:$position and timeUs:$timeUs")
     }
@@ -112,7 +135,7 @@ internal class HtspSubscriptionExtractor : Extractor {
         if (method == "subscriptionStart") {
             handleSubscriptionStart(message)
         } else if (method == "muxpkt") {
-            handleMuxpkt(message)
+            handleMuxpkt(mMuxPacket.set(message))
         }
     }
 
@@ -139,7 +162,7 @@ internal class HtspSubscriptionExtractor : Extractor {
         mOutput.endTracks()
     }
 
-    private fun handleMuxpkt(message: HtspMessage) {
+    private fun handleMuxpkt(packet: MuxPacket) {
         //        subscriptionId     u32   required   Subscription ID.
         //        frametype          u32   required   Type of frame as ASCII value: 'I', 'P', 'B'
         //        stream             u32   required   Stream index. Corresponds to the streams reported in the subscriptionStart message.
@@ -149,7 +172,12 @@ internal class HtspSubscriptionExtractor : Extractor {
         //        payload            bin   required   Actual frame data.
 
         // If the stream reader list contains null, then its not a stream we care about, so move on.
-        val streamReader = mStreamReaders.get(message.getInteger("stream")) ?: return
-        streamReader.consume(message)
+        val streamReader = mStreamReaders.get(packet.stream) ?: return
+        // A sample without a time stamp can not be placed, so drop it
+        if (!packet.hasPts) {
+            Timber.w("Discarding packet of stream ${packet.stream} without a presentation time stamp")
+            return
+        }
+        streamReader.consume(packet)
     }
 }
@@ -0,0 +1,166 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.tvheadend.htsp.HtspMessage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single producer, single consumer queue that hands the decoded subscription
+ * messages from the connection thread directly to the extractor on the loader
+ * thread. Unlike the ring buffer no frame is copied in or out, the payload that
+ * the HTSP decoder created is passed on to the stream readers as it is.
+ * <p>
+ * The capacity and the fill level are counted in payload bytes so that the
+ * same watermarks as for the ring buffer can be used.
+ */
+class HtspSubscriptionMessageQueue implements HtspSubscriptionBuffer {
+
+    // Wake up regularly while waiting so that a closed queue is never missed
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Accounts for the message itself and messages without a payload
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<HtspMessage> messages = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private volatile long writeCount;
+    private volatile long readCount;
+    private volatile boolean isConsumerWaiting;
+    private volatile boolean isClosed;
+
+    private volatile int maxFillLevel;
+    private volatile long packetCount;
+    private volatile long droppedPacketCount;
+    private volatile long waitCount;
+    private volatile long waitTimeNanos;
+
+    HtspSubscriptionMessageQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getFillLevel() {
+        return (int) (writeCount - readCount);
+    }
+
+    /**
+     * Appends the message, returns false if it does not fit anymore.
+     * Must only be called from the producer thread.
+     */
+    boolean offer(@NonNull HtspMessage message) {
+        int size = sizeOf(message);
+        int fillLevel = (int) (writeCount - readCount);
+        if (capacity - fillLevel < size) {
+            droppedPacketCount++;
+            return false;
+        }
+
+        messages.add(message);
+        writeCount += size;
+        packetCount++;
+
+        fillLevel += size;
+        if (fillLevel > maxFillLevel) {
+            maxFillLevel = fillLevel;
+        }
+
+        if (isConsumerWaiting) {
+            signal();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next message, waits until one is available.
+     * Returns null if the queue was closed and all messages have been taken.
+     * Must only be called from the consumer thread.
+     */
+    @Nullable
+    HtspMessage take() throws InterruptedException {
+        HtspMessage message = messages.poll();
+        if (message == null) {
+            message = awaitMessage();
+            if (message == null) {
+                return null;
+            }
+        }
+        readCount += sizeOf(message);
+        return message;
+    }
+
+    @Override
+    public void clear() {
+        HtspMessage message;
+        while ((message = messages.poll()) != null) {
+            readCount += sizeOf(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        signal();
+    }
+
+    @Override
+    public void reopen() {
+        isClosed = false;
+    }
+
+    @Override
+    public HtspSubscriptionBufferStatistics getStatistics() {
+        return new HtspSubscriptionBufferStatistics(capacity, getFillLevel(), maxFillLevel,
+                packetCount, droppedPacketCount, waitCount, waitTimeNanos);
+    }
+
+    static int sizeOf(@NonNull HtspMessage message) {
+        byte[] payload = message.getByteArray("payload");
+        return MESSAGE_OVERHEAD + (payload != null ? payload.length : 0);
+    }
+
+    @Nullable
+    private HtspMessage awaitMessage() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            // The flag must be set before polling again, otherwise
+            // the producer could miss that a signal is required
+            isConsumerWaiting = true;
+            HtspMessage message;
+            while ((message = messages.poll()) == null) {
+                if (isClosed) {
+                    return null;
+                }
+                notEmpty.awaitNanos(MAX_WAIT_NANOS);
+            }
+            return message;
+        } finally {
+            isConsumerWaiting = false;
+            lock.unlock();
+            waitCount++;
+            waitTimeNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
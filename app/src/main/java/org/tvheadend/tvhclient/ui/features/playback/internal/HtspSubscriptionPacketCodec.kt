@@ -0,0 +1,117 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.htsp.HtspMessageDecoder
+import org.tvheadend.htsp.HtspMessageEncoder
+import org.tvheadend.tvhclient.ui.features.playback.internal.reader.MuxPacket
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Framing of the subscription messages that the data source passes on to the
+ * extractor. The muxpkt messages that carry the audio and video frames are
+ * written as a fixed header followed by the payload, so they can be parsed
+ * without reflection. The few other messages like subscriptionStart are
+ * stored in the HTSP binary format.
+ *
+ *     length      u32   Size of the packet after this field
+ *     type        u8    TYPE_MUXPKT or TYPE_MESSAGE
+ *
+ * A muxpkt packet continues with
+ *
+ *     stream      u32   Stream index from the subscriptionStart message
+ *     frametype   s32   Type of frame as ASCII value, -1 if not provided
+ *     flags       u8    FLAG_PTS and FLAG_DTS if these values are provided
+ *     pts         s64
+ *     dts         s64
+ *     duration    u32
+ *     payload     bin   All remaining bytes of the packet
+ *
+ * Every side of the pipeline needs its own instance.
+ */
+internal class HtspSubscriptionPacketCodec {
+
+    private val decoder = HtspMessageDecoder()
+    private val encoder = HtspMessageEncoder()
+    private var encoderBuffer = ByteBuffer.allocate(4096)
+    private val headerBuffer = ByteBuffer.allocate(4 + 1 + MUXPKT_HEADER_SIZE)
+
+    /**
+     * Writes the message as one packet into the ring buffer. Nothing is
+     * written and false is returned if the packet does not fit.
+     */
+    @Throws(IOException::class)
+    fun write(message: HtspMessage, ringBuffer: HtspSubscriptionRingBuffer): Boolean {
+        headerBuffer.clear()
+        if (message.method == "muxpkt") {
+            val payload = message.getByteArray("payload")
+            var flags = 0
+            if (message.containsKey("pts")) {
+                flags = flags or FLAG_PTS
+            }
+            if (message.containsKey("dts")) {
+                flags = flags or FLAG_DTS
+            }
+            headerBuffer.putInt(1 + MUXPKT_HEADER_SIZE + payload.size)
+            headerBuffer.put(TYPE_MUXPKT)
+            headerBuffer.putInt(message.getInteger("stream"))
+            headerBuffer.putInt(message.getInteger("frametype", -1))
+            headerBuffer.put(flags.toByte())
+            headerBuffer.putLong(message.getLong("pts", 0))
+            headerBuffer.putLong(message.getLong("dts", 0))
+            headerBuffer.putInt(message.getInteger("duration", 0))
+            headerBuffer.flip()
+            return ringBuffer.write(headerBuffer, ByteBuffer.wrap(payload))
+        }
+
+        encoderBuffer = encoder.encode(message, encoderBuffer)
+        headerBuffer.putInt(1 + encoderBuffer.remaining())
+        headerBuffer.put(TYPE_MESSAGE)
+        headerBuffer.flip()
+        return ringBuffer.write(headerBuffer, encoderBuffer)
+    }
+
+    /**
+     * Parses the packet that starts behind its length field at the position
+     * of the buffer and ends at its limit. A muxpkt is not copied into a new
+     * message, the given packet is set to a view on its payload in the array
+     * of the buffer and null is returned.
+     */
+    @Throws(IOException::class)
+    fun read(buffer: ByteBuffer, packet: MuxPacket): HtspMessage? {
+        return when (buffer.get()) {
+            TYPE_MUXPKT -> {
+                packet.stream = buffer.int
+                packet.frameType = buffer.int
+                val flags = buffer.get().toInt()
+                val pts = buffer.long
+                packet.hasPts = flags and FLAG_PTS != 0
+                packet.pts = if (packet.hasPts) pts else 0
+                // The stream readers do not use the decode time stamp
+                buffer.long
+                packet.duration = buffer.int
+                packet.data = buffer.array()
+                packet.offset = buffer.arrayOffset() + buffer.position()
+                packet.length = buffer.remaining()
+                null
+            }
+            TYPE_MESSAGE -> {
+                // Skip the length prefix of the HTSP message
+                val offset = buffer.position() + 4
+                decoder.decode(buffer, offset, buffer.limit() - offset)
+            }
+            else -> throw IOException("Unknown subscription packet type")
+        }
+    }
+
+    companion object {
+        const val TYPE_MUXPKT: Byte = 1
+        const val TYPE_MESSAGE: Byte = 2
+
+        private const val FLAG_PTS = 1
+        private const val FLAG_DTS = 2
+
+        // stream, frametype, flags, pts, dts and duration
+        private const val MUXPKT_HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 4
+    }
+}
@@ -0,0 +1,171 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single producer, single consumer ring buffer between the connection thread
+ * that receives the subscription packets and the loader thread of the player.
+ * <p>
+ * The producer never blocks, packets that do not fit are dropped as a whole.
+ * The consumer reads across the end of the buffer without moving any data and
+ * waits on a condition while the buffer is empty. The producer only takes the
+ * lock to signal the consumer when it is actually waiting.
+ */
+class HtspSubscriptionRingBuffer implements HtspSubscriptionBuffer {
+
+    // Wake up regularly while waiting so that a closed buffer is never missed
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final byte[] data;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // Total number of bytes that were written and read, the positions
+    // in the buffer are these values modulo the capacity
+    private volatile long writeCount;
+    private volatile long readCount;
+    private volatile boolean isConsumerWaiting;
+    private volatile boolean isClosed;
+
+    private volatile int maxFillLevel;
+    private volatile long packetCount;
+    private volatile long droppedPacketCount;
+    private volatile long waitCount;
+    private volatile long waitTimeNanos;
+
+    HtspSubscriptionRingBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    @Override
+    public int getCapacity() {
+        return data.length;
+    }
+
+    @Override
+    public int getFillLevel() {
+        return (int) (writeCount - readCount);
+    }
+
+    /**
+     * Appends the remaining bytes of both buffers as one packet.
+     * Returns false and writes nothing if there is not enough space.
+     * Must only be called from the producer thread.
+     */
+    boolean write(ByteBuffer header, ByteBuffer body) {
+        int length = header.remaining() + body.remaining();
+        long position = writeCount;
+        int fillLevel = (int) (position - readCount);
+        if (data.length - fillLevel < length) {
+            droppedPacketCount++;
+            return false;
+        }
+
+        position = copyIn(header, position);
+        position = copyIn(body, position);
+        writeCount = position;
+        packetCount++;
+
+        fillLevel += length;
+        if (fillLevel > maxFillLevel) {
+            maxFillLevel = fillLevel;
+        }
+
+        if (isConsumerWaiting) {
+            signal();
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to the given number of bytes. Waits until at least one byte is
+     * available. Returns -1 if the buffer was closed and all data has been read.
+     * Must only be called from the consumer thread.
+     */
+    int read(byte[] target, int offset, int length) throws InterruptedException {
+        if (writeCount == readCount && !awaitData()) {
+            return -1;
+        }
+
+        long position = readCount;
+        int count = Math.min(length, (int) (writeCount - position));
+        int start = (int) (position % data.length);
+        int firstPart = Math.min(count, data.length - start);
+        System.arraycopy(data, start, target, offset, firstPart);
+        if (firstPart < count) {
+            System.arraycopy(data, 0, target, offset + firstPart, count - firstPart);
+        }
+        readCount = position + count;
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        readCount = writeCount;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        signal();
+    }
+
+    @Override
+    public void reopen() {
+        isClosed = false;
+    }
+
+    @Override
+    public HtspSubscriptionBufferStatistics getStatistics() {
+        return new HtspSubscriptionBufferStatistics(data.length, getFillLevel(), maxFillLevel,
+                packetCount, droppedPacketCount, waitCount, waitTimeNanos);
+    }
+
+    private long copyIn(ByteBuffer source, long position) {
+        int length = source.remaining();
+        int start = (int) (position % data.length);
+        int firstPart = Math.min(length, data.length - start);
+        source.get(data, start, firstPart);
+        if (firstPart < length) {
+            source.get(data, 0, length - firstPart);
+        }
+        return position + length;
+    }
+
+    /**
+     * Returns true when data is available, false if the buffer was closed
+     */
+    private boolean awaitData() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            // The flag must be set before checking for data again, otherwise
+            // the producer could miss that a signal is required
+            isConsumerWaiting = true;
+            while (writeCount == readCount) {
+                if (isClosed) {
+                    return false;
+                }
+                notEmpty.awaitNanos(MAX_WAIT_NANOS);
+            }
+            return true;
+        } finally {
+            isConsumerWaiting = false;
+            lock.unlock();
+            waitCount++;
+            waitTimeNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import android.widget.ImageView
 import android.widget.TextView
 import androidx.appcompat.app.AppCompatActivity
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.PreferenceManager
 import com.afollestad.materialdialogs.MaterialDialog
 import com.afollestad.materialdialogs.list.listItemsSingleChoice
@@ -29,6 +30,7 @@ import com.google.android.exoplayer2.Player
 import com.google.android.exoplayer2.ui.PlayerView
 import com.squareup.picasso.Callback
 import com.squareup.picasso.Picasso
+import kotlinx.coroutines.launch
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.ui.common.onAttach
 import org.tvheadend.tvhclient.ui.common.setOptionalDescriptionText
@@ -190,13 +192,15 @@ class PlaybackActivity : AppCompatActivity() {
         Timber.d("Observing authentication status")
         viewModel.isConnected.observe(this, { isConnected ->
             if (isConnected) {
-                if (!viewModel.isPlaybackProfileSelected(intent.extras)) {
-                    Timber.d("No playback profile was selected")
-                    playerStatus.setText(R.string.no_playback_profile_selected)
-                } else {
-                    Timber.d("Connected to server")
-                    playerStatus.setText(R.string.connected_to_server)
-                    viewModel.loadMediaSource(applicationContext, intent.extras)
+                lifecycleScope.launch {
+                    if (!viewModel.isPlaybackProfileSelected(intent.extras)) {
+                        Timber.d("No playback profile was selected")
+                        playerStatus.setText(R.string.no_playback_profile_selected)
+                    } else {
+                        Timber.d("Connected to server")
+                        playerStatus.setText(R.string.connected_to_server)
+                        viewModel.loadMediaSource(applicationContext, intent.extras)
+                    }
                 }
             } else {
                 Timber.d("Not connected to server")
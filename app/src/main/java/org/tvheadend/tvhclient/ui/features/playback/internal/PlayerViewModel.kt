@@ -7,6 +7,7 @@ import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import androidx.lifecycle.MutableLiveData
+import androidx.lifecycle.viewModelScope
 import com.google.android.exoplayer2.*
 import com.google.android.exoplayer2.ExoPlaybackException
 import com.google.android.exoplayer2.source.ProgressiveMediaSource
@@ -15,6 +16,8 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector
 import com.google.android.exoplayer2.upstream.DefaultAllocator
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory
 import com.google.android.exoplayer2.video.VideoListener
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import org.tvheadend.api.AuthenticationStateResult
 import org.tvheadend.api.ConnectionStateResult
 import org.tvheadend.api.ServerConnectionStateListener
@@ -28,19 +31,16 @@ import org.tvheadend.tvhclient.ui.features.playback.internal.utils.VideoAspect
 import timber.log.Timber
 import java.text.DecimalFormat
 import java.util.*
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import kotlin.math.max
 
 
 class PlayerViewModel(application: Application) : BaseViewModel(application), ServerConnectionStateListener, VideoListener, Player.EventListener {
 
     private var channelId: Int = 0
-    private val channelList: List<Channel>
+    private var channelList: List<Channel> = emptyList()
 
     // Connection related
-    private val execService: ScheduledExecutorService = Executors.newScheduledThreadPool(10)
-    private val htspConnection: HtspConnection
+    private val htspConnection: HtspSession
     private var htspSubscriptionDataSourceFactory: HtspSubscriptionDataSource.Factory? = null
     private var htspFileInputStreamDataSourceFactory: HtspFileInputStreamDataSource.Factory? = null
     private var dataSource: HtspDataSourceInterface? = null
@@ -68,6 +68,7 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
     // Contains the information like icon, title, subtitle, start
     // and stop times either for a channel or a recording
     private lateinit var playbackInformation: PlaybackInformation
+    private var mediaSourceJob: Job? = null
 
     // Handler and runnable to update the playback information every second
     private lateinit var timeUpdateRunnable: Runnable
@@ -78,6 +79,7 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
     private val defaultForceAspectRatio = application.applicationContext.resources.getBoolean(R.bool.pref_default_force_aspect_ratio_for_sd_content_enabled)
     private val defaultChannelSortOrder = application.applicationContext.resources.getString(R.string.pref_default_channel_sort_order)
     private val defaultAudioTunnelingEnabled = application.applicationContext.resources.getBoolean(R.bool.pref_default_audio_tunneling_enabled)
+    private val defaultDirectPacketHandoffEnabled = application.applicationContext.resources.getBoolean(R.bool.pref_default_direct_packet_handoff_enabled)
     private val defaultConnectionTimeout = application.resources.getString(R.string.pref_default_connection_timeout)
 
     init {
@@ -88,7 +90,9 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
         playerState.postValue(Player.STATE_IDLE)
 
         val channelSortOrder = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder) ?: defaultChannelSortOrder)
-        channelList = appRepository.channelData.getChannels(channelSortOrder)
+        viewModelScope.launch {
+            channelList = appRepository.channelData.loadChannels(channelSortOrder)
+        }
 
         Timber.d("Starting connection")
         val connection = appRepository.connectionData.activeItem
@@ -102,12 +106,8 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
                 BuildConfig.VERSION_CODE,
                 connectionTimeout
         )
-        htspConnection = HtspConnection(htspConnectionData, this, null)
-
-        execService.execute {
-            htspConnection.openConnection()
-            htspConnection.authenticate()
-        }
+        htspConnection = HtspConnectionManager.getInstance().acquire(htspConnectionData, this, null)
+        htspConnection.openConnection()
 
         trackSelector = DefaultTrackSelector(application.applicationContext, AdaptiveTrackSelection.Factory())
         trackSelector.buildUponParameters().setRendererDisabled(C.TRACK_TYPE_TEXT, true)
@@ -149,11 +149,11 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
     }
 
 
-    fun isPlaybackProfileSelected(bundle: Bundle?): Boolean {
+    suspend fun isPlaybackProfileSelected(bundle: Bundle?): Boolean {
         val channelId = bundle?.getInt("channelId", 0) ?: 0
         if (channelId > 0) {
-            val serverStatus = appRepository.serverStatusData.activeItem
-            val serverProfile = appRepository.serverProfileData.getItemById(serverStatus.htspPlaybackServerProfileId)
+            val serverStatus = appRepository.serverStatusData.loadActiveItem()
+            val serverProfile = appRepository.serverProfileData.loadItemById(serverStatus.htspPlaybackServerProfileId)
             if (serverProfile != null && !serverProfile.name.isNullOrEmpty() && serverProfile.name != "None") {
                 return true
             }
@@ -161,50 +161,59 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
         return false
     }
 
+    /**
+     * Loads the playback information in the background and prepares the player
+     * afterwards. A media source that is still loading is replaced by the new one.
+     */
     fun loadMediaSource(context: Context, bundle: Bundle?) {
         Timber.d("Loading new media source")
 
+        mediaSourceJob?.cancel()
         releaseMediaSource()
 
         channelId = bundle?.getInt("channelId", 0) ?: 0
         val dvrId = bundle?.getInt("dvrId", 0) ?: 0
         val localUri = bundle?.getString("uri", "") ?: ""
 
-        when {
-            channelId > 0 -> loadMediaSourceForChannel(context, channelId)
-            dvrId > 0 -> loadMediaSourceForRecording(dvrId)
-            localUri.isNotEmpty() -> loadMediaSourceForLocalUri(context, localUri)
-        }
+        mediaSourceJob = viewModelScope.launch {
+            when {
+                channelId > 0 -> loadMediaSourceForChannel(context, channelId)
+                dvrId > 0 -> loadMediaSourceForRecording(dvrId)
+                localUri.isNotEmpty() -> loadMediaSourceForLocalUri(context, localUri)
+            }
 
-        Timber.d("Showing playback information")
-        channelIcon.postValue(playbackInformation.channelIcon)
-        channelName.postValue(playbackInformation.channelName)
-        title.postValue(playbackInformation.title)
-        subtitle.postValue(playbackInformation.subtitle)
-        nextTitle.postValue(playbackInformation.nextTitle)
+            Timber.d("Showing playback information")
+            channelIcon.postValue(playbackInformation.channelIcon)
+            channelName.postValue(playbackInformation.channelName)
+            title.postValue(playbackInformation.title)
+            subtitle.postValue(playbackInformation.subtitle)
+            nextTitle.postValue(playbackInformation.nextTitle)
+        }
     }
 
-    private fun loadMediaSourceForChannel(context: Context, channelId: Int) {
+    private suspend fun loadMediaSourceForChannel(context: Context, channelId: Int) {
         Timber.d("Loading media source for channel id $channelId")
-        playbackInformation = PlaybackInformation(appRepository.channelData.getItemByIdWithPrograms(channelId, Date().time))
-        val serverStatus = appRepository.serverStatusData.activeItem
-        val serverProfile = appRepository.serverProfileData.getItemById(serverStatus.htspPlaybackServerProfileId)
-        htspSubscriptionDataSourceFactory = HtspSubscriptionDataSource.Factory(context, htspConnection, serverProfile?.name)
-        dataSource = htspSubscriptionDataSourceFactory?.currentDataSource
+        playbackInformation = PlaybackInformation(appRepository.channelData.loadItemByIdWithPrograms(channelId, Date().time))
+        val serverStatus = appRepository.serverStatusData.loadActiveItem()
+        val serverProfile = appRepository.serverProfileData.loadItemById(serverStatus.htspPlaybackServerProfileId)
+        val isDirectMode = sharedPreferences.getBoolean("direct_packet_handoff_enabled", defaultDirectPacketHandoffEnabled)
+        val subscriptionDataSourceFactory = HtspSubscriptionDataSource.Factory(context, htspConnection, serverProfile?.name, isDirectMode)
+        htspSubscriptionDataSourceFactory = subscriptionDataSourceFactory
+        dataSource = subscriptionDataSourceFactory.currentDataSource
 
         Timber.d("Preparing player with media source")
         player.prepare(ProgressiveMediaSource.Factory(
-                htspSubscriptionDataSourceFactory,
-                TvheadendExtractorsFactory())
+                subscriptionDataSourceFactory,
+                TvheadendExtractorsFactory(subscriptionDataSourceFactory))
                 .createMediaSource(Uri.parse("htsp://channel/$channelId")))
 
         liveTvIsPlaying.value = true
         player.playWhenReady = true
     }
 
-    private fun loadMediaSourceForRecording(recordingId: Int) {
+    private suspend fun loadMediaSourceForRecording(recordingId: Int) {
         Timber.d("Loading media source for recording id $recordingId")
-        playbackInformation = PlaybackInformation(appRepository.recordingData.getItemById(recordingId))
+        playbackInformation = PlaybackInformation(appRepository.recordingData.loadItemById(recordingId))
         htspFileInputStreamDataSourceFactory = HtspFileInputStreamDataSource.Factory(htspConnection)
         dataSource = htspFileInputStreamDataSourceFactory?.currentDataSource
 
@@ -286,7 +295,6 @@ class PlayerViewModel(application: Application) : BaseViewModel(application), Se
         player.release()
 
         Timber.d("Closing connection")
-        execService.shutdown()
         htspConnection.closeConnection()
     }
 
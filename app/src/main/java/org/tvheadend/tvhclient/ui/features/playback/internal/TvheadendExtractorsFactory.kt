@@ -30,11 +30,11 @@ import com.google.android.exoplayer2.extractor.ts.PsExtractor
 import com.google.android.exoplayer2.extractor.ts.TsExtractor
 import com.google.android.exoplayer2.extractor.wav.WavExtractor
 
-internal class TvheadendExtractorsFactory : ExtractorsFactory {
+internal class TvheadendExtractorsFactory(private val directDataSourceFactory: HtspSubscriptionDataSource.Factory? = null) : ExtractorsFactory {
 
     override fun createExtractors(): Array<Extractor> {
         return arrayOf(
-                HtspSubscriptionExtractor(),
+                HtspSubscriptionExtractor(directDataSourceFactory?.currentDirectDataSource),
                 MatroskaExtractor(),
                 FragmentedMp4Extractor(),
                 Mp4Extractor(),
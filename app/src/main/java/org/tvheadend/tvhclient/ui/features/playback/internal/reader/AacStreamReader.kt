@@ -31,6 +31,7 @@ import org.tvheadend.tvhclient.ui.features.playback.internal.utils.TvhMappings
 internal class AacStreamReader : StreamReader {
 
     private var mTrackOutput: TrackOutput? = null
+    private val mScratch = ParsableByteArray()
 
     override fun createTracks(stream: HtspMessage, output: ExtractorOutput) {
         val streamIndex = stream.getInteger("index")
@@ -38,12 +39,11 @@ internal class AacStreamReader : StreamReader {
         mTrackOutput!!.format(buildFormat(streamIndex, stream))
     }
 
-    override fun consume(message: HtspMessage) {
-        val pts = message.getLong("pts")
-        val payload = message.getByteArray("payload")
-        val pba = ParsableByteArray(payload)
+    override fun consume(packet: MuxPacket) {
+        mScratch.reset(packet.data, packet.offset + packet.length)
+        mScratch.position = packet.offset
 
-        val skipLength: Int = if (hasCrc(payload[1])) {
+        val skipLength: Int = if (hasCrc(packet.data[packet.offset + 1])) {
             // Have a CRC
             ADTS_HEADER_SIZE + ADTS_CRC_SIZE
         } else {
@@ -51,14 +51,14 @@ internal class AacStreamReader : StreamReader {
             ADTS_HEADER_SIZE
         }
 
-        pba.skipBytes(skipLength)
+        mScratch.skipBytes(skipLength)
 
-        val aacFrameLength = payload.size - skipLength
+        val aacFrameLength = packet.length - skipLength
 
         // TODO: Set Buffer Flag key frame based on frametype
         // frametype   u32   required   Type of frame as ASCII value: 'I', 'P', 'B'
-        mTrackOutput!!.sampleData(pba, aacFrameLength)
-        mTrackOutput!!.sampleMetadata(pts, C.BUFFER_FLAG_KEY_FRAME, aacFrameLength, 0, null)
+        mTrackOutput!!.sampleData(mScratch, aacFrameLength)
+        mTrackOutput!!.sampleMetadata(packet.pts, C.BUFFER_FLAG_KEY_FRAME, aacFrameLength, 0, null)
     }
 
     private fun buildFormat(streamIndex: Int, stream: HtspMessage): Format {
@@ -0,0 +1,38 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal.reader
+
+import org.tvheadend.htsp.HtspMessage
+
+/**
+ * The values of a muxpkt message that the stream readers need. The payload is
+ * a view on [data] from [offset] with the given [length]. The packet and the
+ * array behind it are reused for the next packet, so the payload is only valid
+ * until [StreamReader.consume] returns. A packet without a presentation time
+ * stamp has [hasPts] set to false and must not be passed to a stream reader.
+ */
+class MuxPacket {
+    var stream = 0
+    var frameType = -1
+    var hasPts = false
+    var pts = 0L
+    var duration = 0
+    var data = EMPTY_DATA
+    var offset = 0
+    var length = 0
+
+    fun set(message: HtspMessage): MuxPacket {
+        val payload = message.getByteArray("payload")
+        stream = message.getInteger("stream")
+        frameType = message.getInteger("frametype", -1)
+        hasPts = message.containsKey("pts")
+        pts = message.getLong("pts", 0)
+        duration = message.getInteger("duration", 0)
+        data = payload
+        offset = 0
+        length = payload.size
+        return this
+    }
+
+    companion object {
+        private val EMPTY_DATA = ByteArray(0)
+    }
+}
@@ -28,6 +28,7 @@ import org.tvheadend.htsp.HtspMessage
  */
 abstract class PlainStreamReader(private val mTrackType: Int) : StreamReader {
     private var mTrackOutput: TrackOutput? = null
+    private val mScratch = ParsableByteArray()
 
     protected abstract val trackType: Int
 
@@ -37,11 +38,10 @@ abstract class PlainStreamReader(private val mTrackType: Int) : StreamReader {
         mTrackOutput!!.format(buildFormat(streamIndex, stream))
     }
 
-    override fun consume(message: HtspMessage) {
-        val pts = message.getLong("pts")
-        val frameType = message.getInteger("frametype", -1)
-        val payload = message.getByteArray("payload")
-        val pba = ParsableByteArray(payload)
+    override fun consume(packet: MuxPacket) {
+        val frameType = packet.frameType
+        mScratch.reset(packet.data, packet.offset + packet.length)
+        mScratch.position = packet.offset
 
         var bufferFlags = 0
 
@@ -60,8 +60,8 @@ abstract class PlainStreamReader(private val mTrackType: Int) : StreamReader {
             bufferFlags = bufferFlags or C.BUFFER_FLAG_KEY_FRAME
         }
 
-        mTrackOutput!!.sampleData(pba, payload.size)
-        mTrackOutput!!.sampleMetadata(pts, bufferFlags, payload.size, 0, null)
+        mTrackOutput!!.sampleData(mScratch, packet.length)
+        mTrackOutput!!.sampleMetadata(packet.pts, bufferFlags, packet.length, 0, null)
     }
 
     protected abstract fun buildFormat(streamIndex: Int, stream: HtspMessage): Format
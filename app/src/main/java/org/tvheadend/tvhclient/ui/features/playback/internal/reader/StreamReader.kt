@@ -23,5 +23,9 @@ import org.tvheadend.htsp.HtspMessage
 interface StreamReader {
     fun createTracks(stream: HtspMessage, output: ExtractorOutput)
 
-    fun consume(message: HtspMessage)
+    /**
+     * Writes the payload of the packet to the track output, the
+     * packet must not be retained after this method returns
+     */
+    fun consume(packet: MuxPacket)
 }
\ No newline at end of file
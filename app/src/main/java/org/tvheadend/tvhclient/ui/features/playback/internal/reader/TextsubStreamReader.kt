@@ -31,6 +31,7 @@ import java.util.*
 internal class TextsubStreamReader : StreamReader {
 
     private var mTrackOutput: TrackOutput? = null
+    private val mScratch = ParsableByteArray()
 
     override fun createTracks(stream: HtspMessage, output: ExtractorOutput) {
         val streamIndex = stream.getInteger("index")
@@ -38,12 +39,11 @@ internal class TextsubStreamReader : StreamReader {
         mTrackOutput!!.format(buildFormat(streamIndex, stream))
     }
 
-    override fun consume(message: HtspMessage) {
+    override fun consume(packet: MuxPacket) {
 
-        val pts = message.getLong("pts")
-        val duration = message.getInteger("duration").toLong()
+        val duration = packet.duration.toLong()
         val payload = Util.getUtf8Bytes(
-                String(message.getByteArray("payload"), UTF_8).trim { it <= ' ' })
+                String(packet.data, packet.offset, packet.length, UTF_8).trim { it <= ' ' })
 
         val lengthWithPrefix = SUBRIP_PREFIX.size + payload.size
         val subsipSample = SUBRIP_PREFIX.copyOf(lengthWithPrefix)
@@ -52,8 +52,9 @@ internal class TextsubStreamReader : StreamReader {
 
         setSubripSampleEndTimecode(subsipSample, duration)
 
-        mTrackOutput!!.sampleData(ParsableByteArray(subsipSample), lengthWithPrefix)
-        mTrackOutput!!.sampleMetadata(pts, C.BUFFER_FLAG_KEY_FRAME, lengthWithPrefix, 0,
+        mScratch.reset(subsipSample, lengthWithPrefix)
+        mTrackOutput!!.sampleData(mScratch, lengthWithPrefix)
+        mTrackOutput!!.sampleMetadata(packet.pts, C.BUFFER_FLAG_KEY_FRAME, lengthWithPrefix, 0,
                 null)
     }
 
@@ -11,6 +11,7 @@ import org.tvheadend.tvhclient.ui.base.BaseFragment
 import org.tvheadend.tvhclient.ui.common.*
 import org.tvheadend.tvhclient.ui.common.interfaces.ClearSearchResultsOrPopBackStackInterface
 import org.tvheadend.tvhclient.ui.common.interfaces.LayoutControlInterface
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import org.tvheadend.tvhclient.util.extensions.gone
 import org.tvheadend.tvhclient.util.extensions.visible
 import timber.log.Timber
@@ -62,10 +63,10 @@ class ProgramDetailsFragment : BaseFragment(), ClearSearchResultsOrPopBackStackI
         })
 
         Timber.d("Observing recordings")
-        programViewModel.recordings.observe(viewLifecycleOwner, { recordings ->
-            if (recordings != null) {
-                Timber.d("View model returned ${recordings.size} recordings")
-                showRecordingStatusOfProgram(recordings)
+        programViewModel.recordingIndex.observe(viewLifecycleOwner, { recordingIndex ->
+            if (recordingIndex != null) {
+                Timber.d("View model returned ${recordingIndex.size} recordings")
+                showRecordingStatusOfProgram(recordingIndex)
             }
         })
     }
@@ -85,32 +86,16 @@ class ProgramDetailsFragment : BaseFragment(), ClearSearchResultsOrPopBackStackI
         }
     }
 
-    private fun showRecordingStatusOfProgram(recordings: List<Recording>) {
-        var recordingExists = false
-        for (rec in recordings) {
-            // Show the edit recording screen of the scheduled recording
-            // in case the user has selected the record and edit menu item.
-            // Otherwise remember the recording so that the state can be updated
-            if (rec.eventId == programIdToBeEditedWhenBeingRecorded && programIdToBeEditedWhenBeingRecorded > 0) {
-                programIdToBeEditedWhenBeingRecorded = 0
-                editSelectedRecording(requireActivity(), rec.id)
-                break
-
-            } else {
-                val p = program
-                if (p != null && rec.eventId == p.eventId) {
-                    Timber.d("Found recording for program ${p.title}")
-                    recording = rec
-                    recordingExists = true
-                    break
-                }
-            }
-        }
-        // If there is no recording for the program set the
-        // recording to null so that the correct state is shown
-        if (!recordingExists) {
-            recording = null
+    private fun showRecordingStatusOfProgram(recordingIndex: RecordingIndex) {
+        // Show the edit recording screen of the scheduled recording
+        // in case the user has selected the record and edit menu item.
+        recordingIndex[programIdToBeEditedWhenBeingRecorded]?.let {
+            programIdToBeEditedWhenBeingRecorded = 0
+            editSelectedRecording(requireActivity(), it.id)
         }
+        // Remember the recording so that the state can be updated. If there is no
+        // recording for the program it is set to null so that the correct state is shown
+        recording = program?.let { recordingIndex[it.eventId] }
         // Update the state of the recording (if there is one)
         // and also the menu items in the nested toolbar
         program?.recording = recording
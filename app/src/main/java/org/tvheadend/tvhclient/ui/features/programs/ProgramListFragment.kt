@@ -9,7 +9,6 @@ import androidx.fragment.app.FragmentTransaction
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.ViewModelProvider
 import androidx.recyclerview.widget.LinearLayoutManager
-import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.RecyclerviewFragmentBinding
 import org.tvheadend.tvhclient.service.ConnectionService
@@ -18,6 +17,7 @@ import org.tvheadend.tvhclient.ui.common.*
 import org.tvheadend.tvhclient.ui.common.interfaces.ClearSearchResultsOrPopBackStackInterface
 import org.tvheadend.tvhclient.ui.common.interfaces.RecyclerViewClickInterface
 import org.tvheadend.tvhclient.ui.common.interfaces.SearchRequestInterface
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import org.tvheadend.tvhclient.util.extensions.getCastSession
 import org.tvheadend.tvhclient.util.extensions.gone
 import org.tvheadend.tvhclient.util.extensions.visible
@@ -84,10 +84,10 @@ class ProgramListFragment : BaseFragment(), RecyclerViewClickInterface, LastProg
 
     private fun observeRecordings() {
         Timber.d("Observing recordings")
-        programViewModel.recordings.observe(viewLifecycleOwner,  { recs ->
-            if (recs != null) {
-                Timber.d("View model returned ${recs.size} recordings")
-                handleObservedRecordings(recs)
+        programViewModel.recordingIndex.observe(viewLifecycleOwner,  { recordingIndex ->
+            if (recordingIndex != null) {
+                Timber.d("View model returned ${recordingIndex.size} recordings")
+                handleObservedRecordings(recordingIndex)
             }
         })
     }
@@ -109,20 +109,17 @@ class ProgramListFragment : BaseFragment(), RecyclerViewClickInterface, LastProg
     }
 
     /**
-     * Check all recordings for the given channel to see if it belongs to a certain program
-     * so the recording status of the particular program can be updated. This is required
-     * because the programs are not updated automatically when recordings change.
+     * Updates the recording status of the shown programs from the recordings of the
+     * given channel. This is required because the programs are not updated
+     * automatically when recordings change.
      *
-     * @param recordings The list of recordings
+     * @param recordingIndex The recordings by the event id of their program
      */
-    private fun handleObservedRecordings(recordings: List<Recording>) {
-        recyclerViewAdapter.addRecordings(recordings)
-        for (recording in recordings) {
-            if (recording.eventId == programIdToBeEditedWhenBeingRecorded && programIdToBeEditedWhenBeingRecorded > 0) {
-                programIdToBeEditedWhenBeingRecorded = 0
-                editSelectedRecording(requireActivity(), recording.id)
-                break
-            }
+    private fun handleObservedRecordings(recordingIndex: RecordingIndex) {
+        recyclerViewAdapter.onRecordingsChanged()
+        recordingIndex[programIdToBeEditedWhenBeingRecorded]?.let {
+            programIdToBeEditedWhenBeingRecorded = 0
+            editSelectedRecording(requireActivity(), it.id)
         }
     }
 
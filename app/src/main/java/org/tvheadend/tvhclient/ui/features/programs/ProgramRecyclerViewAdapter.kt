@@ -8,11 +8,10 @@ import androidx.lifecycle.LifecycleOwner
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import org.tvheadend.data.entity.ProgramInterface
-import org.tvheadend.data.entity.Recording
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.databinding.ProgramListAdapterBinding
 import org.tvheadend.tvhclient.ui.common.interfaces.RecyclerViewClickInterface
-import org.tvheadend.tvhclient.util.extensions.isEqualTo
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import java.util.*
 import java.util.concurrent.CopyOnWriteArrayList
 
@@ -20,7 +19,6 @@ class ProgramRecyclerViewAdapter internal constructor(private val viewModel: Pro
 
     private val programList = ArrayList<ProgramInterface>()
     private var programListFiltered: MutableList<ProgramInterface> = ArrayList()
-    private val recordingList = ArrayList<Recording>()
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ProgramViewHolder {
         val layoutInflater = LayoutInflater.from(parent.context)
@@ -45,7 +43,7 @@ class ProgramRecyclerViewAdapter internal constructor(private val viewModel: Pro
     }
 
     internal fun addItems(newItems: MutableList<ProgramInterface>) {
-        updateRecordingState(newItems, recordingList)
+        updateRecordingState(newItems)
 
         val oldItems = ArrayList(programListFiltered)
         val diffResult = DiffUtil.calculateDiff(ProgramListDiffCallback(oldItems, newItems))
@@ -104,46 +102,22 @@ class ProgramRecyclerViewAdapter internal constructor(private val viewModel: Pro
     }
 
     /**
-     * Whenever a recording changes in the database the list of available recordings are
-     * saved in this recycler view. The previous list is cleared to avoid showing outdated
-     * recording states. Each recording is checked if it belongs to the
-     * currently shown program. If yes then its state is updated.
-     *
-     * @param list List of recordings
+     * Whenever a recording has been added, changed or removed the recording of each
+     * program is taken from the recording index of the view model. Only the programs
+     * whose recording state has changed are updated.
      */
-    internal fun addRecordings(list: List<Recording>) {
-        recordingList.clear()
-        recordingList.addAll(list)
-        updateRecordingState(programListFiltered, recordingList)
+    internal fun onRecordingsChanged() {
+        updateRecordingState(programListFiltered)
     }
 
-    private fun updateRecordingState(programs: MutableList<ProgramInterface>, recordings: List<Recording>) {
-        for (i in programs.indices) {
-            val program = programs[i]
-            var recordingExists = false
-
-            for (recording in recordings) {
-                if (program.eventId > 0 && program.eventId == recording.eventId) {
-                    val oldRecording = program.recording
-                    program.recording = recording
-
-                    // Do a full update only when a new recording was added or the recording
-                    // state has changed which results in a different recording state icon
-                    // Otherwise do not update the UI
-                    if (oldRecording == null
-                            || !oldRecording.error.isEqualTo(recording.error)
-                            || !oldRecording.state.isEqualTo(recording.state)) {
-                        notifyItemChanged(i)
-                    }
-                    recordingExists = true
-                    break
-                }
-            }
-            if (!recordingExists && program.recording != null) {
-                program.recording = null
-                notifyItemChanged(i)
+    private fun updateRecordingState(programs: List<ProgramInterface>) {
+        val recordingIndex = viewModel.recordingIndex.value
+        programs.forEachIndexed { position, program ->
+            val recording = recordingIndex?.get(program.eventId)
+            if (RecordingIndex.isStateChanged(program.recording, recording)) {
+                notifyItemChanged(position)
             }
-            programs[i] = program
+            program.recording = recording
         }
     }
 
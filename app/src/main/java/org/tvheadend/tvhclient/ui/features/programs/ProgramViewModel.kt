@@ -6,11 +6,16 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.Transformations
+import androidx.lifecycle.asLiveData
+import androidx.lifecycle.viewModelScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
 import org.tvheadend.data.entity.Program
 import org.tvheadend.data.entity.Recording
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.tvhclient.R
 import org.tvheadend.tvhclient.ui.base.BaseViewModel
+import org.tvheadend.tvhclient.ui.features.dvr.RecordingIndex
 import timber.log.Timber
 import java.util.*
 
@@ -19,6 +24,7 @@ class ProgramViewModel(application: Application) : BaseViewModel(application), S
     var program = MediatorLiveData<Program>()
     var programs: LiveData<List<Program>>
     var recordings: LiveData<List<Recording>>
+    val recordingIndex: LiveData<RecordingIndex>
 
     var selectedTime: Long = System.currentTimeMillis()
     var eventId = 0
@@ -34,6 +40,9 @@ class ProgramViewModel(application: Application) : BaseViewModel(application), S
     val channelIdLiveData = MutableLiveData(0)
     val selectedTimeLiveData = MutableLiveData(Date().time)
 
+    // Loads the program of the current event id, a previous load is cancelled
+    private var programJob: Job? = null
+
     private val defaultShowGenreColor = application.applicationContext.resources.getBoolean(R.bool.pref_default_genre_colors_for_programs_enabled)
     private val defaultShowProgramSubtitles = application.applicationContext.resources.getBoolean(R.bool.pref_default_program_subtitle_enabled)
     private val defaultShowProgramArtwork = application.applicationContext.resources.getBoolean(R.bool.pref_default_program_artwork_enabled)
@@ -45,8 +54,11 @@ class ProgramViewModel(application: Application) : BaseViewModel(application), S
         onSharedPreferenceChanged(sharedPreferences, "program_artwork_enabled")
 
         program.addSource(eventIdLiveData) { value ->
+            programJob?.cancel()
             if (value > 0) {
-                program.value = appRepository.programData.getItemById(value)
+                programJob = viewModelScope.launch {
+                    program.value = appRepository.programData.loadItemById(value)
+                }
             }
         }
 
@@ -55,9 +67,9 @@ class ProgramViewModel(application: Application) : BaseViewModel(application), S
             val selectedTime = value.second ?: Date().time
 
             if (channelId == 0) {
-                return@switchMap appRepository.programData.getLiveDataItemsFromTime(selectedTime)
+                return@switchMap appRepository.programData.getItemsFromTime(selectedTime).asLiveData()
             } else {
-                return@switchMap appRepository.programData.getLiveDataItemByChannelIdAndTime(channelId, selectedTime)
+                return@switchMap appRepository.programData.getItemsByChannelIdAndTime(channelId, selectedTime).asLiveData()
             }
         }
 
@@ -69,6 +81,7 @@ class ProgramViewModel(application: Application) : BaseViewModel(application), S
                 return@switchMap appRepository.recordingData.getLiveDataItemsByChannelId(channelId)
             }
         }
+        recordingIndex = RecordingIndex.from(recordings)
 
         Timber.d("Registering shared preference change listener")
         sharedPreferences.registerOnSharedPreferenceChangeListener(this)
@@ -10,6 +10,7 @@ import android.provider.SearchRecentSuggestions
 import android.view.View
 import androidx.core.content.FileProvider
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.preference.*
 import androidx.work.ExistingWorkPolicy
 import androidx.work.OneTimeWorkRequest
@@ -17,6 +18,7 @@ import androidx.work.WorkManager
 import com.afollestad.materialdialogs.MaterialDialog
 import com.afollestad.materialdialogs.list.listItemsSingleChoice
 import com.squareup.picasso.Picasso
+import kotlinx.coroutines.launch
 import org.tvheadend.data.source.MiscDataSource
 import org.tvheadend.tvhclient.BuildConfig
 import org.tvheadend.tvhclient.R
@@ -321,11 +323,13 @@ class SettingsAdvancedFragment : PreferenceFragmentCompat(), Preference.OnPrefer
                 title(R.string.clear_icon_cache).message(R.string.clear_icon_cache_sum)
                 positiveButton(R.string.delete) { _ ->
                     Timber.d("Deleting channel icons, invalidating cache and reloading icons via a background worker")
-                    clearIconsFromCache(it)
-                    it.sendSnackbarMessage(R.string.clear_icon_cache_done)
+                    viewLifecycleOwner.lifecycleScope.launch {
+                        clearIconsFromCache(it)
+                        it.sendSnackbarMessage(R.string.clear_icon_cache_done)
 
-                    val loadChannelIcons = OneTimeWorkRequest.Builder(LoadChannelIconWorker::class.java).build()
-                    WorkManager.getInstance(context.applicationContext).enqueueUniqueWork(LoadChannelIconWorker.WORK_NAME, ExistingWorkPolicy.APPEND, loadChannelIcons)
+                        val loadChannelIcons = OneTimeWorkRequest.Builder(LoadChannelIconWorker::class.java).build()
+                        WorkManager.getInstance(it.applicationContext).enqueueUniqueWork(LoadChannelIconWorker.WORK_NAME, ExistingWorkPolicy.APPEND, loadChannelIcons)
+                    }
                 }
                 negativeButton(R.string.cancel)
             }
@@ -336,8 +340,8 @@ class SettingsAdvancedFragment : PreferenceFragmentCompat(), Preference.OnPrefer
      * Clear the cached channel icons by checking all cached files if their name
      * matches with the url from a channel icon. If this is the case remove the file
      */
-    private fun clearIconsFromCache(context: Context) {
-        val channels = settingsViewModel.getChannelList()
+    private suspend fun clearIconsFromCache(context: Context) {
+        val channels = settingsViewModel.loadChannelList()
         if (context.cacheDir.exists()) {
             val fileNames = context.cacheDir.list()
             for (fileName in fileNames!!) {
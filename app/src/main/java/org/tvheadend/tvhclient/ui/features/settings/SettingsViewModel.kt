@@ -115,10 +115,10 @@ class SettingsViewModel(application: Application) : AndroidViewModel(application
         navigationMenuIdLiveData.value = Event(id)
     }
 
-    fun getChannelList(): List<Channel> {
+    suspend fun loadChannelList(): List<Channel> {
         val channelSortOrder = Integer.valueOf(sharedPreferences.getString("channel_sort_order", defaultChannelSortOrder)
                 ?: defaultChannelSortOrder)
-        return appRepository.channelData.getChannels(channelSortOrder)
+        return appRepository.channelData.loadChannels(channelSortOrder)
     }
 
     /**
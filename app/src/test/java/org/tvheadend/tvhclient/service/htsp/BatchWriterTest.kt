@@ -0,0 +1,133 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+class BatchWriterTest {
+
+    @Test
+    fun itemsAreSavedInOrderAndInBoundedBatches() {
+        val savedItems = Collections.synchronizedList(ArrayList<Int>())
+        val batchSizes = Collections.synchronizedList(ArrayList<Int>())
+        val progress = Collections.synchronizedList(ArrayList<Int>())
+        val writer = BatchWriter<Int>(batchSize = 100, flushIntervalMs = 60000,
+                saveBatch = {
+                    batchSizes.add(it.size)
+                    savedItems.addAll(it)
+                },
+                onBatchSaved = { progress.add(it) })
+
+        for (i in 0 until 1050) {
+            writer.add(i)
+        }
+        writer.finish()
+        writer.shutdown()
+
+        assertEquals((0 until 1050).toList(), savedItems)
+        assertTrue(batchSizes.all { it <= 100 })
+        assertEquals(11, batchSizes.size)
+        assertEquals(1050, progress.last())
+        assertEquals(1050, writer.savedItemCount)
+    }
+
+    @Test
+    fun itemsAreFlushedWhenTheIntervalHasPassed() {
+        val batchSizes = Collections.synchronizedList(ArrayList<Int>())
+        val writer = BatchWriter<Int>(batchSize = 1000, flushIntervalMs = 20,
+                saveBatch = { batchSizes.add(it.size) })
+
+        writer.add(1)
+        Thread.sleep(40)
+        writer.add(2)
+        writer.finish()
+        writer.shutdown()
+
+        assertEquals(listOf(2), batchSizes)
+    }
+
+    @Test
+    fun addingBlocksWhileTheWriterIsBehind() {
+        val maxItemsInMemory = AtomicInteger()
+        var addedItems = 0
+        val savedItems = AtomicInteger()
+        val writer = BatchWriter<Int>(batchSize = 10, flushIntervalMs = 60000, maxPendingBatches = 2,
+                saveBatch = {
+                    Thread.sleep(2)
+                    savedItems.addAndGet(it.size)
+                })
+
+        for (i in 0 until 500) {
+            writer.add(i)
+            addedItems++
+            maxItemsInMemory.set(maxOf(maxItemsInMemory.get(), addedItems - savedItems.get()))
+        }
+        writer.finish()
+        writer.shutdown()
+
+        assertEquals(500, savedItems.get())
+        // The current batch, the batch being saved and the pending batches
+        assertTrue(maxItemsInMemory.get() <= 40)
+    }
+
+    @Test
+    fun finishFailsWhenBatchesAreNotSavedInTime() {
+        val release = CountDownLatch(1)
+        val writer = BatchWriter<Int>(batchSize = 10, flushIntervalMs = 60000,
+                saveBatch = { release.await() })
+
+        writer.add(1)
+        assertFalse(writer.finish(timeoutMs = 20))
+        release.countDown()
+        writer.shutdown()
+    }
+
+    @Test
+    fun finishFailsWhenABatchCouldNotBeSaved() {
+        val writer = BatchWriter<Int>(batchSize = 1, flushIntervalMs = 60000,
+                saveBatch = { if (it.contains(2)) throw IllegalStateException() })
+
+        writer.add(1)
+        writer.add(2)
+        assertFalse(writer.finish())
+        assertEquals(1, writer.savedItemCount)
+        writer.shutdown()
+    }
+
+    @Test
+    fun clearDiscardsPendingBatches() {
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val savedItems = Collections.synchronizedList(ArrayList<Int>())
+        val writer = BatchWriter<Int>(batchSize = 1, flushIntervalMs = 60000,
+                saveBatch = {
+                    started.countDown()
+                    release.await()
+                    savedItems.addAll(it)
+                })
+
+        writer.add(1)
+        writer.add(2)
+        started.await()
+        // The first batch is being saved, the second one is still pending
+        val clearing = Thread { writer.clear() }
+        clearing.start()
+        while (clearing.state != Thread.State.TIMED_WAITING) {
+            Thread.yield()
+        }
+        release.countDown()
+        clearing.join()
+
+        assertEquals(listOf(1), savedItems)
+        writer.add(3)
+        assertTrue(writer.finish())
+        writer.shutdown()
+
+        assertEquals(listOf(1, 3), savedItems)
+        assertEquals(1, writer.savedItemCount)
+    }
+}
@@ -0,0 +1,81 @@
+package org.tvheadend.tvhclient.service.htsp
+
+import kotlinx.coroutines.delay
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.Channel
+import org.tvheadend.data.entity.LastProgram
+import org.tvheadend.htsp.HtspMessage
+
+class EventFetcherTest {
+
+    @Test
+    fun inFlightRequestsAreLimitedAndAllChannelsAreCompleted() {
+        var inFlight = 0
+        var maxInFlight = 0
+        val fetcher = EventFetcher(maxInFlightRequests = 4, timeoutMs = 5000) { request ->
+            inFlight++
+            maxInFlight = maxOf(maxInFlight, inFlight)
+            delay(10)
+            inFlight--
+            createResponse(request.getInteger("channelId"), 3)
+        }
+
+        val requests = (1..20).map { EventFetcher.createRequest(Channel(id = it, name = "Channel $it", eventId = it * 100), null, 3) }
+        val handledChannelIds = ArrayList<Int>()
+        val result = fetcher.fetch(requests) { request, response ->
+            handledChannelIds.add(request.channelId)
+            response.getList("events").size
+        }
+
+        assertEquals(4, maxInFlight)
+        assertEquals(4, result.maxInFlightRequests)
+        assertEquals(20, result.completedChannelIds.size)
+        assertEquals((1..20).toList(), handledChannelIds.sorted())
+        assertEquals(60, result.eventCount)
+    }
+
+    @Test
+    fun slowChannelIsReportedAsFailed() {
+        val fetcher = EventFetcher(maxInFlightRequests = 2, timeoutMs = 100) { request ->
+            if (request.getInteger("channelId") == 2) {
+                delay(1000)
+            }
+            createResponse(request.getInteger("channelId"), 1)
+        }
+
+        val requests = (1..3).map { EventFetcher.createRequest(Channel(id = it), null, 1) }
+        val result = fetcher.fetch(requests) { _, response -> response.getList("events").size }
+
+        assertEquals(listOf(2), result.failedChannelIds)
+        assertEquals(listOf(1, 3), result.completedChannelIds.sorted())
+        assertEquals(2, result.eventCount)
+    }
+
+    @Test
+    fun requestStartsAfterTheLastSavedProgram() {
+        val channel = Channel(id = 1, eventId = 10, nextEventId = 11)
+
+        val lastProgram = LastProgram(eventId = 20, nextEventId = 21)
+        assertEquals(21, EventFetcher.createRequest(channel, lastProgram, 5).message.getInteger("eventId"))
+        assertEquals(11, EventFetcher.createRequest(channel, null, 5).message.getInteger("eventId"))
+
+        val message = EventFetcher.createRequest(Channel(id = 1, eventId = 10), null, 5).message
+        assertEquals(10, message.getInteger("eventId"))
+        assertEquals(5, message.getInteger("numFollowing"))
+        assertTrue(message.containsKey("channelId"))
+    }
+
+    private fun createResponse(channelId: Int, eventCount: Int): HtspMessage {
+        val events = (1..eventCount).map {
+            val event = HtspMessage()
+            event["eventId"] = channelId * 1000 + it
+            event["channelId"] = channelId
+            event
+        }
+        val response = HtspMessage()
+        response["events"] = events
+        return response
+    }
+}
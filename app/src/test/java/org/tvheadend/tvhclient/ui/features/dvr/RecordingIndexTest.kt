@@ -0,0 +1,50 @@
+package org.tvheadend.tvhclient.ui.features.dvr
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.Recording
+
+class RecordingIndexTest {
+
+    @Test
+    fun onlyAddedChangedAndRemovedRecordingsAreReported() {
+        val index = RecordingIndex()
+        val scheduled = Recording(id = 1, eventId = 10, state = "scheduled")
+        val recording = Recording(id = 2, eventId = 20, state = "recording")
+        val completed = Recording(id = 3, eventId = 30, state = "completed")
+
+        assertEquals(setOf(10, 20, 30), index.update(listOf(scheduled, recording, completed, Recording(id = 4))))
+        assertEquals(3, index.size)
+        assertEquals(2, index[20]?.id)
+        assertNull(index[0])
+
+        assertTrue(index.update(listOf(scheduled.copy(), recording, completed)).isEmpty())
+
+        val failed = recording.copy(state = "completed", error = "Aborted by user")
+        assertEquals(setOf(20, 30), index.update(listOf(scheduled, failed)))
+        assertEquals("Aborted by user", index[20]?.error)
+        assertNull(index[30])
+    }
+
+    @Test
+    fun firstRecordingOfProgramIsUsed() {
+        val index = RecordingIndex()
+        index.update(listOf(Recording(id = 1, eventId = 10), Recording(id = 2, eventId = 10)))
+        assertEquals(1, index[10]?.id)
+    }
+
+    @Test
+    fun stateChangeOnlyForDifferentStateOrError() {
+        val scheduled = Recording(id = 1, eventId = 10, state = "scheduled")
+
+        assertFalse(RecordingIndex.isStateChanged(null, null))
+        assertTrue(RecordingIndex.isStateChanged(null, scheduled))
+        assertTrue(RecordingIndex.isStateChanged(scheduled, null))
+        assertFalse(RecordingIndex.isStateChanged(scheduled, scheduled.copy(title = "Other title")))
+        assertTrue(RecordingIndex.isStateChanged(scheduled, scheduled.copy(state = "recording")))
+        assertTrue(RecordingIndex.isStateChanged(scheduled, scheduled.copy(error = "File missing")))
+    }
+}
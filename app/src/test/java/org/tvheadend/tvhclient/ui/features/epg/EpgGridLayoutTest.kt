@@ -0,0 +1,106 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+
+class EpgGridLayoutTest {
+
+    @Test
+    fun onlyVisibleProgramsAreLaidOut() {
+        val programs = createPrograms((1..10).toList(), 2)
+        val layout = createLayout((1..10).toList(), 2) { channelId, page -> programs[channelId]?.get(page) }
+
+        // Two rows and the first 90 minutes of the first page are visible
+        layout.layout(0, 0, 90, 200) { _, _ -> }
+        assertEquals(listOf(1000, 1001, 1002, 2000, 2001, 2002), layout.cells.map { it.program.eventId })
+
+        val cell = layout.cells[4]
+        assertEquals(1, cell.position)
+        assertEquals(30f, cell.left)
+        assertEquals(60f, cell.right)
+        assertEquals(100f, cell.top)
+        assertEquals(200f, cell.bottom)
+        assertEquals(2001, layout.findCell(45f, 150f)?.program?.eventId)
+        assertNull(layout.findCell(45f, 250f))
+    }
+
+    @Test
+    fun programsOverPageBoundaryAreShownOnce() {
+        // The program from 90 to 150 minutes is contained in both pages
+        val longProgram = EpgProgram(eventId = 1, channelId = 1, start = 90 * MINUTE, stop = 150 * MINUTE)
+        val pages = listOf(
+                listOf(EpgProgram(eventId = 0, channelId = 1, start = 0, stop = 90 * MINUTE), longProgram),
+                listOf(longProgram, EpgProgram(eventId = 2, channelId = 1, start = 150 * MINUTE, stop = 240 * MINUTE)))
+                .map { programs -> programs.map { EpgProgramCell(it) } }
+        var firstPageLoaded = true
+        val layout = createLayout(listOf(1), 2) { _, page -> if (page == 1 || firstPageLoaded) pages[page] else null }
+
+        layout.layout(60, 0, 120, 100) { _, _ -> }
+        assertEquals(listOf(0, 1, 2), layout.cells.map { it.program.eventId })
+
+        // Only the second page is visible
+        layout.layout(130, 0, 100, 100) { _, _ -> }
+        assertEquals(listOf(1, 2), layout.cells.map { it.program.eventId })
+
+        // The program is shown from the second page until the first page is loaded
+        firstPageLoaded = false
+        val missingPages = ArrayList<Int>()
+        layout.layout(60, 0, 120, 100) { _, page -> missingPages.add(page) }
+        assertEquals(listOf(0), missingPages)
+        assertEquals(listOf(1, 2), layout.cells.map { it.program.eventId })
+    }
+
+    @Test
+    fun missingProgramsAreReportedPerChannelAndPage() {
+        val layout = createLayout((1..10).toList(), 4) { channelId, _ -> if (channelId < 3) emptyList() else null }
+
+        val missing = ArrayList<Pair<Int, Int>>()
+        layout.layout(100, 150, 120, 200) { position, page -> missing.add(Pair(position, page)) }
+        assertEquals(listOf(Pair(2, 0), Pair(2, 1), Pair(3, 0), Pair(3, 1)), missing)
+        assertTrue(layout.cells.isEmpty())
+        assertEquals(480, layout.width)
+        assertEquals(1000, layout.height)
+    }
+
+    @Test
+    fun frameTimeStatistics() {
+        val statistics = FrameTimeStatistics()
+        (1..100).forEach { statistics.add(it * 1000000L) }
+
+        assertEquals(100, statistics.frameCount)
+        assertEquals(50.5f, statistics.averageMs, 0.01f)
+        assertEquals(90f, statistics.getPercentileMs(90), 0.01f)
+        assertEquals(84, statistics.slowFrameCount)
+    }
+
+    private fun createLayout(channelIds: List<Int>, pageCount: Int, pageMinutes: Int = 120, getPrograms: (Int, Int) -> List<EpgProgramCell>?): EpgGridLayout {
+        val layout = EpgGridLayout(getPrograms)
+        layout.channelIds = channelIds
+        layout.pageCount = pageCount
+        layout.pageDuration = pageMinutes * MINUTE
+        layout.pixelsPerMinute = 1f
+        layout.rowHeight = 100
+        return layout
+    }
+
+    /**
+     * Creates programs of 30 minutes for each channel, grouped by the pages
+     */
+    private fun createPrograms(channelIds: List<Int>, pageCount: Int, pageMinutes: Int = 120): Map<Int, List<List<EpgProgramCell>>> {
+        return channelIds.associateWith { channelId ->
+            (0 until pageCount).map { page ->
+                (0 until pageMinutes / 30).map {
+                    val start = (page * pageMinutes + it * 30) * MINUTE
+                    EpgProgramCell(EpgProgram(eventId = channelId * 1000 + page * pageMinutes / 30 + it, channelId = channelId, start = start, stop = start + 30 * MINUTE))
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val MINUTE = 60000L
+    }
+}
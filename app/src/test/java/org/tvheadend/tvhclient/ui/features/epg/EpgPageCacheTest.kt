@@ -0,0 +1,71 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.data.source.ProgramChange
+import org.tvheadend.tvhclient.ui.features.epg.EpgPageCache.PageKey
+
+class EpgPageCacheTest {
+
+    @Test
+    fun leastRecentlyUsedPageIsEvicted() {
+        val cache = EpgPageCache(maxProgramCount = 35)
+        val first = PageKey(0, emptyList(), 0)
+        val second = PageKey(1, emptyList(), 0)
+        val otherTag = PageKey(0, listOf(5), 0)
+
+        cache.putPrograms(first, 0, 1000, createPrograms(1..3, 0))
+        cache.putPrograms(second, 1000, 2000, createPrograms(1..3, 1000))
+        // Each channel counts as one program in addition to its four programs
+        assertEquals(30, cache.programCount)
+
+        // Using the first page makes the second one the least recently used
+        assertNotNull(cache.getPrograms(first, 1))
+        cache.putPrograms(otherTag, 0, 1000, createPrograms(1..2, 0))
+
+        assertNull(cache.getPrograms(second, 1))
+        assertNotNull(cache.getPrograms(first, 1))
+        assertNotNull(cache.getPrograms(otherTag, 1))
+        assertEquals(25, cache.programCount)
+        assertEquals(1, cache.evictionCount)
+        assertEquals(3, cache.hitCount)
+        assertEquals(1, cache.missCount)
+    }
+
+    @Test
+    fun onlyChangedChannelsAndTimesAreRemoved() {
+        val cache = EpgPageCache()
+        val first = PageKey(0, emptyList(), 0)
+        val second = PageKey(1, emptyList(), 0)
+        cache.putPrograms(first, 0, 999, createPrograms(1..3, 0))
+        cache.putPrograms(second, 1000, 1999, createPrograms(1..3, 1000))
+
+        assertEquals(setOf(2), cache.invalidate(ProgramChange(listOf(ProgramChange.TimeSlot(2, 1500, 1600)))))
+        assertNull(cache.getPrograms(second, 2))
+        assertNotNull(cache.getPrograms(first, 2))
+        assertNotNull(cache.getPrograms(second, 1))
+
+        // The program of channel 3 in the first page has been removed
+        assertEquals(setOf(3), cache.invalidate(ProgramChange(eventIds = setOf(3000))))
+        assertNull(cache.getPrograms(first, 3))
+        assertNotNull(cache.getPrograms(second, 3))
+
+        assertTrue(cache.invalidate(ProgramChange(listOf(ProgramChange.TimeSlot(1, 5000, 6000)))).isEmpty())
+        assertEquals(setOf(1, 2), cache.invalidate(ProgramChange(listOf(ProgramChange.TimeSlot(null, Long.MIN_VALUE, 500)))))
+        assertNull(cache.getPrograms(first, 1))
+        assertNotNull(cache.getPrograms(second, 1))
+    }
+
+    private fun createPrograms(channelIds: Iterable<Int>, startTime: Long): Map<Int, List<EpgProgramCell>> {
+        return channelIds.associateWith { channelId ->
+            (0 until 4).map {
+                val start = startTime + it * 250
+                EpgProgramCell(EpgProgram(eventId = channelId * 1000 + (start / 250).toInt(), channelId = channelId, start = start, stop = start + 249))
+            }
+        }
+    }
+}
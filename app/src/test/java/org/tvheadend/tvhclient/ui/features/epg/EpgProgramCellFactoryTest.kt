@@ -0,0 +1,45 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+
+class EpgProgramCellFactoryTest {
+
+    private val programs = mapOf(1 to listOf(
+            EpgProgram(eventId = 1, channelId = 1, start = -30 * MINUTE, stop = 60 * MINUTE, title = "News", subtitle = "", contentType = 32),
+            EpgProgram(eventId = 2, channelId = 1, start = 60 * MINUTE, stop = 90 * MINUTE, title = "Movie", subtitle = "Part 1", contentType = 16),
+            EpgProgram(eventId = 3, channelId = 1, start = 90 * MINUTE, stop = 300 * MINUTE, subtitle = "Part 2", contentType = 32)))
+
+    @Test
+    fun programsAreCutOffAtThePage() {
+        val cells = createFactory(showGenreColor = false, showSubtitle = false).createCells(programs, 0, 240 * MINUTE - 1)[1]!!
+
+        assertEquals(listOf(90, 45, 223), cells.map { it.layoutWidth })
+        assertEquals(listOf("News", "Movie", null), cells.map { it.title })
+        assertEquals(listOf(null, null, null), cells.map { it.subtitle })
+        assertEquals(listOf(0, 0, 0), cells.map { it.genreColor })
+        assertEquals("90 min", cells[0].durationText)
+        assertEquals(2, cells[1].program.eventId)
+    }
+
+    @Test
+    fun subtitlesAndGenreColorsAreShownWhenEnabled() {
+        val contentTypes = ArrayList<Int>()
+        val factory = createFactory(showGenreColor = true, showSubtitle = true) { contentTypes.add(it); it * 10 }
+        val cells = factory.createCells(programs, 0, 240 * MINUTE - 1)[1]!!
+
+        assertEquals(listOf(null, "Part 1", "Part 2"), cells.map { it.subtitle })
+        assertEquals(listOf(320, 160, 320), cells.map { it.genreColor })
+        // The color of each content type is only calculated once
+        assertEquals(listOf(32, 16), contentTypes)
+    }
+
+    private fun createFactory(showGenreColor: Boolean, showSubtitle: Boolean, genreColorOf: (Int) -> Int = { it }): EpgProgramCellFactory {
+        return EpgProgramCellFactory(1.5f, showGenreColor, showSubtitle, { it }, genreColorOf, { "$it min" })
+    }
+
+    companion object {
+        private const val MINUTE = 60000L
+    }
+}
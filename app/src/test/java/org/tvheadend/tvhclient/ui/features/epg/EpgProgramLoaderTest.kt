@@ -0,0 +1,98 @@
+package org.tvheadend.tvhclient.ui.features.epg
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.data.source.ProgramChange
+import org.tvheadend.tvhclient.ui.features.epg.EpgPageCache.PageKey
+
+class EpgProgramLoaderTest {
+
+    private val channelIds = (1..100).toList()
+    private val page = PageKey(0, emptyList(), 0)
+
+    @Test
+    fun programsOfSurroundingBlocksAreLoadedWithOneQuery() = runBlocking {
+        val queries = ArrayList<List<Int>>()
+        val loader = EpgProgramLoader(this, EpgPageCache(), 20) { ids, _, _ ->
+            queries.add(ids)
+            ids.filter { it % 2 == 0 }.associateWith { listOf(EpgProgramCell(EpgProgram(eventId = it * 10, channelId = it))) }
+        }
+
+        val loadedChannelIds = ArrayList<Int>()
+        loader.loadAround(page, 0, 1000, channelIds, 0) { loadedChannelIds.addAll(it) }
+        assertNull(loader.getPrograms(page, 1))
+        yield()
+
+        assertEquals(listOf((1..40).toList()), queries)
+        assertEquals((1..40).toList(), loadedChannelIds)
+        assertEquals(20, loader.getPrograms(page, 2)?.first()?.program?.eventId)
+        assertTrue(loader.getPrograms(page, 1)?.isEmpty() == true)
+        assertNull(loader.getPrograms(page, 41))
+        assertNull(loader.getPrograms(page.copy(fragmentId = 1), 1))
+
+        // Rows of the loaded blocks do not query again until the next block is reached
+        for (position in 1 until 20) {
+            loader.loadAround(page, 0, 1000, channelIds, position) {}
+        }
+        yield()
+        assertEquals(1, queries.size)
+
+        loader.loadAround(page, 0, 1000, channelIds, 20) {}
+        yield()
+        assertEquals(listOf((41..60).toList()), queries.drop(1))
+    }
+
+    @Test
+    fun runningQueryIsIgnoredAfterInvalidation() = runBlocking {
+        val result = CompletableDeferred<Map<Int, List<EpgProgramCell>>>()
+        var queryCount = 0
+        val loader = EpgProgramLoader(this, EpgPageCache(), 20) { _, _, _ ->
+            queryCount++
+            result.await()
+        }
+
+        var listenerCalled = false
+        loader.loadAround(page, 0, 1000, channelIds, 0) { listenerCalled = true }
+        yield()
+        loader.loadAround(page, 0, 1000, channelIds, 5) { listenerCalled = true }
+        loader.invalidate()
+        result.complete(mapOf(1 to listOf(EpgProgramCell(EpgProgram(eventId = 10, channelId = 1)))))
+        yield()
+
+        assertEquals(1, queryCount)
+        assertTrue(!listenerCalled)
+        assertNull(loader.getPrograms(page, 1))
+    }
+
+    @Test
+    fun queryIsRepeatedWhenProgramsChangeWhileLoading() = runBlocking {
+        var result = CompletableDeferred<Map<Int, List<EpgProgramCell>>>()
+        var queryCount = 0
+        val loader = EpgProgramLoader(this, EpgPageCache(), 20) { _, _, _ ->
+            queryCount++
+            result.await()
+        }
+
+        loader.loadAround(page, 0, 1000, channelIds, 0) {}
+        yield()
+        loader.onProgramsChanged(ProgramChange(listOf(ProgramChange.TimeSlot(3, 500, 600))))
+        val firstResult = result
+        result = CompletableDeferred()
+        firstResult.complete(emptyMap())
+        yield()
+
+        // The old programs are shown until the repeated query returns
+        assertEquals(2, queryCount)
+        assertTrue(loader.getPrograms(page, 3)?.isEmpty() == true)
+
+        result.complete(mapOf(3 to listOf(EpgProgramCell(EpgProgram(eventId = 30, channelId = 3)))))
+        yield()
+        assertEquals(30, loader.getPrograms(page, 3)?.first()?.program?.eventId)
+    }
+}
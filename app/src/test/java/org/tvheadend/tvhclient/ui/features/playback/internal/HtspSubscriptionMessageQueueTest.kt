@@ -0,0 +1,60 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.htsp.HtspMessage
+
+class HtspSubscriptionMessageQueueTest {
+
+    @Test
+    fun messageIsPassedOnWithoutCopyingThePayload() {
+        val queue = HtspSubscriptionMessageQueue(1024 * 1024)
+        val message = createMuxpkt(1000)
+
+        assertTrue(queue.offer(message))
+        assertTrue(queue.fillLevel > 1000)
+        val result = queue.take()
+
+        assertSame(message, result)
+        assertSame(message.getByteArray("payload"), result!!.getByteArray("payload"))
+        assertEquals(0, queue.fillLevel)
+    }
+
+    @Test
+    fun messageIsDroppedWhenItDoesNotFit() {
+        val queue = HtspSubscriptionMessageQueue(2000)
+        assertTrue(queue.offer(createMuxpkt(1000)))
+        assertFalse(queue.offer(createMuxpkt(1000)))
+        assertEquals(1, queue.statistics.droppedPacketCount)
+    }
+
+    @Test
+    fun waitingConsumerIsWokenUpAndClosedQueueIsDrainedFirst() {
+        val queue = HtspSubscriptionMessageQueue(1024 * 1024)
+        val writer = Thread {
+            Thread.sleep(20)
+            queue.offer(createMuxpkt(10))
+            queue.offer(createMuxpkt(20))
+            queue.close()
+        }
+        writer.start()
+
+        assertEquals(10, queue.take()!!.getByteArray("payload").size)
+        assertEquals(20, queue.take()!!.getByteArray("payload").size)
+        assertNull(queue.take())
+        assertTrue(queue.statistics.waitCount > 0)
+        writer.join()
+    }
+
+    private fun createMuxpkt(payloadSize: Int): HtspMessage {
+        val message = HtspMessage()
+        message.method = "muxpkt"
+        message["stream"] = 1
+        message["payload"] = ByteArray(payloadSize)
+        return message
+    }
+}
@@ -0,0 +1,119 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.tvheadend.htsp.HtspMessage
+import org.tvheadend.tvhclient.ui.features.playback.internal.reader.MuxPacket
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * Passes subscription messages through the packet format and the ring
+ * buffer and checks that they are read again like the extractor does it.
+ */
+class HtspSubscriptionPacketCodecTest {
+
+    private val random = Random(42)
+
+    @Test
+    fun muxpktIsWrittenAndReadAgain() {
+        val message = createMuxpkt(1, 73, 40000)
+        message.remove("dts")
+        val codec = HtspSubscriptionPacketCodec()
+        val ringBuffer = HtspSubscriptionRingBuffer(64 * 1024)
+        val packet = MuxPacket()
+
+        assertTrue(codec.write(message, ringBuffer))
+        assertNull(readPacket(codec, ringBuffer, ByteArray(64 * 1024), packet))
+
+        assertEquals(1, packet.stream)
+        assertEquals(73, packet.frameType)
+        assertTrue(packet.hasPts)
+        assertEquals(message.getLong("pts"), packet.pts)
+        assertEquals(40000, packet.duration)
+        assertArrayEquals(message.getByteArray("payload"), packet.data.copyOfRange(packet.offset, packet.offset + packet.length))
+    }
+
+    @Test
+    fun muxpktWithoutPtsIsMarked() {
+        val message = createMuxpkt(1, 73, 1000)
+        message.remove("pts")
+        val codec = HtspSubscriptionPacketCodec()
+        val ringBuffer = HtspSubscriptionRingBuffer(64 * 1024)
+        val packet = MuxPacket()
+
+        assertTrue(codec.write(message, ringBuffer))
+        assertNull(readPacket(codec, ringBuffer, ByteArray(64 * 1024), packet))
+
+        assertFalse(packet.hasPts)
+        assertFalse(MuxPacket().set(message).hasPts)
+    }
+
+    @Test
+    fun subscriptionStartIsWrittenAndReadAgain() {
+        val stream = HtspMessage()
+        stream["index"] = 1
+        stream["type"] = "H264"
+        stream["width"] = 1920
+        stream["height"] = 1080
+        val message = HtspMessage()
+        message.method = "subscriptionStart"
+        message["subscriptionId"] = 3
+        message["streams"] = listOf(stream)
+
+        val codec = HtspSubscriptionPacketCodec()
+        val ringBuffer = HtspSubscriptionRingBuffer(4096)
+        assertTrue(codec.write(message, ringBuffer))
+        val result = readPacket(codec, ringBuffer, ByteArray(4096), MuxPacket())!!
+
+        assertEquals("subscriptionStart", result.method)
+        val resultStream = result.getList("streams")[0] as HtspMessage
+        assertEquals("H264", resultStream.getString("type"))
+        assertEquals(1080, resultStream.getInteger("height"))
+    }
+
+    @Test
+    fun packetIsNotWrittenWhenBufferIsFull() {
+        val ringBuffer = HtspSubscriptionRingBuffer(1000)
+        assertFalse(HtspSubscriptionPacketCodec().write(createMuxpkt(1, 73, 40000), ringBuffer))
+        assertEquals(0, ringBuffer.fillLevel)
+    }
+
+    /**
+     * Reads one packet from the ring buffer like the extractor does it
+     */
+    private fun readPacket(codec: HtspSubscriptionPacketCodec, ringBuffer: HtspSubscriptionRingBuffer, scratch: ByteArray, packet: MuxPacket): HtspMessage? {
+        readFully(ringBuffer, scratch, 4)
+        val length = ByteBuffer.wrap(scratch).int
+        readFully(ringBuffer, scratch, length)
+        return codec.read(ByteBuffer.wrap(scratch, 0, length), packet)
+    }
+
+    private fun readFully(ringBuffer: HtspSubscriptionRingBuffer, target: ByteArray, length: Int) {
+        var offset = 0
+        while (offset < length) {
+            offset += ringBuffer.read(target, offset, length - offset)
+        }
+    }
+
+    private fun createMuxpkt(stream: Int, frameType: Int, payloadSize: Int): HtspMessage {
+        val payload = ByteArray(payloadSize)
+        random.nextBytes(payload)
+        val message = HtspMessage()
+        message.method = "muxpkt"
+        message["subscriptionId"] = 3
+        message["stream"] = stream
+        if (frameType != -1) {
+            message["frametype"] = frameType
+        }
+        message["pts"] = 1000000L + random.nextInt(1000000)
+        message["dts"] = 1000000L + random.nextInt(1000000)
+        message["duration"] = 40000
+        message["payload"] = payload
+        return message
+    }
+}
@@ -0,0 +1,65 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class HtspSubscriptionRingBufferTest {
+
+    private val empty = ByteBuffer.allocate(0)
+
+    @Test
+    fun dataIsReadAcrossTheEndOfTheBuffer() {
+        val ringBuffer = HtspSubscriptionRingBuffer(10)
+        val target = ByteArray(10)
+
+        assertTrue(ringBuffer.write(ByteBuffer.wrap(byteArrayOf(1, 2, 3, 4, 5, 6, 7)), empty))
+        assertEquals(7, ringBuffer.read(target, 0, 7))
+        assertTrue(ringBuffer.write(ByteBuffer.wrap(byteArrayOf(8, 9)), ByteBuffer.wrap(byteArrayOf(10, 11, 12, 13, 14))))
+        assertEquals(7, ringBuffer.read(target, 0, 10))
+
+        assertArrayEquals(byteArrayOf(8, 9, 10, 11, 12, 13, 14), target.copyOf(7))
+        assertEquals(0, ringBuffer.statistics.waitCount)
+    }
+
+    @Test
+    fun packetIsDroppedWhenItDoesNotFit() {
+        val ringBuffer = HtspSubscriptionRingBuffer(10)
+        assertTrue(ringBuffer.write(ByteBuffer.wrap(ByteArray(6)), empty))
+        assertTrue(!ringBuffer.write(ByteBuffer.wrap(ByteArray(5)), empty))
+        assertEquals(6, ringBuffer.fillLevel)
+        assertEquals(1, ringBuffer.statistics.droppedPacketCount)
+    }
+
+    @Test
+    fun waitingReaderIsWokenUpByTheWriter() {
+        val ringBuffer = HtspSubscriptionRingBuffer(1024)
+        val writer = Thread {
+            Thread.sleep(20)
+            ringBuffer.write(ByteBuffer.wrap(byteArrayOf(42)), empty)
+        }
+        writer.start()
+
+        val target = ByteArray(1)
+        val start = System.nanoTime()
+        assertEquals(1, ringBuffer.read(target, 0, 1))
+        assertEquals(42, target[0].toInt())
+        // Much less than the polling interval of the previous implementation
+        assertTrue(System.nanoTime() - start < 200_000_000)
+        assertEquals(1, ringBuffer.statistics.waitCount)
+        writer.join()
+    }
+
+    @Test
+    fun closedBufferReturnsRemainingDataFirst() {
+        val ringBuffer = HtspSubscriptionRingBuffer(16)
+        ringBuffer.write(ByteBuffer.wrap(byteArrayOf(1, 2)), empty)
+        ringBuffer.close()
+
+        val target = ByteArray(4)
+        assertEquals(2, ringBuffer.read(target, 0, 4))
+        assertEquals(-1, ringBuffer.read(target, 0, 4))
+    }
+}
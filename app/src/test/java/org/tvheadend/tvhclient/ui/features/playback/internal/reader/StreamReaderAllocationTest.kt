@@ -0,0 +1,182 @@
+package org.tvheadend.tvhclient.ui.features.playback.internal.reader
+
+import com.google.android.exoplayer2.Format
+import com.google.android.exoplayer2.extractor.ExtractorInput
+import com.google.android.exoplayer2.extractor.ExtractorOutput
+import com.google.android.exoplayer2.extractor.SeekMap
+import com.google.android.exoplayer2.extractor.TrackOutput
+import com.google.android.exoplayer2.util.ParsableByteArray
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.tvheadend.htsp.HtspMessage
+import java.lang.management.ManagementFactory
+import java.util.*
+
+/**
+ * Replays a simulated subscription with a stream of every supported type
+ * through the stream readers and counts the bytes that are allocated on the
+ * heap while the packets are consumed.
+ */
+class StreamReaderAllocationTest {
+
+    private val random = Random(42)
+
+    @Test
+    fun allStreamsAreConsumed() {
+        val output = CountingExtractorOutput()
+        val readers = createStreamReaders(createSubscriptionStart(), output)
+        val packets = createPackets(10)
+
+        replay(readers, packets)
+
+        assertEquals(STREAM_TYPES.size, output.tracks.size)
+        output.tracks.values.forEach {
+            assertEquals(10, it.sampleCount)
+            assertTrue(it.byteCount > 0)
+        }
+    }
+
+    @Test
+    fun consumingPacketsDoesNotAllocatePerPacket() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        // Counting the allocated bytes is not supported by every VM
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+        val readers = createStreamReaders(createSubscriptionStart(), CountingExtractorOutput())
+        val packets = createPackets(1000)
+        // Warm up so that the counted replay does not include class loading
+        repeat(3) { replay(readers, packets) }
+
+        val threadId = Thread.currentThread().id
+        val start = threadBean.getThreadAllocatedBytes(threadId)
+        replay(readers, packets)
+        val allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - start
+
+        val bytesPerPacket = allocatedBytes / packets.size
+        // Only the text subtitles create a new sample for every packet
+        assertTrue(bytesPerPacket < 64)
+    }
+
+    private fun replay(readers: Map<Int, StreamReader>, packets: List<HtspMessage>) {
+        val packet = MuxPacket()
+        for (message in packets) {
+            readers[message.getInteger("stream")]?.consume(packet.set(message))
+        }
+    }
+
+    private fun createStreamReaders(subscriptionStart: HtspMessage, output: ExtractorOutput): Map<Int, StreamReader> {
+        val readers = HashMap<Int, StreamReader>()
+        for (obj in subscriptionStart.getList("streams")) {
+            val stream = obj as HtspMessage
+            val streamReader = StreamReadersFactory().createStreamReader(stream.getString("type"))!!
+            streamReader.createTracks(stream, output)
+            readers[stream.getInteger("index")] = streamReader
+        }
+        return readers
+    }
+
+    private fun createSubscriptionStart(): HtspMessage {
+        val streams = STREAM_TYPES.mapIndexed { index, type ->
+            val stream = HtspMessage()
+            stream["index"] = index + 1
+            stream["type"] = type
+            stream["width"] = 1920
+            stream["height"] = 1080
+            stream["duration"] = 40000
+            stream["rate"] = 3
+            stream["channels"] = 2
+            stream["composition_id"] = 1
+            stream["ancillary_id"] = 1
+            stream
+        }
+        val message = HtspMessage()
+        message.method = "subscriptionStart"
+        message["subscriptionId"] = 1
+        message["streams"] = streams
+        return message
+    }
+
+    /**
+     * Creates the given number of packets for every stream, the subtitles
+     * are sent much less often in a real subscription, they are included
+     * here to replay a packet through every reader.
+     */
+    private fun createPackets(packetsPerStream: Int): List<HtspMessage> {
+        val packets = ArrayList<HtspMessage>()
+        for (i in 0 until packetsPerStream) {
+            STREAM_TYPES.forEachIndexed { index, type ->
+                if (type != "TEXTSUB" || i % 100 == 0 || packetsPerStream < 100) {
+                    packets.add(createMuxpkt(index + 1, type, i))
+                }
+            }
+        }
+        return packets
+    }
+
+    private fun createMuxpkt(stream: Int, type: String, frame: Int): HtspMessage {
+        val payload = when (type) {
+            "H264", "HEVC", "MPEG2VIDEO" -> ByteArray(if (frame % 25 == 0) 60000 else 8000 + random.nextInt(8000))
+            "TEXTSUB" -> "Subtitle $frame".toByteArray()
+            else -> ByteArray(768)
+        }
+        if (type != "TEXTSUB") {
+            random.nextBytes(payload)
+        }
+        if (type == "AAC") {
+            // ADTS header without a CRC
+            payload[1] = 0xf1.toByte()
+        }
+        val message = HtspMessage()
+        message.method = "muxpkt"
+        message["subscriptionId"] = 1
+        message["stream"] = stream
+        message["frametype"] = if (frame % 25 == 0) 73 else 80
+        message["pts"] = frame * 40000L
+        message["duration"] = 40000
+        message["payload"] = payload
+        return message
+    }
+
+    private class CountingExtractorOutput : ExtractorOutput {
+        val tracks = HashMap<Int, CountingTrackOutput>()
+
+        override fun track(id: Int, type: Int): TrackOutput {
+            return tracks.getOrPut(id) { CountingTrackOutput() }
+        }
+
+        override fun endTracks() {
+        }
+
+        override fun seekMap(seekMap: SeekMap) {
+        }
+    }
+
+    private class CountingTrackOutput : TrackOutput {
+        private val sampleData = ByteArray(1024 * 1024)
+        var sampleCount = 0
+        var byteCount = 0L
+
+        override fun format(format: Format) {
+        }
+
+        override fun sampleData(input: ExtractorInput, length: Int, allowEndOfInput: Boolean): Int {
+            throw UnsupportedOperationException()
+        }
+
+        override fun sampleData(data: ParsableByteArray, length: Int) {
+            data.readBytes(sampleData, 0, length)
+            byteCount += length
+        }
+
+        override fun sampleMetadata(timeUs: Long, flags: Int, size: Int, offset: Int, encryptionData: TrackOutput.CryptoData?) {
+            sampleCount++
+        }
+    }
+
+    companion object {
+        private val STREAM_TYPES = listOf("H264", "HEVC", "MPEG2VIDEO", "AAC", "AC3", "EAC3", "MPEG2AUDIO", "VORBIS", "TEXTSUB", "DVBSUB")
+    }
+}
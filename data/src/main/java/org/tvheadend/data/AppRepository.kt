@@ -19,7 +19,8 @@ constructor(
         override val tagAndChannelData: TagAndChannelDataSource,
         override val miscData: MiscDataSource,
         override val subscriptionData: SubscriptionDataSource,
-        override val inputData: InputDataSource
+        override val inputData: InputDataSource,
+        val activeConnection: ActiveConnectionId
 ) : RepositoryInterface {
 
     private var isUnlockedLiveData = MutableLiveData<Boolean>()
@@ -2,6 +2,7 @@ package org.tvheadend.data.dao
 
 import androidx.lifecycle.LiveData
 import androidx.room.*
+import kotlinx.coroutines.flow.Flow
 import org.tvheadend.data.entity.ChannelEntity
 import org.tvheadend.data.entity.EpgChannelEntity
 
@@ -17,42 +18,31 @@ internal interface ChannelDao {
     val itemCountSync: Int
 
     @Query("SELECT c.* FROM channels AS c " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND c.id = :id")
-    fun loadChannelByIdSync(id: Int): ChannelEntity?
+    fun loadChannelByIdSync(id: Int, connectionId: Int): ChannelEntity?
 
     @Transaction
-    @Query(CHANNEL_BASE_QUERY +
-            " LEFT JOIN programs AS program ON program.start <= :time AND program.stop > :time AND program.channel_id = c.id " +
-            " LEFT JOIN programs AS next_program ON next_program.start = program.stop AND next_program.channel_id = c.id " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND c.id = :id")
-    fun loadChannelByIdWithProgramsSync(id: Int, time: Long): ChannelEntity?
+    @Query(CHANNEL_BY_ID_WITH_PROGRAMS_QUERY)
+    fun loadChannelByIdWithProgramsSync(id: Int, time: Long, connectionId: Int): ChannelEntity?
 
     @Query("SELECT c.* FROM channels AS c " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " GROUP BY c.id " +
             ORDER_BY)
-    fun loadAllChannelsSync(sortOrder: Int): List<ChannelEntity>
+    fun loadAllChannelsSync(sortOrder: Int, connectionId: Int): List<ChannelEntity>
 
     @Transaction
-    @Query(CHANNEL_BASE_QUERY +
-            " LEFT JOIN programs AS program ON program.start <= :time AND program.stop > :time AND program.channel_id = c.id " +
-            " LEFT JOIN programs AS next_program ON next_program.start = program.stop AND next_program.channel_id = c.id " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " GROUP BY c.id " +
-            ORDER_BY)
-    fun loadAllChannelsByTime(time: Long, sortOrder: Int): LiveData<List<ChannelEntity>>
+    @Query(CHANNELS_WITH_PROGRAMS_QUERY)
+    fun loadAllChannelsByTime(time: Long, sortOrder: Int, connectionId: Int): Flow<List<ChannelEntity>>
 
     @Transaction
-    @Query(CHANNEL_BASE_QUERY +
-            " LEFT JOIN programs AS program ON program.start <= :time AND program.stop > :time AND program.channel_id = c.id " +
-            " LEFT JOIN programs AS next_program ON next_program.start = program.stop AND next_program.channel_id = c.id " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND c.id IN (SELECT channel_id FROM tags_and_channels WHERE tag_id IN (:tagIds)) " +
-            " GROUP BY c.id " +
-            ORDER_BY)
-    fun loadAllChannelsByTimeAndTag(time: Long, sortOrder: Int, tagIds: List<Int>): LiveData<List<ChannelEntity>>
+    @Query(CHANNELS_OF_TAGS_WITH_PROGRAMS_QUERY)
+    fun loadAllChannelsByTimeAndTag(time: Long, sortOrder: Int, tagIds: List<Int>, connectionId: Int): Flow<List<ChannelEntity>>
+
+    @Query("SELECT * FROM channels " +
+            " WHERE connection_id = :connectionId")
+    fun loadChannelsByConnectionIdSync(connectionId: Int): List<ChannelEntity>
 
     @Transaction
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -62,30 +52,36 @@ internal interface ChannelDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insert(channels: List<ChannelEntity>)
 
+    @Update
+    fun update(channels: List<ChannelEntity>)
+
     @Update
     fun update(channel: ChannelEntity)
 
     @Delete
     fun delete(channel: ChannelEntity)
 
+    @Delete
+    fun delete(channels: List<ChannelEntity>)
+
     @Query("DELETE FROM channels " +
             " WHERE id = :id " +
-            " AND connection_id IN (SELECT id FROM connections WHERE active = 1)")
-    fun deleteById(id: Int)
+            " AND connection_id = :connectionId")
+    fun deleteById(id: Int, connectionId: Int)
 
     @Query("DELETE FROM channels")
     fun deleteAll()
 
     @Query(EPG_CHANNEL_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             ORDER_BY)
-    fun loadAllEpgChannels(sortOrder: Int): LiveData<List<EpgChannelEntity>>
+    fun loadAllEpgChannels(sortOrder: Int, connectionId: Int): Flow<List<EpgChannelEntity>>
 
     @Query(EPG_CHANNEL_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND c.id IN (SELECT channel_id FROM tags_and_channels WHERE tag_id IN (:tagIds)) " +
             ORDER_BY)
-    fun loadAllEpgChannelsByTag(sortOrder: Int, tagIds: List<Int>): LiveData<List<EpgChannelEntity>>
+    fun loadAllEpgChannelsByTag(sortOrder: Int, tagIds: List<Int>, connectionId: Int): Flow<List<EpgChannelEntity>>
 
     companion object {
 
@@ -100,6 +96,12 @@ internal interface ChannelDao {
                 "next_program.title AS next_program_title " +
                 "FROM channels AS c "
 
+        // Both programs are looked up by the index on connection, channel, start and stop
+        const val CURRENT_AND_NEXT_PROGRAM = " LEFT JOIN programs AS program ON program.connection_id = c.connection_id " +
+                "  AND program.channel_id = c.id AND program.start <= :time AND program.stop > :time " +
+                " LEFT JOIN programs AS next_program ON next_program.connection_id = c.connection_id " +
+                "  AND next_program.channel_id = c.id AND next_program.start = program.stop "
+
         const val EPG_CHANNEL_BASE_QUERY = "SELECT c.id, " +
                 "c.name, " +
                 "c.icon, " +
@@ -121,5 +123,25 @@ internal interface ChannelDao {
                 "CASE :sortOrder WHEN 7 THEN (c.display_number + 0) END DESC"
 
         const val CONNECTION_IS_ACTIVE = " c.connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " c.connection_id = :connectionId "
+
+        const val CHANNEL_BY_ID_WITH_PROGRAMS_QUERY = CHANNEL_BASE_QUERY +
+                CURRENT_AND_NEXT_PROGRAM +
+                " WHERE $IN_CONNECTION" +
+                " AND c.id = :id"
+
+        const val CHANNELS_WITH_PROGRAMS_QUERY = CHANNEL_BASE_QUERY +
+                CURRENT_AND_NEXT_PROGRAM +
+                " WHERE $IN_CONNECTION" +
+                " GROUP BY c.id " +
+                ORDER_BY
+
+        const val CHANNELS_OF_TAGS_WITH_PROGRAMS_QUERY = CHANNEL_BASE_QUERY +
+                CURRENT_AND_NEXT_PROGRAM +
+                " WHERE $IN_CONNECTION" +
+                " AND c.id IN (SELECT channel_id FROM tags_and_channels WHERE tag_id IN (:tagIds)) " +
+                " GROUP BY c.id " +
+                ORDER_BY
     }
 }
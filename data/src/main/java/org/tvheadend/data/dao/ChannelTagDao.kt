@@ -28,9 +28,13 @@ internal interface ChannelTagDao {
     fun loadAllChannelTagsSync(): List<ChannelTagEntity>
 
     @Query("SELECT DISTINCT * FROM channel_tags " +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND id = :id ")
-    fun loadChannelTagByIdSync(id: Int): ChannelTagEntity?
+    fun loadChannelTagByIdSync(id: Int, connectionId: Int): ChannelTagEntity?
+
+    @Query("SELECT * FROM channel_tags " +
+            " WHERE connection_id = :connectionId")
+    fun loadChannelTagsByConnectionIdSync(connectionId: Int): List<ChannelTagEntity>
 
     @Transaction
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -49,6 +53,9 @@ internal interface ChannelTagDao {
     @Delete
     fun delete(channelTag: ChannelTagEntity)
 
+    @Delete
+    fun delete(channelTags: List<ChannelTagEntity>)
+
     @Query("DELETE FROM channel_tags")
     fun deleteAll()
 
@@ -66,5 +73,7 @@ internal interface ChannelTagDao {
     companion object {
 
         const val CONNECTION_IS_ACTIVE = " connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " connection_id = :connectionId "
     }
 }
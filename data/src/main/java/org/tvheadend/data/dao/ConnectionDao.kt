@@ -2,6 +2,7 @@ package org.tvheadend.data.dao
 
 import androidx.lifecycle.LiveData
 import androidx.room.*
+import kotlinx.coroutines.flow.Flow
 import org.tvheadend.data.entity.ConnectionEntity
 
 @Dao
@@ -22,6 +23,15 @@ internal interface ConnectionDao {
     @Query("SELECT * FROM connections WHERE active = 1")
     fun loadActiveConnectionSync(): ConnectionEntity?
 
+    @Query("SELECT id FROM connections WHERE active = 1")
+    fun loadActiveConnectionId(): LiveData<Int?>
+
+    @Query("SELECT id FROM connections WHERE active = 1")
+    fun loadActiveConnectionIdFlow(): Flow<Int?>
+
+    @Query("SELECT id FROM connections WHERE active = 1")
+    fun loadActiveConnectionIdSync(): Int?
+
     @Query("SELECT * FROM connections WHERE id = :id")
     fun loadConnectionByIdSync(id: Int): ConnectionEntity?
 
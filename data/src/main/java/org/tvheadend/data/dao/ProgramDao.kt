@@ -2,113 +2,61 @@ package org.tvheadend.data.dao
 
 import androidx.lifecycle.LiveData
 import androidx.room.*
+import kotlinx.coroutines.flow.Flow
 import org.tvheadend.data.entity.EpgProgramEntity
+import org.tvheadend.data.entity.LastProgramEntity
 import org.tvheadend.data.entity.ProgramEntity
 
 @Dao
 internal interface ProgramDao {
 
-    @get:Query("SELECT COUNT (*) FROM programs AS p " +
-            " WHERE $CONNECTION_IS_ACTIVE")
+    @get:Query(ITEM_COUNT_QUERY)
     val itemCount: LiveData<Int>
 
-    @get:Query("SELECT COUNT (*) FROM programs AS p " +
-            " WHERE $CONNECTION_IS_ACTIVE")
+    @get:Query(ITEM_COUNT_QUERY)
     val itemCountSync: Int
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND ((p.start >= :time) " +
-            "  OR (p.start <= :time AND p.stop >= :time)) " +
-            " GROUP BY p.id " +
-            " ORDER BY p.start, p.channel_name ASC")
-    fun loadProgramsFromTime(time: Long): LiveData<List<ProgramEntity>>
+    @Query(PROGRAMS_FROM_TIME_QUERY)
+    fun loadProgramsFromTime(time: Long, connectionId: Int): Flow<List<ProgramEntity>>
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.channel_id = :channelId " +
-            " AND ((p.start >= :time) " +
-            "  OR (p.start <= :time AND p.stop >= :time)) " +
-            " GROUP BY p.id " +
-            " ORDER BY p.start ASC")
-    fun loadProgramsFromChannelFromTime(channelId: Int, time: Long): LiveData<List<ProgramEntity>>
+    @Query(PROGRAMS_FROM_CHANNEL_FROM_TIME_QUERY)
+    fun loadProgramsFromChannelFromTime(channelId: Int, time: Long, connectionId: Int): Flow<List<ProgramEntity>>
 
     @Transaction
-    @Query(EPG_PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND channel_id = :channelId " +
-            // Program is within time slot
-            " AND ((start >= :startTime AND stop <= :endTime) " +
-            // Program is at the beginning of time slot
-            "  OR (start <= :startTime AND stop > :startTime) " +
-            // Program is at the end of the time slot
-            "  OR (start < :endTime AND stop >= :endTime)) " +
-            " GROUP BY p.id " +
-            " ORDER BY start ASC")
-    fun loadEpgProgramsFromChannelBetweenTimeSync(channelId: Int, startTime: Long, endTime: Long): List<EpgProgramEntity>
+    @Query(EPG_PROGRAMS_FROM_CHANNEL_BETWEEN_TIME_QUERY)
+    fun loadEpgProgramsFromChannelBetweenTimeSync(channelId: Int, startTime: Long, endTime: Long, connectionId: Int): List<EpgProgramEntity>
 
-    @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND channel_id = :channelId " +
-            // Program is within time slot
-            " AND ((start >= :startTime AND stop <= :endTime) " +
-            // Program is at the beginning of time slot
-            "  OR (start <= :startTime AND stop > :startTime) " +
-            // Program is at the end of the time slot
-            "  OR (start < :endTime AND stop >= :endTime)) " +
-            " GROUP BY p.id " +
-            " ORDER BY start ASC")
-    fun loadProgramsFromChannelBetweenTimeSync(channelId: Int, startTime: Long, endTime: Long): List<ProgramEntity>
+    @Query(EPG_PROGRAMS_FROM_CHANNELS_BETWEEN_TIME_QUERY)
+    fun loadEpgProgramsFromChannelsBetweenTimeSync(channelIds: List<Int>, startTime: Long, endTime: Long, connectionId: Int): List<EpgProgramEntity>
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " GROUP BY p.id " +
-            " ORDER BY p.start, p.channel_name ASC")
-    fun loadPrograms(): LiveData<List<ProgramEntity>>
+    @Query(PROGRAMS_QUERY)
+    fun loadPrograms(connectionId: Int): LiveData<List<ProgramEntity>>
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " GROUP BY p.id " +
-            " ORDER BY p.start, p.channel_name ASC")
-    fun loadProgramsSync(): List<ProgramEntity>
+    @Query(PROGRAMS_QUERY)
+    fun loadProgramsSync(connectionId: Int): List<ProgramEntity>
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.id = :id")
-    fun loadProgramById(id: Int): LiveData<ProgramEntity>
+    @Query(PROGRAM_BY_ID_QUERY)
+    fun loadProgramById(id: Int, connectionId: Int): LiveData<ProgramEntity>
 
     @Transaction
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.id = :id")
-    fun loadProgramByIdSync(id: Int): ProgramEntity?
-
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.channel_id = :channelId " +
-            " ORDER BY start DESC")
-    fun loadProgramsFromChannelSync(channelId: Int): List<ProgramEntity>
-
-    @Query(PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.channel_id = :channelId " +
-            " ORDER BY start DESC LIMIT 1")
-    fun loadLastProgramFromChannelSync(channelId: Int): ProgramEntity?
-
-    @Query(EPG_PROGRAM_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
-            " AND p.channel_id = :channelId " +
-            " GROUP BY title, subtitle" +
-            " ORDER BY title, start DESC")
-    fun loadDuplicateProgramsSync(channelId: Int): List<EpgProgramEntity>
-
-    @Query("DELETE FROM programs " + "WHERE stop < :time")
+    @Query(PROGRAM_BY_ID_QUERY)
+    fun loadProgramByIdSync(id: Int, connectionId: Int): ProgramEntity?
+
+    @Query(PROGRAMS_FROM_CHANNEL_QUERY)
+    fun loadProgramsFromChannelSync(channelId: Int, connectionId: Int): List<ProgramEntity>
+
+    @Query(LAST_PROGRAM_OF_EACH_CHANNEL_QUERY)
+    fun loadLastProgramOfEachChannelSync(connectionId: Int): List<LastProgramEntity>
+
+    @Query(DELETE_DUPLICATE_PROGRAMS_QUERY)
+    fun deleteDuplicatePrograms(connectionId: Int): Int
+
+    @Query(DELETE_PROGRAMS_BY_TIME_QUERY)
     fun deleteProgramsByTime(time: Long)
 
     @Transaction
@@ -131,10 +79,8 @@ internal interface ProgramDao {
     @Delete
     fun delete(program: ProgramEntity)
 
-    @Query("DELETE FROM programs " +
-            "WHERE connection_id IN (SELECT id FROM connections WHERE active = 1) " +
-            " AND id = :id")
-    fun deleteById(id: Int)
+    @Query(DELETE_PROGRAM_BY_ID_QUERY)
+    fun deleteById(id: Int, connectionId: Int)
 
     @Query("DELETE FROM programs")
     fun deleteAll()
@@ -159,5 +105,91 @@ internal interface ProgramDao {
                 "LEFT JOIN channels AS c ON c.id = channel_id "
 
         const val CONNECTION_IS_ACTIVE = " p.connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " p.connection_id = :connectionId "
+
+        // The first two conditions are implied by the three cases below. They limit
+        // the range that is read from the index on connection, channel, start and stop.
+        const val PROGRAM_IS_IN_TIME_SLOT = " AND p.start <= :endTime AND p.stop >= :startTime " +
+                // Program is within time slot
+                " AND ((p.start >= :startTime AND p.stop <= :endTime) " +
+                // Program is at the beginning of time slot
+                "  OR (p.start <= :startTime AND p.stop > :startTime) " +
+                // Program is at the end of the time slot
+                "  OR (p.start < :endTime AND p.stop >= :endTime)) "
+
+        const val ITEM_COUNT_QUERY = "SELECT COUNT (*) FROM programs AS p " +
+                " WHERE $CONNECTION_IS_ACTIVE"
+
+        const val PROGRAMS_FROM_TIME_QUERY = PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND ((p.start >= :time) " +
+                "  OR (p.start <= :time AND p.stop >= :time)) " +
+                " GROUP BY p.id " +
+                " ORDER BY p.start, p.channel_name ASC"
+
+        const val PROGRAMS_FROM_CHANNEL_FROM_TIME_QUERY = PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND p.channel_id = :channelId " +
+                " AND ((p.start >= :time) " +
+                "  OR (p.start <= :time AND p.stop >= :time)) " +
+                " GROUP BY p.id " +
+                " ORDER BY p.start ASC"
+
+        const val EPG_PROGRAMS_FROM_CHANNEL_BETWEEN_TIME_QUERY = EPG_PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND p.channel_id = :channelId " +
+                PROGRAM_IS_IN_TIME_SLOT +
+                " GROUP BY p.id " +
+                " ORDER BY start ASC"
+
+        const val EPG_PROGRAMS_FROM_CHANNELS_BETWEEN_TIME_QUERY = EPG_PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND p.channel_id IN (:channelIds) " +
+                PROGRAM_IS_IN_TIME_SLOT +
+                " GROUP BY p.id " +
+                " ORDER BY start ASC"
+
+        const val PROGRAMS_QUERY = PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " GROUP BY p.id " +
+                " ORDER BY p.start, p.channel_name ASC"
+
+        const val PROGRAM_BY_ID_QUERY = PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND p.id = :id"
+
+        const val PROGRAMS_FROM_CHANNEL_QUERY = PROGRAM_BASE_QUERY +
+                " WHERE $IN_CONNECTION" +
+                " AND p.channel_id = :channelId " +
+                " ORDER BY start DESC"
+
+        // Both the grouping and the join use the index on connection, channel and start
+        const val LAST_PROGRAM_OF_EACH_CHANNEL_QUERY = "SELECT p.id, p.channel_id, p.stop, p.next_event_id FROM programs AS p " +
+                " INNER JOIN (SELECT connection_id, channel_id, MAX(start) AS last_start FROM programs " +
+                "  WHERE connection_id = :connectionId " +
+                "  GROUP BY connection_id, channel_id) AS last " +
+                " ON p.connection_id = last.connection_id AND p.channel_id = last.channel_id AND p.start = last.last_start"
+
+        // A program is a duplicate if the same program was received again with
+        // another id. Only the program that was modified last is kept.
+        const val DELETE_DUPLICATE_PROGRAMS_QUERY = "DELETE FROM programs " +
+                " WHERE connection_id = :connectionId " +
+                " AND EXISTS (SELECT 1 FROM programs AS newer " +
+                "  WHERE newer.connection_id = programs.connection_id " +
+                "  AND newer.channel_id = programs.channel_id " +
+                "  AND newer.start = programs.start " +
+                "  AND newer.title IS programs.title " +
+                "  AND newer.subtitle IS programs.subtitle " +
+                "  AND (newer.modified_time > programs.modified_time " +
+                "   OR (newer.modified_time = programs.modified_time AND newer.id > programs.id)))"
+
+        // A program that has ended has also started before the given time,
+        // the additional condition allows using the index on the start time
+        const val DELETE_PROGRAMS_BY_TIME_QUERY = "DELETE FROM programs " + "WHERE start < :time AND stop < :time"
+
+        const val DELETE_PROGRAM_BY_ID_QUERY = "DELETE FROM programs " +
+                "WHERE connection_id = :connectionId " +
+                " AND id = :id"
     }
 }
@@ -90,9 +90,9 @@ internal interface RecordingDao {
 
     @Transaction
     @Query(RECORDING_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND rec.id = :id")
-    fun loadRecordingByIdSync(id: Int): RecordingEntity?
+    fun loadRecordingByIdSync(id: Int, connectionId: Int): RecordingEntity?
 
     @Transaction
     @Query(RECORDING_BASE_QUERY +
@@ -102,9 +102,13 @@ internal interface RecordingDao {
 
     @Transaction
     @Query(RECORDING_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND rec.event_id = :id")
-    fun loadRecordingByEventIdSync(id: Int): RecordingEntity?
+    fun loadRecordingByEventIdSync(id: Int, connectionId: Int): RecordingEntity?
+
+    @Query("SELECT * FROM recordings " +
+            " WHERE connection_id = :connectionId")
+    fun loadRecordingsByConnectionIdSync(connectionId: Int): List<RecordingEntity>
 
     @Transaction
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -114,6 +118,9 @@ internal interface RecordingDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insert(recordings: List<RecordingEntity>)
 
+    @Update
+    fun update(recordings: List<RecordingEntity>)
+
     @Update
     fun update(recording: RecordingEntity)
 
@@ -149,6 +156,8 @@ internal interface RecordingDao {
                 "CASE :sortOrder WHEN 7 THEN rec.duration END DESC"
 
         const val CONNECTION_IS_ACTIVE = " rec.connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " rec.connection_id = :connectionId "
     }
 
 }
@@ -29,19 +29,32 @@ internal interface SeriesRecordingDao {
 
     @Transaction
     @Query(RECORDING_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND rec.id = :id")
-    fun loadRecordingByIdSync(id: String): SeriesRecordingEntity?
+    fun loadRecordingByIdSync(id: String, connectionId: Int): SeriesRecordingEntity?
+
+    @Query("SELECT * FROM series_recordings " +
+            " WHERE connection_id = :connectionId")
+    fun loadRecordingsByConnectionIdSync(connectionId: Int): List<SeriesRecordingEntity>
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insert(recording: SeriesRecordingEntity)
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(recordings: List<SeriesRecordingEntity>)
+
+    @Update
+    fun update(recordings: List<SeriesRecordingEntity>)
+
     @Update
     fun update(recording: SeriesRecordingEntity)
 
     @Delete
     fun delete(recording: SeriesRecordingEntity)
 
+    @Delete
+    fun delete(recordings: List<SeriesRecordingEntity>)
+
     @Query("DELETE FROM series_recordings " +
             " WHERE connection_id IN (SELECT id FROM connections WHERE active = 1)" +
             " AND id = :id ")
@@ -59,5 +72,7 @@ internal interface SeriesRecordingDao {
                 "LEFT JOIN channels AS c ON  c.id = rec.channel_id "
 
         const val CONNECTION_IS_ACTIVE = " rec.connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " rec.connection_id = :connectionId "
     }
 }
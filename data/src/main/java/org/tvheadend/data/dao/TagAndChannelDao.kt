@@ -28,9 +28,9 @@ internal abstract class TagAndChannelDao {
     }
 
     @Query("DELETE FROM tags_and_channels " +
-            " WHERE connection_id IN (SELECT id FROM connections WHERE active = 1) " +
+            " WHERE connection_id = :connectionId " +
             " AND tag_id = :id")
-    abstract fun deleteByTagId(id: Int)
+    abstract fun deleteByTagId(id: Int, connectionId: Int)
 
     @Query("DELETE FROM tags_and_channels")
     abstract fun deleteAll()
@@ -29,19 +29,32 @@ internal interface TimerRecordingDao {
 
     @Transaction
     @Query(RECORDING_BASE_QUERY +
-            " WHERE $CONNECTION_IS_ACTIVE" +
+            " WHERE $IN_CONNECTION" +
             " AND rec.id = :id")
-    fun loadRecordingByIdSync(id: String): TimerRecordingEntity?
+    fun loadRecordingByIdSync(id: String, connectionId: Int): TimerRecordingEntity?
+
+    @Query("SELECT * FROM timer_recordings " +
+            " WHERE connection_id = :connectionId")
+    fun loadRecordingsByConnectionIdSync(connectionId: Int): List<TimerRecordingEntity>
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insert(recording: TimerRecordingEntity)
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(recordings: List<TimerRecordingEntity>)
+
+    @Update
+    fun update(recordings: List<TimerRecordingEntity>)
+
     @Update
     fun update(recording: TimerRecordingEntity)
 
     @Delete
     fun delete(recording: TimerRecordingEntity)
 
+    @Delete
+    fun delete(recordings: List<TimerRecordingEntity>)
+
     @Query("DELETE FROM timer_recordings " +
             " WHERE connection_id IN (SELECT id FROM connections WHERE active = 1) " +
             " AND id = :id")
@@ -59,5 +72,7 @@ internal interface TimerRecordingDao {
                 "LEFT JOIN channels AS c ON  c.id = rec.channel_id "
 
         const val CONNECTION_IS_ACTIVE = " rec.connection_id IN (SELECT id FROM connections WHERE active = 1) "
+
+        const val IN_CONNECTION = " rec.connection_id = :connectionId "
     }
 }
@@ -21,7 +21,7 @@ import org.tvheadend.data.entity.*
             ServerProfileEntity::class,
             ServerStatusEntity::class],
         exportSchema = false,
-        version = 14)
+        version = 16)
 abstract class AppRoomDatabase : RoomDatabase() {
 
     internal abstract val timerRecordingDao: TimerRecordingDao
@@ -65,6 +65,8 @@ abstract class AppRoomDatabase : RoomDatabase() {
                             .addMigrations(MIGRATION_11_12)
                             .addMigrations(MIGRATION_12_13)
                             .addMigrations(MIGRATION_13_14)
+                            .addMigrations(MIGRATION_14_15)
+                            .addMigrations(MIGRATION_15_16)
                             .build()
                 }
             }
@@ -166,5 +168,18 @@ abstract class AppRoomDatabase : RoomDatabase() {
                 database.execSQL("ALTER TABLE server_status ADD COLUMN timer_recording_server_profile_id INTEGER NOT NULL DEFAULT 0;")
             }
         }
+
+        private val MIGRATION_14_15 = object : Migration(14, 15) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("CREATE INDEX IF NOT EXISTS index_programs_connection_id_channel_id_start ON programs(connection_id, channel_id, start)")
+            }
+        }
+
+        private val MIGRATION_15_16 = object : Migration(15, 16) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("DROP INDEX IF EXISTS index_programs_connection_id_channel_id_start")
+                database.execSQL("CREATE INDEX IF NOT EXISTS index_programs_connection_id_channel_id_start_stop ON programs(connection_id, channel_id, start, stop)")
+            }
+        }
     }
 }
@@ -20,19 +20,21 @@ class RepositoryModule(private val appContext: Context) {
     @Singleton
     @Provides
     fun providesAppRepository(db: AppRoomDatabase): AppRepository {
+        val activeConnection = ActiveConnectionId(db)
         return AppRepository(
-                ChannelDataSource(db),
-                ProgramDataSource(db),
-                RecordingDataSource(db),
-                SeriesRecordingDataSource(db),
-                TimerRecordingDataSource(db),
-                ConnectionDataSource(db),
-                ChannelTagDataSource(db),
+                ChannelDataSource(db, activeConnection),
+                ProgramDataSource(db, activeConnection),
+                RecordingDataSource(db, activeConnection),
+                SeriesRecordingDataSource(db, activeConnection),
+                TimerRecordingDataSource(db, activeConnection),
+                ConnectionDataSource(db, activeConnection),
+                ChannelTagDataSource(db, activeConnection),
                 ServerStatusDataSource(db),
                 ServerProfileDataSource(db),
-                TagAndChannelDataSource(db),
+                TagAndChannelDataSource(db, activeConnection),
                 MiscDataSource(db),
                 SubscriptionDataSource(db),
-                InputDataSource(db))
+                InputDataSource(db),
+                activeConnection)
     }
 }
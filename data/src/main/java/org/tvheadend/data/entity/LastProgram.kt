@@ -0,0 +1,31 @@
+package org.tvheadend.data.entity
+
+import androidx.room.ColumnInfo
+
+/**
+ * The values of the last saved program of a channel
+ * that are required to load the following programs
+ */
+data class LastProgram(
+
+        var eventId: Int = 0,
+        var channelId: Int = 0,
+        var stop: Long = 0,
+        var nextEventId: Int = 0
+)
+
+internal data class LastProgramEntity(
+
+        @ColumnInfo(name = "id")
+        var eventId: Int = 0,
+        @ColumnInfo(name = "channel_id")
+        var channelId: Int = 0,
+        @ColumnInfo(name = "stop")
+        var stop: Long = 0,
+        @ColumnInfo(name = "next_event_id")
+        var nextEventId: Int = 0
+) {
+    fun toLastProgram(): LastProgram {
+        return LastProgram(eventId, channelId, stop, nextEventId)
+    }
+}
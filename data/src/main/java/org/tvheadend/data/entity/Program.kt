@@ -67,7 +67,7 @@ data class Program(
         }
 }
 
-@Entity(tableName = "programs", primaryKeys = ["id", "connection_id"], indices = [Index(value = ["start"]), Index(value = ["channel_id"])])
+@Entity(tableName = "programs", primaryKeys = ["id", "connection_id"], indices = [Index(value = ["start"]), Index(value = ["channel_id"]), Index(value = ["connection_id", "channel_id", "start", "stop"])])
 internal data class ProgramEntity(
 
         @ColumnInfo(name = "id")
@@ -0,0 +1,77 @@
+package org.tvheadend.data.source
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.Transformations
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import org.tvheadend.data.db.AppRoomDatabase
+
+/**
+ * Caches the id of the active connection so that the queries can use it as a
+ * parameter instead of selecting it from the connections table every time.
+ * All changes of the connections are done with [change], which keeps the
+ * previously active id from being returned once the change was written.
+ */
+class ActiveConnectionId internal constructor(private val db: AppRoomDatabase) {
+
+    @Volatile
+    private var cachedId: Int? = null
+    private var version = 0
+    private var pendingChanges = 0
+
+    /**
+     * Emits the id of the active connection or -1 when no connection is
+     * active. Changes of the active connection itself are ignored.
+     */
+    val liveData: LiveData<Int> by lazy {
+        Transformations.distinctUntilChanged(Transformations.map(db.connectionDao.loadActiveConnectionId()) { it ?: -1 })
+    }
+
+    /**
+     * Same as the live data, but as a flow for the coroutine based queries
+     */
+    val flow: Flow<Int> by lazy {
+        db.connectionDao.loadActiveConnectionIdFlow().map { it ?: -1 }.distinctUntilChanged()
+    }
+
+    /**
+     * Returns the id of the active connection or -1 if no connection is active.
+     * The id is loaded from the database if it is not cached, so this must not
+     * be called from the main thread.
+     */
+    val id: Int
+        get() {
+            cachedId?.let { return it }
+            val loadedVersion = synchronized(this) { version }
+            val id = db.connectionDao.loadActiveConnectionIdSync() ?: -1
+            synchronized(this) {
+                // Do not keep an id that was loaded while the connections were changed
+                if (version == loadedVersion && pendingChanges == 0) {
+                    cachedId = id
+                }
+            }
+            return id
+        }
+
+    /**
+     * Runs the given change of the connections. The cached id is dropped
+     * before and no id is cached until the change is done, so a reader
+     * loads the new id as soon as the change was written.
+     */
+    internal fun <R> change(block: () -> R): R {
+        synchronized(this) {
+            pendingChanges++
+            version++
+            cachedId = null
+        }
+        try {
+            return block()
+        } finally {
+            synchronized(this) {
+                pendingChanges--
+                version++
+            }
+        }
+    }
+}
@@ -2,40 +2,69 @@ package org.tvheadend.data.source
 
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
-import androidx.lifecycle.Transformations
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.Channel
 import org.tvheadend.data.entity.ChannelEntity
 import org.tvheadend.data.entity.EpgChannel
 import timber.log.Timber
 import java.util.*
+import java.util.concurrent.Callable
 
-class ChannelDataSource(private val db: AppRoomDatabase) : DataSourceInterface<Channel> {
+class ChannelDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<Channel> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
+    private val updateBuffer = WriteBehindBuffer<Int, ChannelEntity>(ioScope) { db.channelDao.update(it) }
 
     override fun addItem(item: Channel) {
-        ioScope.launch { db.channelDao.insert(ChannelEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        ioScope.launch { updateBuffer.write { db.channelDao.insert(ChannelEntity.from(item)) } }
     }
 
     fun addItems(items: List<Channel>) {
-        ioScope.launch { db.channelDao.insert(ArrayList(items.map { ChannelEntity.from(it) })) }
+        val entities = ArrayList(items.map { ChannelEntity.from(it) })
+        updateBuffer.removeAll(entities.map { it.id })
+        ioScope.launch { updateBuffer.write { db.channelDao.insert(entities) } }
     }
 
     override fun updateItem(item: Channel) {
-        ioScope.launch { db.channelDao.update(ChannelEntity.from(item)) }
+        updateBuffer.put(item.id, ChannelEntity.from(item))
     }
 
     override fun removeItem(item: Channel) {
-        ioScope.launch { db.channelDao.delete(ChannelEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        ioScope.launch { updateBuffer.write { db.channelDao.delete(ChannelEntity.from(item)) } }
     }
 
     fun removeItemById(id: Int) {
-        ioScope.launch { db.channelDao.deleteById(id) }
+        updateBuffer.remove(id)
+        ioScope.launch { updateBuffer.write { db.channelDao.deleteById(id, activeConnection.id) } }
+    }
+
+    /**
+     * Compares the received channels with the saved channels of the connection
+     * and only writes the channels that were added, changed or removed
+     */
+    fun reconcileItems(items: List<Channel>, connectionId: Int): SyncStatistics {
+        val startTime = System.currentTimeMillis()
+        updateBuffer.flush()
+        val delta = runBlocking(Dispatchers.IO) {
+            db.runInTransaction(Callable {
+                val existing = db.channelDao.loadChannelsByConnectionIdSync(connectionId)
+                val changes = SyncDelta.calculate(existing, items.map { ChannelEntity.from(it) }, { it.id }) {
+                    // The program values are loaded from the programs table
+                    it.copy(programId = 0, programTitle = null, programSubtitle = null, programStart = 0, programStop = 0,
+                            programContentType = 0, nextProgramId = 0, nextProgramTitle = null, tags = null, recording = null)
+                }
+                changes.apply(db.channelDao::insert, db.channelDao::update, db.channelDao::delete)
+                changes
+            })
+        }
+        return delta.toStatistics("channels", System.currentTimeMillis() - startTime)
     }
 
     override fun getLiveDataItemCount(): LiveData<Int> {
@@ -51,9 +80,10 @@ class ChannelDataSource(private val db: AppRoomDatabase) : DataSourceInterface<C
     }
 
     override fun getItemById(id: Any): Channel? {
+        updateBuffer.get(id as Int)?.let { return it.toChannel() }
         var channel: Channel?
         runBlocking(Dispatchers.IO) {
-            channel = db.channelDao.loadChannelByIdSync(id as Int)?.toChannel()
+            channel = db.channelDao.loadChannelByIdSync(id as Int, activeConnection.id)?.toChannel()
         }
         return channel
     }
@@ -61,7 +91,7 @@ class ChannelDataSource(private val db: AppRoomDatabase) : DataSourceInterface<C
     fun getChannels(sortOrder: Int = 0): List<Channel> {
         val channels = ArrayList<Channel>()
         runBlocking(Dispatchers.IO) {
-            channels.addAll(db.channelDao.loadAllChannelsSync(sortOrder).map { it.toChannel() })
+            channels.addAll(db.channelDao.loadAllChannelsSync(sortOrder, activeConnection.id).map { it.toChannel() })
         }
         return channels
     }
@@ -73,34 +103,55 @@ class ChannelDataSource(private val db: AppRoomDatabase) : DataSourceInterface<C
     fun getItemByIdWithPrograms(id: Int, selectedTime: Long): Channel? {
         var channel: Channel?
         runBlocking(Dispatchers.IO) {
-            channel = db.channelDao.loadChannelByIdWithProgramsSync(id, selectedTime)?.toChannel()
+            channel = db.channelDao.loadChannelByIdWithProgramsSync(id, selectedTime, activeConnection.id)?.toChannel()
         }
         return channel
     }
 
-    fun getAllEpgChannels(channelSortOrder: Int, tagIds: List<Int>): LiveData<List<EpgChannel>> {
+    suspend fun loadItemById(id: Int): Channel? {
+        updateBuffer.get(id)?.let { return it.toChannel() }
+        return withContext(Dispatchers.IO) {
+            db.channelDao.loadChannelByIdSync(id, activeConnection.id)?.toChannel()
+        }
+    }
+
+    suspend fun loadChannels(sortOrder: Int = 0): List<Channel> {
+        return withContext(Dispatchers.IO) {
+            db.channelDao.loadAllChannelsSync(sortOrder, activeConnection.id).map { it.toChannel() }
+        }
+    }
+
+    suspend fun loadItemByIdWithPrograms(id: Int, selectedTime: Long): Channel? {
+        return withContext(Dispatchers.IO) {
+            db.channelDao.loadChannelByIdWithProgramsSync(id, selectedTime, activeConnection.id)?.toChannel()
+        }
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun getAllEpgChannels(channelSortOrder: Int, tagIds: List<Int>): Flow<List<EpgChannel>> {
         Timber.d("Loading epg channels with sort order $channelSortOrder and ${tagIds.size} tags")
-        return if (tagIds.isEmpty()) {
-            Transformations.map(db.channelDao.loadAllEpgChannels(channelSortOrder)) { entities ->
-                entities.map { it.toEpgChannel() }
+        return activeConnection.flow.flatMapLatest { connectionId ->
+            if (tagIds.isEmpty()) {
+                db.channelDao.loadAllEpgChannels(channelSortOrder, connectionId)
+            } else {
+                db.channelDao.loadAllEpgChannelsByTag(channelSortOrder, tagIds, connectionId)
             }
-        } else {
-            Transformations.map(db.channelDao.loadAllEpgChannelsByTag(channelSortOrder, tagIds)) { entities ->
-                entities.map { it.toEpgChannel() }
-            }
-        }
+        }.map { entities ->
+            entities.map { it.toEpgChannel() }
+        }.flowOn(Dispatchers.Default)
     }
 
-    fun getAllChannelsByTime(selectedTime: Long, channelSortOrder: Int, tagIds: List<Int>): LiveData<List<Channel>> {
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun getAllChannelsByTime(selectedTime: Long, channelSortOrder: Int, tagIds: List<Int>): Flow<List<Channel>> {
         Timber.d("Loading channels from time $selectedTime with sort order $channelSortOrder and ${tagIds.size} tags")
-        return if (tagIds.isEmpty()) {
-            Transformations.map(db.channelDao.loadAllChannelsByTime(selectedTime, channelSortOrder)) { entities ->
-                entities.map { it.toChannel() }
+        return activeConnection.flow.flatMapLatest { connectionId ->
+            if (tagIds.isEmpty()) {
+                db.channelDao.loadAllChannelsByTime(selectedTime, channelSortOrder, connectionId)
+            } else {
+                db.channelDao.loadAllChannelsByTimeAndTag(selectedTime, channelSortOrder, tagIds, connectionId)
             }
-        } else {
-            Transformations.map(db.channelDao.loadAllChannelsByTimeAndTag(selectedTime, channelSortOrder, tagIds)) { entities ->
-                entities.map { it.toChannel() }
-            }
-        }
+        }.map { entities ->
+            entities.map { it.toChannel() }
+        }.flowOn(Dispatchers.Default)
     }
 }
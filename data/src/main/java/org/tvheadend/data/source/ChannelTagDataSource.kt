@@ -11,8 +11,9 @@ import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.ChannelTag
 import org.tvheadend.data.entity.ChannelTagEntity
 import java.util.*
+import java.util.concurrent.Callable
 
-class ChannelTagDataSource(private val db: AppRoomDatabase) : DataSourceInterface<ChannelTag> {
+class ChannelTagDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<ChannelTag> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
 
@@ -58,6 +59,28 @@ class ChannelTagDataSource(private val db: AppRoomDatabase) : DataSourceInterfac
     }
 
 
+    /**
+     * Compares the received channel tags with the saved tags of the connection
+     * and only writes the tags that were added, changed or removed. The
+     * selection of the existing tags is kept.
+     */
+    fun reconcileItems(items: List<ChannelTag>, connectionId: Int): SyncStatistics {
+        val startTime = System.currentTimeMillis()
+        val delta = runBlocking(Dispatchers.IO) {
+            db.runInTransaction(Callable {
+                val existing = db.channelTagDao.loadChannelTagsByConnectionIdSync(connectionId)
+                val selectedIds = existing.filter { it.isSelected }.map { it.tagId }.toSet()
+                val received = items.map { ChannelTagEntity.from(it).apply { isSelected = selectedIds.contains(tagId) } }
+                val changes = SyncDelta.calculate(existing, received, { it.tagId }) {
+                    it.copy(members = null)
+                }
+                changes.apply(db.channelTagDao::insert, db.channelTagDao::update, db.channelTagDao::delete)
+                changes
+            })
+        }
+        return delta.toStatistics("channel tags", System.currentTimeMillis() - startTime)
+    }
+
     override fun getLiveDataItemCount(): LiveData<Int> {
         return MutableLiveData()
     }
@@ -75,7 +98,7 @@ class ChannelTagDataSource(private val db: AppRoomDatabase) : DataSourceInterfac
     override fun getItemById(id: Any): ChannelTag? {
         var channelTag: ChannelTag?
         runBlocking(Dispatchers.IO) {
-            channelTag = db.channelTagDao.loadChannelTagByIdSync(id as Int)?.toChannelTag()
+            channelTag = db.channelTagDao.loadChannelTagByIdSync(id as Int, activeConnection.id)?.toChannelTag()
         }
         return channelTag
     }
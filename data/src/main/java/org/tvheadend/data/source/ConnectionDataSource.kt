@@ -6,6 +6,7 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.Connection
 import org.tvheadend.data.entity.ConnectionEntity
@@ -14,7 +15,7 @@ import org.tvheadend.data.entity.ServerStatusEntity
 import timber.log.Timber
 import java.util.*
 
-class ConnectionDataSource(private val db: AppRoomDatabase) : DataSourceInterface<Connection> {
+class ConnectionDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<Connection> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
 
@@ -40,31 +41,47 @@ class ConnectionDataSource(private val db: AppRoomDatabase) : DataSourceInterfac
 
     override fun addItem(item: Connection) {
         ioScope.launch {
-            if (item.isActive) {
-                db.connectionDao.disableActiveConnection()
+            changeConnections {
+                if (item.isActive) {
+                    db.connectionDao.disableActiveConnection()
+                }
+                val newId = db.connectionDao.insert(ConnectionEntity.from(item))
+                // Create a new server status row in the database
+                // that is linked to the newly added connection
+                val serverStatus = ServerStatus()
+                serverStatus.connectionId = newId.toInt()
+                db.serverStatusDao.insert(ServerStatusEntity.from(serverStatus))
             }
-            val newId = db.connectionDao.insert(ConnectionEntity.from(item))
-            // Create a new server status row in the database
-            // that is linked to the newly added connection
-            val serverStatus = ServerStatus()
-            serverStatus.connectionId = newId.toInt()
-            db.serverStatusDao.insert(ServerStatusEntity.from(serverStatus))
         }
     }
 
     override fun updateItem(item: Connection) {
         ioScope.launch {
-            if (item.isActive) {
-                db.connectionDao.disableActiveConnection()
+            changeConnections {
+                if (item.isActive) {
+                    db.connectionDao.disableActiveConnection()
+                }
+                db.connectionDao.update(ConnectionEntity.from(item))
             }
-            db.connectionDao.update(ConnectionEntity.from(item))
         }
     }
 
     override fun removeItem(item: Connection) {
         ioScope.launch {
-            db.connectionDao.delete(ConnectionEntity.from(item))
-            db.serverStatusDao.deleteByConnectionId(item.id)
+            changeConnections {
+                db.connectionDao.delete(ConnectionEntity.from(item))
+                db.serverStatusDao.deleteByConnectionId(item.id)
+            }
+        }
+    }
+
+    /**
+     * Writes the change in one transaction, so the active connection
+     * switches at once, and drops the cached id in the same step
+     */
+    private fun changeConnections(block: () -> Unit) {
+        activeConnection.change {
+            db.runInTransaction(block)
         }
     }
 
@@ -100,6 +117,18 @@ class ConnectionDataSource(private val db: AppRoomDatabase) : DataSourceInterfac
         return connections
     }
 
+    suspend fun loadActiveItem(): Connection {
+        return withContext(Dispatchers.IO) {
+            db.connectionDao.loadActiveConnectionSync()?.toConnection() ?: Connection().also { it.id = -1 }
+        }
+    }
+
+    suspend fun loadItemById(id: Int): Connection? {
+        return withContext(Dispatchers.IO) {
+            db.connectionDao.loadConnectionByIdSync(id)?.toConnection()
+        }
+    }
+
     fun setSyncRequiredForActiveConnection() {
         val connection = activeItem
         if (connection.id >= 0) {
@@ -109,20 +138,22 @@ class ConnectionDataSource(private val db: AppRoomDatabase) : DataSourceInterfac
         }
     }
 
-    fun switchActiveConnection(oldId: Int, newId: Int) {
+    suspend fun switchActiveConnection(oldId: Int, newId: Int) {
         Timber.d("Switching active connection from id $oldId to $newId")
-        runBlocking(Dispatchers.IO) {
-            db.connectionDao.loadConnectionByIdSync(oldId)?.also {
-                Timber.d("Currently active connection is ${it.name} with id ${it.id}")
-                it.isActive = false
-                db.connectionDao.update(it)
-            }
-            db.connectionDao.loadConnectionByIdSync(newId)?.also {
-                Timber.d("New active connection shall be ${it.name} with id ${it.id}")
-                it.isActive = true
-                it.isSyncRequired = true
-                it.lastUpdate = 0
-                db.connectionDao.update(it)
+        withContext(Dispatchers.IO) {
+            changeConnections {
+                db.connectionDao.loadConnectionByIdSync(oldId)?.also {
+                    Timber.d("Currently active connection is ${it.name} with id ${it.id}")
+                    it.isActive = false
+                    db.connectionDao.update(it)
+                }
+                db.connectionDao.loadConnectionByIdSync(newId)?.also {
+                    Timber.d("New active connection shall be ${it.name} with id ${it.id}")
+                    it.isActive = true
+                    it.isSyncRequired = true
+                    it.lastUpdate = 0
+                    db.connectionDao.update(it)
+                }
             }
             db.connectionDao.loadActiveConnectionSync()?.let {
                 Timber.d("New active connection is be ${it.name} with id ${it.id}")
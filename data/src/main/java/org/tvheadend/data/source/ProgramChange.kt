@@ -0,0 +1,41 @@
+package org.tvheadend.data.source
+
+import org.tvheadend.data.entity.ProgramInterface
+
+/**
+ * Describes the programs that have been written to the database in one batch.
+ * The programs in the time slots were added, updated or removed. The programs
+ * are also contained by their event id, because the times updated or removed
+ * programs were shown at before the change are not always known.
+ */
+class ProgramChange(val timeSlots: List<TimeSlot> = emptyList(), val eventIds: Set<Int> = emptySet()) {
+
+    /**
+     * A time slot of the given channel or of all channels if the channel id is null
+     */
+    data class TimeSlot(val channelId: Int?, val start: Long, val stop: Long) {
+
+        fun overlaps(channelId: Int, start: Long, stop: Long): Boolean {
+            return (this.channelId == null || this.channelId == channelId) && this.start <= stop && this.stop >= start
+        }
+    }
+
+    companion object {
+
+        /**
+         * Any program of any channel may have changed
+         */
+        val ALL = ProgramChange(listOf(TimeSlot(null, Long.MIN_VALUE, Long.MAX_VALUE)))
+
+        /**
+         * Combines the programs of each channel into one time slot
+         * that reaches from the earliest start to the latest stop
+         */
+        fun of(programs: List<ProgramInterface>): ProgramChange {
+            val timeSlots = programs.groupBy { it.channelId }.map { (channelId, programsOfChannel) ->
+                TimeSlot(channelId, programsOfChannel.minOf { it.start }, programsOfChannel.maxOf { it.stop })
+            }
+            return ProgramChange(timeSlots, programs.mapTo(HashSet()) { it.eventId })
+        }
+    }
+}
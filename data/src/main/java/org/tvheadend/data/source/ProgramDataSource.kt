@@ -2,18 +2,37 @@ package org.tvheadend.data.source
 
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.Transformations
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.*
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.EpgProgram
+import org.tvheadend.data.entity.LastProgram
 import org.tvheadend.data.entity.Program
 import org.tvheadend.data.entity.ProgramEntity
 
-class ProgramDataSource(private val db: AppRoomDatabase) : DataSourceInterface<Program> {
+class ProgramDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<Program> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
+    // Updated programs are written after the flush interval of the buffer.
+    // Only single programs are read from it, the lists and the observed
+    // queries return an updated program once it has been written.
+    private val updateBuffer = WriteBehindBuffer<Int, ProgramEntity>(ioScope) {
+        db.programDao.update(it)
+        notifyChange(ProgramChange.of(it))
+    }
+    private val changes = MutableSharedFlow<ProgramChange>(extraBufferCapacity = CHANGE_BUFFER_CAPACITY)
+
+    /**
+     * Emits the programs that were added, updated or removed once they have
+     * been written to the database. Changes are not kept without a collector.
+     */
+    val programChanges: SharedFlow<ProgramChange> = changes.asSharedFlow()
 
     val itemCount: Int
         get() {
@@ -24,34 +43,75 @@ class ProgramDataSource(private val db: AppRoomDatabase) : DataSourceInterface<P
             return count
         }
 
+    suspend fun loadItemCount(): Int {
+        return withContext(Dispatchers.IO) { db.programDao.itemCountSync }
+    }
+
     override fun addItem(item: Program) {
-        ioScope.launch { db.programDao.insert(ProgramEntity.from(item)) }
+        updateBuffer.remove(item.eventId)
+        ioScope.launch {
+            updateBuffer.write { db.programDao.insert(ProgramEntity.from(item)) }
+            notifyChange(ProgramChange.of(listOf(item)))
+        }
     }
 
     fun addItems(items: List<Program>) {
         if (!items.isNullOrEmpty()) {
+            val entities = items.map { ProgramEntity.from(it) }
+            updateBuffer.removeAll(entities.map { it.eventId })
             ioScope.launch {
-                db.programDao.insert(ArrayList(items).mapNotNull { program -> program.let { item ->
-                    ProgramEntity.from(item) }
-                })
+                updateBuffer.write { db.programDao.insert(entities) }
+                notifyChange(ProgramChange.of(entities))
+            }
+        }
+    }
+
+    /**
+     * Inserts the given programs and returns when they were saved
+     */
+    fun addItemsSync(items: List<Program>) {
+        if (items.isNotEmpty()) {
+            val entities = items.map { ProgramEntity.from(it) }
+            updateBuffer.removeAll(entities.map { it.eventId })
+            runBlocking(Dispatchers.IO) {
+                updateBuffer.write { db.programDao.insert(entities) }
             }
+            notifyChange(ProgramChange.of(items))
         }
     }
 
     override fun updateItem(item: Program) {
-        ioScope.launch { db.programDao.update(ProgramEntity.from(item)) }
+        updateBuffer.put(item.eventId, ProgramEntity.from(item))
     }
 
     override fun removeItem(item: Program) {
-        ioScope.launch { db.programDao.delete(ProgramEntity.from(item)) }
+        updateBuffer.remove(item.eventId)
+        ioScope.launch {
+            updateBuffer.write { db.programDao.delete(ProgramEntity.from(item)) }
+            notifyChange(ProgramChange.of(listOf(item)))
+        }
     }
 
     fun removeItemsByTime(time: Long) {
-        ioScope.launch { db.programDao.deleteProgramsByTime(time) }
+        ioScope.launch {
+            db.programDao.deleteProgramsByTime(time)
+            notifyChange(ProgramChange(listOf(ProgramChange.TimeSlot(null, Long.MIN_VALUE, time))))
+        }
     }
 
     fun removeItemById(id: Int) {
-        ioScope.launch { db.programDao.deleteById(id) }
+        updateBuffer.remove(id)
+        ioScope.launch {
+            updateBuffer.write { db.programDao.deleteById(id, activeConnection.id) }
+            notifyChange(ProgramChange(eventIds = setOf(id)))
+        }
+    }
+
+    private fun notifyChange(change: ProgramChange) {
+        // Avoid launching a coroutine for every write while nobody is interested
+        if (changes.subscriptionCount.value > 0) {
+            ioScope.launch { changes.emit(change) }
+        }
     }
 
     override fun getLiveDataItemCount(): LiveData<Int> {
@@ -59,21 +119,26 @@ class ProgramDataSource(private val db: AppRoomDatabase) : DataSourceInterface<P
     }
 
     override fun getLiveDataItems(): LiveData<List<Program>> {
-        return Transformations.map(db.programDao.loadPrograms()) { entities ->
-            entities.map { it.toProgram() }
+        return Transformations.switchMap(activeConnection.liveData) { connectionId ->
+            Transformations.map(db.programDao.loadPrograms(connectionId)) { entities ->
+                entities.map { it.toProgram() }
+            }
         }
     }
 
     override fun getLiveDataItemById(id: Any): LiveData<Program> {
-        return Transformations.map(db.programDao.loadProgramById(id as Int)) { entity ->
-            entity.toProgram()
+        return Transformations.switchMap(activeConnection.liveData) { connectionId ->
+            Transformations.map(db.programDao.loadProgramById(id as Int, connectionId)) { entity ->
+                entity.toProgram()
+            }
         }
     }
 
     override fun getItemById(id: Any): Program? {
+        updateBuffer.get(id as Int)?.let { return it.toProgram() }
         var program: Program?
         runBlocking(Dispatchers.IO) {
-            program = db.programDao.loadProgramByIdSync(id as Int)?.toProgram()
+            program = db.programDao.loadProgramByIdSync(id as Int, activeConnection.id)?.toProgram()
         }
         return program
     }
@@ -81,61 +146,85 @@ class ProgramDataSource(private val db: AppRoomDatabase) : DataSourceInterface<P
     override fun getItems(): List<Program> {
         val programs = ArrayList<Program>()
         runBlocking(Dispatchers.IO) {
-            programs.addAll(db.programDao.loadProgramsSync().map { it.toProgram() })
+            programs.addAll(db.programDao.loadProgramsSync(activeConnection.id).map { it.toProgram() })
         }
         return programs
     }
 
-    fun getLiveDataItemsFromTime(time: Long): LiveData<List<Program>> {
-        return Transformations.map(db.programDao.loadProgramsFromTime(time)) { entities ->
-            entities.map { it.toProgram() }
+    suspend fun loadItemById(id: Int): Program? {
+        updateBuffer.get(id)?.let { return it.toProgram() }
+        return withContext(Dispatchers.IO) {
+            db.programDao.loadProgramByIdSync(id, activeConnection.id)?.toProgram()
         }
     }
 
-    fun getLiveDataItemByChannelIdAndTime(channelId: Int, time: Long): LiveData<List<Program>> {
-        return Transformations.map(db.programDao.loadProgramsFromChannelFromTime(channelId, time)) { entities ->
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun getItemsFromTime(time: Long): Flow<List<Program>> {
+        return activeConnection.flow.flatMapLatest { connectionId ->
+            db.programDao.loadProgramsFromTime(time, connectionId)
+        }.map { entities ->
             entities.map { it.toProgram() }
-        }
+        }.flowOn(Dispatchers.Default)
     }
 
-    fun getItemByChannelIdAndBetweenTime(channelId: Int, startTime: Long, endTime: Long): List<EpgProgram> {
-        val programs = ArrayList<EpgProgram>()
-        runBlocking(Dispatchers.IO) {
-            programs.addAll(db.programDao.loadEpgProgramsFromChannelBetweenTimeSync(channelId, startTime, endTime).map { it.toEpgProgram() })
+    @OptIn(ExperimentalCoroutinesApi::class)
+    fun getItemsByChannelIdAndTime(channelId: Int, time: Long): Flow<List<Program>> {
+        return activeConnection.flow.flatMapLatest { connectionId ->
+            db.programDao.loadProgramsFromChannelFromTime(channelId, time, connectionId)
+        }.map { entities ->
+            entities.map { it.toProgram() }
+        }.flowOn(Dispatchers.Default)
+    }
+
+    suspend fun loadItemsByChannelIdAndBetweenTime(channelId: Int, startTime: Long, endTime: Long): List<EpgProgram> {
+        return withContext(Dispatchers.IO) {
+            db.programDao.loadEpgProgramsFromChannelBetweenTimeSync(channelId, startTime, endTime, activeConnection.id).map { it.toEpgProgram() }
         }
-        return programs
     }
 
-    fun getLastItemByChannelId(channelId: Int): Program? {
-        var program: Program?
-        runBlocking(Dispatchers.IO) {
-            program = db.programDao.loadLastProgramFromChannelSync(channelId)?.toProgram()
+    /**
+     * Loads the programs of all given channels in the time slot and returns them
+     * grouped by the channel id. Channels without programs are not contained.
+     */
+    suspend fun loadItemsByChannelIdsAndBetweenTime(channelIds: List<Int>, startTime: Long, endTime: Long): Map<Int, List<EpgProgram>> {
+        return withContext(Dispatchers.IO) {
+            val connectionId = activeConnection.id
+            // Stay below the maximum number of parameters of a query
+            channelIds.chunked(MAX_CHANNEL_IDS_PER_QUERY).flatMap { ids ->
+                db.programDao.loadEpgProgramsFromChannelsBetweenTimeSync(ids, startTime, endTime, connectionId)
+            }.map { it.toEpgProgram() }.groupBy { it.channelId }
         }
-        return program
     }
 
-    fun getItemsByChannelId(channelId: Int): List<Program> {
-        val programs = ArrayList<Program>()
+    /**
+     * Returns the last program of every channel of the active connection with one query
+     */
+    fun getLastItemsByChannelId(): Map<Int, LastProgram> {
+        val programs = HashMap<Int, LastProgram>()
         runBlocking(Dispatchers.IO) {
-
-            val timeStep = 1000L * 3600 * 24 * 2
-            val lastProgram = db.programDao.loadLastProgramFromChannelSync(channelId)?.toProgram()
-            val startTime = System.currentTimeMillis()
-            val endTime = lastProgram?.stop ?: startTime
-
-            // Load the programs in chunks to avoid a SQLiteBlobTooBigException
-            for (time in startTime until endTime step timeStep) {
-                programs.addAll(db.programDao.loadProgramsFromChannelBetweenTimeSync(channelId, time, time + timeStep).map { it.toProgram() })
-            }
+            db.programDao.loadLastProgramOfEachChannelSync(activeConnection.id).forEach { programs[it.channelId] = it.toLastProgram() }
         }
         return programs
     }
 
-    fun getDuplicatePrograms(channelId: Int): List<EpgProgram> {
-        val programs = ArrayList<EpgProgram>()
+    /**
+     * Removes the programs of all channels that were received again with
+     * another id and returns the number of removed programs
+     */
+    fun removeDuplicateItems(): Int {
+        updateBuffer.flush()
+        var count: Int
         runBlocking(Dispatchers.IO) {
-            programs.addAll(db.programDao.loadDuplicateProgramsSync(channelId).map { it.toEpgProgram() })
+            count = db.programDao.deleteDuplicatePrograms(activeConnection.id)
         }
-        return programs
+        if (count > 0) {
+            notifyChange(ProgramChange.ALL)
+        }
+        return count
+    }
+
+    companion object {
+        private const val MAX_CHANNEL_IDS_PER_QUERY = 500
+        private const val CHANGE_BUFFER_CAPACITY = 64
     }
 }
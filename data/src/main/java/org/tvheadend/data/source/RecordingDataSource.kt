@@ -7,29 +7,59 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.Recording
 import org.tvheadend.data.entity.RecordingEntity
 import java.util.*
+import java.util.concurrent.Callable
 
-class RecordingDataSource(private val db: AppRoomDatabase) : DataSourceInterface<Recording> {
+class RecordingDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<Recording> {
 
     private val scope = CoroutineScope(Dispatchers.IO)
+    private val updateBuffer = WriteBehindBuffer<Int, RecordingEntity>(scope) { db.recordingDao.update(it) }
 
     override fun addItem(item: Recording) {
-        scope.launch { db.recordingDao.insert(RecordingEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        scope.launch { updateBuffer.write { db.recordingDao.insert(RecordingEntity.from(item)) } }
     }
 
     fun addItems(items: List<Recording>) {
-        scope.launch { db.recordingDao.insert(ArrayList(items.map { RecordingEntity.from(it) })) }
+        val entities = ArrayList(items.map { RecordingEntity.from(it) })
+        updateBuffer.removeAll(entities.map { it.id })
+        scope.launch { updateBuffer.write { db.recordingDao.insert(entities) } }
     }
 
     override fun updateItem(item: Recording) {
-        scope.launch { db.recordingDao.update(RecordingEntity.from(item)) }
+        updateBuffer.put(item.id, RecordingEntity.from(item))
     }
 
     override fun removeItem(item: Recording) {
-        scope.launch { db.recordingDao.delete(RecordingEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        scope.launch { updateBuffer.write { db.recordingDao.delete(RecordingEntity.from(item)) } }
+    }
+
+    /**
+     * Compares the received recordings with the saved recordings of the connection
+     * and only writes the recordings that were added, changed or removed. During
+     * the initial sync the server only sends the existing recordings, so any other
+     * saved recording was removed while the app was not connected.
+     */
+    fun reconcileItems(items: List<Recording>, connectionId: Int): SyncStatistics {
+        val startTime = System.currentTimeMillis()
+        updateBuffer.flush()
+        val delta = runBlocking(Dispatchers.IO) {
+            db.runInTransaction(Callable {
+                val existing = db.recordingDao.loadRecordingsByConnectionIdSync(connectionId)
+                val changes = SyncDelta.calculate(existing, items.map { RecordingEntity.from(it) }, { it.id }) {
+                    // The channel values are loaded from the channels table
+                    it.copy(files = null, channelName = null, channelIcon = null)
+                }
+                changes.apply(db.recordingDao::insert, db.recordingDao::update, db.recordingDao::delete)
+                changes
+            })
+        }
+        return delta.toStatistics("recordings", System.currentTimeMillis() - startTime)
     }
 
     override fun getLiveDataItemCount(): LiveData<Int> {
@@ -98,8 +128,9 @@ class RecordingDataSource(private val db: AppRoomDatabase) : DataSourceInterface
     override fun getItemById(id: Any): Recording? {
         var recording: Recording? = null
         if ((id as Int) > 0) {
+            updateBuffer.get(id)?.let { return it.toRecording() }
             runBlocking(Dispatchers.IO) {
-                recording = db.recordingDao.loadRecordingByIdSync(id)?.toRecording()
+                recording = db.recordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
             }
         }
         return recording
@@ -113,16 +144,28 @@ class RecordingDataSource(private val db: AppRoomDatabase) : DataSourceInterface
         var recording: Recording? = null
         if (id > 0) {
             runBlocking(Dispatchers.IO) {
-                recording = db.recordingDao.loadRecordingByEventIdSync(id)?.toRecording()
+                recording = db.recordingDao.loadRecordingByEventIdSync(id, activeConnection.id)?.toRecording()
             }
         }
         return recording
     }
 
-    fun removeAndAddItems(items: ArrayList<Recording>) {
-        scope.launch {
-            db.recordingDao.deleteAll()
-            db.recordingDao.insert(items.map { RecordingEntity.from(it) })
+    suspend fun loadItemById(id: Int): Recording? {
+        if (id <= 0) {
+            return null
+        }
+        updateBuffer.get(id)?.let { return it.toRecording() }
+        return withContext(Dispatchers.IO) {
+            db.recordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
+        }
+    }
+
+    suspend fun loadItemByEventId(id: Int): Recording? {
+        if (id <= 0) {
+            return null
+        }
+        return withContext(Dispatchers.IO) {
+            db.recordingDao.loadRecordingByEventIdSync(id, activeConnection.id)?.toRecording()
         }
     }
 }
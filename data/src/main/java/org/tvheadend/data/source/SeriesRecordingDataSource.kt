@@ -6,25 +6,51 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.SeriesRecording
 import org.tvheadend.data.entity.SeriesRecordingEntity
 import java.util.*
+import java.util.concurrent.Callable
 
-class SeriesRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInterface<SeriesRecording> {
+class SeriesRecordingDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<SeriesRecording> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
+    private val updateBuffer = WriteBehindBuffer<String, SeriesRecordingEntity>(ioScope) { db.seriesRecordingDao.update(it) }
 
     override fun addItem(item: SeriesRecording) {
-        ioScope.launch { db.seriesRecordingDao.insert(SeriesRecordingEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        ioScope.launch { updateBuffer.write { db.seriesRecordingDao.insert(SeriesRecordingEntity.from(item)) } }
     }
 
     override fun updateItem(item: SeriesRecording) {
-        ioScope.launch { db.seriesRecordingDao.update(SeriesRecordingEntity.from(item)) }
+        updateBuffer.put(item.id, SeriesRecordingEntity.from(item))
     }
 
     override fun removeItem(item: SeriesRecording) {
-        ioScope.launch { db.seriesRecordingDao.delete(SeriesRecordingEntity.from(item)) }
+        updateBuffer.remove(item.id)
+        ioScope.launch { updateBuffer.write { db.seriesRecordingDao.delete(SeriesRecordingEntity.from(item)) } }
+    }
+
+    /**
+     * Compares the received series recordings with the saved ones of the
+     * connection and only writes the ones that were added, changed or removed
+     */
+    fun reconcileItems(items: List<SeriesRecording>, connectionId: Int): SyncStatistics {
+        val startTime = System.currentTimeMillis()
+        updateBuffer.flush()
+        val delta = runBlocking(Dispatchers.IO) {
+            db.runInTransaction(Callable {
+                val existing = db.seriesRecordingDao.loadRecordingsByConnectionIdSync(connectionId)
+                val changes = SyncDelta.calculate(existing, items.map { SeriesRecordingEntity.from(it) }, { it.id }) {
+                    // The channel values are loaded from the channels table
+                    it.copy(channelName = null, channelIcon = null)
+                }
+                changes.apply(db.seriesRecordingDao::insert, db.seriesRecordingDao::update, db.seriesRecordingDao::delete)
+                changes
+            })
+        }
+        return delta.toStatistics("series recordings", System.currentTimeMillis() - startTime)
     }
 
     override fun getLiveDataItemCount(): LiveData<Int> {
@@ -46,8 +72,9 @@ class SeriesRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInt
     override fun getItemById(id: Any): SeriesRecording? {
         var seriesRecording: SeriesRecording? = null
         if ((id as String).isNotEmpty()) {
+            updateBuffer.get(id)?.let { return it.toRecording() }
             runBlocking(Dispatchers.IO) {
-                seriesRecording = db.seriesRecordingDao.loadRecordingByIdSync(id)?.toRecording()
+                seriesRecording = db.seriesRecordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
             }
         }
         return seriesRecording
@@ -56,4 +83,14 @@ class SeriesRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInt
     override fun getItems(): List<SeriesRecording> {
         return ArrayList()
     }
+
+    suspend fun loadItemById(id: String): SeriesRecording? {
+        if (id.isEmpty()) {
+            return null
+        }
+        updateBuffer.get(id)?.let { return it.toRecording() }
+        return withContext(Dispatchers.IO) {
+            db.seriesRecordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
+        }
+    }
 }
@@ -6,6 +6,7 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.ServerProfile
 import org.tvheadend.data.entity.ServerProfileEntity
@@ -93,6 +94,12 @@ class ServerProfileDataSource(private val db: AppRoomDatabase) : DataSourceInter
         return ArrayList()
     }
 
+    suspend fun loadItemById(id: Int): ServerProfile? {
+        return withContext(Dispatchers.IO) {
+            db.serverProfileDao.loadProfileByIdSync(id)?.toServerProfile()
+        }
+    }
+
     private fun getProfileNames(serverProfiles: List<ServerProfile>): Array<String> {
         if (serverProfiles.isNotEmpty()) {
             return Array(serverProfiles.size) { i -> serverProfiles[i].name ?: "" }
@@ -6,6 +6,7 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.ServerStatus
 import org.tvheadend.data.entity.ServerStatusEntity
@@ -23,28 +24,31 @@ class ServerStatusDataSource(private val db: AppRoomDatabase) : DataSourceInterf
         }
 
     val activeItem: ServerStatus
-        get() {
-            var serverStatus = ServerStatus()
-            runBlocking(Dispatchers.IO) {
-                val newServerStatus = db.serverStatusDao.loadActiveServerStatusSync()
-                if (newServerStatus == null) {
-                    Timber.d("Active server status is null")
-                    val connection = db.connectionDao.loadActiveConnectionSync()
-                    serverStatus.serverName = "Unknown"
-                    serverStatus.serverVersion = "Unknown"
-                    if (connection != null) {
-                        Timber.d("Loaded active connection for empty server status")
-                        serverStatus.connectionId = connection.id
-                        serverStatus.connectionName = connection.name
-                        Timber.d("Inserting new server status information for connection ${connection.name}")
-                        db.serverStatusDao.insert(ServerStatusEntity.from(serverStatus))
-                    }
-                } else {
-                    serverStatus = newServerStatus.toServerStatus()
-                }
-            }
-            return serverStatus
+        get() = runBlocking(Dispatchers.IO) { loadActiveItemSync() }
+
+    suspend fun loadActiveItem(): ServerStatus {
+        return withContext(Dispatchers.IO) { loadActiveItemSync() }
+    }
+
+    private fun loadActiveItemSync(): ServerStatus {
+        val newServerStatus = db.serverStatusDao.loadActiveServerStatusSync()
+        if (newServerStatus != null) {
+            return newServerStatus.toServerStatus()
         }
+        Timber.d("Active server status is null")
+        val serverStatus = ServerStatus()
+        val connection = db.connectionDao.loadActiveConnectionSync()
+        serverStatus.serverName = "Unknown"
+        serverStatus.serverVersion = "Unknown"
+        if (connection != null) {
+            Timber.d("Loaded active connection for empty server status")
+            serverStatus.connectionId = connection.id
+            serverStatus.connectionName = connection.name
+            Timber.d("Inserting new server status information for connection ${connection.name}")
+            db.serverStatusDao.insert(ServerStatusEntity.from(serverStatus))
+        }
+        return serverStatus
+    }
 
     override fun addItem(item: ServerStatus) {
         ioScope.launch { db.serverStatusDao.insert(ServerStatusEntity.from(item)) }
@@ -0,0 +1,69 @@
+package org.tvheadend.data.source
+
+/**
+ * Contains the rows that need to be inserted, updated or deleted so that the
+ * rows in the database match the rows that were received from the server.
+ */
+internal class SyncDelta<E>(
+        val inserted: List<E>,
+        val updated: List<E>,
+        val deleted: List<E>,
+        val unchangedCount: Int) {
+
+    fun apply(insert: (List<E>) -> Unit, update: (List<E>) -> Unit, delete: (List<E>) -> Unit) {
+        if (deleted.isNotEmpty()) {
+            delete(deleted)
+        }
+        if (updated.isNotEmpty()) {
+            update(updated)
+        }
+        if (inserted.isNotEmpty()) {
+            insert(inserted)
+        }
+    }
+
+    fun toStatistics(type: String, durationMs: Long): SyncStatistics {
+        return SyncStatistics(type, inserted.size + updated.size + unchangedCount, inserted.size, updated.size, deleted.size, durationMs)
+    }
+
+    companion object {
+
+        /**
+         * Compares the rows by their id. A received row replaces an existing
+         * one only when the hash or the content differs. The content function
+         * must return the values that are stored in the database without the
+         * ones that are set locally or loaded from other tables.
+         */
+        fun <K, E> calculate(existing: List<E>, received: List<E>, idOf: (E) -> K, contentOf: (E) -> Any? = { it }): SyncDelta<E> {
+            val existingContent = HashMap<K, Any?>(existing.size)
+            for (row in existing) {
+                existingContent[idOf(row)] = contentOf(row)
+            }
+
+            // The server could send the same id twice, use the last row
+            val receivedRows = LinkedHashMap<K, E>(received.size)
+            for (row in received) {
+                receivedRows[idOf(row)] = row
+            }
+
+            val inserted = ArrayList<E>()
+            val updated = ArrayList<E>()
+            var unchangedCount = 0
+            for ((id, row) in receivedRows) {
+                if (!existingContent.containsKey(id)) {
+                    inserted.add(row)
+                    continue
+                }
+                val content = contentOf(row)
+                val previousContent = existingContent[id]
+                if (content.hashCode() == previousContent.hashCode() && content == previousContent) {
+                    unchangedCount++
+                } else {
+                    updated.add(row)
+                }
+            }
+            val deleted = existing.filter { !receivedRows.containsKey(idOf(it)) }
+            return SyncDelta(inserted, updated, deleted, unchangedCount)
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.tvheadend.data.source
+
+/**
+ * Describes how many rows of one type were changed
+ * when the received data was compared with the database
+ */
+data class SyncStatistics(
+        val type: String,
+        val receivedCount: Int,
+        val insertedCount: Int,
+        val updatedCount: Int,
+        val deletedCount: Int,
+        val durationMs: Long) {
+
+    val touchedCount: Int
+        get() = insertedCount + updatedCount + deletedCount
+
+    override fun toString(): String {
+        return "$type: received $receivedCount, inserted $insertedCount, updated $updatedCount, deleted $deletedCount in $durationMs ms"
+    }
+}
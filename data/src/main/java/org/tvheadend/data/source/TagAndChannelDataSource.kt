@@ -10,7 +10,7 @@ import org.tvheadend.data.entity.TagAndChannel
 import org.tvheadend.data.entity.TagAndChannelEntity
 import java.util.*
 
-class TagAndChannelDataSource(private val db: AppRoomDatabase) : DataSourceInterface<TagAndChannel> {
+class TagAndChannelDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<TagAndChannel> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
 
@@ -55,6 +55,6 @@ class TagAndChannelDataSource(private val db: AppRoomDatabase) : DataSourceInter
     }
 
     fun removeItemByTagId(id: Int) {
-        ioScope.launch { db.tagAndChannelDao.deleteByTagId(id) }
+        ioScope.launch { db.tagAndChannelDao.deleteByTagId(id, activeConnection.id) }
     }
 }
@@ -6,12 +6,14 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
 import org.tvheadend.data.db.AppRoomDatabase
 import org.tvheadend.data.entity.TimerRecording
 import org.tvheadend.data.entity.TimerRecordingEntity
 import java.util.*
+import java.util.concurrent.Callable
 
-class TimerRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInterface<TimerRecording> {
+class TimerRecordingDataSource(private val db: AppRoomDatabase, private val activeConnection: ActiveConnectionId) : DataSourceInterface<TimerRecording> {
 
     private val ioScope = CoroutineScope(Dispatchers.IO)
 
@@ -27,6 +29,26 @@ class TimerRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInte
         ioScope.launch { db.timerRecordingDao.delete(TimerRecordingEntity.from(item)) }
     }
 
+    /**
+     * Compares the received timer recordings with the saved ones of the
+     * connection and only writes the ones that were added, changed or removed
+     */
+    fun reconcileItems(items: List<TimerRecording>, connectionId: Int): SyncStatistics {
+        val startTime = System.currentTimeMillis()
+        val delta = runBlocking(Dispatchers.IO) {
+            db.runInTransaction(Callable {
+                val existing = db.timerRecordingDao.loadRecordingsByConnectionIdSync(connectionId)
+                val changes = SyncDelta.calculate(existing, items.map { TimerRecordingEntity.from(it) }, { it.id }) {
+                    // The channel values are loaded from the channels table
+                    it.copy(channelName = null, channelIcon = null)
+                }
+                changes.apply(db.timerRecordingDao::insert, db.timerRecordingDao::update, db.timerRecordingDao::delete)
+                changes
+            })
+        }
+        return delta.toStatistics("timer recordings", System.currentTimeMillis() - startTime)
+    }
+
     override fun getLiveDataItemCount(): LiveData<Int> {
         return db.timerRecordingDao.itemCount
     }
@@ -47,7 +69,7 @@ class TimerRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInte
         var timerRecording: TimerRecording? = null
         if ((id as String).isNotEmpty()) {
             runBlocking(Dispatchers.IO) {
-                timerRecording = db.timerRecordingDao.loadRecordingByIdSync(id)?.toRecording()
+                timerRecording = db.timerRecordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
             }
         }
         return timerRecording
@@ -56,4 +78,13 @@ class TimerRecordingDataSource(private val db: AppRoomDatabase) : DataSourceInte
     override fun getItems(): List<TimerRecording> {
         return ArrayList()
     }
+
+    suspend fun loadItemById(id: String): TimerRecording? {
+        if (id.isEmpty()) {
+            return null
+        }
+        return withContext(Dispatchers.IO) {
+            db.timerRecordingDao.loadRecordingByIdSync(id, activeConnection.id)?.toRecording()
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package org.tvheadend.data.source
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Keeps updated rows in memory instead of writing every update immediately.
+ * Successive updates of the same row replace each other, and all rows that
+ * were updated during the flush interval are written in one batch. Reads of
+ * single rows must check this buffer first so that they see the latest values
+ * before these are written. Queries of lists are not answered from this buffer,
+ * they return the previous values of an updated row until it was written.
+ *
+ * The rows are stored as entities, so later changes to the model that was
+ * passed in do not change the buffered values.
+ */
+internal class WriteBehindBuffer<K, E>(
+        private val scope: CoroutineScope,
+        private val flushIntervalMs: Long = DEFAULT_FLUSH_INTERVAL_MS,
+        private val writeRows: (List<E>) -> Unit) {
+
+    private val lock = Any()
+    // Held while the rows are written and by inserts and deletes of the
+    // same table, so that these are never overtaken by an older update
+    private val writeLock = ReentrantLock()
+    private var dirtyRows = LinkedHashMap<K, E>()
+    // Rows that are currently written, they are still returned by get
+    private var flushingRows: MutableMap<K, E>? = null
+    private var isFlushScheduled = false
+
+    private val updates = AtomicLong()
+    private val writtenRows = AtomicLong()
+
+    /**
+     * Number of updates that were passed to this buffer
+     */
+    val updateCount: Long
+        get() = updates.get()
+
+    /**
+     * Number of rows that were actually written to the database
+     */
+    val writtenRowCount: Long
+        get() = writtenRows.get()
+
+    fun put(id: K, row: E) {
+        synchronized(lock) {
+            dirtyRows[id] = row
+            updates.incrementAndGet()
+            if (!isFlushScheduled) {
+                isFlushScheduled = true
+                scope.launch {
+                    delay(flushIntervalMs)
+                    flush()
+                }
+            }
+        }
+    }
+
+    fun get(id: K): E? {
+        synchronized(lock) {
+            return dirtyRows[id] ?: flushingRows?.get(id)
+        }
+    }
+
+    /**
+     * Discards a pending update, must be called before the row is deleted
+     * or replaced by a newly inserted one. An update that is currently
+     * written can not be discarded anymore, so the delete or insert itself
+     * must be done with [write].
+     */
+    fun remove(id: K) {
+        synchronized(lock) {
+            dirtyRows.remove(id)
+            flushingRows?.remove(id)
+        }
+    }
+
+    fun removeAll(ids: Iterable<K>) {
+        synchronized(lock) {
+            ids.forEach {
+                dirtyRows.remove(it)
+                flushingRows?.remove(it)
+            }
+        }
+    }
+
+    /**
+     * Runs the given insert or delete once the rows that are currently
+     * written are done, no other rows are written in the meantime
+     */
+    fun <R> write(block: () -> R): R {
+        return writeLock.withLock(block)
+    }
+
+    /**
+     * Writes all pending rows in one batch
+     */
+    fun flush() {
+        writeLock.withLock {
+            val rows: List<E>
+            synchronized(lock) {
+                isFlushScheduled = false
+                if (dirtyRows.isEmpty()) {
+                    return
+                }
+                rows = ArrayList(dirtyRows.values)
+                flushingRows = dirtyRows
+                dirtyRows = LinkedHashMap()
+            }
+            try {
+                writeRows(rows)
+                writtenRows.addAndGet(rows.size.toLong())
+            } catch (e: Exception) {
+                Timber.e(e, "Could not write ${rows.size} updated rows")
+            } finally {
+                synchronized(lock) {
+                    flushingRows = null
+                }
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_FLUSH_INTERVAL_MS = 500L
+    }
+}
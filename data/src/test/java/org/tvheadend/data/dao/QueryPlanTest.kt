@@ -0,0 +1,91 @@
+package org.tvheadend.data.dao
+
+import android.os.Build
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.tvheadend.data.db.AppRoomDatabase
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the queries of the DAOs that read or delete
+ * programs and fails if the programs table is scanned instead of being
+ * searched with an index. The small channels and connections tables are
+ * allowed to be scanned. The queries are taken from the DAO constants,
+ * so a changed query is checked as well.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.P])
+class QueryPlanTest {
+
+    private lateinit var db: AppRoomDatabase
+
+    @Before
+    fun createDatabase() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppRoomDatabase::class.java)
+                .allowMainThreadQueries()
+                .build()
+    }
+
+    @After
+    fun closeDatabase() {
+        db.close()
+    }
+
+    @Test
+    fun programQueriesUseIndex() {
+        assertNoProgramTableScan(ProgramDao.ITEM_COUNT_QUERY)
+        assertNoProgramTableScan(ProgramDao.PROGRAMS_QUERY)
+        assertNoProgramTableScan(ProgramDao.PROGRAM_BY_ID_QUERY)
+        assertNoProgramTableScan(ProgramDao.PROGRAMS_FROM_CHANNEL_QUERY)
+        assertNoProgramTableScan(ProgramDao.DELETE_PROGRAM_BY_ID_QUERY)
+    }
+
+    @Test
+    fun programTimeWindowQueriesUseIndex() {
+        assertNoProgramTableScan(ProgramDao.EPG_PROGRAMS_FROM_CHANNEL_BETWEEN_TIME_QUERY)
+        assertNoProgramTableScan(ProgramDao.EPG_PROGRAMS_FROM_CHANNELS_BETWEEN_TIME_QUERY)
+        assertNoProgramTableScan(ProgramDao.PROGRAMS_FROM_CHANNEL_FROM_TIME_QUERY)
+        assertNoProgramTableScan(ProgramDao.PROGRAMS_FROM_TIME_QUERY)
+        assertNoProgramTableScan(ProgramDao.DELETE_PROGRAMS_BY_TIME_QUERY)
+    }
+
+    @Test
+    fun currentAndNextProgramOfChannelsUseIndex() {
+        assertNoProgramTableScan(ChannelDao.CHANNEL_BY_ID_WITH_PROGRAMS_QUERY)
+        assertNoProgramTableScan(ChannelDao.CHANNELS_WITH_PROGRAMS_QUERY)
+        assertNoProgramTableScan(ChannelDao.CHANNELS_OF_TAGS_WITH_PROGRAMS_QUERY)
+    }
+
+    @Test
+    fun lastProgramOfEachChannelUsesIndex() {
+        assertNoProgramTableScan(ProgramDao.LAST_PROGRAM_OF_EACH_CHANNEL_QUERY)
+    }
+
+    @Test
+    fun duplicateProgramCleanupUsesIndex() {
+        assertNoProgramTableScan(ProgramDao.DELETE_DUPLICATE_PROGRAMS_QUERY)
+    }
+
+    private fun assertNoProgramTableScan(query: String) {
+        val details = ArrayList<String>()
+        db.openHelper.readableDatabase.query("EXPLAIN QUERY PLAN $query").use { cursor ->
+            while (cursor.moveToNext()) {
+                details.add(cursor.getString(cursor.getColumnIndexOrThrow("detail")))
+            }
+        }
+        // Older SQLite versions print "SCAN TABLE programs AS p", newer ones only "SCAN p"
+        val scans = details.map { detail -> detail.split(" ").filter { it != "TABLE" } }
+                .filter { words -> words.first() == "SCAN" && words.any { it in PROGRAM_TABLES } }
+        assertTrue("Programs are scanned in $details for query $query", scans.isEmpty())
+    }
+
+    companion object {
+        private val PROGRAM_TABLES = listOf("programs", "p", "program", "next_program", "newer")
+    }
+}
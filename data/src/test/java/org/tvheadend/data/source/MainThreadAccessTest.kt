@@ -0,0 +1,123 @@
+package org.tvheadend.data.source
+
+import android.os.Build
+import android.os.Looper
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.tvheadend.data.db.AppRoomDatabase
+import org.tvheadend.data.entity.*
+
+/**
+ * Calls the suspend and flow based repository functions from the main thread.
+ * The database does not allow queries on the main thread, so any function that
+ * accesses the database without switching to another thread fails the test.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.P])
+class MainThreadAccessTest {
+
+    private lateinit var db: AppRoomDatabase
+    private lateinit var channelData: ChannelDataSource
+    private lateinit var programData: ProgramDataSource
+    private lateinit var recordingData: RecordingDataSource
+    private lateinit var seriesRecordingData: SeriesRecordingDataSource
+    private lateinit var timerRecordingData: TimerRecordingDataSource
+    private lateinit var connectionData: ConnectionDataSource
+    private lateinit var serverStatusData: ServerStatusDataSource
+    private lateinit var serverProfileData: ServerProfileDataSource
+
+    @Before
+    fun createDatabase() {
+        db = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(), AppRoomDatabase::class.java).build()
+        val activeConnection = ActiveConnectionId(db)
+        channelData = ChannelDataSource(db, activeConnection)
+        programData = ProgramDataSource(db, activeConnection)
+        recordingData = RecordingDataSource(db, activeConnection)
+        seriesRecordingData = SeriesRecordingDataSource(db, activeConnection)
+        timerRecordingData = TimerRecordingDataSource(db, activeConnection)
+        connectionData = ConnectionDataSource(db, activeConnection)
+        serverStatusData = ServerStatusDataSource(db)
+        serverProfileData = ServerProfileDataSource(db)
+
+        runBlocking(Dispatchers.IO) {
+            db.connectionDao.insert(ConnectionEntity.from(Connection(id = 1, isActive = true)))
+            db.channelDao.insert(ChannelEntity.from(Channel(id = 10, name = "Channel", connectionId = 1)))
+            db.programDao.insert(ProgramEntity.from(Program(eventId = 100, channelId = 10, start = 1000, stop = 2000, connectionId = 1)))
+            db.connectionDao.insert(ConnectionEntity.from(Connection(id = 2, isActive = false)))
+            db.recordingDao.insert(RecordingEntity.from(Recording(id = 1000, eventId = 100, channelId = 10, connectionId = 1)))
+            db.seriesRecordingDao.insert(SeriesRecordingEntity.from(SeriesRecording(id = "series", connectionId = 1)))
+            db.timerRecordingDao.insert(TimerRecordingEntity.from(TimerRecording(id = "timer", connectionId = 1)))
+            db.serverStatusDao.insert(ServerStatusEntity.from(ServerStatus(connectionId = 1, htspPlaybackServerProfileId = 5)))
+            db.serverProfileDao.insert(ServerProfileEntity.from(ServerProfile(id = 5, connectionId = 1, name = "htsp")))
+        }
+    }
+
+    @After
+    fun closeDatabase() {
+        db.close()
+    }
+
+    @Test
+    fun suspendFunctionsDoNotQueryOnMainThread() = runBlocking {
+        assertTrue(Looper.getMainLooper().isCurrentThread)
+
+        assertEquals(100, programData.loadItemById(100)?.eventId)
+        assertEquals(1, programData.loadItemsByChannelIdAndBetweenTime(10, 1500, 3000).size)
+        assertEquals(listOf(100), programData.loadItemsByChannelIdsAndBetweenTime(listOf(10, 11), 1500, 3000)[10]?.map { it.eventId })
+        assertEquals(1, programData.loadItemCount())
+        assertEquals(1, channelData.loadChannels().size)
+        assertEquals("Channel", channelData.loadItemById(10)?.name)
+        assertEquals(100, channelData.loadItemByIdWithPrograms(10, 1500)?.programId)
+    }
+
+    @Test
+    fun recordingAndConnectionFunctionsDoNotQueryOnMainThread() = runBlocking {
+        assertTrue(Looper.getMainLooper().isCurrentThread)
+
+        assertEquals(100, recordingData.loadItemById(1000)?.eventId)
+        assertEquals(1000, recordingData.loadItemByEventId(100)?.id)
+        assertEquals("series", seriesRecordingData.loadItemById("series")?.id)
+        assertEquals("timer", timerRecordingData.loadItemById("timer")?.id)
+        assertEquals(1, connectionData.loadActiveItem().id)
+        assertEquals(2, connectionData.loadItemById(2)?.id)
+
+        connectionData.switchActiveConnection(1, 2)
+        assertEquals(2, connectionData.loadActiveItem().id)
+    }
+
+    @Test
+    fun playbackFunctionsDoNotQueryOnMainThread() = runBlocking {
+        assertTrue(Looper.getMainLooper().isCurrentThread)
+
+        val serverStatus = serverStatusData.loadActiveItem()
+        assertEquals(5, serverStatus.htspPlaybackServerProfileId)
+        assertEquals("htsp", serverProfileData.loadItemById(serverStatus.htspPlaybackServerProfileId)?.name)
+    }
+
+    @Test
+    fun flowsDoNotQueryOnMainThread() = runBlocking {
+        assertTrue(Looper.getMainLooper().isCurrentThread)
+
+        assertEquals(1, channelData.getAllChannelsByTime(1500, 0, emptyList()).first().size)
+        assertEquals(1, channelData.getAllEpgChannels(0, emptyList()).first().size)
+        assertEquals(1, programData.getItemsFromTime(1500).first().size)
+        assertEquals(1, programData.getItemsByChannelIdAndTime(10, 1500).first().size)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun queryOnMainThreadFails() {
+        assertTrue(Looper.getMainLooper().isCurrentThread)
+        db.programDao.itemCountSync
+    }
+}
@@ -0,0 +1,50 @@
+package org.tvheadend.data.source
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SyncDeltaTest {
+
+    @Test
+    fun unchangedRowsAreNotWritten() {
+        val existing = (1..1000).map { Row(it, "Recording $it") }
+        val received = (1..1000).map { Row(it, "Recording $it") }
+
+        val delta = SyncDelta.calculate(existing, received, { it.id })
+
+        assertEquals(0, delta.inserted.size)
+        assertEquals(0, delta.updated.size)
+        assertEquals(0, delta.deleted.size)
+        assertEquals(1000, delta.unchangedCount)
+    }
+
+    @Test
+    fun onlyChangedRowsAreWritten() {
+        val existing = (1..10).map { Row(it, "Recording $it") }
+        val received = (2..11).map { Row(it, if (it == 5) "Changed" else "Recording $it") }
+
+        val delta = SyncDelta.calculate(existing, received, { it.id })
+        val written = ArrayList<String>()
+        delta.apply(
+                { rows -> rows.forEach { written.add("insert ${it.id}") } },
+                { rows -> rows.forEach { written.add("update ${it.id}") } },
+                { rows -> rows.forEach { written.add("delete ${it.id}") } })
+
+        assertEquals(listOf("delete 1", "update 5", "insert 11"), written)
+        val statistics = delta.toStatistics("recordings", 0)
+        assertEquals(10, statistics.receivedCount)
+        assertEquals(3, statistics.touchedCount)
+    }
+
+    @Test
+    fun localValuesAreIgnoredWhenComparing() {
+        val existing = listOf(Row(1, "Recording", "Channel"))
+        val received = listOf(Row(1, "Recording", null))
+
+        val delta = SyncDelta.calculate(existing, received, { it.id }) { it.copy(channelName = null) }
+
+        assertEquals(1, delta.unchangedCount)
+    }
+
+    private data class Row(val id: Int, val title: String, val channelName: String? = null)
+}
@@ -0,0 +1,126 @@
+package org.tvheadend.data.source
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class WriteBehindBufferTest {
+
+    private val scope = CoroutineScope(Dispatchers.Default)
+    private val writtenBatches = ArrayList<List<Row>>()
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun updateBurstIsCoalescedIntoOneBatch() {
+        val buffer = WriteBehindBuffer<Int, Row>(scope, 60000) { writtenBatches.add(it) }
+
+        // Simulates the eventUpdate messages that are sent when the
+        // server updates the running programs of 100 channels 20 times
+        for (i in 0 until 20) {
+            for (id in 0 until 100) {
+                buffer.put(id, Row(id, i))
+            }
+        }
+        buffer.flush()
+
+        assertEquals(2000, buffer.updateCount)
+        assertEquals(100, buffer.writtenRowCount)
+        assertEquals(1, writtenBatches.size)
+        assertTrue(writtenBatches[0].all { it.version == 19 })
+    }
+
+    @Test
+    fun pendingUpdateIsReturnedAndCanBeDiscarded() {
+        val buffer = WriteBehindBuffer<Int, Row>(scope, 60000) { writtenBatches.add(it) }
+
+        buffer.put(1, Row(1, 0))
+        buffer.put(1, Row(1, 1))
+        buffer.put(2, Row(2, 0))
+        assertEquals(Row(1, 1), buffer.get(1))
+
+        buffer.remove(2)
+        assertNull(buffer.get(2))
+        buffer.flush()
+        assertEquals(listOf(Row(1, 1)), writtenBatches[0])
+    }
+
+    @Test
+    fun pendingUpdatesAreWrittenAfterTheInterval() {
+        val written = CountDownLatch(1)
+        val buffer = WriteBehindBuffer<Int, Row>(scope, 10) {
+            writtenBatches.add(it)
+            written.countDown()
+        }
+
+        buffer.put(1, Row(1, 0))
+        buffer.put(1, Row(1, 1))
+
+        assertTrue(written.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(Row(1, 1)), writtenBatches[0])
+    }
+
+    @Test
+    fun rowThatIsWrittenIsNotReturnedAfterItWasRemoved() {
+        val writing = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val buffer = WriteBehindBuffer<Int, Row>(scope, 60000) {
+            writing.countDown()
+            release.await()
+            writtenBatches.add(it)
+        }
+
+        buffer.put(1, Row(1, 0))
+        val flush = Thread { buffer.flush() }
+        flush.start()
+        writing.await()
+        assertEquals(Row(1, 0), buffer.get(1))
+
+        buffer.removeAll(listOf(1))
+        assertNull(buffer.get(1))
+        release.countDown()
+        flush.join()
+    }
+
+    @Test
+    fun writeWaitsForTheRowsThatAreWritten() {
+        val writing = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val events = Collections.synchronizedList(ArrayList<String>())
+        val buffer = WriteBehindBuffer<Int, Row>(scope, 60000) {
+            writing.countDown()
+            release.await()
+            events.add("update")
+        }
+
+        buffer.put(1, Row(1, 0))
+        val flush = Thread { buffer.flush() }
+        flush.start()
+        writing.await()
+
+        buffer.remove(1)
+        val insert = Thread { buffer.write { events.add("insert") } }
+        insert.start()
+        while (insert.state != Thread.State.WAITING) {
+            Thread.yield()
+        }
+        release.countDown()
+        insert.join()
+        flush.join()
+
+        assertEquals(listOf("update", "insert"), events)
+    }
+
+    private data class Row(val id: Int, val version: Int)
+}
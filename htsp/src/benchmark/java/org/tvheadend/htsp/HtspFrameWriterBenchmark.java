@@ -0,0 +1,164 @@
+package org.tvheadend.htsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends getEvents requests in bursts like the EPG worker does to a fake
+ * server on the loopback interface. The previous write path registers the
+ * channel and wakes up the selector for every message and writes one encoded
+ * message per selector wake-up. The frame writer drains the queue with
+ * gathering writes.
+ * <p>
+ * Run with ./gradlew :htsp:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class HtspFrameWriterBenchmark {
+
+    private static final int BURSTS = 200;
+    private static final int MESSAGES_PER_BURST = 100;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private ServerSocketChannel serverChannel;
+    private final AtomicInteger receivedCount = new AtomicInteger();
+
+    @Before
+    public void startFakeServer() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+        Thread serverThread = new Thread(() -> {
+            while (serverChannel.isOpen()) {
+                HtspFrameReader reader = new HtspFrameReader(64 * 1024);
+                try (SocketChannel channel = serverChannel.accept()) {
+                    //noinspection StatementWithEmptyBody
+                    while (reader.read(channel, message -> receivedCount.incrementAndGet()) >= 0) {
+                    }
+                } catch (IOException e) {
+                    // The benchmark closed the connection
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void stopFakeServer() throws IOException {
+        serverChannel.close();
+    }
+
+    @Test
+    public void benchmarkWriters() throws Exception {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            sendOnePerWakeUp();
+            sendGathering();
+        }
+        long singleTime = sendOnePerWakeUp();
+        long gatheringTime = sendGathering();
+
+        int messages = BURSTS * MESSAGES_PER_BURST;
+        System.out.println("Sent " + messages + " messages"
+                + ", one per wake-up " + (messages * 1000000000L / singleTime) + " msg/s"
+                + ", gathering " + (messages * 1000000000L / gatheringTime) + " msg/s");
+    }
+
+    /**
+     * Sends the messages like the connection did before the frame writer,
+     * a message is only encoded when the previous one was fully written.
+     * Returns the time this took in nanoseconds.
+     */
+    private long sendOnePerWakeUp() throws Exception {
+        HtspMessageEncoder encoder = new HtspMessageEncoder();
+        ByteBuffer outputBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        outputBuffer.limit(0);
+        LinkedList<HtspMessage> messageQueue = new LinkedList<>();
+
+        int expected = receivedCount.get() + BURSTS * MESSAGES_PER_BURST;
+        long start = System.nanoTime();
+
+        try (Selector selector = Selector.open();
+             SocketChannel channel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress())) {
+            channel.configureBlocking(false);
+
+            int seq = 0;
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = 0; i < MESSAGES_PER_BURST; i++) {
+                    channel.register(selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+                    messageQueue.add(createMessage(seq++, i));
+                    selector.wakeup();
+                }
+                while (!messageQueue.isEmpty() || outputBuffer.hasRemaining()) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    if (!outputBuffer.hasRemaining()) {
+                        outputBuffer = encoder.encode(messageQueue.poll(), outputBuffer);
+                    }
+                    channel.write(outputBuffer);
+                }
+            }
+            awaitMessages(expected);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends the messages with the frame writer like the connection does now.
+     * Returns the time this took in nanoseconds.
+     */
+    private long sendGathering() throws Exception {
+        HtspFrameWriter writer = new HtspFrameWriter(16);
+
+        int expected = receivedCount.get() + BURSTS * MESSAGES_PER_BURST;
+        long start = System.nanoTime();
+
+        try (Selector selector = Selector.open();
+             SocketChannel channel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress())) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+
+            int seq = 0;
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = 0; i < MESSAGES_PER_BURST; i++) {
+                    if (writer.enqueue(createMessage(seq++, i))) {
+                        selector.wakeup();
+                    }
+                }
+                while (writer.hasPendingWrites()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    writer.write(channel);
+                }
+            }
+            awaitMessages(expected);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void awaitMessages(int expected) throws InterruptedException {
+        while (receivedCount.get() < expected) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static HtspMessage createMessage(int seq, int channelId) {
+        HtspMessage message = new HtspMessage();
+        message.setMethod("getEvents");
+        message.put("seq", seq);
+        message.put("channelId", channelId);
+        message.put("numFollowing", 50);
+        message.put("maxTime", 1600000000L);
+        return message;
+    }
+}
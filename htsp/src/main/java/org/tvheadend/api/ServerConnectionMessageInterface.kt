@@ -3,4 +3,7 @@ package org.tvheadend.api
 interface ServerConnectionMessageInterface<T, M> {
     fun sendMessage(message: M)
     fun sendMessage(message: M, listener: ServerResponseListener<T>?)
-}
\ No newline at end of file
+
+    // Drops the listener of a pending request, a late response is passed to the message listeners
+    fun removeResponseListener(listener: ServerResponseListener<T>)
+}
@@ -0,0 +1,48 @@
+@file:JvmName("ServerConnectionRequests")
+
+package org.tvheadend.api
+
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlin.coroutines.resume
+
+/**
+ * Sends the message and suspends until the server has responded to it.
+ * No thread is parked while waiting, so many requests can be in flight.
+ * If the coroutine is cancelled or the timeout has passed, the pending
+ * response listener is removed from the connection.
+ *
+ * @param timeoutMillis Time to wait for the response, 0 waits forever
+ * @throws kotlinx.coroutines.TimeoutCancellationException If no response was received in time
+ */
+suspend fun <T, M> ServerConnectionMessageInterface<T, M>.request(message: M, timeoutMillis: Long = 0): T {
+    return if (timeoutMillis > 0) {
+        withTimeout(timeoutMillis) { awaitResponse(message) }
+    } else {
+        awaitResponse(message)
+    }
+}
+
+/**
+ * Blocking variant of [request] for callers that must not return before
+ * the response is available, like input streams. Returns null on timeout.
+ */
+fun <T, M> ServerConnectionMessageInterface<T, M>.requestBlocking(message: M, timeoutMillis: Long): T? {
+    return runBlocking {
+        withTimeoutOrNull(timeoutMillis) { awaitResponse(message) }
+    }
+}
+
+private suspend fun <T, M> ServerConnectionMessageInterface<T, M>.awaitResponse(message: M): T {
+    return suspendCancellableCoroutine { continuation ->
+        val listener = object : ServerResponseListener<T> {
+            override fun handleResponse(response: T) {
+                continuation.resume(response)
+            }
+        }
+        continuation.invokeOnCancellation { removeResponseListener(listener) }
+        sendMessage(message, listener)
+    }
+}
@@ -1,7 +1,6 @@
 package org.tvheadend.htsp;
 
 import android.net.Uri;
-import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -22,7 +21,6 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
@@ -38,8 +36,10 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -52,13 +52,13 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
     private volatile boolean isRunning;
     private final Lock lock;
     private SocketChannel socketChannel;
-    private final ByteBuffer inputByteBuffer;
-    private int seq;
+    private final HtspFrameReader frameReader;
+    private final HtspFrameWriter frameWriter;
+    private final AtomicInteger seq = new AtomicInteger();
 
     private final ServerConnectionStateListener connectionListener;
     private final Set<ServerMessageListener<HtspMessage>> messageListeners = new HashSet<>();
-    private final SparseArray<ServerResponseListener<HtspMessage>> responseHandlers;
-    private final LinkedList<HtspMessage> messageQueue;
+    private final Map<Integer, ServerResponseListener<HtspMessage>> responseHandlers;
     private boolean isConnecting = false;
     private boolean isAuthenticated = false;
     private Selector selector;
@@ -82,10 +82,9 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
 
         this.isRunning = false;
         this.lock = new ReentrantLock();
-        this.inputByteBuffer = ByteBuffer.allocateDirect(2048 * 2048);
-        this.inputByteBuffer.limit(4);
-        this.responseHandlers = new SparseArray<>();
-        this.messageQueue = new LinkedList<>();
+        this.frameReader = new HtspFrameReader(2048 * 2048);
+        this.frameWriter = new HtspFrameWriter(16);
+        this.responseHandlers = new ConcurrentHashMap<>();
         this.connectionListener = connectionListener;
 
         if (messageListener != null) {
@@ -188,6 +187,14 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
         Timber.d("Opened HTSP Connection");
     }
 
+    /**
+     * Returns how many frames and bytes were received per read from the socket
+     */
+    @NonNull
+    public HtspReadStatistics getReadStatistics() {
+        return frameReader.getStatistics();
+    }
+
     public boolean isConnecting() {
         return isConnecting;
     }
@@ -296,29 +303,30 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
 
             return;
         }
-        lock.lock();
-        try {
-            seq++;
-            message.put("seq", seq);
-            responseHandlers.put(seq, listener);
-            socketChannel.register(selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ | SelectionKey.OP_CONNECT);
-            messageQueue.add(message);
+        int messageSeq = seq.incrementAndGet();
+        message.put("seq", messageSeq);
+        if (listener != null) {
+            responseHandlers.put(messageSeq, listener);
+        }
+        // The connection thread registers the channel for writing when
+        // it wakes up and keeps it registered until the queue is empty
+        if (frameWriter.enqueue(message)) {
             selector.wakeup();
-
-        } catch (Exception e) {
-            Timber.d(e, "Could not send message.");
-        } finally {
-            lock.unlock();
         }
     }
 
+    @Override
+    public void removeResponseListener(@NonNull ServerResponseListener<HtspMessage> listener) {
+        responseHandlers.values().remove(listener);
+    }
+
     @Override
     public void closeConnection() {
         Timber.d("Closing HTSP connection");
         lock.lock();
         try {
             responseHandlers.clear();
-            messageQueue.clear();
+            frameWriter.clear();
             isAuthenticated = false;
             isConnecting = false;
             isRunning = false;
@@ -367,7 +375,7 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
                     processTcpSelectionKey(selKey);
                 }
                 int ops = SelectionKey.OP_READ;
-                if (!messageQueue.isEmpty()) {
+                if (frameWriter.hasPendingWrites()) {
                     ops |= SelectionKey.OP_WRITE;
                 }
                 if (socketChannel.isOpen()) {
@@ -418,32 +426,23 @@ public class HtspConnection extends Thread implements ServerConnectionInterface<
         }
         if (selKey.isReadable() && selKey.isValid()) {
             SocketChannel sChannel = (SocketChannel) selKey.channel();
-            int len = sChannel.read(inputByteBuffer);
+            int len = frameReader.read(sChannel, this::handleMessage);
             if (len < 0) {
                 connectionListener.onConnectionStateChange(new ConnectionStateResult.Failed(new ConnectionFailureReason.Other()));
                 Timber.d("Could not read data from server");
                 throw new IOException();
             }
-
-            HtspMessage msg = HtspMessage.parse(inputByteBuffer);
-            if (msg != null) {
-                handleMessage(msg);
-            }
         }
         if (selKey.isWritable() && selKey.isValid()) {
             SocketChannel sChannel = (SocketChannel) selKey.channel();
-            HtspMessage msg = messageQueue.poll();
-            if (msg != null) {
-                msg.transmit(sChannel);
-            }
+            frameWriter.write(sChannel);
         }
     }
 
     private void handleMessage(HtspMessage msg) {
         if (msg.containsKey("seq")) {
             int respSeq = msg.getInteger("seq");
-            ServerResponseListener<HtspMessage> handler = responseHandlers.get(respSeq);
-            responseHandlers.remove(respSeq);
+            ServerResponseListener<HtspMessage> handler = responseHandlers.remove(respSeq);
 
             if (handler != null) {
                 synchronized (handler) {
@@ -0,0 +1,92 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.tvheadend.api.ServerConnectionStateListener;
+import org.tvheadend.api.ServerMessageListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Process wide manager that hands out {@link HtspSession} leases. All sessions
+ * with the same connection data share one socket, one hello and authentication
+ * and one connection thread. The connection is closed when the last session
+ * is released, a failed connection is replaced by a new one on the next lease.
+ */
+public class HtspConnectionManager {
+
+    // The executor is only used to open and authenticate connections, idle threads are not kept
+    private static final HtspConnectionManager instance = new HtspConnectionManager(HtspConnection::new, Executors.newCachedThreadPool());
+
+    private final Map<HtspConnectionData, SharedHtspConnection> connections = new HashMap<>();
+    private final SharedHtspConnection.ConnectionFactory connectionFactory;
+    private final Executor executor;
+
+    HtspConnectionManager(SharedHtspConnection.ConnectionFactory connectionFactory, Executor executor) {
+        this.connectionFactory = connectionFactory;
+        this.executor = executor;
+    }
+
+    public static HtspConnectionManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Leases a session on the connection for the given connection data.
+     * Call {@link HtspSession#openConnection()} to connect and
+     * {@link HtspSession#closeConnection()} to release the lease.
+     */
+    @NonNull
+    public synchronized HtspSession acquire(@NonNull HtspConnectionData connectionData,
+                                            @NonNull ServerConnectionStateListener connectionListener,
+                                            @Nullable ServerMessageListener<HtspMessage> messageListener) {
+
+        SharedHtspConnection sharedConnection = connections.get(connectionData);
+        if (sharedConnection == null || !sharedConnection.isUsable()) {
+            Timber.d("Creating new shared connection to %s", connectionData.getServerUrl());
+            if (sharedConnection != null) {
+                sharedConnection.close();
+            }
+            sharedConnection = new SharedHtspConnection(connectionData, connectionFactory, executor);
+            connections.put(connectionData, sharedConnection);
+        }
+
+        HtspSession session = new HtspSession(this, sharedConnection, connectionListener, messageListener);
+        sharedConnection.addSession(session);
+        Timber.d("Leased session, connection is now used by %d sessions", sharedConnection.getSessionCount());
+        return session;
+    }
+
+    synchronized void release(SharedHtspConnection sharedConnection, HtspSession session) {
+        if (!sharedConnection.removeSession(session)) {
+            Timber.d("Released session, connection is still used by %d sessions", sharedConnection.getSessionCount());
+            if (sharedConnection.isAsyncMetadataOrphaned()
+                    && connections.get(sharedConnection.getConnectionData()) == sharedConnection) {
+                // The remaining sessions keep using the connection until they are
+                // released, new sessions get a connection that syncs all data again
+                Timber.d("No session receives the async metadata anymore, not sharing the connection with new sessions");
+                connections.remove(sharedConnection.getConnectionData());
+            }
+            return;
+        }
+        Timber.d("Released last session, closing shared connection");
+        if (connections.get(sharedConnection.getConnectionData()) == sharedConnection) {
+            connections.remove(sharedConnection.getConnectionData());
+        }
+        sharedConnection.close();
+    }
+
+    /**
+     * Returns the number of connections that are open or being opened and
+     * that new sessions can be added to
+     */
+    public synchronized int getConnectionCount() {
+        return connections.size();
+    }
+}
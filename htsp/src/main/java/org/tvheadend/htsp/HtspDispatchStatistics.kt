@@ -0,0 +1,15 @@
+package org.tvheadend.htsp
+
+data class HtspDispatchStatistics(
+        val queueDepth: Int = 0,
+        val maxQueueDepth: Int = 0,
+        val handledCount: Long = 0,
+        val latencyNanos: Long = 0,
+        val maxLatencyNanos: Long = 0,
+) {
+    val averageLatencyMs: Double
+        get() = if (handledCount > 0) latencyNanos / 1000000.0 / handledCount else 0.0
+
+    val maxLatencyMs: Double
+        get() = maxLatencyNanos / 1000000.0
+}
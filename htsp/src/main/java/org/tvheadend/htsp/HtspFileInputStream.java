@@ -2,8 +2,8 @@ package org.tvheadend.htsp;
 
 import androidx.annotation.NonNull;
 
-import org.jetbrains.annotations.NotNull;
-import org.tvheadend.api.ServerResponseListener;
+import org.tvheadend.api.ServerConnectionMessageInterface;
+import org.tvheadend.api.ServerConnectionRequests;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,7 +11,9 @@ import java.io.InputStream;
 import timber.log.Timber;
 
 public class HtspFileInputStream extends InputStream {
-    private final HtspConnection connection;
+    private static final long RESPONSE_TIMEOUT = 5000;
+
+    private final ServerConnectionMessageInterface<HtspMessage, HtspMessage> connection;
     private final String path;
 
     private long fileId;
@@ -21,7 +23,7 @@ public class HtspFileInputStream extends InputStream {
     private int bufPos;
     private long offset;
 
-    public HtspFileInputStream(HtspConnection conn, String path) throws IOException {
+    public HtspFileInputStream(ServerConnectionMessageInterface<HtspMessage, HtspMessage> conn, String path) throws IOException {
         this.connection = conn;
         this.path = path;
 
@@ -46,54 +48,17 @@ public class HtspFileInputStream extends InputStream {
         offset = 0;
     }
 
-    static class FileOpenResponse implements ServerResponseListener<HtspMessage> {
-        int id;
-        long size;
-        long time;
-
-        @Override
-        public void handleResponse(@NotNull HtspMessage response) {
-            id = response.getInteger("id", 0);
-            size = response.getLong("size", 0);
-            time = response.getLong("mtime", 0);
-            notifyAll();
-        }
-    }
-
-    static class FileReadResponse implements ServerResponseListener<HtspMessage> {
-        byte[] data;
-
-        @Override
-        public void handleResponse(@NotNull HtspMessage response) {
-            data = response.getByteArray("data");
-            notifyAll();
-        }
-    }
-
-    static class FileCloseResponse implements ServerResponseListener<HtspMessage> {
-
-        @Override
-        public void handleResponse(@NotNull HtspMessage response) {
-            notifyAll();
-        }
-    }
-
     private void open() throws IOException {
         HtspMessage request = new HtspMessage();
-        FileOpenResponse response = new FileOpenResponse();
-
         request.setMethod("fileOpen");
         request.put("file", path);
 
-        synchronized (response) {
-            try {
-                connection.sendMessage(request, response);
-                response.wait();
-                fileId = response.id;
-                fileSize = response.size;
-            } catch (Throwable e) {
-                Timber.e(e, "Timeout waiting for fileOpen");
-            }
+        HtspMessage response = ServerConnectionRequests.requestBlocking(connection, request, RESPONSE_TIMEOUT);
+        if (response == null) {
+            Timber.e("Timeout waiting for fileOpen");
+        } else {
+            fileId = response.getInteger("id", 0);
+            fileSize = response.getLong("size", 0);
         }
 
         if (fileId < 0) {
@@ -105,21 +70,14 @@ public class HtspFileInputStream extends InputStream {
 
     public void close() {
         HtspMessage request = new HtspMessage();
-        FileCloseResponse response = new FileCloseResponse();
-
         request.setMethod("fileClose");
         request.put("id", fileId);
 
-        synchronized (response) {
-            try {
-                connection.sendMessage(request, response);
-                response.wait();
-                fileId = -1;
-                fileSize = -1;
-            } catch (Throwable e) {
-                Timber.e(e, "Timeout waiting for fileClose");
-            }
+        if (ServerConnectionRequests.requestBlocking(connection, request, RESPONSE_TIMEOUT) == null) {
+            Timber.e("Timeout waiting for fileClose");
         }
+        fileId = -1;
+        fileSize = -1;
     }
 
     public int read(@NonNull byte[] outBuf, int outOffset, int outLength) {
@@ -152,24 +110,23 @@ public class HtspFileInputStream extends InputStream {
         }
 
         HtspMessage request = new HtspMessage();
-        FileReadResponse response = new FileReadResponse();
-
         request.setMethod("fileRead");
         request.put("id", fileId);
         request.put("size", Math.min(fileSize, 1024 * 1024 * 8));
         request.put("offset", offset);
 
-        synchronized (response) {
-            try {
-                connection.sendMessage(request, response);
-                response.wait();
-
-                offset += buf.length;
-                buf = response.data;
-                bufPos = 0;
-            } catch (Throwable e) {
-                Timber.e(e, "Timeout waiting for fileRead");
-            }
+        HtspMessage response = ServerConnectionRequests.requestBlocking(connection, request, RESPONSE_TIMEOUT);
+        if (response == null) {
+            Timber.e("Timeout waiting for fileRead");
+            return;
+        }
+        byte[] data = response.getByteArray("data");
+        if (data == null) {
+            Timber.e("Failed to read remote file: %s", response.getString("error"));
+            return;
         }
+        offset += buf.length;
+        buf = data;
+        bufPos = 0;
     }
 }
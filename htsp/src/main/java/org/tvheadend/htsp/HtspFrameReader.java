@@ -0,0 +1,110 @@
+package org.tvheadend.htsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads HTSP frames from the socket channel into a receive buffer and decodes
+ * every complete frame that is available after a read. The remainder of a
+ * partially received frame is moved to the start of the buffer. A frame that
+ * is larger than the buffer grows it, the buffer is shrunk back to its initial
+ * capacity once that frame has been handled.
+ */
+class HtspFrameReader {
+
+    interface FrameListener {
+        void onFrame(HtspMessage message);
+    }
+
+    private final int initialCapacity;
+    private final HtspMessageDecoder decoder;
+    private ByteBuffer buffer;
+
+    private volatile long readCount;
+    private volatile long frameCount;
+    private volatile long byteCount;
+    private volatile int lastReadFrameCount;
+    private volatile int lastReadByteCount;
+    private volatile int maxFramesPerRead;
+
+    HtspFrameReader(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.decoder = new HtspMessageDecoder();
+        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * Reads the available data from the channel and passes every complete
+     * frame to the listener. Returns the number of bytes that were read,
+     * or -1 if the channel has reached end-of-stream.
+     */
+    int read(ReadableByteChannel channel, FrameListener listener) throws IOException {
+        int len = channel.read(buffer);
+        if (len < 0) {
+            return len;
+        }
+
+        int frames = 0;
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            long frameLength = buffer.getInt(start) & 0xFFFFFFFFL;
+            if (frameLength + 4 > Integer.MAX_VALUE) {
+                throw new IOException("Message is to long, length " + frameLength);
+            }
+            if (buffer.remaining() < frameLength + 4) {
+                if (frameLength + 4 > buffer.capacity()) {
+                    grow((int) frameLength + 4);
+                    buffer.flip();
+                }
+                break;
+            }
+
+            HtspMessage message = decoder.decode(buffer, start + 4, (int) frameLength);
+            buffer.position(start + 4 + (int) frameLength);
+            frames++;
+            listener.onFrame(message);
+        }
+
+        if (!buffer.hasRemaining() && buffer.capacity() > initialCapacity) {
+            buffer = ByteBuffer.allocateDirect(initialCapacity);
+        } else {
+            buffer.compact();
+        }
+
+        readCount++;
+        byteCount += len;
+        frameCount += frames;
+        lastReadByteCount = len;
+        lastReadFrameCount = frames;
+        if (frames > maxFramesPerRead) {
+            maxFramesPerRead = frames;
+        }
+        return len;
+    }
+
+    /**
+     * Replaces the flipped buffer with a larger one that can hold the given
+     * number of bytes. The unread content is copied and the new buffer is
+     * left in the same state as the old one after a compact.
+     */
+    private void grow(int required) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, buffer.capacity() * 2L));
+        ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns how many frames and bytes were received per read from the socket
+     */
+    HtspReadStatistics getStatistics() {
+        return new HtspReadStatistics(readCount, frameCount, byteCount,
+                lastReadFrameCount, lastReadByteCount, maxFramesPerRead, buffer.capacity());
+    }
+}
@@ -0,0 +1,109 @@
+package org.tvheadend.htsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues outgoing HTSP messages from any thread and writes them from the
+ * connection thread. Each write encodes as many queued messages as there are
+ * output buffers and hands them to the channel with a single gathering write.
+ * This is repeated until either the queue is empty or the socket does not
+ * accept more data.
+ * <p>
+ * The selector only needs to be woken up when the first message is queued,
+ * as long as messages are pending the channel stays registered for writing.
+ */
+class HtspFrameWriter {
+
+    private final Queue<HtspMessage> messageQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+    private final HtspMessageEncoder encoder = new HtspMessageEncoder();
+    private final ByteBuffer[] outputBuffers;
+    private int outputOffset;
+    private int outputCount;
+
+    HtspFrameWriter(int maxGatheredMessages) {
+        outputBuffers = new ByteBuffer[maxGatheredMessages];
+        for (int i = 0; i < maxGatheredMessages; i++) {
+            outputBuffers[i] = ByteBuffer.allocateDirect(4096);
+        }
+    }
+
+    /**
+     * Adds the message to the queue. Returns true if no messages were
+     * pending before, in this case the selector must be woken up so that
+     * the channel gets registered for writing.
+     */
+    boolean enqueue(HtspMessage message) {
+        messageQueue.offer(message);
+        return writePending.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns true if the channel needs to stay registered for writing.
+     * Must only be called from the connection thread.
+     */
+    boolean hasPendingWrites() {
+        if (outputOffset < outputCount || !messageQueue.isEmpty()) {
+            return true;
+        }
+        writePending.set(false);
+        // A message could have been queued right before the flag was reset
+        // without waking up the selector, so check the queue once more
+        if (!messageQueue.isEmpty()) {
+            writePending.set(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes queued messages until the queue is empty or the channel does
+     * not accept any more data. Returns the number of bytes that were written.
+     * Must only be called from the connection thread.
+     */
+    long write(GatheringByteChannel channel) throws IOException {
+        long total = 0;
+        while (true) {
+            if (outputOffset == outputCount) {
+                outputOffset = 0;
+                outputCount = 0;
+            }
+            while (outputCount < outputBuffers.length) {
+                HtspMessage message = messageQueue.poll();
+                if (message == null) {
+                    break;
+                }
+                outputBuffers[outputCount] = encoder.encode(message, outputBuffers[outputCount]);
+                outputCount++;
+            }
+            if (outputOffset == outputCount) {
+                return total;
+            }
+
+            long written = channel.write(outputBuffers, outputOffset, outputCount - outputOffset);
+            if (written < 0) {
+                throw new IOException("Server went down");
+            }
+            total += written;
+
+            while (outputOffset < outputCount && !outputBuffers[outputOffset].hasRemaining()) {
+                outputOffset++;
+            }
+            if (outputOffset < outputCount) {
+                // The socket buffer is full, continue when the channel is writable again
+                return total;
+            }
+        }
+    }
+
+    void clear() {
+        messageQueue.clear();
+        outputOffset = 0;
+        outputCount = 0;
+    }
+}
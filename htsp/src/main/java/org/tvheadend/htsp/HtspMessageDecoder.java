@@ -0,0 +1,183 @@
+package org.tvheadend.htsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HTSP binary messages directly from the receive buffer.
+ * <p>
+ * Nested maps and lists are walked in place using absolute offsets into the
+ * buffer, so no intermediate byte arrays or buffers are allocated per field.
+ * S64 values are decoded into primitive longs instead of {@link java.math.BigInteger}
+ * and field names are resolved through a small cache because the same names
+ * are repeated in every message. Only strings and binary payloads are copied
+ * out of the buffer, as the buffer is reused for the next frame.
+ * <p>
+ * An instance is not thread safe, each connection uses its own decoder.
+ */
+public class HtspMessageDecoder {
+
+    private static final int NAME_CACHE_SIZE = 512;
+
+    private final String[] nameCache = new String[NAME_CACHE_SIZE];
+    private final byte[][] nameCacheBytes = new byte[NAME_CACHE_SIZE][];
+    private byte[] scratch = new byte[1024];
+    private ByteBuffer viewSource;
+    private ByteBuffer view;
+
+    /**
+     * Decodes the message body that starts at the given absolute offset.
+     * The position and limit of the buffer are not modified.
+     */
+    public HtspMessage decode(ByteBuffer buf, int offset, int length) throws IOException {
+        HtspMessage msg = new HtspMessage();
+        decodeMap(buf, offset, offset + length, msg);
+        return msg;
+    }
+
+    private void decodeMap(ByteBuffer buf, int pos, int end, HtspMessage msg) throws IOException {
+        int count = 0;
+        while (pos < end) {
+            byte type = buf.get(pos);
+            int nameLength = buf.get(pos + 1) & 0xFF;
+            long dataLength = readLength(buf, pos + 2);
+            pos += 6;
+
+            if (pos + nameLength + dataLength > end) {
+                throw new IOException("Field exceeds message bounds, name length " + nameLength + ", data length " + dataLength);
+            }
+
+            String name = nameLength > 0 ? readName(buf, pos, nameLength) : Integer.toString(count);
+            count++;
+            pos += nameLength;
+            msg.put(name, decodeValue(buf, type, pos, (int) dataLength));
+            pos += dataLength;
+        }
+    }
+
+    private void decodeList(ByteBuffer buf, int pos, int end, List<Object> list) throws IOException {
+        while (pos < end) {
+            byte type = buf.get(pos);
+            int nameLength = buf.get(pos + 1) & 0xFF;
+            long dataLength = readLength(buf, pos + 2);
+            pos += 6;
+
+            if (pos + nameLength + dataLength > end) {
+                throw new IOException("List entry exceeds message bounds, name length " + nameLength + ", data length " + dataLength);
+            }
+
+            // List entries have no name, skip it should the server send one anyway
+            pos += nameLength;
+            list.add(decodeValue(buf, type, pos, (int) dataLength));
+            pos += dataLength;
+        }
+    }
+
+    private Object decodeValue(ByteBuffer buf, byte type, int pos, int length) throws IOException {
+        switch (type) {
+            case HtspMessage.HMF_STR:
+                return readString(buf, pos, length);
+            case HtspMessage.HMF_BIN: {
+                byte[] data = new byte[length];
+                copy(buf, pos, data, length);
+                return data;
+            }
+            case HtspMessage.HMF_S64:
+                return readS64(buf, pos, length);
+            case HtspMessage.HMF_MAP: {
+                HtspMessage map = new HtspMessage();
+                decodeMap(buf, pos, pos + length, map);
+                return map;
+            }
+            case HtspMessage.HMF_LIST: {
+                ArrayList<Object> list = new ArrayList<>();
+                decodeList(buf, pos, pos + length, list);
+                return list;
+            }
+            default:
+                throw new IOException("Unknown data type " + type);
+        }
+    }
+
+    private static long readLength(ByteBuffer buf, int pos) {
+        return ((long) (buf.get(pos) & 0xFF) << 24)
+                | ((buf.get(pos + 1) & 0xFF) << 16)
+                | ((buf.get(pos + 2) & 0xFF) << 8)
+                | (buf.get(pos + 3) & 0xFF);
+    }
+
+    /**
+     * S64 values are sent in little endian order using as few bytes as
+     * required. Negative values always use all eight bytes.
+     */
+    static long readS64(ByteBuffer buf, int pos, int length) {
+        long value = 0;
+        int count = Math.min(length, 8);
+        for (int i = 0; i < count; i++) {
+            value |= (long) (buf.get(pos + i) & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    private String readString(ByteBuffer buf, int pos, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        copy(buf, pos, scratch, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String readName(ByteBuffer buf, int pos, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buf.get(pos + i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+
+        byte[] cached = nameCacheBytes[index];
+        if (cached != null && cached.length == length) {
+            boolean equal = true;
+            for (int i = 0; i < length; i++) {
+                if (cached[i] != buf.get(pos + i)) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                return nameCache[index];
+            }
+        }
+
+        byte[] bytes = new byte[length];
+        copy(buf, pos, bytes, length);
+        String name = new String(bytes, StandardCharsets.UTF_8);
+        nameCacheBytes[index] = bytes;
+        nameCache[index] = name;
+        return name;
+    }
+
+    private void copy(ByteBuffer buf, int pos, byte[] dst, int length) {
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(), buf.arrayOffset() + pos, dst, 0, length);
+            return;
+        }
+        // Bulk copies from a direct buffer need a position, use a
+        // duplicate so the state of the receive buffer stays untouched
+        if (viewSource != buf) {
+            viewSource = buf;
+            view = buf.duplicate();
+        }
+        view.limit(view.capacity());
+        view.position(pos);
+        view.get(dst, 0, length);
+    }
+}
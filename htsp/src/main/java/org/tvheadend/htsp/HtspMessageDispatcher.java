@@ -0,0 +1,189 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.tvheadend.api.ServerMessageListener;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Moves the handling of the received messages off the thread that reads the
+ * socket. Each message is passed to one of the named queues that the selector
+ * returns for it. Every queue has its own thread, so the messages of one queue
+ * are handled in the order they were received, while a slow queue does not
+ * hold up the others or the socket.
+ * <p>
+ * A message that is dispatched as {@link #BARRIER} is handled after all
+ * messages that were received before it, and all queues wait until it was
+ * handled. Messages without a queue are handled on the calling thread.
+ */
+public class HtspMessageDispatcher implements ServerMessageListener<HtspMessage> {
+
+    public static final String BARRIER = "barrier";
+
+    public interface QueueSelector {
+        /**
+         * Returns the name of the queue for the message, {@link #BARRIER}
+         * or null to handle the message directly
+         */
+        @Nullable
+        String selectQueue(@NonNull HtspMessage message, @NonNull String method);
+    }
+
+    private final ServerMessageListener<HtspMessage> listener;
+    private final QueueSelector selector;
+    private final Map<String, Queue> queues = new LinkedHashMap<>();
+
+    public HtspMessageDispatcher(@NonNull ServerMessageListener<HtspMessage> listener,
+                                 @NonNull QueueSelector selector,
+                                 @NonNull String... queueNames) {
+        this.listener = listener;
+        this.selector = selector;
+        for (String name : queueNames) {
+            queues.put(name, new Queue(name));
+        }
+    }
+
+    @Override
+    public void onMessage(@NonNull HtspMessage message, @NonNull String method) {
+        String name = selector.selectQueue(message, method);
+        if (name == null) {
+            handleMessage(message, method);
+        } else if (BARRIER.equals(name)) {
+            dispatchBarrier(message, method);
+        } else {
+            Queue queue = queues.get(name);
+            if (queue != null) {
+                queue.execute(() -> handleMessage(message, method));
+            } else {
+                Timber.w("No queue " + name + " for message " + method + ", handling it directly");
+                handleMessage(message, method);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of every queue by its name
+     */
+    @NonNull
+    public Map<String, HtspDispatchStatistics> getStatistics() {
+        Map<String, HtspDispatchStatistics> statistics = new LinkedHashMap<>();
+        for (Queue queue : queues.values()) {
+            statistics.put(queue.name, queue.getStatistics());
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Lets the queues handle the already received messages and stops them
+     */
+    public void shutdown() {
+        for (Queue queue : queues.values()) {
+            queue.executor.shutdown();
+        }
+    }
+
+    private void dispatchBarrier(HtspMessage message, String method) {
+        if (queues.isEmpty()) {
+            handleMessage(message, method);
+            return;
+        }
+
+        // The first queue handles the message when every queue has arrived
+        // at the barrier, the other queues wait until this is done
+        CountDownLatch arrived = new CountDownLatch(queues.size());
+        CountDownLatch done = new CountDownLatch(1);
+        boolean isFirstQueue = true;
+        for (Queue queue : queues.values()) {
+            if (isFirstQueue) {
+                isFirstQueue = false;
+                queue.execute(() -> {
+                    try {
+                        arrived.countDown();
+                        arrived.await();
+                        handleMessage(message, method);
+                    } catch (InterruptedException e) {
+                        Timber.d("Interrupted while waiting for the queues to handle " + method);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } else {
+                queue.execute(() -> {
+                    arrived.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        Timber.d("Interrupted while waiting for " + method + " to be handled");
+                    }
+                });
+            }
+        }
+    }
+
+    private void handleMessage(HtspMessage message, String method) {
+        try {
+            listener.onMessage(message, method);
+        } catch (Exception e) {
+            Timber.e(e, "Error while handling message " + method);
+        }
+    }
+
+    private static class Queue {
+        private final String name;
+        private final ExecutorService executor;
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicLong handledCount = new AtomicLong();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private volatile int maxQueueDepth;
+        private volatile long maxLatencyNanos;
+
+        Queue(String name) {
+            this.name = name;
+            this.executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "HtspDispatch-" + name));
+        }
+
+        void execute(Runnable task) {
+            long enqueueTime = System.nanoTime();
+            int depth = queueDepth.incrementAndGet();
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        // Only the thread of this queue updates the latency values
+                        long latency = System.nanoTime() - enqueueTime;
+                        latencyNanos.addAndGet(latency);
+                        if (latency > maxLatencyNanos) {
+                            maxLatencyNanos = latency;
+                        }
+                        handledCount.incrementAndGet();
+                        queueDepth.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queueDepth.decrementAndGet();
+                Timber.d("Queue " + name + " was already shut down, discarding message");
+            }
+        }
+
+        HtspDispatchStatistics getStatistics() {
+            return new HtspDispatchStatistics(queueDepth.get(), maxQueueDepth,
+                    handledCount.get(), latencyNanos.get(), maxLatencyNanos);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.tvheadend.htsp;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Serializes HTSP messages directly into an outbound buffer.
+ * <p>
+ * The size of the whole frame is computed in a first pass so that the buffer
+ * can be grown once if required. The fields are then written in place, the
+ * lengths of nested maps and lists are filled in after their content has
+ * been written. Lists and maps are therefore not limited in size.
+ */
+public class HtspMessageEncoder {
+
+    /**
+     * Writes the message including the length prefix into the given buffer.
+     * If the buffer is too small a larger one is allocated and returned,
+     * otherwise the given buffer is reused. The returned buffer is flipped
+     * and ready to be written to the channel.
+     */
+    public ByteBuffer encode(HtspMessage message, ByteBuffer buf) throws IOException {
+        long size = 4 + mapSize(message);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Message is to long, length " + size);
+        }
+        if (buf == null || buf.capacity() < size) {
+            int capacity = buf != null ? buf.capacity() : 0;
+            buf = ByteBuffer.allocateDirect((int) Math.max(size, capacity * 2L));
+        }
+
+        buf.clear();
+        buf.putInt((int) size - 4);
+        writeMap(message, buf);
+        buf.flip();
+        return buf;
+    }
+
+    private static long mapSize(Map<String, Object> map) throws IOException {
+        long size = 0;
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            size += fieldSize(entry.getKey(), entry.getValue());
+        }
+        return size;
+    }
+
+    private static long listSize(Collection<?> list) throws IOException {
+        long size = 0;
+        for (Object value : list) {
+            size += fieldSize("", value);
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long fieldSize(String name, Object value) throws IOException {
+        long dataSize;
+        if (value instanceof String) {
+            dataSize = utf8Length((String) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            dataSize = s64Length(((Number) value).longValue());
+        } else if (value instanceof BigInteger) {
+            dataSize = s64Length(((BigInteger) value).longValue());
+        } else if (value instanceof byte[]) {
+            dataSize = ((byte[]) value).length;
+        } else if (value instanceof Map) {
+            dataSize = mapSize((Map<String, Object>) value);
+        } else if (value instanceof Collection) {
+            dataSize = listSize((Collection<?>) value);
+        } else if (value == null) {
+            throw new IOException("HTSP doesn't support null values");
+        } else {
+            throw new IOException("Unhandled class for " + name + ": " + value
+                    + " (" + value.getClass().getSimpleName() + ")");
+        }
+
+        int nameLength = utf8Length(name);
+        if (nameLength > 0xFF) {
+            throw new IOException("Field name " + name + " is to long");
+        }
+        return 6 + nameLength + dataSize;
+    }
+
+    private static void writeMap(Map<String, Object> map, ByteBuffer buf) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeField(entry.getKey(), entry.getValue(), buf);
+        }
+    }
+
+    private static void writeList(Collection<?> list, ByteBuffer buf) {
+        for (Object value : list) {
+            writeField("", value, buf);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeField(String name, Object value, ByteBuffer buf) {
+        int start = buf.position();
+        // Type, name length and data length are filled in below
+        buf.position(start + 6);
+        writeUtf8(name, buf);
+        int dataStart = buf.position();
+
+        byte type;
+        if (value instanceof String) {
+            type = HtspMessage.HMF_STR;
+            writeUtf8((String) value, buf);
+        } else if (value instanceof Integer || value instanceof Long) {
+            type = HtspMessage.HMF_S64;
+            writeS64(((Number) value).longValue(), buf);
+        } else if (value instanceof BigInteger) {
+            type = HtspMessage.HMF_S64;
+            writeS64(((BigInteger) value).longValue(), buf);
+        } else if (value instanceof byte[]) {
+            type = HtspMessage.HMF_BIN;
+            buf.put((byte[]) value);
+        } else if (value instanceof Map) {
+            type = HtspMessage.HMF_MAP;
+            writeMap((Map<String, Object>) value, buf);
+        } else {
+            type = HtspMessage.HMF_LIST;
+            writeList((Collection<?>) value, buf);
+        }
+
+        buf.put(start, type);
+        buf.put(start + 1, (byte) (dataStart - start - 6));
+        buf.putInt(start + 2, buf.position() - dataStart);
+    }
+
+    /**
+     * S64 values are sent in little endian order using as few bytes as
+     * required, like the server does it. Zero is sent without any data.
+     */
+    private static int s64Length(long value) {
+        return (64 - Long.numberOfLeadingZeros(value) + 7) / 8;
+    }
+
+    private static void writeS64(long value, ByteBuffer buf) {
+        while (value != 0) {
+            buf.put((byte) value);
+            value >>>= 8;
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeUtf8(String value, ByteBuffer buf) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf.put((byte) (0xF0 | (codePoint >> 18)));
+                buf.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced like String.getBytes() does it
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.tvheadend.htsp
+
+data class HtspReadStatistics(
+        val readCount: Long = 0,
+        val frameCount: Long = 0,
+        val byteCount: Long = 0,
+        val lastReadFrameCount: Int = 0,
+        val lastReadByteCount: Int = 0,
+        val maxFramesPerRead: Int = 0,
+        val bufferCapacity: Int = 0,
+) {
+    val framesPerRead: Double
+        get() = if (readCount > 0) frameCount.toDouble() / readCount else 0.0
+
+    val bytesPerRead: Double
+        get() = if (readCount > 0) byteCount.toDouble() / readCount else 0.0
+}
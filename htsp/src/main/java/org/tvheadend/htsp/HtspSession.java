@@ -0,0 +1,199 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.tvheadend.api.AuthenticationStateResult;
+import org.tvheadend.api.ConnectionStateResult;
+import org.tvheadend.api.ServerConnectionInterface;
+import org.tvheadend.api.ServerConnectionMessageInterface;
+import org.tvheadend.api.ServerConnectionStateListener;
+import org.tvheadend.api.ServerMessageListener;
+import org.tvheadend.api.ServerResponseListener;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import timber.log.Timber;
+
+/**
+ * A logical session that is leased from the {@link HtspConnectionManager}.
+ * It can be used like a {@link HtspConnection}, but all sessions with the
+ * same connection data share one socket. Closing the session only releases
+ * the lease, the socket is closed when the last session is closed.
+ */
+public class HtspSession implements ServerConnectionInterface<HtspMessage>, ServerConnectionMessageInterface<HtspMessage, HtspMessage> {
+
+    private final HtspConnectionManager manager;
+    private final SharedHtspConnection sharedConnection;
+    private final ServerConnectionStateListener connectionListener;
+    private final Set<ServerMessageListener<HtspMessage>> messageListeners = new CopyOnWriteArraySet<>();
+    private final Object authenticationSignal = new Object();
+    private volatile boolean isReleased = false;
+    private volatile boolean isAuthenticationDone = false;
+
+    HtspSession(HtspConnectionManager manager,
+                SharedHtspConnection sharedConnection,
+                @NonNull ServerConnectionStateListener connectionListener,
+                @Nullable ServerMessageListener<HtspMessage> messageListener) {
+        this.manager = manager;
+        this.sharedConnection = sharedConnection;
+        this.connectionListener = connectionListener;
+
+        if (messageListener != null) {
+            this.messageListeners.add(messageListener);
+        }
+    }
+
+    @Override
+    public void addMessageListener(@NonNull ServerMessageListener<HtspMessage> listener) {
+        messageListeners.add(listener);
+    }
+
+    @Override
+    public void removeMessageListener(@NonNull ServerMessageListener<HtspMessage> listener) {
+        messageListeners.remove(listener);
+    }
+
+    /**
+     * Opens and authenticates the shared connection in the background unless
+     * this was already done for another session. The progress is reported to
+     * the connection state listener of this session.
+     */
+    @Override
+    public void openConnection() {
+        if (isReleased) {
+            Timber.d("Not opening connection, session was already closed");
+            return;
+        }
+        sharedConnection.connect(this);
+    }
+
+    public boolean isConnecting() {
+        return sharedConnection.getConnection().isConnecting();
+    }
+
+    @Override
+    public boolean isNotConnected() {
+        return isReleased || sharedConnection.getConnection().isNotConnected();
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return !isReleased && sharedConnection.getConnection().isAuthenticated();
+    }
+
+    /**
+     * Returns true if the asynchronous metadata was already enabled on the
+     * shared connection. Enabling it again would not send the initial data.
+     */
+    public boolean isAsyncMetadataEnabled() {
+        return sharedConnection.isAsyncMetadataEnabled();
+    }
+
+    /**
+     * Blocks until the shared connection was authenticated or the connection
+     * timeout has passed. The connection must have been opened before.
+     */
+    @Override
+    public void authenticate() {
+        synchronized (authenticationSignal) {
+            try {
+                if (!isAuthenticationDone) {
+                    authenticationSignal.wait(sharedConnection.getConnectionData().getConnectionTimeout());
+                }
+            } catch (InterruptedException e) {
+                Timber.d(e, "Waiting for authentication was interrupted.");
+            }
+        }
+    }
+
+    /**
+     * Releases this session. The shared connection is closed
+     * when no other session is using it anymore.
+     */
+    @Override
+    public void closeConnection() {
+        if (isReleased) {
+            return;
+        }
+        isReleased = true;
+        messageListeners.clear();
+        manager.release(sharedConnection, this);
+    }
+
+    @Override
+    public void sendMessage(@NonNull HtspMessage message) {
+        sendMessage(message, null);
+    }
+
+    @Override
+    public void sendMessage(@NonNull HtspMessage message, @Nullable ServerResponseListener<HtspMessage> listener) {
+        if (isReleased) {
+            Timber.d("Not sending message, session was already closed");
+            if (listener != null) {
+                HtspMessage response = new HtspMessage();
+                response.put("success", 0);
+                response.put("error", "Could not send message, session was already closed");
+                listener.handleResponse(response);
+            }
+            return;
+        }
+        String method = message.getMethod();
+        if (method.equals("enableAsyncMetadata") && !sharedConnection.enableAsyncMetadata(this)) {
+            Timber.d("Async metadata is already enabled on the shared connection, not sending the request again");
+            if (listener != null) {
+                listener.handleResponse(new HtspMessage());
+            }
+            return;
+        }
+        // Remember which session owns a subscription so that its
+        // messages are only passed to the listeners of this session
+        if (message.containsKey("subscriptionId")) {
+            if (method.equals("subscribe")) {
+                sharedConnection.addSubscription(message.getInteger("subscriptionId"), this);
+            } else if (method.equals("unsubscribe")) {
+                sharedConnection.removeSubscription(message.getInteger("subscriptionId"));
+            }
+        }
+        sharedConnection.getConnection().sendMessage(message, listener);
+    }
+
+    @Override
+    public void removeResponseListener(@NonNull ServerResponseListener<HtspMessage> listener) {
+        sharedConnection.getConnection().removeResponseListener(listener);
+    }
+
+    @NonNull
+    public HtspReadStatistics getReadStatistics() {
+        return sharedConnection.getConnection().getReadStatistics();
+    }
+
+    void onConnectionStateChange(ConnectionStateResult result) {
+        if (result instanceof ConnectionStateResult.Failed) {
+            signalAuthenticationDone();
+        }
+        connectionListener.onConnectionStateChange(result);
+    }
+
+    void onAuthenticationStateChange(AuthenticationStateResult result) {
+        if (result instanceof AuthenticationStateResult.Authenticated
+                || result instanceof AuthenticationStateResult.Failed) {
+            signalAuthenticationDone();
+        }
+        connectionListener.onAuthenticationStateChange(result);
+    }
+
+    void onMessage(HtspMessage message, String method) {
+        for (ServerMessageListener<HtspMessage> listener : messageListeners) {
+            listener.onMessage(message, method);
+        }
+    }
+
+    private void signalAuthenticationDone() {
+        synchronized (authenticationSignal) {
+            isAuthenticationDone = true;
+            authenticationSignal.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+
+import org.tvheadend.api.AuthenticationStateResult;
+import org.tvheadend.api.ConnectionStateResult;
+import org.tvheadend.api.ServerConnectionStateListener;
+import org.tvheadend.api.ServerMessageListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+
+import timber.log.Timber;
+
+/**
+ * One authenticated HTSP connection that is used by all sessions with the
+ * same connection data. Messages that belong to a subscription are passed
+ * to the session that subscribed, the other asynchronous messages are only
+ * passed to the sessions that enabled the asynchronous metadata. Responses
+ * are already routed by their sequence number in {@link HtspConnection}.
+ */
+class SharedHtspConnection implements ServerConnectionStateListener, ServerMessageListener<HtspMessage> {
+
+    interface ConnectionFactory {
+        HtspConnection create(HtspConnectionData connectionData,
+                              ServerConnectionStateListener connectionListener,
+                              ServerMessageListener<HtspMessage> messageListener);
+    }
+
+    private final HtspConnectionData connectionData;
+    private final HtspConnection connection;
+    private final Executor executor;
+    private final List<HtspSession> sessions = new CopyOnWriteArrayList<>();
+    private final Map<Integer, HtspSession> subscriptions = new ConcurrentHashMap<>();
+    private final Set<HtspSession> asyncMetadataSessions = new CopyOnWriteArraySet<>();
+
+    private volatile boolean isStarted = false;
+    private volatile boolean isUsable = true;
+    private volatile boolean isAsyncMetadataEnabled = false;
+    private volatile ConnectionStateResult connectionState;
+    private volatile AuthenticationStateResult authenticationState;
+    private volatile HtspMessage serverStatus;
+
+    SharedHtspConnection(HtspConnectionData connectionData, ConnectionFactory connectionFactory, Executor executor) {
+        this.connectionData = connectionData;
+        this.executor = executor;
+        this.connection = connectionFactory.create(connectionData, this, this);
+    }
+
+    HtspConnectionData getConnectionData() {
+        return connectionData;
+    }
+
+    HtspConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns false once the connection has failed or was closed, also when
+     * the server went away. New sessions must not be added to it anymore.
+     */
+    boolean isUsable() {
+        if (!isUsable) {
+            return false;
+        }
+        return !isStarted || connection.isConnecting() || !connection.isNotConnected();
+    }
+
+    void addSession(HtspSession session) {
+        sessions.add(session);
+    }
+
+    /**
+     * Removes the session and all its subscriptions.
+     * Returns true if this was the last session.
+     */
+    boolean removeSession(HtspSession session) {
+        sessions.remove(session);
+        subscriptions.values().remove(session);
+        asyncMetadataSessions.remove(session);
+        return sessions.isEmpty();
+    }
+
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns true if the asynchronous metadata was enabled on this connection
+     * and all sessions that received it are gone. The server only sends the
+     * initial data once per connection, so a session that enables it again
+     * needs a new connection.
+     */
+    boolean isAsyncMetadataOrphaned() {
+        return isAsyncMetadataEnabled && asyncMetadataSessions.isEmpty();
+    }
+
+    boolean isAsyncMetadataEnabled() {
+        return isAsyncMetadataEnabled;
+    }
+
+    /**
+     * Registers the session for the asynchronous messages. Returns true if the
+     * request to enable them shall be sent, which is only the case once per
+     * connection. The server would ignore any further request.
+     */
+    synchronized boolean enableAsyncMetadata(HtspSession session) {
+        asyncMetadataSessions.add(session);
+        if (isAsyncMetadataEnabled) {
+            return false;
+        }
+        isAsyncMetadataEnabled = true;
+        return true;
+    }
+
+    /**
+     * Opens and authenticates the connection in the background when the
+     * first session requests it. Sessions that join later get the current
+     * connection and authentication state and the server status replayed.
+     */
+    synchronized void connect(HtspSession session) {
+        if (!isStarted) {
+            isStarted = true;
+            // Since this is blocking, spawn to a new thread
+            executor.execute(() -> {
+                connection.openConnection();
+                connection.authenticate();
+            });
+            return;
+        }
+
+        Timber.d("Connection is shared, replaying current state to new session");
+        if (connectionState != null) {
+            session.onConnectionStateChange(connectionState);
+        }
+        if (authenticationState != null) {
+            session.onAuthenticationStateChange(authenticationState);
+        }
+        if (serverStatus != null && connection.isAuthenticated()) {
+            session.onMessage(serverStatus, serverStatus.getMethod());
+        }
+    }
+
+    synchronized void close() {
+        isUsable = false;
+        subscriptions.clear();
+        asyncMetadataSessions.clear();
+        if (isStarted) {
+            connection.closeConnection();
+        }
+    }
+
+    void addSubscription(int subscriptionId, HtspSession session) {
+        subscriptions.put(subscriptionId, session);
+    }
+
+    void removeSubscription(int subscriptionId) {
+        subscriptions.remove(subscriptionId);
+    }
+
+    @Override
+    public void onConnectionStateChange(@NonNull ConnectionStateResult result) {
+        connectionState = result;
+        if (result instanceof ConnectionStateResult.Failed) {
+            isUsable = false;
+        }
+        for (HtspSession session : sessions) {
+            session.onConnectionStateChange(result);
+        }
+    }
+
+    @Override
+    public void onAuthenticationStateChange(@NonNull AuthenticationStateResult result) {
+        authenticationState = result;
+        if (result instanceof AuthenticationStateResult.Failed) {
+            isUsable = false;
+        }
+        for (HtspSession session : sessions) {
+            session.onAuthenticationStateChange(result);
+        }
+    }
+
+    @Override
+    public void onMessage(@NonNull HtspMessage message, @NonNull String method) {
+        // The server status is the answer to the hello of the connection, every session needs it
+        if (method.equals("serverStatus")) {
+            serverStatus = message;
+            for (HtspSession session : sessions) {
+                session.onMessage(message, method);
+            }
+            return;
+        }
+        if (message.containsKey("subscriptionId")) {
+            HtspSession session = subscriptions.get(message.getInteger("subscriptionId"));
+            if (session != null) {
+                session.onMessage(message, method);
+                return;
+            }
+        }
+        for (HtspSession session : asyncMetadataSessions) {
+            session.onMessage(message, method);
+        }
+    }
+}
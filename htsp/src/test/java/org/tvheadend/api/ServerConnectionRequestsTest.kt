@@ -0,0 +1,81 @@
+package org.tvheadend.api
+
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+
+class ServerConnectionRequestsTest {
+
+    /**
+     * Keeps the response listeners like the connection does, responses
+     * are sent from another thread by calling [respond].
+     */
+    private class FakeConnection : ServerConnectionMessageInterface<String, String> {
+
+        val responseListeners = ConcurrentHashMap<String, ServerResponseListener<String>>()
+
+        override fun sendMessage(message: String) {
+            sendMessage(message, null)
+        }
+
+        override fun sendMessage(message: String, listener: ServerResponseListener<String>?) {
+            listener?.let { responseListeners[message] = it }
+        }
+
+        override fun removeResponseListener(listener: ServerResponseListener<String>) {
+            responseListeners.values.remove(listener)
+        }
+
+        fun respond(message: String, response: String) {
+            Thread { responseListeners.remove(message)?.handleResponse(response) }.start()
+        }
+    }
+
+    private val connection = FakeConnection()
+
+    @Test
+    fun requestReturnsTheResponse() = runBlocking {
+        val response = async { connection.request("getSysTime", 1000) }
+        while (connection.responseListeners.isEmpty()) {
+            yield()
+        }
+        connection.respond("getSysTime", "time")
+        assertEquals("time", response.await())
+    }
+
+    @Test
+    fun requestsArePipelined() = runBlocking {
+        val responses = (1..10).map { async { connection.request("getEvent$it", 1000) } }
+        while (connection.responseListeners.size < 10) {
+            yield()
+        }
+        (10 downTo 1).forEach { connection.respond("getEvent$it", "event$it") }
+        assertEquals((1..10).map { "event$it" }, responses.map { it.await() })
+    }
+
+    @Test
+    fun timeoutRemovesTheResponseListener() {
+        var timedOut = false
+        runBlocking {
+            try {
+                connection.request("fileRead", 50)
+            } catch (e: TimeoutCancellationException) {
+                timedOut = true
+            }
+        }
+        assertTrue(timedOut)
+        assertTrue(connection.responseListeners.isEmpty())
+    }
+
+    @Test
+    fun blockingRequestReturnsNullOnTimeout() {
+        assertNull(connection.requestBlocking("fileOpen", 50))
+        assertTrue(connection.responseListeners.isEmpty())
+    }
+}
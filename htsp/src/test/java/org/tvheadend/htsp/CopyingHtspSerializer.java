@@ -0,0 +1,108 @@
+package org.tvheadend.htsp;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Copying serializer that was used before {@link HtspMessageEncoder}. The
+ * decoder tests use it to create their frames independently of the encoder.
+ * Strings are written as UTF-8 like the default charset on Android.
+ */
+class CopyingHtspSerializer {
+
+    private static byte[] toByteArray(BigInteger big) {
+        byte[] b = big.toByteArray();
+        byte[] b1 = new byte[b.length];
+
+        for (int i = 0; i < b.length; i++) {
+            b1[i] = b[b.length - 1 - i];
+        }
+
+        return b1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] serializeBinary(String name, Object value) throws IOException {
+        byte[] bName = name.getBytes(StandardCharsets.UTF_8);
+        byte[] bData;
+        byte type;
+
+        if (value instanceof String) {
+            type = HtspMessage.HMF_STR;
+            bData = ((String) value).getBytes(StandardCharsets.UTF_8);
+        } else if (value instanceof BigInteger) {
+            type = HtspMessage.HMF_S64;
+            bData = toByteArray((BigInteger) value);
+        } else if (value instanceof Integer) {
+            type = HtspMessage.HMF_S64;
+            bData = toByteArray(BigInteger.valueOf((Integer) value));
+        } else if (value instanceof Long) {
+            type = HtspMessage.HMF_S64;
+            bData = toByteArray(BigInteger.valueOf((Long) value));
+        } else if (value instanceof byte[]) {
+            type = HtspMessage.HMF_BIN;
+            bData = (byte[]) value;
+        } else if (value instanceof Map) {
+            type = HtspMessage.HMF_MAP;
+
+            bData = serializeBinary((Map<String, Object>) value);
+        } else if (value instanceof Collection) {
+            type = HtspMessage.HMF_LIST;
+            bData = serializeBinary((Collection<?>) value);
+        } else if (value == null) {
+            throw new IOException("HTSP doesn't support null values");
+        } else {
+            throw new IOException("Unhandled class for " + name + ": " + value
+                    + " (" + value.getClass().getSimpleName() + ")");
+        }
+
+        byte[] buf = new byte[1 + 1 + 4 + bName.length + bData.length];
+        buf[0] = type;
+        buf[1] = (byte) (bName.length & 0xFF);
+        buf[2] = (byte) ((bData.length >> 24) & 0xFF);
+        buf[3] = (byte) ((bData.length >> 16) & 0xFF);
+        buf[4] = (byte) ((bData.length >> 8) & 0xFF);
+        buf[5] = (byte) ((bData.length) & 0xFF);
+
+        System.arraycopy(bName, 0, buf, 6, bName.length);
+        System.arraycopy(bData, 0, buf, 6 + bName.length, bData.length);
+
+        return buf;
+    }
+
+    private static byte[] serializeBinary(Collection<?> list) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Short.MAX_VALUE);
+
+        for (Object value : list) {
+            byte[] sub = serializeBinary("", value);
+            buf.put(sub);
+        }
+
+        byte[] bBuf = new byte[buf.position()];
+        buf.flip();
+        buf.get(bBuf);
+
+        return bBuf;
+    }
+
+    static byte[] serializeBinary(Map<String, Object> map) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Short.MAX_VALUE);
+
+        for (Object key : map.keySet()) {
+            //noinspection SuspiciousMethodCalls
+            Object value = map.get(key);
+            byte[] sub = serializeBinary(key.toString(), value);
+            buf.put(sub);
+        }
+
+        byte[] bBuf = new byte[buf.position()];
+        buf.flip();
+        buf.get(bBuf);
+
+        return bBuf;
+    }
+}
@@ -0,0 +1,108 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.tvheadend.api.AuthenticationStateResult;
+import org.tvheadend.api.ConnectionFailureReason;
+import org.tvheadend.api.ConnectionStateResult;
+import org.tvheadend.api.ServerConnectionStateListener;
+import org.tvheadend.api.ServerMessageListener;
+import org.tvheadend.api.ServerResponseListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection without a socket. Opening and authenticating succeed at once,
+ * sent messages are recorded and server messages are passed in by the test.
+ */
+class FakeHtspConnection extends HtspConnection {
+
+    final List<HtspMessage> sentMessages = new ArrayList<>();
+    int openCount = 0;
+    boolean isClosed = false;
+
+    private final ServerConnectionStateListener connectionListener;
+    private final ServerMessageListener<HtspMessage> messageListener;
+    private boolean isConnected = false;
+    private boolean isAuthenticated = false;
+
+    private FakeHtspConnection(HtspConnectionData connectionData,
+                               ServerConnectionStateListener connectionListener,
+                               ServerMessageListener<HtspMessage> messageListener) {
+        super(connectionData, connectionListener, messageListener);
+        this.connectionListener = connectionListener;
+        this.messageListener = messageListener;
+    }
+
+    /**
+     * Returns a factory that adds every connection it creates to the given list
+     */
+    static SharedHtspConnection.ConnectionFactory factory(List<FakeHtspConnection> created) {
+        return (connectionData, connectionListener, messageListener) -> {
+            FakeHtspConnection connection = new FakeHtspConnection(connectionData, connectionListener, messageListener);
+            created.add(connection);
+            return connection;
+        };
+    }
+
+    @Override
+    public void openConnection() {
+        openCount++;
+        isConnected = true;
+        connectionListener.onConnectionStateChange(new ConnectionStateResult.Connected());
+    }
+
+    @Override
+    public void authenticate() {
+        isAuthenticated = true;
+        connectionListener.onAuthenticationStateChange(new AuthenticationStateResult.Authenticated());
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return false;
+    }
+
+    @Override
+    public boolean isNotConnected() {
+        return !isConnected;
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return isAuthenticated;
+    }
+
+    @Override
+    public void sendMessage(@NonNull HtspMessage message, @Nullable ServerResponseListener<HtspMessage> listener) {
+        sentMessages.add(message);
+    }
+
+    @Override
+    public void closeConnection() {
+        isClosed = true;
+        isConnected = false;
+        isAuthenticated = false;
+    }
+
+    void receive(HtspMessage message) {
+        messageListener.onMessage(message, message.getMethod());
+    }
+
+    void fail() {
+        isConnected = false;
+        connectionListener.onConnectionStateChange(new ConnectionStateResult.Failed(new ConnectionFailureReason.Other()));
+    }
+
+    int countSent(String method) {
+        int count = 0;
+        for (HtspMessage message : sentMessages) {
+            if (message.getMethod().equals(method)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,111 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HtspConnectionManagerTest {
+
+    private final List<FakeHtspConnection> connections = new ArrayList<>();
+    private final HtspConnectionManager manager = new HtspConnectionManager(FakeHtspConnection.factory(connections), Runnable::run);
+    private final HtspConnectionData connectionData = new HtspConnectionData("user", "pass", "htsp://server:9982", "1.0", 1, 5000);
+
+    @Test
+    public void sessionsShareOneConnection() {
+        HtspSession service = new RecordingSessionListener().acquire(manager, connectionData);
+        HtspSession player = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        player.openConnection();
+
+        assertEquals(1, connections.size());
+        assertEquals(1, connections.get(0).openCount);
+        assertEquals(1, manager.getConnectionCount());
+    }
+
+    @Test
+    public void connectionIsClosedWithLastSession() {
+        HtspSession service = new RecordingSessionListener().acquire(manager, connectionData);
+        HtspSession player = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        player.openConnection();
+
+        service.closeConnection();
+        assertFalse(connections.get(0).isClosed);
+        assertTrue(service.isNotConnected());
+        assertFalse(player.isNotConnected());
+
+        player.closeConnection();
+        assertTrue(connections.get(0).isClosed);
+        assertEquals(0, manager.getConnectionCount());
+    }
+
+    @Test
+    public void failedConnectionIsReplacedOnReconnect() {
+        RecordingSessionListener listener = new RecordingSessionListener();
+        HtspSession session = listener.acquire(manager, connectionData);
+        session.openConnection();
+        connections.get(0).fail();
+
+        // Like the service handler does it when it reconnects
+        session.closeConnection();
+        session = listener.acquire(manager, connectionData);
+        session.openConnection();
+
+        assertEquals(2, connections.size());
+        assertTrue(connections.get(0).isClosed);
+        assertEquals(1, connections.get(1).openCount);
+        assertTrue(session.isAuthenticated());
+    }
+
+    @Test
+    public void failedConnectionIsNotSharedWithNewSessions() {
+        HtspSession player = new RecordingSessionListener().acquire(manager, connectionData);
+        player.openConnection();
+        connections.get(0).fail();
+
+        HtspSession service = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+
+        assertEquals(2, connections.size());
+        assertTrue(connections.get(0).isClosed);
+        assertTrue(service.isAuthenticated());
+    }
+
+    @Test
+    public void reconnectAfterAsyncMetadataGetsNewConnection() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        HtspSession player = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        player.openConnection();
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        // The server only sends the initial data once per connection,
+        // so the reconnected service must not share the old one
+        service.closeConnection();
+        service = serviceListener.acquire(manager, connectionData);
+        service.openConnection();
+
+        assertEquals(2, connections.size());
+        assertFalse(service.isAsyncMetadataEnabled());
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+        assertEquals(1, connections.get(1).countSent("enableAsyncMetadata"));
+
+        // The player keeps its connection until it is done
+        assertFalse(connections.get(0).isClosed);
+        player.closeConnection();
+        assertTrue(connections.get(0).isClosed);
+        assertEquals(1, manager.getConnectionCount());
+    }
+
+    private static HtspMessage createMessage(String method) {
+        HtspMessage message = new HtspMessage();
+        message.setMethod(method);
+        return message;
+    }
+}
@@ -0,0 +1,180 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HtspFrameReaderTest {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final HtspFrameReader reader = new HtspFrameReader(INITIAL_CAPACITY);
+    private final List<HtspMessage> messages = new ArrayList<>();
+
+    @Test
+    public void framesSplitAcrossReadsAreDecodedWhenComplete() throws IOException {
+        byte[] first = frame(createMessage(1, "first"));
+        byte[] second = frame(createMessage(2, "second"));
+        byte[] data = concat(first, second);
+
+        // The first read ends within the length prefix, the third one within the second frame
+        ChunkedChannel channel = new ChunkedChannel(data, 3, first.length - 5, 10, second.length - 8);
+
+        read(channel);
+        assertEquals(0, messages.size());
+        read(channel);
+        assertEquals(0, messages.size());
+        read(channel);
+        assertEquals(1, messages.size());
+        read(channel);
+        assertEquals(2, messages.size());
+        assertEquals(1, messages.get(0).getInteger("seq"));
+        assertEquals("second", messages.get(1).getString("title"));
+        assertEquals(-1, reader.read(channel, messages::add));
+    }
+
+    @Test
+    public void allCompleteFramesOfOneReadAreDecoded() throws IOException {
+        byte[] data = concat(frame(createMessage(1, "a")), frame(createMessage(2, "b")), frame(createMessage(3, "c")));
+
+        read(new ChunkedChannel(data, data.length));
+        assertEquals(3, messages.size());
+        assertEquals(3, messages.get(2).getInteger("seq"));
+    }
+
+    @Test
+    public void frameLargerThanBufferGrowsAndShrinksBuffer() throws IOException {
+        String title = createTitle(INITIAL_CAPACITY * 10);
+        byte[] data = frame(createMessage(1, title));
+        ChunkedChannel channel = new ChunkedChannel(data, data.length);
+
+        while (messages.isEmpty()) {
+            read(channel);
+        }
+        assertEquals(title, messages.get(0).getString("title"));
+        assertEquals(INITIAL_CAPACITY, reader.getCapacity());
+    }
+
+    @Test
+    public void largerBufferIsKeptWhileFollowingFrameIsIncomplete() throws IOException {
+        // The buffer is doubled, so the start of the next frame fits in as well
+        byte[] large = frame(createMessage(1, createTitle(INITIAL_CAPACITY + 50)));
+        byte[] small = frame(createMessage(2, "small"));
+        ChunkedChannel channel = new ChunkedChannel(concat(large, small), large.length + 6, small.length - 6);
+
+        while (messages.isEmpty()) {
+            read(channel);
+        }
+        assertEquals(1, messages.size());
+        assertTrue(reader.getCapacity() > INITIAL_CAPACITY);
+
+        read(channel);
+        assertEquals(2, messages.size());
+        assertEquals("small", messages.get(1).getString("title"));
+        assertEquals(INITIAL_CAPACITY, reader.getCapacity());
+    }
+
+    @Test
+    public void statisticsCountFramesAndBytesPerRead() throws IOException {
+        byte[] first = frame(createMessage(1, "a"));
+        byte[] second = frame(createMessage(2, "b"));
+        byte[] third = frame(createMessage(3, "c"));
+        ChunkedChannel channel = new ChunkedChannel(concat(first, second, third), first.length + second.length, third.length);
+
+        read(channel);
+        read(channel);
+        HtspReadStatistics statistics = reader.getStatistics();
+        assertEquals(2, statistics.getReadCount());
+        assertEquals(3, statistics.getFrameCount());
+        assertEquals(first.length + second.length + third.length, statistics.getByteCount());
+        assertEquals(2, statistics.getMaxFramesPerRead());
+        assertEquals(1, statistics.getLastReadFrameCount());
+        assertEquals(third.length, statistics.getLastReadByteCount());
+        assertEquals(1.5, statistics.getFramesPerRead(), 0.0);
+    }
+
+    private void read(ReadableByteChannel channel) throws IOException {
+        reader.read(channel, messages::add);
+    }
+
+    private static HtspMessage createMessage(int seq, String title) {
+        HtspMessage message = new HtspMessage();
+        message.setMethod("eventAdd");
+        message.put("seq", seq);
+        message.put("title", title);
+        return message;
+    }
+
+    private static String createTitle(int length) {
+        char[] title = new char[length];
+        Arrays.fill(title, 'x');
+        return new String(title);
+    }
+
+    private static byte[] frame(HtspMessage message) throws IOException {
+        ByteBuffer buf = new HtspMessageEncoder().encode(message, null);
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        return data;
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        ByteBuffer buf = ByteBuffer.allocate(Arrays.stream(frames).mapToInt(f -> f.length).sum());
+        for (byte[] frame : frames) {
+            buf.put(frame);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Returns the data in chunks of the given sizes, one chunk per read at most.
+     * A read gets less data if the chunk does not fit into the buffer.
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+
+        ChunkedChannel(byte[] data, int... chunkSizes) {
+            int offset = 0;
+            for (int size : chunkSizes) {
+                chunks.add(ByteBuffer.wrap(data, offset, size));
+                offset += size;
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            ByteBuffer chunk = chunks.peek();
+            if (chunk == null) {
+                return -1;
+            }
+            int length = Math.min(chunk.remaining(), dst.remaining());
+            ByteBuffer slice = chunk.slice();
+            slice.limit(length);
+            dst.put(slice);
+            chunk.position(chunk.position() + length);
+            if (!chunk.hasRemaining()) {
+                chunks.poll();
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
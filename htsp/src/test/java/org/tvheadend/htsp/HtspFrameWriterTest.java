@@ -0,0 +1,102 @@
+package org.tvheadend.htsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sends getEvents requests in bursts like the EPG worker does to a fake
+ * server on the loopback interface and drains the queue by gathering writes.
+ */
+public class HtspFrameWriterTest {
+
+    private static final int BURSTS = 200;
+    private static final int MESSAGES_PER_BURST = 100;
+
+    private ServerSocketChannel serverChannel;
+    private final List<Integer> receivedSeqs = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void startFakeServer() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+        Thread serverThread = new Thread(() -> {
+            while (serverChannel.isOpen()) {
+                HtspFrameReader reader = new HtspFrameReader(64 * 1024);
+                try (SocketChannel channel = serverChannel.accept()) {
+                    //noinspection StatementWithEmptyBody
+                    while (reader.read(channel, message -> receivedSeqs.add(message.getInteger("seq"))) >= 0) {
+                    }
+                } catch (IOException e) {
+                    // The test closed the connection
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void stopFakeServer() throws IOException {
+        serverChannel.close();
+    }
+
+    @Test
+    public void allMessagesAreSentInOrder() throws Exception {
+        send(new HtspFrameWriter(16));
+
+        assertEquals(BURSTS * MESSAGES_PER_BURST, receivedSeqs.size());
+        for (int i = 0; i < receivedSeqs.size(); i++) {
+            assertEquals(i, (int) receivedSeqs.get(i));
+        }
+    }
+
+    /**
+     * Sends all bursts and waits until the fake server has received every message
+     */
+    private void send(HtspFrameWriter writer) throws Exception {
+        int expected = BURSTS * MESSAGES_PER_BURST;
+
+        try (Selector selector = Selector.open();
+             SocketChannel channel = SocketChannel.open(serverChannel.socket().getLocalSocketAddress())) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+
+            int seq = 0;
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = 0; i < MESSAGES_PER_BURST; i++) {
+                    HtspMessage message = new HtspMessage();
+                    message.setMethod("getEvents");
+                    message.put("seq", seq++);
+                    message.put("channelId", i);
+                    message.put("numFollowing", 50);
+                    message.put("maxTime", 1600000000L);
+                    writer.enqueue(message);
+                }
+                while (writer.hasPendingWrites()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    writer.write(channel);
+                }
+            }
+
+            while (receivedSeqs.size() < expected) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
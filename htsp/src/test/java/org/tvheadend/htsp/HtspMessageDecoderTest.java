@@ -0,0 +1,81 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HtspMessageDecoderTest {
+
+    @Test
+    public void decodesNestedMessage() throws IOException {
+        HtspMessage stream = new HtspMessage();
+        stream.put("index", 1);
+        stream.put("type", "H264");
+        stream.put("width", 1920);
+
+        List<Object> streams = new ArrayList<>();
+        streams.add(stream);
+
+        HtspMessage message = new HtspMessage();
+        message.setMethod("subscriptionStart");
+        message.put("subscriptionId", 12);
+        message.put("start", 1600000000000L);
+        message.put("title", "Nachrichten \u00c4\u00d6\u00dc");
+        message.put("payload", new byte[]{1, 2, 3});
+        message.put("streams", streams);
+
+        HtspMessage decoded = decode(frame(message));
+
+        assertEquals("subscriptionStart", decoded.getMethod());
+        assertEquals(12, decoded.getInteger("subscriptionId"));
+        assertEquals(1600000000000L, decoded.getLong("start"));
+        assertEquals("Nachrichten \u00c4\u00d6\u00dc", decoded.getString("title"));
+        assertArrayEquals(new byte[]{1, 2, 3}, decoded.getByteArray("payload"));
+
+        HtspMessage decodedStream = (HtspMessage) decoded.getList("streams").get(0);
+        assertEquals(1, decodedStream.getInteger("index"));
+        assertEquals("H264", decodedStream.getString("type"));
+        assertEquals(1920, decodedStream.getInteger("width"));
+    }
+
+    @Test
+    public void decodesListsInOrder() throws IOException {
+        List<Object> members = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            members.add(i * 3);
+        }
+        HtspMessage message = new HtspMessage();
+        message.setMethod("tagAdd");
+        message.put("members", members);
+
+        List<Integer> decoded = decode(frame(message)).getIntegerList("members");
+        assertEquals(100, decoded.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 3, (int) decoded.get(i));
+        }
+    }
+
+    @Test
+    public void decodesNegativeS64() {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(0, Long.reverseBytes(-2L));
+        assertEquals(-2L, HtspMessageDecoder.readS64(buf, 0, 8));
+    }
+
+    private static HtspMessage decode(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data);
+        return new HtspMessageDecoder().decode(buf, 4, data.length - 4);
+    }
+
+    private static byte[] frame(HtspMessage message) throws IOException {
+        byte[] body = CopyingHtspSerializer.serializeBinary(message);
+        return ByteBuffer.allocate(body.length + 4).putInt(body.length).put(body).array();
+    }
+}
@@ -0,0 +1,110 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HtspMessageDispatcherTest {
+
+    private final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void messagesOfOneQueueAreHandledInOrder() throws Exception {
+        CountDownLatch done = new CountDownLatch(100);
+        HtspMessageDispatcher dispatcher = new HtspMessageDispatcher((message, method) -> {
+            handled.add(method + message.getInteger("seq"));
+            done.countDown();
+        }, (message, method) -> method, "events");
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.onMessage(createMessage(i), "events");
+            expected.add("events" + i);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, handled);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void slowQueueDoesNotBlockTheCallerOrOtherQueues() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch channelHandled = new CountDownLatch(1);
+        HtspMessageDispatcher dispatcher = new HtspMessageDispatcher((message, method) -> {
+            if (method.equals("events")) {
+                await(release);
+            } else {
+                channelHandled.countDown();
+            }
+        }, (message, method) -> method, "events", "channels");
+
+        dispatcher.onMessage(createMessage(1), "events");
+        dispatcher.onMessage(createMessage(2), "events");
+        dispatcher.onMessage(createMessage(3), "channels");
+
+        assertTrue(channelHandled.await(5, TimeUnit.SECONDS));
+        assertEquals(2, dispatcher.getStatistics().get("events").getMaxQueueDepth());
+        release.countDown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void barrierIsHandledAfterAllPreviousMessages() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        HtspMessageDispatcher dispatcher = new HtspMessageDispatcher((message, method) -> {
+            if (method.equals("events")) {
+                // Make the events queue lag behind
+                sleep(5);
+            }
+            handled.add(method);
+            if (method.equals("after")) {
+                done.countDown();
+            }
+        }, (message, method) -> method.equals("initialSyncCompleted") ? HtspMessageDispatcher.BARRIER : method.equals("after") ? "channels" : method,
+                "channels", "events");
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.onMessage(createMessage(i), "channels");
+            dispatcher.onMessage(createMessage(i), "events");
+        }
+        dispatcher.onMessage(createMessage(0), "initialSyncCompleted");
+        dispatcher.onMessage(createMessage(0), "after");
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(22, handled.size());
+        assertEquals("initialSyncCompleted", handled.get(20));
+        assertEquals("after", handled.get(21));
+        assertTrue(dispatcher.getStatistics().get("events").getHandledCount() >= 10);
+        dispatcher.shutdown();
+    }
+
+    private static HtspMessage createMessage(int seq) {
+        HtspMessage message = new HtspMessage();
+        message.put("seq", seq);
+        return message;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
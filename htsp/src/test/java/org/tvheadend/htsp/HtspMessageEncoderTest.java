@@ -0,0 +1,129 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that messages written by {@link HtspMessageEncoder} can be decoded
+ * again and that they contain the same fields as the copying serializer wrote.
+ */
+public class HtspMessageEncoderTest {
+
+    private final HtspMessageEncoder encoder = new HtspMessageEncoder();
+    private final HtspMessageDecoder decoder = new HtspMessageDecoder();
+
+    @Test
+    public void encodedMessageCanBeDecoded() throws IOException {
+        HtspMessage message = createAddDvrEntryRequest();
+        message.put("negative", -5L);
+        message.put("zero", 0);
+        message.put("data", new byte[]{4, 5, 6});
+
+        HtspMessage decoded = roundTrip(message, ByteBuffer.allocateDirect(16));
+
+        assertEquals("addDvrEntry", decoded.getMethod());
+        assertEquals(1234, decoded.getInteger("eventId"));
+        assertEquals(1600000000L, decoded.getLong("start"));
+        assertEquals(-5L, decoded.getLong("negative"));
+        assertEquals(0, decoded.getInteger("zero"));
+        assertEquals("Caf\u00e9 \ud83d\udcfa", decoded.getString("title"));
+        assertArrayEquals(new byte[]{4, 5, 6}, decoded.getByteArray("data"));
+    }
+
+    @Test
+    public void encodesListsLargerThanLegacyLimit() throws IOException {
+        List<Object> eventIds = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            eventIds.add(Integer.toString(i));
+        }
+        HtspMessage message = new HtspMessage();
+        message.setMethod("epgQuery");
+        message.put("eventIds", eventIds);
+
+        ByteBuffer buf = encoder.encode(message, ByteBuffer.allocateDirect(1024));
+        assertTrue(buf.remaining() > Short.MAX_VALUE);
+
+        List<?> decoded = decoder.decode(buf, 4, buf.remaining() - 4).getList("eventIds");
+        assertEquals(20000, decoded.size());
+        assertEquals("19999", decoded.get(19999));
+    }
+
+    @Test
+    public void encodedRequestsMatchCopyingSerializer() throws IOException {
+        List<HtspMessage> requests = new ArrayList<>();
+        requests.add(createSubscribeRequest());
+        requests.add(createFileReadRequest());
+        requests.add(createGetEventsRequest());
+        requests.add(createAddDvrEntryRequest());
+
+        for (HtspMessage request : requests) {
+            byte[] body = CopyingHtspSerializer.serializeBinary(request);
+            ByteBuffer copied = ByteBuffer.allocateDirect(body.length);
+            copied.put(body);
+
+            assertEquals(decoder.decode(copied, 0, body.length), roundTrip(request, null));
+        }
+    }
+
+    private HtspMessage roundTrip(HtspMessage message, ByteBuffer buf) throws IOException {
+        buf = encoder.encode(message, buf);
+        assertEquals(buf.remaining() - 4, buf.getInt(0));
+        return decoder.decode(buf, 4, buf.remaining() - 4);
+    }
+
+    private static HtspMessage createSubscribeRequest() {
+        HtspMessage request = new HtspMessage();
+        request.setMethod("subscribe");
+        request.put("seq", 42);
+        request.put("channelId", 1234);
+        request.put("subscriptionId", 7);
+        request.put("timeshiftPeriod", 3600);
+        request.put("profile", "htsp");
+        return request;
+    }
+
+    private static HtspMessage createFileReadRequest() {
+        HtspMessage request = new HtspMessage();
+        request.setMethod("fileRead");
+        request.put("seq", 42);
+        request.put("id", 3);
+        request.put("size", 1024 * 1024);
+        request.put("offset", 1234567890L);
+        return request;
+    }
+
+    private static HtspMessage createGetEventsRequest() {
+        HtspMessage request = new HtspMessage();
+        request.setMethod("getEvents");
+        request.put("seq", 42);
+        request.put("eventId", 123456);
+        request.put("numFollowing", 50);
+        request.put("maxTime", 1600000000L);
+        return request;
+    }
+
+    private static HtspMessage createAddDvrEntryRequest() {
+        HtspMessage request = new HtspMessage();
+        request.setMethod("addDvrEntry");
+        request.put("seq", 42);
+        request.put("eventId", 1234);
+        request.put("channelId", 56);
+        request.put("start", 1600000000L);
+        request.put("stop", 1600003600L);
+        request.put("startExtra", 5L);
+        request.put("stopExtra", 10L);
+        request.put("priority", 2);
+        request.put("title", "Caf\u00e9 \ud83d\udcfa");
+        request.put("description", "A recording that was added from the program guide");
+        request.put("configName", "Default profile");
+        return request;
+    }
+}
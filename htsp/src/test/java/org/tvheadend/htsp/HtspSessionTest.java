@@ -0,0 +1,104 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+import org.tvheadend.api.AuthenticationStateResult;
+import org.tvheadend.api.ConnectionStateResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HtspSessionTest {
+
+    private final List<FakeHtspConnection> connections = new ArrayList<>();
+    private final HtspConnectionManager manager = new HtspConnectionManager(FakeHtspConnection.factory(connections), Runnable::run);
+    private final HtspConnectionData connectionData = new HtspConnectionData("user", "pass", "htsp://server:9982", "1.0", 1, 5000);
+
+    @Test
+    public void sessionJoiningLaterGetsCurrentStateReplayed() {
+        HtspSession service = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        connections.get(0).receive(createMessage("serverStatus"));
+
+        RecordingSessionListener playerListener = new RecordingSessionListener();
+        HtspSession player = playerListener.acquire(manager, connectionData);
+        player.openConnection();
+        player.authenticate();
+
+        assertTrue(player.isAuthenticated());
+        assertTrue(playerListener.connectionStates.get(0) instanceof ConnectionStateResult.Connected);
+        assertTrue(playerListener.authenticationStates.get(0) instanceof AuthenticationStateResult.Authenticated);
+        assertEquals(Collections.singletonList("serverStatus"), playerListener.methods);
+    }
+
+    @Test
+    public void asyncMetadataIsOnlyEnabledOncePerConnection() {
+        HtspSession service = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        assertFalse(service.isAsyncMetadataEnabled());
+
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+        // A replayed authentication state must not enable it a second time
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        assertTrue(service.isAsyncMetadataEnabled());
+        assertEquals(1, connections.get(0).countSent("enableAsyncMetadata"));
+    }
+
+    @Test
+    public void closedSessionDoesNotReceiveMessages() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        HtspSession player = new RecordingSessionListener().acquire(manager, connectionData);
+        service.openConnection();
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        service.closeConnection();
+        connections.get(0).receive(createMessage("channelAdd"));
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        assertTrue(serviceListener.methods.isEmpty());
+        assertTrue(service.isNotConnected());
+        assertFalse(service.isAuthenticated());
+        assertFalse(player.isNotConnected());
+    }
+
+    @Test
+    public void subscriptionMessagesArePassedToSubscribingSession() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        RecordingSessionListener playerListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        HtspSession player = playerListener.acquire(manager, connectionData);
+        service.openConnection();
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        HtspMessage subscribe = createMessage("subscribe");
+        subscribe.put("subscriptionId", 3);
+        player.sendMessage(subscribe);
+        connections.get(0).receive(createSubscriptionMessage("muxpkt", 3));
+
+        HtspMessage unsubscribe = createMessage("unsubscribe");
+        unsubscribe.put("subscriptionId", 3);
+        player.sendMessage(unsubscribe);
+        connections.get(0).receive(createSubscriptionMessage("subscriptionStop", 3));
+
+        assertEquals(Collections.singletonList("muxpkt"), playerListener.methods);
+        assertEquals(Collections.singletonList("subscriptionStop"), serviceListener.methods);
+    }
+
+    private static HtspMessage createMessage(String method) {
+        HtspMessage message = new HtspMessage();
+        message.setMethod(method);
+        return message;
+    }
+
+    private static HtspMessage createSubscriptionMessage(String method, int subscriptionId) {
+        HtspMessage message = createMessage(method);
+        message.put("subscriptionId", subscriptionId);
+        return message;
+    }
+}
@@ -0,0 +1,40 @@
+package org.tvheadend.htsp;
+
+import androidx.annotation.NonNull;
+
+import org.tvheadend.api.AuthenticationStateResult;
+import org.tvheadend.api.ConnectionStateResult;
+import org.tvheadend.api.ServerConnectionStateListener;
+import org.tvheadend.api.ServerMessageListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the states and messages that a session passes to its listeners
+ */
+class RecordingSessionListener implements ServerConnectionStateListener, ServerMessageListener<HtspMessage> {
+
+    final List<ConnectionStateResult> connectionStates = new ArrayList<>();
+    final List<AuthenticationStateResult> authenticationStates = new ArrayList<>();
+    final List<String> methods = new ArrayList<>();
+
+    @Override
+    public void onConnectionStateChange(@NonNull ConnectionStateResult result) {
+        connectionStates.add(result);
+    }
+
+    @Override
+    public void onAuthenticationStateChange(@NonNull AuthenticationStateResult result) {
+        authenticationStates.add(result);
+    }
+
+    @Override
+    public void onMessage(@NonNull HtspMessage response, @NonNull String method) {
+        methods.add(method);
+    }
+
+    HtspSession acquire(HtspConnectionManager manager, HtspConnectionData connectionData) {
+        return manager.acquire(connectionData, this, this);
+    }
+}
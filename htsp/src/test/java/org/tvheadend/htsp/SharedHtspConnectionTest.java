@@ -0,0 +1,73 @@
+package org.tvheadend.htsp;
+
+import org.junit.Test;
+import org.tvheadend.api.ConnectionStateResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedHtspConnectionTest {
+
+    private final List<FakeHtspConnection> connections = new ArrayList<>();
+    private final HtspConnectionManager manager = new HtspConnectionManager(FakeHtspConnection.factory(connections), Runnable::run);
+    private final HtspConnectionData connectionData = new HtspConnectionData("user", "pass", "htsp://server:9982", "1.0", 1, 5000);
+
+    @Test
+    public void asyncMessagesAreOnlyBroadcastToSessionsThatEnabledThem() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        RecordingSessionListener intentServiceListener = new RecordingSessionListener();
+        RecordingSessionListener playerListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        intentServiceListener.acquire(manager, connectionData);
+        playerListener.acquire(manager, connectionData);
+        service.openConnection();
+        service.sendMessage(createMessage("enableAsyncMetadata"));
+
+        connections.get(0).receive(createMessage("channelAdd"));
+        connections.get(0).receive(createMessage("eventAdd"));
+
+        assertEquals(Arrays.asList("channelAdd", "eventAdd"), serviceListener.methods);
+        assertTrue(intentServiceListener.methods.isEmpty());
+        assertTrue(playerListener.methods.isEmpty());
+    }
+
+    @Test
+    public void serverStatusIsBroadcastToAllSessions() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        RecordingSessionListener playerListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        playerListener.acquire(manager, connectionData);
+        service.openConnection();
+
+        connections.get(0).receive(createMessage("serverStatus"));
+
+        assertEquals(Collections.singletonList("serverStatus"), serviceListener.methods);
+        assertEquals(Collections.singletonList("serverStatus"), playerListener.methods);
+    }
+
+    @Test
+    public void connectionStateIsBroadcastToAllSessions() {
+        RecordingSessionListener serviceListener = new RecordingSessionListener();
+        RecordingSessionListener playerListener = new RecordingSessionListener();
+        HtspSession service = serviceListener.acquire(manager, connectionData);
+        HtspSession player = playerListener.acquire(manager, connectionData);
+        service.openConnection();
+
+        connections.get(0).fail();
+
+        assertTrue(serviceListener.connectionStates.get(1) instanceof ConnectionStateResult.Failed);
+        assertTrue(playerListener.connectionStates.get(1) instanceof ConnectionStateResult.Failed);
+        assertTrue(player.isNotConnected());
+    }
+
+    private static HtspMessage createMessage(String method) {
+        HtspMessage message = new HtspMessage();
+        message.setMethod(method);
+        return message;
+    }
+}